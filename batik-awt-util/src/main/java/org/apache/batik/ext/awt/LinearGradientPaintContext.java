@@ -26,6 +26,7 @@ import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.ColorModel;
+import java.util.Arrays;
 
 /**
  * Provides the actual implementation for the LinearGradientPaint
@@ -156,6 +157,80 @@ final class LinearGradientPaintContext extends MultipleGradientPaintContext {
         }
     }
 
+    /**
+     * Returns the color of the gradient value g for the non cyclic,
+     * multiple array lookup.
+     */
+    private int hardNoCycleColor(float g) {
+        if (g <= 0)
+            return gradientUnderflow;
+        if (g >= 1)
+            return gradientOverflow;
+
+        // Could be a binary search...
+        int gradIdx = 0;
+        while (gradIdx < gradientsLength-1) {
+            if (g < fractions[gradIdx+1])
+                break;
+            gradIdx++;
+        }
+        float delta = (g-fractions[gradIdx]);
+        float idx  = ((delta*GRADIENT_SIZE_INDEX)
+                      /normalizedIntervals[gradIdx])+0.5f;
+        return gradients[gradIdx][(int)idx];
+    }
+
+    /**
+     * Returns the color the fill methods produce for a whole row when
+     * the gradient value does not change along it (dgdX == 0).
+     */
+    private int rowColor(float g) {
+        if (fillMethod == ANTI_ALIAS_IMPL)
+            return indexGradientAntiAlias(g, pixSz);
+
+        if (!isSimpleLookup) {
+            if (cycleMethod == MultipleGradientPaint.NO_CYCLE)
+                return hardNoCycleColor(g);
+            return indexIntoGradientsArrays(g);
+        }
+
+        if (cycleMethod == MultipleGradientPaint.NO_CYCLE) {
+            g *= fastGradientArraySize;
+            g += 0.5f;
+            if (g <= 0)
+                return gradientUnderflow;
+            if (g >= fastGradientArraySize)
+                return gradientOverflow;
+            return gradient[(int)g];
+        }
+
+        if (cycleMethod == MultipleGradientPaint.REPEAT) {
+            g = g-(int)g;
+            if (g < 0)
+                g += 1;
+            g *= fastGradientArraySize;
+            g += 0.5f;
+            int idx = (int)g;
+            if (idx >= fastGradientArraySize)
+                idx -= fastGradientArraySize;
+            return gradient[idx];
+        }
+
+        // cycleMethod == MultipleGradientPaint.REFLECT
+        g = g - 2*((int)(g/2.0f));
+        if (g < 0)
+            g = -g;
+        final int reflectMax = 2*fastGradientArraySize;
+        g *= fastGradientArraySize;
+        g += 0.5f;
+        int idx = (int)g;
+        if (idx >= reflectMax)
+            idx -= reflectMax;
+        if (idx <= fastGradientArraySize)
+            return gradient[idx];
+        return gradient[reflectMax-idx];
+    }
+
     protected void fillHardNoCycle(int[] pixels, int off, int adjust,
                               int x, int y, int w, int h) {
 
@@ -169,24 +244,7 @@ final class LinearGradientPaintContext extends MultipleGradientPaintContext {
 
             if (dgdX == 0) {
                 // System.out.println("In fillHard: " + g);
-                final int val;
-                if (g <= 0)
-                    val = gradientUnderflow;
-                else if (g >= 1)
-                    val = gradientOverflow;
-                else {
-                    // Could be a binary search...
-                    int gradIdx = 0;
-                    while (gradIdx < gradientsLength-1) {
-                        if (g < fractions[gradIdx+1])
-                            break;
-                        gradIdx++;
-                    }
-                    float delta = (g-fractions[gradIdx]);
-                    float idx  = ((delta*GRADIENT_SIZE_INDEX)
-                                  /normalizedIntervals[gradIdx])+0.5f;
-                    val = gradients[gradIdx][(int)idx];
-                }
+                final int val = hardNoCycleColor(g);
 
                 while (off < rowLimit) {
                     pixels[off++] = val;
@@ -503,6 +561,34 @@ final class LinearGradientPaintContext extends MultipleGradientPaintContext {
     protected void fillRaster(int[] pixels, int off, int adjust,
                               int x, int y, int w, int h) {
 
+        if ((dgdX == 0) && (w > 1)) {
+            // The gradient is vertical in device space, so every row
+            // is a single color.
+            final float initConst = (dgdX*x) + gc;
+            for (int i=0; i<h; i++) {
+                float g = initConst + dgdY*(y+i);
+                Arrays.fill(pixels, off, off+w, rowColor(g));
+                off += w + adjust;
+            }
+        } else if ((dgdY == 0) && (h > 1)) {
+            // The gradient is horizontal in device space, so all the
+            // rows are identical: compute the first one and copy it.
+            fillSpans(pixels, off, adjust, x, y, w, 1);
+            final int stride = w + adjust;
+            for (int i=1, dst=off+stride; i<h; i++, dst += stride) {
+                System.arraycopy(pixels, off, pixels, dst, w);
+            }
+        } else {
+            fillSpans(pixels, off, adjust, x, y, w, h);
+        }
+    }
+
+    /**
+     * Fills the given area computing the gradient value of every pixel.
+     */
+    protected void fillSpans(int[] pixels, int off, int adjust,
+                           int x, int y, int w, int h) {
+
         //constant which can be pulled out of the inner loop
         final float initConst = (dgdX*x) + gc;
 
@@ -33,7 +33,12 @@ import java.awt.image.DirectColorModel;
 import java.awt.image.Raster;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
-import java.lang.ref.WeakReference;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 
@@ -84,11 +89,24 @@ abstract class MultipleGradientPaintContext implements PaintContext {
          32, 0xff0000, 0xFF00, 0xFF, 0xFF000000,
          false, DataBuffer.TYPE_INT);
 
-     /** The cached colorModel */
-    protected static ColorModel cachedModel;
+    /** The maximum number of rasters kept in the raster pool. */
+    private static final int MAX_POOLED_RASTERS = 8;
 
-    /** The cached raster, which is reusable among instances */
-    protected static WeakReference cached;
+    /**
+     * The rasters released by disposed contexts, reusable among
+     * instances.  Holds PooledRaster objects.
+     */
+    private static final List rasterPool = new ArrayList();
+
+    /** The maximum number of gradient tables kept in the table cache. */
+    private static final int MAX_CACHED_TABLES = 64;
+
+    /**
+     * The computed gradient tables, in least recently used order.
+     * Maps TablesKey to GradientTables.
+     */
+    private static final LinkedHashMap tablesCache
+        = new LinkedHashMap(16, 0.75f, true);
 
     /** Raster is reused whenever possible */
     protected WritableRaster saved;
@@ -294,7 +312,18 @@ abstract class MultipleGradientPaintContext implements PaintContext {
             throw new IllegalArgumentException
                 ("Unsupported ColorSpace for interpolation");
 
-        calculateGradientFractions(loColors, hiColors);
+        // The tables only depend on the stops, the cycle method and
+        // the color spaces, so they are shared by all the contexts
+        // created for the same gradient.
+        TablesKey key = new TablesKey(fractions, colors, cycleMethod,
+                                      colorSpace, dataModel);
+        GradientTables tables = getCachedTables(key);
+        if (tables == null) {
+            calculateGradientFractions(loColors, hiColors);
+            putCachedTables(key, new GradientTables(this));
+        } else {
+            tables.apply(this);
+        }
 
         model = GraphicsUtil.coerceColorModel(dataModel,
                                               cm.isAlphaPremultiplied());
@@ -1404,23 +1433,35 @@ abstract class MultipleGradientPaintContext implements PaintContext {
                                        int x, int y, int w, int h);
 
 
-    /** Took this cacheRaster code from GradientPaint. It appears to recycle
-     * rasters for use by any other instance, as long as they are sufficiently
-     * large.
+    /**
+     * Returns a raster of at least the given size for the given color
+     * model, reusing the smallest adequate raster of the pool if any.
      */
-    protected static final
-    synchronized WritableRaster getCachedRaster
+    protected static final WritableRaster getCachedRaster
         (ColorModel cm, int w, int h) {
-        if (cm == cachedModel) {
-            if (cached != null) {
-                WritableRaster ras = (WritableRaster) cached.get();
-                if (ras != null &&
-                    ras.getWidth() >= w &&
-                    ras.getHeight() >= h)
-                    {
-                        cached = null;
-                        return ras;
-                    }
+        synchronized (rasterPool) {
+            PooledRaster best = null;
+            WritableRaster bestRas = null;
+            Iterator i = rasterPool.iterator();
+            while (i.hasNext()) {
+                PooledRaster pr = (PooledRaster)i.next();
+                WritableRaster ras = (WritableRaster)pr.ref.get();
+                if (ras == null) {
+                    i.remove();
+                    continue;
+                }
+                if (pr.cm != cm ||
+                    ras.getWidth() < w || ras.getHeight() < h)
+                    continue;
+                if (bestRas == null ||
+                    pr.area() < best.area()) {
+                    best = pr;
+                    bestRas = ras;
+                }
+            }
+            if (best != null) {
+                rasterPool.remove(best);
+                return bestRas;
             }
         }
         // Don't create rediculously small rasters...
@@ -1429,30 +1470,182 @@ abstract class MultipleGradientPaintContext implements PaintContext {
         return cm.createCompatibleWritableRaster(w, h);
     }
 
-    /** Took this cacheRaster code from GradientPaint. It appears to recycle
-     * rasters for use by any other instance, as long as they are sufficiently
-     * large.
+    /**
+     * Returns a raster to the pool.  When the pool is full the
+     * smallest raster is dropped.
      */
-    protected static final
-    synchronized void putCachedRaster(ColorModel cm,
-                                             WritableRaster ras) {
-        if (cached != null) {
-            WritableRaster cras = (WritableRaster) cached.get();
-            if (cras != null) {
-                int cw = cras.getWidth();
-                int ch = cras.getHeight();
-                int iw = ras.getWidth();
-                int ih = ras.getHeight();
-                if (cw >= iw && ch >= ih) {
-                    return;
+    protected static final void putCachedRaster(ColorModel cm,
+                                                WritableRaster ras) {
+        PooledRaster pr = new PooledRaster(cm, ras);
+        synchronized (rasterPool) {
+            if (rasterPool.size() >= MAX_POOLED_RASTERS) {
+                PooledRaster smallest = null;
+                Iterator i = rasterPool.iterator();
+                while (i.hasNext()) {
+                    PooledRaster p = (PooledRaster)i.next();
+                    if (p.ref.get() == null) {
+                        i.remove();
+                        smallest = null;
+                        break;
+                    }
+                    if (smallest == null || p.area() < smallest.area())
+                        smallest = p;
                 }
-                if (cw * ch >= iw * ih) {
-                    return;
+                if (smallest != null) {
+                    if (smallest.area() >= pr.area())
+                        return;
+                    rasterPool.remove(smallest);
                 }
             }
+            rasterPool.add(pr);
+        }
+    }
+
+    /**
+     * A raster of the pool, with the color model it was created for.
+     */
+    private static final class PooledRaster {
+        final ColorModel cm;
+        final SoftReference ref;
+        final int w, h;
+
+        PooledRaster(ColorModel cm, WritableRaster ras) {
+            this.cm = cm;
+            this.ref = new SoftReference(ras);
+            this.w = ras.getWidth();
+            this.h = ras.getHeight();
+        }
+
+        int area() {
+            return w*h;
+        }
+    }
+
+    /**
+     * Empties the gradient table cache and the raster pool.
+     */
+    static void clearCaches() {
+        synchronized (tablesCache) {
+            tablesCache.clear();
+        }
+        synchronized (rasterPool) {
+            rasterPool.clear();
+        }
+    }
+
+    /**
+     * Returns the cached gradient tables for the given key, or null.
+     */
+    private static GradientTables getCachedTables(TablesKey key) {
+        synchronized (tablesCache) {
+            return (GradientTables)tablesCache.get(key);
+        }
+    }
+
+    /**
+     * Stores computed gradient tables in the cache, evicting the least
+     * recently used ones when it is full.
+     */
+    private static void putCachedTables(TablesKey key,
+                                        GradientTables tables) {
+        synchronized (tablesCache) {
+            tablesCache.put(key, tables);
+            Iterator i = tablesCache.entrySet().iterator();
+            while (tablesCache.size() > MAX_CACHED_TABLES && i.hasNext()) {
+                i.next();
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Identifies gradient tables: the stops as given to the context,
+     * the cycle method, the interpolation color space and the color
+     * model the tables are computed for.
+     */
+    private static final class TablesKey {
+        final float[] fractions;
+        final int[] rgbs;
+        final MultipleGradientPaint.CycleMethodEnum cycleMethod;
+        final MultipleGradientPaint.ColorSpaceEnum colorSpace;
+        final ColorModel dataModel;
+        final int hash;
+
+        TablesKey(float[] fractions, Color[] colors,
+                  MultipleGradientPaint.CycleMethodEnum cycleMethod,
+                  MultipleGradientPaint.ColorSpaceEnum colorSpace,
+                  ColorModel dataModel) {
+            this.fractions = (float[])fractions.clone();
+            this.rgbs = new int[colors.length];
+            for (int i = 0; i < colors.length; i++)
+                rgbs[i] = colors[i].getRGB();
+            this.cycleMethod = cycleMethod;
+            this.colorSpace = colorSpace;
+            this.dataModel = dataModel;
+
+            int hc = Arrays.hashCode(this.fractions);
+            hc = hc * 31 + Arrays.hashCode(rgbs);
+            hc = hc * 31 + System.identityHashCode(cycleMethod);
+            hc = hc * 31 + System.identityHashCode(colorSpace);
+            hc = hc * 31 + System.identityHashCode(dataModel);
+            hash = hc;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof TablesKey))
+                return false;
+            TablesKey k = (TablesKey)o;
+            return hash == k.hash
+                && cycleMethod == k.cycleMethod
+                && colorSpace == k.colorSpace
+                && dataModel == k.dataModel
+                && Arrays.equals(fractions, k.fractions)
+                && Arrays.equals(rgbs, k.rgbs);
+        }
+    }
+
+    /**
+     * The result of calculateGradientFractions.  The arrays are never
+     * modified once computed, so they are shared by the contexts.
+     */
+    private static final class GradientTables {
+        final int[] gradient;
+        final int[][] gradients;
+        final int gradientsLength;
+        final int fastGradientArraySize;
+        final int gradientAverage;
+        final int transparencyTest;
+        final boolean isSimpleLookup;
+        final boolean hasDiscontinuity;
+        final ColorModel dataModel;
+
+        GradientTables(MultipleGradientPaintContext ctx) {
+            gradient = ctx.gradient;
+            gradients = ctx.gradients;
+            gradientsLength = ctx.gradientsLength;
+            fastGradientArraySize = ctx.fastGradientArraySize;
+            gradientAverage = ctx.gradientAverage;
+            transparencyTest = ctx.transparencyTest;
+            isSimpleLookup = ctx.isSimpleLookup;
+            hasDiscontinuity = ctx.hasDiscontinuity;
+            dataModel = ctx.dataModel;
+        }
+
+        void apply(MultipleGradientPaintContext ctx) {
+            ctx.gradient = gradient;
+            ctx.gradients = gradients;
+            ctx.gradientsLength = gradientsLength;
+            ctx.fastGradientArraySize = fastGradientArraySize;
+            ctx.gradientAverage = gradientAverage;
+            ctx.transparencyTest = transparencyTest;
+            ctx.isSimpleLookup = isSimpleLookup;
+            ctx.hasDiscontinuity = hasDiscontinuity;
+            ctx.dataModel = dataModel;
         }
-        cachedModel = cm;
-        cached = new WeakReference(ras);
     }
 
     /**
@@ -1460,7 +1653,7 @@ abstract class MultipleGradientPaintContext implements PaintContext {
      */
     public final void dispose() {
         if (saved != null) {
-            putCachedRaster(model, saved);
+            putCachedRaster(dataModel, saved);
             saved = null;
         }
     }
@@ -77,9 +77,23 @@ public final class RenderingHintsKeyExt {
     public static final Object VALUE_AVOID_TILE_PAINTING_OFF = new Object();
     public static final Object VALUE_AVOID_TILE_PAINTING_DEFAULT = new Object();
 
+    /**
+     * Hint as to whether small, untransformed text may be drawn by
+     * copying glyphs rasterized once into a glyph atlas rather than
+     * filling every glyph outline.  The glyphs are positioned to a
+     * quarter of a pixel, so the output may differ slightly from the
+     * outline rendering.  When the value is the default the
+     * org.apache.batik.gvt.font.glyphAtlas system property decides.
+     */
+    public static final RenderingHints.Key KEY_GLYPH_ATLAS;
+    public static final Object VALUE_GLYPH_ATLAS_ON = new Object();
+    public static final Object VALUE_GLYPH_ATLAS_OFF = new Object();
+    public static final Object VALUE_GLYPH_ATLAS_DEFAULT = new Object();
+
     static {
         int base = 10100;
-        RenderingHints.Key trans=null, aoi=null, bi=null, cs=null, atp=null;
+        RenderingHints.Key trans=null, aoi=null, bi=null, cs=null, atp=null,
+            ga=null;
         while (true) {
             int val = base;
 
@@ -89,6 +103,7 @@ public final class RenderingHintsKeyExt {
                 bi    = new BufferedImageHintKey (val++);
                 cs    = new ColorSpaceHintKey    (val++);
                 atp   = new AvoidTilingHintKey   (val++);
+                ga    = new GlyphAtlasHintKey    (val++);
             } catch (Exception e) {
                 System.err.println
                     ("You have loaded the Batik jar files more than once\n" +
@@ -106,6 +121,7 @@ public final class RenderingHintsKeyExt {
         KEY_BUFFERED_IMAGE      = bi;
         KEY_COLORSPACE          = cs;
         KEY_AVOID_TILE_PAINTING = atp;
+        KEY_GLYPH_ATLAS         = ga;
     }
 
     /**
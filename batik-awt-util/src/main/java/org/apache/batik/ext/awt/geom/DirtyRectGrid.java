@@ -0,0 +1,306 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.geom;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * DirtyRectGrid accumulates dirty rectangles into a coarse grid of
+ * cells and coalesces them into a small list of rectangles in time
+ * roughly linear in the number of rectangles and cells.
+ *
+ * <p>Each cell remembers the tight extent of the dirty area that falls
+ * inside it, so the result always covers every added rectangle.  Cells
+ * are first joined into horizontal runs within a row, then runs are
+ * extended downwards across rows.  Both steps use the same cost model
+ * as {@link RectListManager#mergeRects}: painting a rectangle costs
+ * <code>overhead + height*lineOverhead + width*height</code>, and two
+ * areas are joined only when painting their union is not more
+ * expensive than painting them separately.  This trades some overdraw
+ * for a lower rectangle count when that is profitable.</p>
+ *
+ * <p>This is intended for frames with hundreds of changed areas, where
+ * the quadratic passes of <code>RectListManager</code> become
+ * noticeable.</p>
+ *
+ * @version $Id$
+ */
+public class DirtyRectGrid {
+
+    /**
+     * The maximum number of cells in a grid.
+     */
+    public static final int MAX_CELLS = 4096;
+
+    /**
+     * The minimum size of a cell, in pixels.
+     */
+    public static final int MIN_CELL_SIZE = 16;
+
+    /**
+     * The area covered by the grid. Dirty areas outside of it are
+     * ignored.
+     */
+    protected Rectangle bounds;
+
+    /**
+     * The size of a (square) cell.
+     */
+    protected int cellSize;
+
+    /**
+     * The number of columns and rows of the grid.
+     */
+    protected int cols, rows;
+
+    /**
+     * The tight dirty extent of each cell, in row major order. A clean
+     * cell has <code>minX[i] == Integer.MAX_VALUE</code>.
+     */
+    protected int[] minX, minY, maxX, maxY;
+
+    /**
+     * The number of dirty cells.
+     */
+    protected int dirtyCells;
+
+    /**
+     * Creates a new grid covering the specified area, with a cell size
+     * chosen so the grid has at most {@link #MAX_CELLS} cells.
+     *
+     * @param bounds the area of interest, in device pixels
+     */
+    public DirtyRectGrid(Rectangle bounds) {
+        this(bounds, getCellSize(bounds));
+    }
+
+    /**
+     * Creates a new grid covering the specified area.
+     *
+     * @param bounds the area of interest, in device pixels
+     * @param cellSize the size of a grid cell in pixels
+     */
+    public DirtyRectGrid(Rectangle bounds, int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("cellSize: " + cellSize);
+        }
+        this.bounds = new Rectangle(bounds);
+        this.cellSize = cellSize;
+        this.cols = Math.max(1, (bounds.width  + cellSize - 1) / cellSize);
+        this.rows = Math.max(1, (bounds.height + cellSize - 1) / cellSize);
+        int n = cols * rows;
+        minX = new int[n];
+        minY = new int[n];
+        maxX = new int[n];
+        maxY = new int[n];
+        clear();
+    }
+
+    /**
+     * Returns the cell size to use for a grid covering the specified area.
+     */
+    public static int getCellSize(Rectangle bounds) {
+        double area = (double)bounds.width * (double)bounds.height;
+        int sz = (int)Math.ceil(Math.sqrt(area / MAX_CELLS));
+        return Math.max(MIN_CELL_SIZE, sz);
+    }
+
+    /**
+     * Marks all the cells as clean.
+     */
+    public void clear() {
+        Arrays.fill(minX, Integer.MAX_VALUE);
+        dirtyCells = 0;
+    }
+
+    /**
+     * Returns true if no dirty area has been added.
+     */
+    public boolean isEmpty() {
+        return dirtyCells == 0;
+    }
+
+    /**
+     * Adds a dirty rectangle to the grid.
+     */
+    public void add(Rectangle r) {
+        int rx0 = Math.max(r.x, bounds.x);
+        int ry0 = Math.max(r.y, bounds.y);
+        int rx1 = Math.min(r.x + r.width,  bounds.x + bounds.width);
+        int ry1 = Math.min(r.y + r.height, bounds.y + bounds.height);
+        if ((rx0 >= rx1) || (ry0 >= ry1)) {
+            return;
+        }
+
+        int c0 = (rx0 - bounds.x) / cellSize;
+        int c1 = (rx1 - 1 - bounds.x) / cellSize;
+        int r0 = (ry0 - bounds.y) / cellSize;
+        int r1 = (ry1 - 1 - bounds.y) / cellSize;
+        for (int j = r0; j <= r1; j++) {
+            int cy0 = bounds.y + j * cellSize;
+            int y0 = Math.max(ry0, cy0);
+            int y1 = Math.min(ry1, cy0 + cellSize);
+            int idx = j * cols + c0;
+            for (int i = c0; i <= c1; i++, idx++) {
+                int cx0 = bounds.x + i * cellSize;
+                int x0 = Math.max(rx0, cx0);
+                int x1 = Math.min(rx1, cx0 + cellSize);
+                if (minX[idx] == Integer.MAX_VALUE) {
+                    dirtyCells++;
+                    minX[idx] = x0;
+                    minY[idx] = y0;
+                    maxX[idx] = x1;
+                    maxY[idx] = y1;
+                } else {
+                    if (x0 < minX[idx]) minX[idx] = x0;
+                    if (y0 < minY[idx]) minY[idx] = y0;
+                    if (x1 > maxX[idx]) maxX[idx] = x1;
+                    if (y1 > maxY[idx]) maxY[idx] = y1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cost of painting a rectangle of the specified size.
+     */
+    protected static long cost(int w, int h, int overhead, int lineOverhead) {
+        return overhead + (long)h * lineOverhead + (long)w * h;
+    }
+
+    /**
+     * Returns the cost of painting the specified rectangle.
+     */
+    protected static long cost(Rectangle r, int overhead, int lineOverhead) {
+        return cost(r.width, r.height, overhead, lineOverhead);
+    }
+
+    /**
+     * Returns a list of rectangles covering all the dirty areas added
+     * to this grid.
+     *
+     * @param overhead the fixed cost of painting a rectangle
+     * @param lineOverhead the cost of each line of a rectangle
+     */
+    public RectListManager getRects(int overhead, int lineOverhead) {
+        if (dirtyCells == 0) {
+            return new RectListManager();
+        }
+
+        List done = new ArrayList();
+        // The rectangles that reach the bottom of the previous row, and
+        // those of the current one, sorted on x.
+        List open = new ArrayList();
+        List next = new ArrayList();
+        List runs = new ArrayList();
+
+        for (int j = 0; j < rows; j++) {
+            buildRuns(j, runs, overhead, lineOverhead);
+
+            // Extend the open rectangles downwards with the runs of this
+            // row when it is cheaper than starting new rectangles.
+            int oi = 0;
+            for (Object run1 : runs) {
+                Rectangle run = (Rectangle) run1;
+                Rectangle merged = null;
+                while (oi < open.size()) {
+                    Rectangle o = (Rectangle)open.get(oi);
+                    if (o.x + o.width <= run.x) {
+                        done.add(o);
+                        oi++;
+                        continue;
+                    }
+                    if (o.x < run.x + run.width) {
+                        Rectangle u = o.union(run);
+                        if (cost(u, overhead, lineOverhead) <=
+                            cost(o, overhead, lineOverhead) +
+                            cost(run, overhead, lineOverhead)) {
+                            merged = u;
+                            oi++;
+                        }
+                    }
+                    break;
+                }
+                next.add((merged != null) ? merged : run);
+            }
+            while (oi < open.size()) {
+                done.add(open.get(oi++));
+            }
+
+            List tmp = open;
+            open = next;
+            next = tmp;
+            next.clear();
+        }
+        done.addAll(open);
+
+        // Fall back to the bounding box when it is cheaper overall.
+        Rectangle bbox = null;
+        long total = 0;
+        for (Object aDone : done) {
+            Rectangle r = (Rectangle) aDone;
+            total += cost(r, overhead, lineOverhead);
+            if (bbox == null) bbox = new Rectangle(r);
+            else              bbox.add(r);
+        }
+        if (cost(bbox, overhead, lineOverhead) <= total) {
+            return new RectListManager(bbox);
+        }
+        return new RectListManager(done);
+    }
+
+    /**
+     * Joins the dirty cells of row <code>j</code> into horizontal runs,
+     * sorted on x.
+     */
+    protected void buildRuns(int j, List runs,
+                             int overhead, int lineOverhead) {
+        runs.clear();
+        Rectangle run = null;
+        long runCost = 0;
+        int idx = j * cols;
+        for (int i = 0; i < cols; i++, idx++) {
+            if (minX[idx] == Integer.MAX_VALUE) {
+                continue;
+            }
+            Rectangle cell = new Rectangle(minX[idx], minY[idx],
+                                           maxX[idx] - minX[idx],
+                                           maxY[idx] - minY[idx]);
+            long cellCost = cost(cell, overhead, lineOverhead);
+            if (run != null) {
+                Rectangle u = run.union(cell);
+                long uCost = cost(u, overhead, lineOverhead);
+                if (uCost <= runCost + cellCost) {
+                    run = u;
+                    runCost = uCost;
+                    continue;
+                }
+                runs.add(run);
+            }
+            run = cell;
+            runCost = cellCost;
+        }
+        if (run != null) {
+            runs.add(run);
+        }
+    }
+}
@@ -678,12 +678,38 @@ public class GraphicsUtil {
      *            linear sRGB.
      */
     public static CachableRed convertToLsRGB(CachableRed src) {
+        return convertToLsRGB(src, false);
+    }
+
+    /**
+     * This method will return a CacheableRed that has it's data in
+     * the linear sRGB colorspace.  If <code>src</code> is itself the
+     * conversion of a linear sRGB image to sRGB, that image is returned
+     * rather than converting the data back and forth.
+     *
+     * @param src The image to convert to linear sRGB.
+     * @param highPrecision If true, translucent pixels are converted
+     *        from a 16 bit unpremultiplied intermediate.
+     * @return    An equivilant image to <code>src</code> who's data is in
+     *            linear sRGB.
+     * @see Any2LsRGBRed#setHighPrecision
+     */
+    public static CachableRed convertToLsRGB(CachableRed src,
+                                             boolean highPrecision) {
         ColorModel cm = src.getColorModel();
         ColorSpace cs = cm.getColorSpace();
         if (cs == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB))
             return src;
 
-        return new Any2LsRGBRed(src);
+        if (src instanceof Any2sRGBRed) {
+            CachableRed orig = (CachableRed)src.getSources().get(0);
+            if (isConversionSource(orig, cm, ColorSpace.CS_LINEAR_RGB))
+                return orig;
+        }
+
+        Any2LsRGBRed ret = new Any2LsRGBRed(src);
+        ret.setHighPrecision(highPrecision);
+        return ret;
     }
 
     /**
@@ -697,12 +723,54 @@ public class GraphicsUtil {
      * @return    An equivilant image to <code>src</code> who's data is in sRGB.
      */
     public static CachableRed convertTosRGB(CachableRed src) {
+        return convertTosRGB(src, false);
+    }
+
+    /**
+     * This method will return a CacheableRed that has it's data in
+     * the sRGB colorspace.  If <code>src</code> is itself the
+     * conversion of an sRGB image to linear sRGB, that image is returned
+     * rather than converting the data back and forth.
+     *
+     * @param src The image to convert to sRGB.
+     * @param highPrecision If true, translucent pixels are converted
+     *        from a 16 bit unpremultiplied intermediate.
+     * @return    An equivilant image to <code>src</code> who's data is in sRGB.
+     * @see Any2sRGBRed#setHighPrecision
+     */
+    public static CachableRed convertTosRGB(CachableRed src,
+                                            boolean highPrecision) {
         ColorModel cm = src.getColorModel();
         ColorSpace cs = cm.getColorSpace();
         if (cs == ColorSpace.getInstance(ColorSpace.CS_sRGB))
             return src;
 
-        return new Any2sRGBRed(src);
+        if (src instanceof Any2LsRGBRed) {
+            CachableRed orig = (CachableRed)src.getSources().get(0);
+            if (isConversionSource(orig, cm, ColorSpace.CS_sRGB))
+                return orig;
+        }
+
+        Any2sRGBRed ret = new Any2sRGBRed(src);
+        ret.setHighPrecision(highPrecision);
+        return ret;
+    }
+
+    /**
+     * Tells whether <code>orig</code>, the source of a color space
+     * conversion producing data in the color model <code>cm</code>, can
+     * stand for the inverse conversion to the color space
+     * <code>csType</code>: it must already be in that color space and
+     * have the same alpha channel, premultiplied the same way.
+     */
+    private static boolean isConversionSource(CachableRed orig,
+                                              ColorModel cm,
+                                              int csType) {
+        ColorModel origCM = orig.getColorModel();
+        return (origCM != null) &&
+            (origCM.getColorSpace() == ColorSpace.getInstance(csType)) &&
+            (origCM.hasAlpha() == cm.hasAlpha()) &&
+            (origCM.isAlphaPremultiplied() == cm.isAlphaPremultiplied());
     }
 
     /**
@@ -258,6 +258,13 @@ public class SVGComposite
         }
     }
 
+    /**
+     * The base class of the int packed composite contexts.  When the
+     * source or the destination is not premultiplied, the data is
+     * premultiplied (and the result divided back) one row at a time in
+     * scratch buffers, instead of converting the rasters in place and
+     * restoring them afterwards.
+     */
     public abstract static class AlphaPreCompositeContext_INT_PACK
         extends AlphaPreCompositeContext {
 
@@ -271,6 +278,134 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp);
 
+        /**
+         * Returns true if precompose_INT_PACK expects premultiplied
+         * source data.
+         */
+        protected boolean needsPremultipliedSource() {
+            return true;
+        }
+
+        public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
+            final boolean mulSrc = (needsPremultipliedSource() &&
+                                    srcCM.hasAlpha() &&
+                                    !srcCM.isAlphaPremultiplied());
+            final boolean mulDst = (dstCM.hasAlpha() &&
+                                    !dstCM.isAlphaPremultiplied());
+            if (!mulSrc && !mulDst) {
+                precompose(src, dstIn, dstOut);
+                return;
+            }
+
+            int x0=dstOut.getMinX();
+            int w =dstOut.getWidth();
+
+            int y0=dstOut.getMinY();
+            int h =dstOut.getHeight();
+
+            SinglePixelPackedSampleModel srcSPPSM, dstInSPPSM, dstOutSPPSM;
+            srcSPPSM    = (SinglePixelPackedSampleModel)src.getSampleModel();
+            dstInSPPSM  = (SinglePixelPackedSampleModel)dstIn.getSampleModel();
+            dstOutSPPSM = (SinglePixelPackedSampleModel)dstOut.getSampleModel();
+
+            DataBufferInt srcDB    = (DataBufferInt)src.getDataBuffer();
+            DataBufferInt dstInDB  = (DataBufferInt)dstIn.getDataBuffer();
+            DataBufferInt dstOutDB = (DataBufferInt)dstOut.getDataBuffer();
+
+            final int [] srcPixels    = srcDB.getBankData()[0];
+            final int [] dstInPixels  = dstInDB.getBankData()[0];
+            final int [] dstOutPixels = dstOutDB.getBankData()[0];
+
+            int srcSp =
+                (srcDB.getOffset() +
+                 srcSPPSM.getOffset(x0-src.getSampleModelTranslateX(),
+                                    y0-src.getSampleModelTranslateY()));
+            int dstInSp =
+                (dstInDB.getOffset() +
+                 dstInSPPSM.getOffset(x0-dstIn.getSampleModelTranslateX(),
+                                      y0-dstIn.getSampleModelTranslateY()));
+            int dstOutSp =
+                (dstOutDB.getOffset() +
+                 dstOutSPPSM.getOffset(x0-dstOut.getSampleModelTranslateX(),
+                                       y0-dstOut.getSampleModelTranslateY()));
+
+            final int    srcScanStride = srcSPPSM.getScanlineStride();
+            final int  dstInScanStride = dstInSPPSM.getScanlineStride();
+            final int dstOutScanStride = dstOutSPPSM.getScanlineStride();
+
+            final int [] srcRow = mulSrc ? new int[w] : null;
+            final int [] dstRow = mulDst ? new int[w] : null;
+
+            for (int y = 0; y<h; y++) {
+                int [] sPix = srcPixels;
+                int    sSp  = srcSp;
+                if (mulSrc) {
+                    multiplyRow(srcPixels, srcSp, srcRow, 0, w);
+                    sPix = srcRow;
+                    sSp  = 0;
+                }
+                if (mulDst) {
+                    multiplyRow(dstInPixels, dstInSp, dstRow, 0, w);
+                    precompose_INT_PACK(w, 1,
+                                        sPix,   0, sSp,
+                                        dstRow, 0, 0,
+                                        dstRow, 0, 0);
+                    divideRow(dstRow, 0, dstOutPixels, dstOutSp, w);
+                } else {
+                    precompose_INT_PACK(w, 1,
+                                        sPix,         0, sSp,
+                                        dstInPixels,  0, dstInSp,
+                                        dstOutPixels, 0, dstOutSp);
+                }
+                srcSp    += srcScanStride;
+                dstInSp  += dstInScanStride;
+                dstOutSp += dstOutScanStride;
+            }
+        }
+
+        /**
+         * Premultiplies <code>w</code> unpremultiplied pixels, the same
+         * way <code>GraphicsUtil.coerceData</code> does.
+         */
+        protected static void multiplyRow(int [] src, int sp,
+                                          int [] dst, int dp, int w) {
+            final int end = sp+w;
+            while (sp < end) {
+                int pixel = src[sp++];
+                int a = pixel>>>24;
+                if (a < 255) {
+                    pixel = ((a << 24) |
+                             ((((pixel&0xFF0000)*a)>>8)&0xFF0000) |
+                             ((((pixel&0x00FF00)*a)>>8)&0x00FF00) |
+                             ((((pixel&0x0000FF)*a)>>8)&0x0000FF));
+                }
+                dst[dp++] = pixel;
+            }
+        }
+
+        /**
+         * Divides out the alpha of <code>w</code> premultiplied pixels,
+         * the same way <code>GraphicsUtil.coerceData</code> does.
+         */
+        protected static void divideRow(int [] src, int sp,
+                                        int [] dst, int dp, int w) {
+            final int end = sp+w;
+            while (sp < end) {
+                int pixel = src[sp++];
+                int a = pixel>>>24;
+                if (a == 0) {
+                    pixel = 0x00FFFFFF;
+                } else if (a < 255) {
+                    int aFP = (0x00FF0000/a);
+                    pixel = ((a << 24) |
+                             (((((pixel&0xFF0000)>>16)*aFP)&0xFF0000)    ) |
+                             (((((pixel&0x00FF00)>>8) *aFP)&0xFF0000)>>8 ) |
+                             (((((pixel&0x0000FF))    *aFP)&0xFF0000)>>16));
+                }
+                dst[dp++] = pixel;
+            }
+        }
+
         protected void precompose(Raster src, Raster dstIn,
                                            WritableRaster dstOut) {
 
@@ -445,6 +580,17 @@ public class SVGComposite
                     srcP   = srcPixels  [srcSp++];
                     dstInP = dstInPixels[dstInSp++];
 
+                    // Opaque or fully transparent source: the blend
+                    // below gives back one of the inputs.
+                    if ((srcP>>>24) == 255) {
+                        dstOutPixels[dstOutSp++] = srcP;
+                        continue;
+                    }
+                    if (srcP == 0) {
+                        dstOutPixels[dstOutSp++] = dstInP;
+                        continue;
+                    }
+
                     dstM = (255-(srcP>>>24))*norm;
                     dstOutPixels[dstOutSp++] =
                         (((     srcP & 0xFF000000) +
@@ -523,21 +669,8 @@ public class SVGComposite
                      "sources with unpremultiplied alpha");
         }
 
-        public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
-            ColorModel dstPreCM = dstCM;
-            if (!dstCM.isAlphaPremultiplied())
-                dstPreCM = GraphicsUtil.coerceData((WritableRaster)dstIn,
-                                                   dstCM, true);
-
-            precompose(src, dstIn, dstOut);
-
-            if (!dstCM.isAlphaPremultiplied()) {
-                GraphicsUtil.coerceData(dstOut, dstPreCM, false);
-
-                if (dstIn != dstOut)
-                    GraphicsUtil.coerceData((WritableRaster)dstIn,
-                                            dstPreCM, false);
-            }
+        protected boolean needsPremultipliedSource() {
+            return false;
         }
 
         public void precompose_INT_PACK
@@ -635,8 +768,17 @@ public class SVGComposite
             for (int y = 0; y<height; y++) {
                 final int end = dstOutSp+width;
                 while (dstOutSp<end) {
-                    srcM = (dstInPixels[dstInSp++]>>>24)*norm;
+                    srcM = (dstInPixels[dstInSp++]>>>24);
                     srcP = srcPixels   [srcSp++];
+                    if (srcM == 255) {
+                        dstOutPixels[dstOutSp++] = srcP;
+                        continue;
+                    }
+                    if (srcM == 0) {
+                        dstOutPixels[dstOutSp++] = 0;
+                        continue;
+                    }
+                    srcM *= norm;
                     dstOutPixels[dstOutSp++] =
                         ((((((srcP>>>24)     )*srcM + pt5)&0xFF000000)     ) |
                          (((((srcP>> 16)&0xFF)*srcM + pt5)&0xFF000000)>>> 8) |
@@ -708,8 +850,17 @@ public class SVGComposite
             for (int y = 0; y<height; y++) {
                 final int end = dstOutSp+width;
                 while (dstOutSp<end) {
-                    srcM = (255-(dstInPixels[dstInSp++]>>>24))*norm;
+                    srcM = (255-(dstInPixels[dstInSp++]>>>24));
                     srcP = srcPixels   [srcSp++];
+                    if (srcM == 255) {
+                        dstOutPixels[dstOutSp++] = srcP;
+                        continue;
+                    }
+                    if (srcM == 0) {
+                        dstOutPixels[dstOutSp++] = 0;
+                        continue;
+                    }
+                    srcM *= norm;
                     dstOutPixels[dstOutSp++] =
                         ((((((srcP>>>24)     )*srcM + pt5)&0xFF000000)     ) |
                          (((((srcP>> 16)&0xFF)*srcM + pt5)&0xFF000000)>>> 8) |
@@ -786,6 +937,10 @@ public class SVGComposite
                 while (dstOutSp<end) {
                     srcP = srcPixels  [srcSp++];
                     dstP = dstInPixels[dstInSp++];
+                    if ((srcP == 0) || (dstP == 0)) {
+                        dstOutPixels[dstOutSp++] = dstP;
+                        continue;
+                    }
 
                     srcM = (     dstP>>>24) *norm;
                     dstM = (255-(srcP>>>24))*norm;
@@ -873,6 +1028,10 @@ public class SVGComposite
                 while (dstOutSp<end) {
                     srcP = srcPixels  [srcSp++];
                     dstP = dstInPixels[dstInSp++];
+                    if ((srcP == 0) || (dstP == 0)) {
+                        dstOutPixels[dstOutSp++] = srcP | dstP;
+                        continue;
+                    }
 
                     srcM = (255-(dstP>>>24))*norm;
                     dstM = (255-(srcP>>>24))*norm;
@@ -18,6 +18,7 @@
  */
 package org.apache.batik.ext.awt.image.renderable;
 
+import java.awt.RenderingHints;
 import java.awt.color.ColorSpace;
 import java.awt.image.RenderedImage;
 import java.util.List;
@@ -25,6 +26,7 @@ import java.util.Map;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.ext.awt.image.rendered.FusedPixelRed;
 
 /**
  * This is an abstract base class that adds the ability to specify the
@@ -119,13 +121,38 @@ public abstract class AbstractColorInterpolationRable extends AbstractRable {
     }
 
     protected CachableRed convertSourceCS(CachableRed cr) {
+        return convertSourceCS(cr, null);
+    }
+
+    protected CachableRed convertSourceCS(RenderedImage ri) {
+        return convertSourceCS(GraphicsUtil.wrap(ri), null);
+    }
+
+    /**
+     * Converts the source to the operation color space.  When the
+     * color rendering hint asks for quality, translucent pixels are
+     * converted with a 16 bit intermediate precision.
+     * @param cr The source image.
+     * @param hints The rendering hints of the operation, may be null.
+     */
+    protected CachableRed convertSourceCS(CachableRed cr,
+                                          RenderingHints hints) {
+        boolean highPrecision = (hints != null) &&
+            (hints.get(RenderingHints.KEY_COLOR_RENDERING) ==
+             RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+
+        // Fold the conversion into the per-pixel operations that
+        // produced the source, if any.
         if (csLinear)
-            return GraphicsUtil.convertToLsRGB(cr);
+            return FusedPixelRed.fuse
+                (GraphicsUtil.convertToLsRGB(cr, highPrecision));
         else
-            return GraphicsUtil.convertTosRGB(cr);
+            return FusedPixelRed.fuse
+                (GraphicsUtil.convertTosRGB(cr, highPrecision));
     }
 
-    protected CachableRed convertSourceCS(RenderedImage ri) {
-        return convertSourceCS(GraphicsUtil.wrap(ri));
+    protected CachableRed convertSourceCS(RenderedImage ri,
+                                          RenderingHints hints) {
+        return convertSourceCS(GraphicsUtil.wrap(ri), hints);
     }
 }
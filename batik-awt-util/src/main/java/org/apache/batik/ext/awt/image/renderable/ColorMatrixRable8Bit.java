@@ -22,6 +22,7 @@ import java.awt.image.RenderedImage;
 import java.awt.image.renderable.RenderContext;
 
 import org.apache.batik.ext.awt.image.rendered.ColorMatrixRed;
+import org.apache.batik.ext.awt.image.rendered.FusedPixelRed;
 
 /**
  * Implements the interface expected from a color matrix
@@ -210,6 +211,8 @@ public final class ColorMatrixRable8Bit
         if(srcRI == null)
             return null;
 
-        return new ColorMatrixRed(convertSourceCS(srcRI), matrix);
+        return FusedPixelRed.fuse
+            (new ColorMatrixRed(convertSourceCS(srcRI, rc.getRenderingHints()),
+                                matrix));
     }
 }
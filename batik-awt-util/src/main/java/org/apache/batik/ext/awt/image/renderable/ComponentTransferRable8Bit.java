@@ -29,6 +29,7 @@ import org.apache.batik.ext.awt.image.LinearTransfer;
 import org.apache.batik.ext.awt.image.TableTransfer;
 import org.apache.batik.ext.awt.image.TransferFunction;
 import org.apache.batik.ext.awt.image.rendered.ComponentTransferRed;
+import org.apache.batik.ext.awt.image.rendered.FusedPixelRed;
 
 /**
  * This class implements the interface expected from a component
@@ -159,9 +160,11 @@ public class ComponentTransferRable8Bit
         if(srcRI == null)
             return null;
 
-        return new ComponentTransferRed(convertSourceCS(srcRI),
-                                        getTransferFunctions(),
-                                        rc.getRenderingHints());
+        return FusedPixelRed.fuse
+            (new ComponentTransferRed(convertSourceCS(srcRI,
+                                                      rc.getRenderingHints()),
+                                      getTransferFunctions(),
+                                      rc.getRenderingHints()));
     }
 
     /**
@@ -160,7 +160,7 @@ public class CompositeRable8Bit
             RenderedImage ri = filt.createRendering(rc);
             if (ri != null) {
                 CachableRed cr;
-                cr = convertSourceCS(ri);
+                cr = convertSourceCS(ri, rh);
                 srcs.add(cr);
             } else {
 
@@ -214,7 +214,7 @@ public class DisplacementMapRable8Bit
 
         if (displacedRed == null) return null;
 
-        mapRed = convertSourceCS(mapRed);
+        mapRed = convertSourceCS(mapRed, rh);
 
         //
         // Build a Displacement Map Red from the two sources
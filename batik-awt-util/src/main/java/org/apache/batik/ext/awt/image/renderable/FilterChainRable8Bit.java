@@ -20,13 +20,28 @@ package org.apache.batik.ext.awt.image.renderable;
 
 import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.RenderedImage;
 import java.awt.image.renderable.RenderContext;
+import java.awt.image.renderable.RenderableImage;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
 
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.PadMode;
 import org.apache.batik.ext.awt.image.SVGComposite;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.ext.awt.image.rendered.TileCacheRed;
 
 /**
  * Implements a filter chain. A filter chain is defined by its
@@ -40,6 +55,12 @@ import org.apache.batik.ext.awt.image.SVGComposite;
  *  <li>If there is a filterResolution specified along at least
  *      one of the axis, a <code>AffineRable</code>
  * </ul>
+ * Once the time stamps of all the filters the chain depends on are
+ * seen unchanged between two renderings, the output of the chain is
+ * cached for the device transform and region of the request (its tiles
+ * live in the TileCache), so repaints re-composite the filtered result
+ * instead of recomputing it.  Chains depending on a dynamic filter are
+ * never cached.
  *
  * @author <a href="mailto:vincent.hardy@eng.sun.com">Vincent Hardy</a>
  * @version $Id$
@@ -76,6 +97,61 @@ public class FilterChainRable8Bit extends AbstractRable
      */
     private Rectangle2D filterRegion;
 
+    /**
+     * The largest device area, in pixels, a cached rendering is widened
+     * to so it can serve the following requests.
+     */
+    private static final int MAX_CACHED_AREA = 2048*2048;
+
+    /**
+     * The filters the output of this chain depends on, and their time
+     * stamps when they were last checked.
+     */
+    private Filter [] dependencies;
+    private long   [] dependencyStamps;
+
+    /**
+     * True if none of the dependencies is dynamic.
+     */
+    private boolean cachable;
+
+    /**
+     * The cached rendering of this chain, if any.
+     */
+    private SoftReference cachedRendering;
+
+    /**
+     * A rendering of the chain and the request it was made for.
+     */
+    static class CachedRendering {
+        AffineTransform transform;
+        RenderingHints  hints;
+        Rectangle       region;
+        CachableRed     red;
+
+        CachedRendering(AffineTransform transform, RenderingHints hints,
+                        Rectangle region, CachableRed red) {
+            this.transform = transform;
+            this.hints     = hints;
+            this.region    = region;
+            this.red       = red;
+        }
+
+        /**
+         * Returns true if this rendering can serve a request made with
+         * the given transform and hints, for the given device region
+         * (null meaning the whole chain).
+         */
+        boolean matches(AffineTransform at, RenderingHints rh,
+                        Rectangle r) {
+            if (!transform.equals(at) || !hints.equals(rh))
+                return false;
+            if (region == null)
+                return true;
+            return (r != null) && region.contains(r);
+        }
+    }
+
     /**
      * Default constructor.
      */
@@ -247,6 +323,11 @@ public class FilterChainRable8Bit extends AbstractRable
         Composite c = g2d.getComposite();
         if (!SVGComposite.OVER.equals(c))
             return false;
+
+        // When the inputs didn't change since the last rendering go
+        // through createRendering, which caches the result.
+        if (checkDependencies())
+            return false;
         
         GraphicsUtil.drawImage(g2d, getSource());
 
@@ -254,6 +335,116 @@ public class FilterChainRable8Bit extends AbstractRable
     }
 
     public RenderedImage createRendering(RenderContext context){
-        return crop.createRendering(context);
+        if (!checkDependencies())
+            return crop.createRendering(context);
+
+        AffineTransform at = context.getTransform();
+        if (at == null)
+            at = new AffineTransform();
+        RenderingHints rh = getCacheHints(context.getRenderingHints());
+        Shape aoi = context.getAreaOfInterest();
+        Rectangle region = null;
+        if (aoi != null)
+            region = at.createTransformedShape(aoi).getBounds();
+
+        CachedRendering cr = getCachedRendering();
+        if ((cr != null) && cr.matches(at, rh, region))
+            return cr.red;
+
+        // Render the whole chain when it is not too large, so requests
+        // for other parts of it are served by the same rendering (the
+        // tiles are only computed when needed).
+        Rectangle2D fr = getBounds2D();
+        Rectangle devFR = at.createTransformedShape(fr).getBounds();
+        if ((long)devFR.width*devFR.height <= MAX_CACHED_AREA) {
+            context = (RenderContext)context.clone();
+            context.setAreaOfInterest(fr);
+            region = devFR;
+        }
+
+        RenderedImage ri = crop.createRendering(context);
+        if (ri == null)
+            return null;
+
+        CachableRed red = new TileCacheRed(GraphicsUtil.wrap(ri));
+        setCachedRendering(new CachedRendering(at, rh, region, red));
+        return red;
+    }
+
+    /**
+     * Checks the time stamps of the filters this chain depends on.
+     * Returns true if none of them changed since the previous call and
+     * the chain can be cached.  Otherwise the cached rendering is
+     * discarded and the dependencies are collected again.
+     */
+    protected synchronized boolean checkDependencies() {
+        if (dependencies != null) {
+            int i = 0;
+            while ((i < dependencies.length) &&
+                   (dependencies[i].getTimeStamp() == dependencyStamps[i]))
+                i++;
+            if (i == dependencies.length)
+                return cachable;
+        }
+
+        List deps = new ArrayList();
+        cachable = collectDependencies(this, deps, new IdentityHashMap());
+        dependencies     = new Filter[deps.size()];
+        dependencyStamps = new long[deps.size()];
+        for (int i = 0; i < dependencies.length; i++) {
+            dependencies[i]     = (Filter)deps.get(i);
+            dependencyStamps[i] = dependencies[i].getTimeStamp();
+        }
+        cachedRendering = null;
+        return false;
+    }
+
+    /**
+     * Adds <code>ri</code> and all its sources to <code>deps</code>.
+     * Returns false if one of them is dynamic or is not a Filter.
+     */
+    private static boolean collectDependencies(RenderableImage ri,
+                                               List deps, Map seen) {
+        if (seen.put(ri, ri) != null)
+            return true;
+        if (!(ri instanceof Filter))
+            return false;
+
+        Filter f = (Filter)ri;
+        deps.add(f);
+        boolean ret = !f.isDynamic();
+        Vector srcs = f.getSources();
+        if (srcs != null) {
+            Iterator i = srcs.iterator();
+            while (i.hasNext()) {
+                ret &= collectDependencies((RenderableImage)i.next(),
+                                           deps, seen);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the hints that affect the rendering of the chain: those
+     * identifying the area of interest and the destination change from
+     * one paint to the next.
+     */
+    private static RenderingHints getCacheHints(RenderingHints hints) {
+        RenderingHints rh = new RenderingHints(null);
+        if (hints != null)
+            rh.add(hints);
+        rh.remove(RenderingHintsKeyExt.KEY_AREA_OF_INTEREST);
+        rh.remove(RenderingHintsKeyExt.KEY_BUFFERED_IMAGE);
+        return rh;
+    }
+
+    private synchronized CachedRendering getCachedRendering() {
+        if (cachedRendering == null)
+            return null;
+        return (CachedRendering)cachedRendering.get();
+    }
+
+    private synchronized void setCachedRendering(CachedRendering cr) {
+        cachedRendering = new SoftReference(cr);
     }
 }
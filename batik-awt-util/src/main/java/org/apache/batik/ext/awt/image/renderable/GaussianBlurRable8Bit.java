@@ -263,7 +263,7 @@ public class GaussianBlurRable8Bit
         if (ri == null)
             return null;
 
-        CachableRed cr = convertSourceCS(ri);
+        CachableRed cr = convertSourceCS(ri, rh);
 
         // System.out.println("DevRect: " + devRect);
 
@@ -294,9 +294,17 @@ public class SpecularLightingRable8Bit
 
         BumpMap bumpMap = new BumpMap(cr, surfaceScale, scaleX, scaleY);
 
-        cr = new SpecularLightingRed(ks, specularExponent, light, bumpMap,
-                                     devRect, 1/scaleX, 1/scaleY,
-                                     isColorSpaceLinear());
+        SpecularLightingRed slr;
+        slr = new SpecularLightingRed(ks, specularExponent, light, bumpMap,
+                                      devRect, 1/scaleX, 1/scaleY,
+                                      isColorSpaceLinear());
+        // Use the table of powers only when speed is requested.
+        RenderingHints hints = rc.getRenderingHints();
+        slr.setExponentTableEnabled
+            ((hints != null) &&
+             RenderingHints.VALUE_RENDER_SPEED.equals
+             (hints.get(RenderingHints.KEY_RENDERING)));
+        cr = slr;
 
         // Return sheared/rotated tiled image
         AffineTransform shearAt =
@@ -283,7 +283,7 @@ public class TileRable8Bit
                                       Integer.MAX_VALUE/2);
         }
         // System.out.println("tiledArea: " + tiledArea);
-        tileRed = convertSourceCS(tileRed);
+        tileRed = convertSourceCS(tileRed, rh);
         TileRed tiledRed = new TileRed(tileRed, tiledArea, dw, dh);
 
         // org.apache.batik.test.gvt.ImageDisplay.showImage("Tile", tiledRed);
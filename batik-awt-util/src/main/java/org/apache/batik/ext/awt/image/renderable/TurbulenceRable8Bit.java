@@ -20,6 +20,7 @@
 package org.apache.batik.ext.awt.image.renderable;
 
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.color.ColorSpace;
 import java.awt.geom.AffineTransform;
@@ -237,8 +238,16 @@ public class TurbulenceRable8Bit
         }catch(NoninvertibleTransformException e){
         }
 
-        return new TurbulencePatternRed
+        TurbulencePatternRed red = new TurbulencePatternRed
             (baseFreqX, baseFreqY, numOctaves, seed, fractalNoise,
              tile, patternTxf, devRect, cs, true);
+
+        // Trade a little accuracy for speed when asked to.
+        RenderingHints hints = rc.getRenderingHints();
+        if ((hints != null) &&
+            (hints.get(RenderingHints.KEY_RENDERING) ==
+             RenderingHints.VALUE_RENDER_SPEED))
+            red.setFloatPrecision(true);
+        return red;
     }
 }
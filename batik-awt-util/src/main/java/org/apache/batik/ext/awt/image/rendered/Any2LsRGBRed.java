@@ -45,6 +45,12 @@ public class Any2LsRGBRed extends AbstractRed {
 
     boolean srcIssRGB = false;
 
+    /**
+     * Whether translucent premultiplied source pixels are unpremultiplied
+     * to 16 bits rather than 8 bits before the conversion.
+     */
+    protected boolean highPrecision = false;
+
     /**
      * Construct a luminace image from src.
      *
@@ -65,6 +71,24 @@ public class Any2LsRGBRed extends AbstractRed {
             srcIssRGB = true;
     }
 
+    /**
+     * Returns true if the translucent pixels of a premultiplied source
+     * are unpremultiplied to 16 bits before the conversion.
+     */
+    public boolean isHighPrecision() {
+        return highPrecision;
+    }
+
+    /**
+     * Sets whether the translucent pixels of a premultiplied source
+     * should be unpremultiplied to 16 bits before the conversion.
+     * This only affects sRGB sources.
+     * @see Any2sRGBRed#setHighPrecision
+     */
+    public void setHighPrecision(boolean highPrecision) {
+        this.highPrecision = highPrecision;
+    }
+
     /**
      * Gamma for linear to sRGB convertion
      */
@@ -84,7 +108,7 @@ public class Any2LsRGBRed extends AbstractRed {
      * linearToLinear table is used when the values are considered to
      * be on the sRGB scale to begin with.
      */
-    private static final int[] sRGBToLsRGBLut = new int[256];
+    static final int[] sRGBToLsRGBLut = new int[256];
     static {
         final double scale = 1.0/255;
 
@@ -97,6 +121,27 @@ public class Any2LsRGBRed extends AbstractRed {
         // System.out.println("");
     }
 
+    /**
+     * Lookup table from 16 bit sRGB values to 8 bit linear values,
+     * built on first use.
+     */
+    private static byte[] sRGBToLsRGBLut16;
+
+    /**
+     * Returns the lookup table from 16 bit sRGB values to 8 bit
+     * linear values.
+     */
+    static synchronized byte[] getsRGBToLsRGBLut16() {
+        if (sRGBToLsRGBLut16 == null) {
+            byte[] lut = new byte[0x10000];
+            final double scale = 1.0/0xFFFF;
+            for (int i=0; i<lut.length; i++)
+                lut[i] = (byte)Math.round(sRGBToLsRGB(i*scale)*255.0);
+            sRGBToLsRGBLut16 = lut;
+        }
+        return sRGBToLsRGBLut16;
+    }
+
     public WritableRaster copyData(WritableRaster wr) {
         // Get my source.
         CachableRed src   = (CachableRed)getSources().get(0);
@@ -107,6 +152,14 @@ public class Any2LsRGBRed extends AbstractRed {
         if (srcIssRGB &&
             Any2sRGBRed.is_INT_PACK_COMP(wr.getSampleModel())) {
             src.copyData(wr);
+            if (srcCM.hasAlpha() && srcCM.isAlphaPremultiplied() &&
+                (wr.getNumBands() == 4)) {
+                byte[] lut16 = null;
+                if (highPrecision)
+                    lut16 = getsRGBToLsRGBLut16();
+                Any2sRGBRed.applyLutPre_INT(wr, sRGBToLsRGBLut, lut16);
+                return wr;
+            }
             if (srcCM.hasAlpha())
                 GraphicsUtil.coerceData(wr, srcCM, false);
             Any2sRGBRed.applyLut_INT(wr, sRGBToLsRGBLut);
@@ -45,6 +45,12 @@ public class Any2sRGBRed extends AbstractRed {
 
     boolean srcIsLsRGB = false;
 
+    /**
+     * Whether translucent premultiplied source pixels are unpremultiplied
+     * to 16 bits rather than 8 bits before the conversion.
+     */
+    protected boolean highPrecision = false;
+
     /**
      * Construct a luminance image from src.
      *
@@ -65,6 +71,26 @@ public class Any2sRGBRed extends AbstractRed {
             srcIsLsRGB = true;
     }
 
+    /**
+     * Returns true if the translucent pixels of a premultiplied source
+     * are unpremultiplied to 16 bits before the conversion.
+     */
+    public boolean isHighPrecision() {
+        return highPrecision;
+    }
+
+    /**
+     * Sets whether the translucent pixels of a premultiplied source
+     * should be unpremultiplied to 16 bits before the conversion.
+     * Unpremultiplying to 8 bits amplifies the quantization of nearly
+     * transparent pixels, which the non linear conversion then spreads
+     * over several output code values.  This only affects linear RGB
+     * sources.
+     */
+    public void setHighPrecision(boolean highPrecision) {
+        this.highPrecision = highPrecision;
+    }
+
     public static boolean is_INT_PACK_COMP(SampleModel sm) {
         if(!(sm instanceof SinglePixelPackedSampleModel)) return false;
 
@@ -96,25 +122,121 @@ public class Any2sRGBRed extends AbstractRed {
      * linearToLinear table is used when the values are considered to
      * be on the sRGB scale to begin with.
      */
-    private static final int[] linearToSRGBLut = new int[256];
+    static final int[] linearToSRGBLut = new int[256];
 
     static {
         final double scale = 1.0/255;
-        final double exp   = 1.0/GAMMA;
         // System.out.print("L2S: ");
         for(int i=0; i<256; i++){
-            double value = i*scale;
-            if(value <= 0.0031308)
-                value *= 12.92;
-            else
-                value = 1.055 * Math.pow(value, exp) - 0.055;
-
+            double value = LsRGBTosRGB(i*scale);
             linearToSRGBLut[i] = (int)Math.round(value*255.0);
             // System.out.print(linearToSRGBLut[i] + ",");
         }
         // System.out.println("");
     }
 
+    /**
+     * Lookup table from 16 bit linear values to 8 bit sRGB values,
+     * built on first use.
+     */
+    private static byte[] linearToSRGBLut16;
+
+    public static final double LsRGBTosRGB(double value) {
+        if(value <= 0.0031308)
+            return value*12.92;
+        return 1.055 * Math.pow(value, 1.0/GAMMA) - 0.055;
+    }
+
+    /**
+     * Returns the lookup table from 16 bit linear values to 8 bit
+     * sRGB values.
+     */
+    static synchronized byte[] getLinearToSRGBLut16() {
+        if (linearToSRGBLut16 == null) {
+            byte[] lut = new byte[0x10000];
+            final double scale = 1.0/0xFFFF;
+            for (int i=0; i<lut.length; i++)
+                lut[i] = (byte)Math.round(LsRGBTosRGB(i*scale)*255.0);
+            linearToSRGBLut16 = lut;
+        }
+        return linearToSRGBLut16;
+    }
+
+    /**
+     * Applies <code>lut</code> to the color components of an int packed
+     * raster holding premultiplied pixels, leaving unpremultiplied
+     * pixels behind.  This produces the same result as
+     * <code>GraphicsUtil.coerceData</code> followed by
+     * <code>applyLut_INT</code> in a single pass over the data.
+     *
+     * @param wr The raster to convert in place, it must have an alpha band.
+     * @param lut The 8 bit lookup table.
+     * @param lut16 If not null, translucent pixels are unpremultiplied
+     *        to 16 bits and looked up in this 65536 entry table instead.
+     */
+    public static WritableRaster applyLutPre_INT(WritableRaster wr,
+                                                 final int []lut,
+                                                 final byte[]lut16) {
+        SinglePixelPackedSampleModel sm =
+            (SinglePixelPackedSampleModel)wr.getSampleModel();
+        DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+
+        final int     srcBase
+            = (db.getOffset() +
+               sm.getOffset(wr.getMinX()-wr.getSampleModelTranslateX(),
+                            wr.getMinY()-wr.getSampleModelTranslateY()));
+        // Access the pixel data array
+        final int[] pixels   = db.getBankData()[0];
+        final int width      = wr.getWidth();
+        final int height     = wr.getHeight();
+        final int scanStride = sm.getScanlineStride();
+
+        // Fully transparent pixels unpremultiply to white.
+        final int clear = (lut[255]<<16) | (lut[255]<<8) | lut[255];
+
+        for (int y=0; y<height; y++) {
+            int sp  = srcBase + y*scanStride;
+            final int end = sp + width;
+
+            while (sp<end) {
+                final int pix = pixels[sp];
+                final int a = pix>>>24;
+                if (a == 255) {
+                    pixels[sp] =
+                        (0xFF000000                 |
+                         (lut[(pix>>>16)&0xFF]<<16) |
+                         (lut[(pix>>> 8)&0xFF]<< 8) |
+                         (lut[(pix     )&0xFF]    ));
+                } else if (a == 0) {
+                    pixels[sp] = clear;
+                } else if (lut16 == null) {
+                    final int aFP = (0x00FF0000/a);
+                    pixels[sp] =
+                        ((a<<24) |
+                         (lut[((((pix>>>16)&0xFF)*aFP)>>>16)&0xFF]<<16) |
+                         (lut[((((pix>>> 8)&0xFF)*aFP)>>>16)&0xFF]<< 8) |
+                         (lut[((((pix     )&0xFF)*aFP)>>>16)&0xFF]    ));
+                } else {
+                    final int half = a>>1;
+                    int r = (((pix>>>16)&0xFF)*0xFFFF + half)/a;
+                    int g = (((pix>>> 8)&0xFF)*0xFFFF + half)/a;
+                    int b = (((pix     )&0xFF)*0xFFFF + half)/a;
+                    if (r > 0xFFFF) r = 0xFFFF;
+                    if (g > 0xFFFF) g = 0xFFFF;
+                    if (b > 0xFFFF) b = 0xFFFF;
+                    pixels[sp] =
+                        ((a<<24) |
+                         ((lut16[r]&0xFF)<<16) |
+                         ((lut16[g]&0xFF)<< 8) |
+                         ((lut16[b]&0xFF)    ));
+                }
+                sp++;
+            }
+        }
+
+        return wr;
+    }
+
     public static WritableRaster applyLut_INT(WritableRaster wr,
                                               final int []lut) {
         SinglePixelPackedSampleModel sm =
@@ -164,6 +286,14 @@ public class Any2sRGBRed extends AbstractRed {
         if (srcIsLsRGB &&
             is_INT_PACK_COMP(wr.getSampleModel())) {
             src.copyData(wr);
+            if (srcCM.hasAlpha() && srcCM.isAlphaPremultiplied() &&
+                (wr.getNumBands() == 4)) {
+                byte[] lut16 = null;
+                if (highPrecision)
+                    lut16 = getLinearToSRGBLut16();
+                applyLutPre_INT(wr, linearToSRGBLut, lut16);
+                return wr;
+            }
             if (srcCM.hasAlpha())
                 GraphicsUtil.coerceData(wr, srcCM, false);
             applyLut_INT(wr, linearToSRGBLut);
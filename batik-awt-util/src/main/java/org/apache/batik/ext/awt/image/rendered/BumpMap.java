@@ -23,6 +23,7 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
 
 /**
  * Default BumpMap implementation.
@@ -47,6 +48,13 @@ public final class BumpMap {
      */
     private double scaleX, scaleY;
 
+    /**
+     * The computed normal maps, as float arrays keyed by NormalKey,
+     * with their number of pixels as size.
+     */
+    private static final SoftLRUCache normalCache
+        = new SoftLRUCache(1 << 20);
+
     /**
      * Stores the normals for this bumpMap.
      * scaleX and scaleY are the user space to device
@@ -70,6 +78,61 @@ public final class BumpMap {
         return surfaceScale;
     }
 
+    /**
+     * Sets the maximum number of pixels kept in the cache of normal
+     * maps shared by all the bump maps.  Zero disables the cache.
+     */
+    public static void setNormalCacheSize(int pixels){
+        normalCache.setMaxSize(pixels);
+    }
+
+    /**
+     * Returns the normals of the given area in a single float array
+     * holding, for each pixel in row order, the x, y and z components
+     * of the unit normal followed by the height of the surface.
+     *
+     * <p>Normal maps are cached by the alpha values of the texture
+     * they are computed from, so tiles with the same content share a
+     * normal map, including across renderings.  The returned array
+     * may be shared and must not be modified.</p>
+     *
+     * @param x x-axis coordinate of the first normal
+     * @param y y-axis coordinate of the first normal
+     * @param w number of normals along the x-axis
+     * @param h number of normals along the y-axis
+     */
+    public float[] getNormals(final int x, final int y,
+                              final int w, final int h)
+    {
+        final Raster r = getTextureData(x, y, w, h);
+        if (r == null)
+            return new float[w*h*4];
+
+        NormalKey key = null;
+        if ((long)w*h <= normalCache.getMaxSize() / 4) {
+            key = new NormalKey(this, r, x, y, w, h);
+            float[] normals = (float[])normalCache.get(key);
+            if (normals != null)
+                return normals;
+        }
+
+        final double[][][] N = getNormalArray(r, x, y, w, h);
+        final float[] normals = new float[w*h*4];
+        int i = 0;
+        for (final double[][] NRow : N) {
+            for (final double[] n : NRow) {
+                normals[i++] = (float)n[0];
+                normals[i++] = (float)n[1];
+                normals[i++] = (float)n[2];
+                normals[i++] = (float)n[3];
+            }
+        }
+
+        if (key != null)
+            normalCache.put(key, normals, w*h);
+        return normals;
+    }
+
     /**
      * @param x x-axis coordinate for which the normal is computed
      * @param y y-axis coordinate for which the normal is computed
@@ -78,20 +141,42 @@ public final class BumpMap {
         (final int x, final int y,
          final int w, final int h)
     {
-        final double[][][] N = new double[h][w][4];
+        final Raster r = getTextureData(x, y, w, h);
+        if (r == null)
+            return new double[h][w][4];
+        return getNormalArray(r, x, y, w, h);
+    }
 
+    /**
+     * Returns the part of the texture needed to compute the normals
+     * of the given area, or null if the area doesn't touch the
+     * texture.
+     */
+    private Raster getTextureData(int x, int y, int w, int h) {
         Rectangle srcRect = new Rectangle(x-1, y-1, w+2, h+2);
         Rectangle srcBound = new Rectangle
             (texture.getMinX(), texture.getMinY(),
              texture.getWidth(), texture.getHeight());
 
         if ( ! srcRect.intersects(srcBound) )
-            return N;
+            return null;
 
         srcRect = srcRect.intersection(srcBound);
-        final Raster r = texture.getData(srcRect);
+        return texture.getData(srcRect);
+    }
+
+    /**
+     * Computes the normals of the given area from the texture data
+     * <code>r</code>, as returned by getTextureData.
+     */
+    private double[][][] getNormalArray
+        (final Raster r,
+         final int x, final int y,
+         final int w, final int h)
+    {
+        final double[][][] N = new double[h][w][4];
 
-        srcRect = r.getBounds();
+        Rectangle srcRect = r.getBounds();
 
         // System.out.println("SrcRect: " + srcRect);
         // System.out.println("rect: [" +
@@ -489,5 +574,74 @@ public final class BumpMap {
         }
         return N;
     }
-}
 
+    /**
+     * Identifies a normal map: the surface scales, the alpha values
+     * of the texture it is computed from and the position of that
+     * texture data relative to the normals (which tells which normals
+     * lie on the edges of the texture).
+     */
+    private static final class NormalKey {
+        final double surfaceScale, surfaceScaleX, surfaceScaleY;
+        final int dx, dy, srcW, srcH, w, h;
+        final byte[] alpha;
+        final int hash;
+
+        NormalKey(BumpMap bm, Raster r, int x, int y, int w, int h) {
+            surfaceScale = bm.surfaceScale;
+            surfaceScaleX = bm.surfaceScaleX;
+            surfaceScaleY = bm.surfaceScaleY;
+            Rectangle srcRect = r.getBounds();
+            dx = srcRect.x - x;
+            dy = srcRect.y - y;
+            srcW = srcRect.width;
+            srcH = srcRect.height;
+            this.w = w;
+            this.h = h;
+
+            final DataBufferInt db = (DataBufferInt)r.getDataBuffer();
+            final int[] pixels = db.getBankData()[0];
+            final SinglePixelPackedSampleModel sppsm;
+            sppsm = (SinglePixelPackedSampleModel)r.getSampleModel();
+            final int scanStride = sppsm.getScanlineStride();
+            final int offset =
+                (db.getOffset() +
+                 sppsm.getOffset(srcRect.x -r.getSampleModelTranslateX(),
+                                 srcRect.y -r.getSampleModelTranslateY()));
+            alpha = new byte[srcW*srcH];
+            int i = 0;
+            for (int row=0; row<srcH; row++) {
+                int p = offset + row*scanStride;
+                for (int col=0; col<srcW; col++)
+                    alpha[i++] = (byte)(pixels[p++] >>> 24);
+            }
+
+            long bits = Double.doubleToLongBits(surfaceScaleX) * 31
+                + Double.doubleToLongBits(surfaceScaleY);
+            int hc = (int)(bits ^ (bits >>> 32));
+            hc = hc * 31 + dx;
+            hc = hc * 31 + dy;
+            hc = hc * 31 + w;
+            hc = hc * 31 + h;
+            hc = hc * 31 + Arrays.hashCode(alpha);
+            hash = hc;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof NormalKey))
+                return false;
+            NormalKey k = (NormalKey)o;
+            return hash == k.hash
+                && dx == k.dx && dy == k.dy && w == k.w && h == k.h
+                && srcW == k.srcW && srcH == k.srcH
+                && surfaceScale == k.surfaceScale
+                && surfaceScaleX == k.surfaceScaleX
+                && surfaceScaleY == k.surfaceScaleY
+                && Arrays.equals(alpha, k.alpha);
+        }
+    }
+}
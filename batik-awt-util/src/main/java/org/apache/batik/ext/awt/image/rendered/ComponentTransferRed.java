@@ -34,6 +34,11 @@ import org.apache.batik.ext.awt.image.TransferFunction;
 public class ComponentTransferRed extends AbstractRed {
     LookupOp operation;
 
+    /**
+     * The lookup tables, in band order (red, green, blue, alpha).
+     */
+    byte [][] tableData;
+
     /**
      * The constructor will instantiate a LookupOp instance using
      * a LookupOp, which is built using the four LUT
@@ -51,10 +56,10 @@ public class ComponentTransferRed extends AbstractRed {
               src.getSampleModel(),
               null);
 
-        byte [][] tableData = {funcs[1].getLookupTable(),
-                               funcs[2].getLookupTable(),
-                               funcs[3].getLookupTable(),
-                               funcs[0].getLookupTable()};
+        tableData = new byte[][] {funcs[1].getLookupTable(),
+                                  funcs[2].getLookupTable(),
+                                  funcs[3].getLookupTable(),
+                                  funcs[0].getLookupTable()};
 
         // Note that we create an anonymous subclass here.
         // For what ever reason this makes the Op work correctly.
@@ -66,6 +71,14 @@ public class ComponentTransferRed extends AbstractRed {
             { };
     }
 
+    /**
+     * Returns the lookup tables applied by this image, in band order
+     * (red, green, blue, alpha).
+     */
+    public byte [][] getLookupTables() {
+        return tableData;
+    }
+
     public WritableRaster copyData(WritableRaster wr){
         CachableRed src = (CachableRed)getSources().get(0);
 
@@ -0,0 +1,530 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Kernel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+
+/**
+ * Convolves an image with an arbitrary convolution matrix, as
+ * described by the SVG feConvolveMatrix element.
+ *
+ * <p>The convolution works directly on packed int ARGB pixels, which
+ * are premultiplied unless the alpha channel is preserved (in which
+ * case the color channels are convolved unpremultiplied and the alpha
+ * of the source is copied to the result).  Pixels outside of the
+ * source are produced according to the edge mode (zero, duplicate or
+ * wrap) without padding the source.  Kernels that are the product of
+ * a column and a row vector are applied as two one dimensional passes,
+ * and the rows of each tile are computed in parallel.</p>
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRed extends AbstractRed {
+
+    /**
+     * Tolerance used to decide that a kernel is separable, relative
+     * to its largest coefficient.
+     */
+    static final float SEPARABLE_EPSILON = 1e-6f;
+
+    /**
+     * Marks a coordinate that maps to no source pixel.
+     */
+    private static final int NONE = Integer.MIN_VALUE;
+
+    /**
+     * The kernel coefficients, rotated by 180 degrees so that
+     * <code>kdata[i*kw+j]</code> multiplies the source pixel at
+     * <code>(x-targetX+j, y-targetY+i)</code>.
+     */
+    protected float [] kdata;
+
+    /**
+     * The column and row vectors of a separable kernel (rotated as
+     * kdata), or null if the kernel is not separable.
+     */
+    protected float [] kcol, krow;
+
+    protected int kw, kh;
+    protected int targetX, targetY;
+    protected float bias;
+    protected PadMode edgeMode;
+    protected boolean preserveAlpha;
+
+    /**
+     * Construct a new convolution of <code>src</code>.
+     * @param src The source image, it is assumed to be in the color
+     *            space the convolution should happen in.
+     * @param bounds The area of the result.
+     * @param kernel The convolution kernel, coefficients are expected
+     *               to be already divided by the divisor.
+     * @param target The position of the target pixel in the kernel.
+     * @param bias The value added to each component of the result,
+     *             in the range [0, 1].
+     * @param edgeMode How to extend the source beyond its bounds.
+     * @param preserveAlpha If true the alpha channel is not convolved.
+     */
+    public ConvolveMatrixRed(CachableRed src, Rectangle bounds,
+                             Kernel kernel, Point target, float bias,
+                             PadMode edgeMode, boolean preserveAlpha) {
+        super(); // Remember to call super.init()
+
+        this.kw            = kernel.getWidth();
+        this.kh            = kernel.getHeight();
+        this.targetX       = target.x;
+        this.targetY       = target.y;
+        this.bias          = bias*255;
+        this.edgeMode      = edgeMode;
+        this.preserveAlpha = preserveAlpha;
+
+        float [] k = kernel.getKernelData(null);
+        int len = k.length;
+        kdata = new float[len];
+        for (int i=0; i<len; i++)
+            kdata[i] = k[len-1-i];
+
+        if ((kw > 1) && (kh > 1))
+            separate();
+
+        ColorModel cm = fixColorModel(src.getColorModel(), !preserveAlpha);
+        SampleModel srcSM = src.getSampleModel();
+        int tw = srcSM.getWidth();
+        int th = srcSM.getHeight();
+        if (tw > bounds.width)  tw = bounds.width;
+        if (th > bounds.height) th = bounds.height;
+        if (tw < 1) tw = 1;
+        if (th < 1) th = 1;
+        SampleModel sm = cm.createCompatibleSampleModel(tw, th);
+
+        init(src, bounds, cm, sm,
+             src.getTileGridXOffset(), src.getTileGridYOffset(), null);
+    }
+
+    /**
+     * Returns true if the kernel is applied as two one dimensional
+     * passes.
+     */
+    public boolean isSeparable() {
+        return kcol != null;
+    }
+
+    /**
+     * Returns a packed int ARGB color model in the color space of the
+     * source.
+     */
+    protected static ColorModel fixColorModel(ColorModel srcCM,
+                                              boolean premult) {
+        ColorSpace cs = srcCM.getColorSpace();
+        if (cs == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB))
+            return GraphicsUtil.makeLinear_sRGBCM(premult);
+        return premult ? GraphicsUtil.sRGB_Pre : GraphicsUtil.sRGB_Unpre;
+    }
+
+    /**
+     * Splits the kernel in a column and a row vector if it is the
+     * outer product of two vectors.
+     */
+    protected void separate() {
+        int pivot = 0;
+        float max = 0;
+        for (int i=0; i<kdata.length; i++) {
+            float v = Math.abs(kdata[i]);
+            if (v > max) { max = v; pivot = i; }
+        }
+        if (max == 0)
+            return;
+
+        int pr = pivot/kw;
+        int pc = pivot%kw;
+        float [] col = new float[kh];
+        float [] row = new float[kw];
+        for (int i=0; i<kh; i++)
+            col[i] = kdata[i*kw+pc];
+        for (int j=0; j<kw; j++)
+            row[j] = kdata[pr*kw+j]/kdata[pivot];
+
+        float eps = SEPARABLE_EPSILON*max;
+        for (int i=0; i<kh; i++)
+            for (int j=0; j<kw; j++)
+                if (Math.abs(kdata[i*kw+j]-col[i]*row[j]) > eps)
+                    return;
+
+        kcol = col;
+        krow = row;
+    }
+
+    public WritableRaster copyData(WritableRaster wr) {
+        Rectangle r = wr.getBounds().intersection(bounds);
+        if (r.isEmpty())
+            return wr;
+
+        final int dw = r.width;
+        final int dh = r.height;
+        final int sw = dw + kw - 1;
+        final int sh = dh + kh - 1;
+
+        final int [] src  = getSourcePixels(r.x-targetX, r.y-targetY, sw, sh);
+        final int [] dest = new int[dw*dh];
+
+        long rowWork = (long)dw*(isSeparable() ? kw+kh : kw*kh);
+        ParallelBands.run(dh, rowWork, new ParallelBands.BandOp() {
+                public void run(int y0, int y1) {
+                    if (isSeparable())
+                        convolveSeparable(src, sw, dest, dw, y0, y1);
+                    else
+                        convolve(src, sw, dest, dw, y0, y1);
+                }
+            });
+
+        writePixels(wr, r, dest);
+        return wr;
+    }
+
+    /**
+     * Splits <code>rows</code> rows of packed source pixels, starting
+     * at row <code>y0</code>, into one float plane per component
+     * (alpha, red, green, blue).  The alpha plane is null when alpha
+     * is preserved.
+     */
+    protected float [][] unpack(int [] src, int sw, int y0, int rows) {
+        int len = rows*sw;
+        float [] pa = preserveAlpha ? null : new float[len];
+        float [] pr = new float[len];
+        float [] pg = new float[len];
+        float [] pb = new float[len];
+        int sp = y0*sw;
+        for (int i=0; i<len; i++) {
+            int pel = src[sp++];
+            if (pa != null) pa[i] = pel>>>24;
+            pr[i] = (pel>>16)&0xFF;
+            pg[i] = (pel>> 8)&0xFF;
+            pb[i] =  pel     &0xFF;
+        }
+        return new float[][] { pa, pr, pg, pb };
+    }
+
+    /**
+     * Convolves rows <code>y0</code> (inclusive) to <code>y1</code>
+     * (exclusive) of the destination with the full kernel.  Each
+     * kernel coefficient is applied to a whole row at a time so the
+     * inner loops stay simple enough for the VM to vectorize.
+     */
+    protected void convolve(int [] src, int sw, int [] dest, int dw,
+                            int y0, int y1) {
+        float [][] planes = unpack(src, sw, y0, y1-y0+kh-1);
+        float [][] acc = new float[4][dw];
+        for (int y=y0; y<y1; y++) {
+            for (int c=0; c<4; c++) {
+                float [] ac = acc[c];
+                float [] pc = planes[c];
+                if (pc == null) continue;
+                for (int x=0; x<dw; x++)
+                    ac[x] = 0;
+                for (int i=0; i<kh; i++)
+                    accumulateRow(ac, dw, pc, (y-y0+i)*sw, kdata, i*kw, kw);
+            }
+            packRow(acc, src, sw, y, dest, dw);
+        }
+    }
+
+    /**
+     * Convolves rows <code>y0</code> (inclusive) to <code>y1</code>
+     * (exclusive) of the destination with the row vector and then
+     * the column vector of a separable kernel.
+     */
+    protected void convolveSeparable(int [] src, int sw, int [] dest,
+                                     int dw, int y0, int y1) {
+        int rows = y1-y0+kh-1;
+        float [][] planes = unpack(src, sw, y0, rows);
+        float [][] tmp = new float[4][];
+        for (int c=0; c<4; c++) {
+            float [] pc = planes[c];
+            if (pc == null) continue;
+            float [] tc = new float[rows*dw];
+            float [] row = new float[dw];
+            for (int y=0; y<rows; y++) {
+                accumulateRow(row, dw, pc, y*sw, krow, 0, kw);
+                System.arraycopy(row, 0, tc, y*dw, dw);
+                for (int x=0; x<dw; x++)
+                    row[x] = 0;
+            }
+            tmp[c] = tc;
+        }
+
+        float [][] acc = new float[4][dw];
+        for (int y=y0; y<y1; y++) {
+            for (int c=0; c<4; c++) {
+                float [] ac = acc[c];
+                float [] tc = tmp[c];
+                if (tc == null) continue;
+                for (int x=0; x<dw; x++)
+                    ac[x] = 0;
+                for (int i=0; i<kh; i++) {
+                    float kv = kcol[i];
+                    if (kv == 0) continue;
+                    int tp = (y-y0+i)*dw;
+                    for (int x=0; x<dw; x++)
+                        ac[x] += kv*tc[tp+x];
+                }
+            }
+            packRow(acc, src, sw, y, dest, dw);
+        }
+    }
+
+    /**
+     * Adds to <code>acc</code> the one dimensional convolution of the
+     * plane row starting at <code>rp</code> with the <code>n</code>
+     * coefficients of <code>k</code> starting at <code>ki</code>.
+     * Four coefficients are applied per pass over the row to limit
+     * the loads and stores of the accumulator.
+     */
+    private static void accumulateRow(float [] acc, int w, float [] p,
+                                      int rp, float [] k, int ki, int n) {
+        int j = 0;
+        for (; j+3<n; j+=4) {
+            final float k0 = k[ki+j],   k1 = k[ki+j+1];
+            final float k2 = k[ki+j+2], k3 = k[ki+j+3];
+            final int sp = rp+j;
+            for (int x=0; x<w; x++)
+                acc[x] += (k0*p[sp+x]   + k1*p[sp+x+1] +
+                           k2*p[sp+x+2] + k3*p[sp+x+3]);
+        }
+        for (; j<n; j++) {
+            final float kv = k[ki+j];
+            if (kv == 0) continue;
+            final int sp = rp+j;
+            for (int x=0; x<w; x++)
+                acc[x] += kv*p[sp+x];
+        }
+    }
+
+    /**
+     * Packs one row of convolved components into <code>dest</code>.
+     */
+    private void packRow(float [][] acc, int [] src, int sw, int y,
+                         int [] dest, int dw) {
+        float [] aa = acc[0], ar = acc[1], ag = acc[2], ab = acc[3];
+        int dp = y*dw;
+        int sp = (y+targetY)*sw + targetX;
+        for (int x=0; x<dw; x++)
+            dest[dp+x] = pack(aa[x], ar[x], ag[x], ab[x], src[sp+x]>>>24);
+    }
+
+    /**
+     * Adds the bias, rounds and clamps the convolved components of a
+     * pixel.  When the data is premultiplied alpha is raised to the
+     * largest color component; when alpha is preserved
+     * <code>srcAlpha</code> is used as is.
+     */
+    protected final int pack(float sa, float sr, float sg, float sb,
+                             int srcAlpha) {
+        int r = clamp(sr+bias);
+        int g = clamp(sg+bias);
+        int b = clamp(sb+bias);
+        int a;
+        if (preserveAlpha) {
+            a = srcAlpha;
+        } else {
+            a = clamp(sa+bias);
+            if (a < r) a = r;
+            if (a < g) a = g;
+            if (a < b) a = b;
+        }
+        return (a<<24) | (r<<16) | (g<<8) | b;
+    }
+
+    private static int clamp(float v) {
+        int i = (int)(v+0.5f);
+        if (i < 0)   return 0;
+        if (i > 255) return 255;
+        return i;
+    }
+
+    /**
+     * Returns the source pixels of the given area as packed int ARGB
+     * (premultiplied unless alpha is preserved), extending the source
+     * according to the edge mode.
+     */
+    protected int [] getSourcePixels(int x0, int y0, int w, int h) {
+        CachableRed src = (CachableRed)getSources().get(0);
+        Rectangle sb = src.getBounds();
+        int [] ret = new int[w*h];
+        if (sb.isEmpty())
+            return ret;
+
+        // Map each requested column/row onto a source column/row,
+        // NONE means transparent black.
+        int [] xmap = new int[w];
+        int [] ymap = new int[h];
+        Rectangle fr = mapEdges(x0, w, sb.x, sb.width,  xmap, null);
+        fr = mapEdges(y0, h, sb.y, sb.height, ymap, fr);
+        if (fr == null)
+            return ret;
+
+        int [] fetched = fetch(src, fr);
+        int fw = fr.width;
+        int ip = 0;
+        for (int y=0; y<h; y++) {
+            int sy = ymap[y];
+            if (sy == NONE) {
+                ip += w;
+                continue;
+            }
+            int fp = (sy-fr.y)*fw - fr.x;
+            for (int x=0; x<w; x++, ip++) {
+                int sx = xmap[x];
+                if (sx != NONE)
+                    ret[ip] = fetched[fp+sx];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Fills <code>map</code> with the source coordinate used for each
+     * of the <code>len</code> coordinates starting at <code>start</code>
+     * and returns the range of source coordinates used, stored in the
+     * x/width fields of a new rectangle when <code>r</code> is null or
+     * in the y/height fields of <code>r</code> otherwise.  Returns null
+     * when no source coordinate is used.
+     */
+    private Rectangle mapEdges(int start, int len, int srcMin, int srcLen,
+                               int [] map, Rectangle r) {
+        int srcMax = srcMin+srcLen-1;
+        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+        for (int i=0; i<len; i++) {
+            int c = start+i;
+            if ((c < srcMin) || (c > srcMax)) {
+                if (edgeMode == PadMode.WRAP) {
+                    c = (c-srcMin)%srcLen;
+                    if (c < 0) c += srcLen;
+                    c += srcMin;
+                } else if (edgeMode == PadMode.ZERO_PAD) {
+                    c = NONE;
+                } else {
+                    c = (c < srcMin) ? srcMin : srcMax;
+                }
+            }
+            map[i] = c;
+            if (c == NONE) continue;
+            if (c < lo) lo = c;
+            if (c > hi) hi = c;
+        }
+        if (lo > hi)
+            return null;
+        if (r == null)
+            return new Rectangle(lo, 0, hi-lo+1, 0);
+        r.y      = lo;
+        r.height = hi-lo+1;
+        return r;
+    }
+
+    /**
+     * Returns the pixels of <code>r</code> in <code>src</code> as
+     * packed int ARGB.
+     */
+    private int [] fetch(CachableRed src, Rectangle r) {
+        ColorModel srcCM = src.getColorModel();
+        WritableRaster wr = srcCM.createCompatibleWritableRaster
+            (r.width, r.height);
+        wr = wr.createWritableTranslatedChild(r.x, r.y);
+        src.copyData(wr);
+        if (srcCM.hasAlpha())
+            GraphicsUtil.coerceData(wr, srcCM, !preserveAlpha);
+
+        int [] ret;
+        if (GraphicsUtil.is_INT_PACK_Data(wr.getSampleModel(), true)) {
+            ret = new int[r.width*r.height];
+            SinglePixelPackedSampleModel sppsm;
+            sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+            DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+            int scanStride = sppsm.getScanlineStride();
+            int base = (db.getOffset() +
+                        sppsm.getOffset(wr.getMinX()-wr.getSampleModelTranslateX(),
+                                        wr.getMinY()-wr.getSampleModelTranslateY()));
+            int [] pixels = db.getBankData()[0];
+            for (int y=0; y<r.height; y++)
+                System.arraycopy(pixels, base+y*scanStride,
+                                 ret, y*r.width, r.width);
+            return ret;
+        }
+
+        int bands = wr.getNumBands();
+        int [] pel = null;
+        ret = new int[r.width*r.height];
+        int ip = 0;
+        for (int y=0; y<r.height; y++) {
+            pel = wr.getPixels(r.x, r.y+y, r.width, 1, pel);
+            int pp = 0;
+            for (int x=0; x<r.width; x++) {
+                int a = (bands > 3) ? pel[pp+3] : 0xFF;
+                ret[ip++] = ((a<<24) | (pel[pp]<<16) |
+                             (pel[pp+1]<<8) | pel[pp+2]);
+                pp += bands;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Stores the packed int ARGB pixels of <code>r</code> in
+     * <code>wr</code>.
+     */
+    private void writePixels(WritableRaster wr, Rectangle r, int [] pixels) {
+        if (GraphicsUtil.is_INT_PACK_Data(wr.getSampleModel(), true)) {
+            SinglePixelPackedSampleModel sppsm;
+            sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+            DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+            int scanStride = sppsm.getScanlineStride();
+            int base = (db.getOffset() +
+                        sppsm.getOffset(r.x-wr.getSampleModelTranslateX(),
+                                        r.y-wr.getSampleModelTranslateY()));
+            int [] dst = db.getBankData()[0];
+            for (int y=0; y<r.height; y++)
+                System.arraycopy(pixels, y*r.width,
+                                 dst, base+y*scanStride, r.width);
+            return;
+        }
+
+        int [] pel = new int[r.width*4];
+        for (int y=0; y<r.height; y++) {
+            int ip = y*r.width;
+            int pp = 0;
+            for (int x=0; x<r.width; x++) {
+                int p = pixels[ip++];
+                pel[pp++] = (p>>16)&0xFF;
+                pel[pp++] = (p>> 8)&0xFF;
+                pel[pp++] =  p     &0xFF;
+                pel[pp++] =  p>>>24;
+            }
+            wr.setPixels(r.x, r.y+y, r.width, 1, pel);
+        }
+    }
+}
@@ -95,8 +95,8 @@ public class DiffuseLightingRed extends AbstractRed{
     }
 
     public WritableRaster copyData(WritableRaster wr){
-        final double[] lightColor = light.getColor(linear);
-        
+        final float[] lightColor = toFloat(light.getColor(linear));
+
         final int w = wr.getWidth();
         final int h = wr.getHeight();
         final int minX = wr.getMinX();
@@ -107,107 +107,118 @@ public class DiffuseLightingRed extends AbstractRed{
 
         final SinglePixelPackedSampleModel sppsm;
         sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
-        
-        final int offset = 
+
+        final int offset =
             (db.getOffset() +
-             sppsm.getOffset(minX-wr.getSampleModelTranslateX(), 
+             sppsm.getOffset(minX-wr.getSampleModelTranslateX(),
                              minY-wr.getSampleModelTranslateY()));
 
         final int scanStride = sppsm.getScanlineStride();
-        final int adjust = scanStride - w;
-        int p = offset;
-        int r=0, g=0, b=0;
-        int i=0, j=0;
 
-        // System.out.println("Getting diffuse red : " + minX + "/" + minY + "/" + w + "/" + h);
-        double x = scaleX*minX;
-        double y = scaleY*minY;
-        double NL = 0;
+        // The area is lit one tile at a time so that the normal maps
+        // are computed (and cached) per tile, and the rows of tiles
+        // are lit in parallel.
+        final int ts = AbstractTiledRed.getDefaultTileSize();
+        final int tilesY = (h+ts-1)/ts;
+        final long tileRowWork = (long)w*ts*(light.isConstant() ? 4 : 16);
+        ParallelBands.run(tilesY, tileRowWork, new ParallelBands.BandOp() {
+                public void run(int ty0, int ty1) {
+                    for (int ty=ty0; ty<ty1; ty++) {
+                        int y0 = ty*ts;
+                        int th = Math.min(ts, h-y0);
+                        for (int x0=0; x0<w; x0+=ts) {
+                            int tw = Math.min(ts, w-x0);
+                            genRect(pixels, offset + y0*scanStride + x0,
+                                    scanStride, minX+x0, minY+y0, tw, th,
+                                    lightColor);
+                        }
+                    }
+                }
+            });
+
+        return wr;
+    }
+
+    /**
+     * Lights the area (x, y, w, h) and stores the result in
+     * <code>pixels</code> starting at <code>p</code>.
+     */
+    private void genRect(final int[] pixels, int p, final int scanStride,
+                         final int x, final int y, final int w, final int h,
+                         final float[] lightColor) {
+        final int adjust = scanStride - w;
+        final float kd255 = (float)(255.*kd);
+        final float[] NA = bumpMap.getNormals(x, y, w, h);
+        int np = 0;
 
-        // final double[] L = new double[3];
-        final double[][][] NA = bumpMap.getNormalArray(minX, minY, w, h);
         if(!light.isConstant()){
+            final double[][] ZR = new double[w][4];
             final double[][] LA = new double[w][3];
+            final double ux = scaleX*x;
 
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                light.getLightRow(x, y+i*scaleY, scaleX, w, NR, LA);
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
+            for(int i=0; i<h; i++){
+                for(int j=0; j<w; j++)
+                    ZR[j][3] = NA[np + j*4 + 3];
+                light.getLightRow(ux, scaleY*(y+i), scaleX, w, ZR, LA);
+                for(int j=0; j<w; j++){
                     // Get Light Vector
                     final double [] L = LA[j];
-                    
-                    NL = 255.*kd*(N[0]*L[0] + N[1]*L[1] + N[2]*L[2]);
-                    
-                    r = (int)(NL*lightColor[0]);
-                    g = (int)(NL*lightColor[1]);
-                    b = (int)(NL*lightColor[2]);
-                    
-                    // If any high bits are set we are not in range.
-                    // If the highest bit is set then we are negative so
-                    // clamp to zero else we are > 255 so clamp to 255.
-                    if ((r & 0xFFFFFF00) != 0)
-                        r = ((r & 0x80000000) != 0)?0:255;
-                    if ((g & 0xFFFFFF00) != 0)
-                        g = ((g & 0x80000000) != 0)?0:255;
-                    if ((b & 0xFFFFFF00) != 0)
-                        b = ((b & 0x80000000) != 0)?0:255;
-                    
-                    pixels[p++] = (0xff000000
-                                   |
-                                   r << 16
-                                   |
-                                   g << 8
-                                   |
-                                   b);
-                    
+
+                    final float NL = kd255*(NA[np  ]*(float)L[0] +
+                                            NA[np+1]*(float)L[1] +
+                                            NA[np+2]*(float)L[2]);
+                    np += 4;
+                    pixels[p++] = toPixel(NL, lightColor);
                 }
                 p += adjust;
             }
         }
         else{
-            // System.out.println(">>>>>>>> Processing constant light ...");
             // Constant light
-            final double[] L = new double[3];
-            light.getLight(0, 0, 0, L);
-
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double[] N = NR[j];
-                    
-                    NL = 255.*kd*(N[0]*L[0] + N[1]*L[1] + N[2]*L[2]);
-                    
-                    r = (int)(NL*lightColor[0]);
-                    g = (int)(NL*lightColor[1]);
-                    b = (int)(NL*lightColor[2]);
-                    
-                    // If any high bits are set we are not in range.
-                    // If the highest bit is set then we are negative so
-                    // clamp to zero else we are > 255 so clamp to 255.
-                    if ((r & 0xFFFFFF00) != 0)
-                        r = ((r & 0x80000000) != 0)?0:255;
-                    if ((g & 0xFFFFFF00) != 0)
-                        g = ((g & 0x80000000) != 0)?0:255;
-                    if ((b & 0xFFFFFF00) != 0)
-                        b = ((b & 0x80000000) != 0)?0:255;
-                    
-                    pixels[p++] = (0xff000000
-                                   |
-                                   r << 16
-                                   |
-                                   g << 8
-                                   |
-                                   b);
+            final double[] LD = new double[3];
+            light.getLight(0, 0, 0, LD);
+            final float L0 = (float)LD[0];
+            final float L1 = (float)LD[1];
+            final float L2 = (float)LD[2];
+
+            for(int i=0; i<h; i++){
+                for(int j=0; j<w; j++){
+                    final float NL = kd255*(NA[np]*L0 + NA[np+1]*L1 +
+                                            NA[np+2]*L2);
+                    np += 4;
+                    pixels[p++] = toPixel(NL, lightColor);
                 }
                 p += adjust;
             }
         }
-        
-        return wr;
     }
 
+    /**
+     * Returns the opaque pixel lit with <code>NL</code> times the
+     * light color.
+     */
+    private static int toPixel(final float NL, final float[] lightColor) {
+        int r = (int)(NL*lightColor[0]);
+        int g = (int)(NL*lightColor[1]);
+        int b = (int)(NL*lightColor[2]);
+
+        // If any high bits are set we are not in range.
+        // If the highest bit is set then we are negative so
+        // clamp to zero else we are > 255 so clamp to 255.
+        if ((r & 0xFFFFFF00) != 0)
+            r = ((r & 0x80000000) != 0)?0:255;
+        if ((g & 0xFFFFFF00) != 0)
+            g = ((g & 0x80000000) != 0)?0:255;
+        if ((b & 0xFFFFFF00) != 0)
+            b = ((b & 0x80000000) != 0)?0:255;
+
+        return (0xff000000 | r << 16 | g << 8 | b);
+    }
+
+    static float[] toFloat(double[] d) {
+        float[] f = new float[d.length];
+        for (int i=0; i<d.length; i++)
+            f[i] = (float)d[i];
+        return f;
+    }
 }
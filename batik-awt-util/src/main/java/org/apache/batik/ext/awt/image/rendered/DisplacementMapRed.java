@@ -25,22 +25,30 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.batik.ext.awt.image.ARGBChannel;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.util.HaltingThread;
 
 
 /**
  * This implementation of RenderableImage will render its input
  * GraphicsNode on demand for tiles.
  *
+ * <p>Each output tile only pulls the part of the source image its
+ * displacement values can actually reach, found from the range of the
+ * displacement map over the tile.  Computed tiles are kept in the
+ * TileCache, and the tiles missing from a <code>copyData</code> request
+ * are filtered concurrently, a few at a time.</p>
+ *
  * @author <a href="mailto:vincent.hardy@eng.sun.com">Vincent Hardy</a>
  * @version $Id$
  */
-public class DisplacementMapRed extends AbstractRed {
-    // Use these to control timing and Nearest Neighbot vs. Bilinear Interp.
-    private static final boolean TIME   = false;
+public class DisplacementMapRed extends AbstractRed implements TileGenerator {
+    // Use this to control Nearest Neighbot vs. Bilinear Interp.
     private static final boolean USE_NN = false;
 
     /**
@@ -78,39 +86,38 @@ public class DisplacementMapRed extends AbstractRed {
      */
     int maxOffX, maxOffY;
 
+    /**
+     * Fixed point representation of the scale factors, and the
+     * adjustment that makes a map value of 127.5 no movement.
+     */
+    final int fpScaleX, fpAdjX, fpScaleY, fpAdjY;
+
     /**
      * The set of rendering hints
      */
     RenderingHints hints;
 
     /**
-     * Computed tile Offsets Soft referencces to TileOffsets instances...
+     * The computed tiles.
      */
-    TileOffsets [] xOffsets;
-    TileOffsets [] yOffsets;
-
-    static class TileOffsets {
-        int [] tile;
-        int [] off;
-        TileOffsets(int len, int base, int stride,
-                    int loc, int endLoc, int slop, int tile, int endTile) {
-            this.tile = new int[len+1];
-            this.off  = new int[len+1];
-
-            if (tile == endTile) endLoc -= slop;
-
-            for (int i=0; i<len; i++) {
-                this.tile[i] = tile;
-                this.off [i] = base+(loc*stride);
-                loc++;
-                if (loc == endLoc) {
-                    loc = 0;
-                    tile++;
-                    if (tile == endTile) endLoc -=slop;
-                }
-            }
-            this.tile[len] = this.tile[len-1];
-            this.off [len] = this.off [len-1];
+    TileStore tiles;
+
+    /**
+     * The inputs of the computation of one tile: the displacement map
+     * over the tile and the part of the source image it can sample.
+     */
+    static class TileJob {
+        int tileX, tileY;
+        WritableRaster dest;
+        Raster map;
+        Raster src;
+        TileJob(int tileX, int tileY,
+                WritableRaster dest, Raster map, Raster src) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.dest  = dest;
+            this.map   = map;
+            this.src   = src;
         }
     }
 
@@ -148,8 +155,14 @@ public class DisplacementMapRed extends AbstractRed {
         this.yChannel = yChannel;
         this.hints   = rh;
 
-        maxOffX = (int)Math.ceil(scaleX/2);
-        maxOffY = (int)Math.ceil(scaleY/2);
+        // A negative scale displaces in the other direction.
+        maxOffX = (int)Math.ceil(Math.abs(scaleX)/2);
+        maxOffY = (int)Math.ceil(Math.abs(scaleY)/2);
+
+        fpScaleX = (int)((scaleX/255.0)*(1<<15)+0.5);
+        fpAdjX   = (int)(-127.5*fpScaleX-0.5);
+        fpScaleY = (int)((scaleY/255.0)*(1<<15)+0.5);
+        fpAdjY   = (int)(-127.5*fpScaleY-0.5);
 
         Rectangle rect = image.getBounds();
 
@@ -167,126 +180,186 @@ public class DisplacementMapRed extends AbstractRed {
         init(image, rect, cm, image.getSampleModel(),
              rect.x, rect.y, null);
 
-        xOffsets = new TileOffsets[getNumXTiles()];
-        yOffsets = new TileOffsets[getNumYTiles()];
+        tiles = TileCache.getTileMap(this);
     }
 
     public WritableRaster copyData(WritableRaster wr) {
-        copyToRaster(wr);
+        int tx0 = getXTile(wr.getMinX());
+        int ty0 = getYTile(wr.getMinY());
+        int tx1 = getXTile(wr.getMinX()+wr.getWidth() -1);
+        int ty1 = getYTile(wr.getMinY()+wr.getHeight()-1);
+
+        if (tx0 < minTileX) tx0 = minTileX;
+        if (ty0 < minTileY) ty0 = minTileY;
+
+        if (tx1 >= minTileX+numXTiles) tx1 = minTileX+numXTiles-1;
+        if (ty1 >= minTileY+numYTiles) ty1 = minTileY+numYTiles-1;
+
+        // The sources are pulled sequentially, but at most this many
+        // prepared tiles are held before being filtered together.
+        int  batchSize = ParallelBands.getParallelism();
+        List jobs      = new ArrayList(batchSize);
+
+        for (int y=ty0; y<=ty1; y++)
+            for (int x=tx0; x<=tx1; x++) {
+                Raster r = tiles.getTileNoCompute(x, y);
+                if (r != null) {
+                    copyTile(r, wr);
+                    continue;
+                }
+                jobs.add(prepareTile(x, y));
+                if (jobs.size() == batchSize) {
+                    filterTiles(jobs, wr);
+                    jobs.clear();
+                }
+            }
+        if (!jobs.isEmpty())
+            filterTiles(jobs, wr);
         return wr;
     }
 
     public Raster getTile(int tileX, int tileY) {
+        return tiles.getTile(tileX, tileY);
+    }
+
+    public Raster genTile(int tileX, int tileY) {
+        TileJob job = prepareTile(tileX, tileY);
+        filter(job);
+        return job.dest;
+    }
+
+    /**
+     * Filters the given prepared tiles concurrently, stores them in
+     * the tile cache and copies them into <code>wr</code>.
+     */
+    protected void filterTiles(List jobs, WritableRaster wr) {
+        final TileJob [] batch = new TileJob[jobs.size()];
+        jobs.toArray(batch);
+
+        long tileWork = (long)getTileWidth()*getTileHeight()*16;
+        ParallelBands.run(batch.length, tileWork,
+                          new ParallelBands.BandOp() {
+                public void run(int j0, int j1) {
+                    for (int j=j0; j<j1; j++)
+                        filter(batch[j]);
+                }
+            });
+
+        // Don't cache tiles that may be incomplete.
+        boolean halted = HaltingThread.hasBeenHalted();
+        for (int j=0; j<batch.length; j++) {
+            TileJob job = batch[j];
+            if (!halted)
+                tiles.setTile(job.tileX, job.tileY, job.dest);
+            copyTile(job.dest, wr);
+        }
+    }
+
+    private void copyTile(Raster r, WritableRaster wr) {
+        if (GraphicsUtil.is_INT_PACK_Data(getSampleModel(), false))
+            GraphicsUtil.copyData_INT_PACK(r, wr);
+        else
+            GraphicsUtil.copyData_FALLBACK(r, wr);
+    }
+
+    /**
+     * Gathers the displacement map and the source pixels needed to
+     * compute a tile.  This pulls data from the inputs so it must be
+     * called from the rendering thread.
+     */
+    protected TileJob prepareTile(int tileX, int tileY) {
         WritableRaster dest = makeTile(tileX, tileY);
-        Rectangle srcR   = dest.getBounds();
+        Rectangle destR  = dest.getBounds();
 
         // Get Raster from offsetes
-        Raster     mapRas = offsets.getData(srcR);
+        Raster     mapRas = offsets.getData(destR);
         ColorModel mapCM  = offsets.getColorModel();
         // ensure map isn't pre-multiplied.
         GraphicsUtil.coerceData((WritableRaster)mapRas, mapCM, false);
 
-        TileOffsets xinfo = getXOffsets(tileX);
-        TileOffsets yinfo = getYOffsets(tileY);
+        Raster srcRas = image.getData(getSourceRect(mapRas, destR));
+        return new TileJob(tileX, tileY, dest, mapRas, srcRas);
+    }
 
+    /**
+     * Filters a prepared tile.  This only touches the rasters of the
+     * job, so distinct jobs can be filtered concurrently.
+     */
+    protected void filter(TileJob job) {
         if (USE_NN)
-            filterNN(mapRas, dest,
-                     xinfo.tile, xinfo.off,
-                     yinfo.tile, yinfo.off);
+            filterNN(job.map, job.src, job.dest);
         else if (image.getColorModel().isAlphaPremultiplied())
-            filterBL(mapRas, dest,
-                     xinfo.tile, xinfo.off,
-                     yinfo.tile, yinfo.off);
+            filterBL(job.map, job.src, job.dest);
         else
-            filterBLPre(mapRas, dest,
-                        xinfo.tile, xinfo.off,
-                        yinfo.tile, yinfo.off);
-
-        return dest;
-    }
-
-    public TileOffsets getXOffsets(int xTile) {
-        TileOffsets ret = xOffsets[xTile-getMinTileX()];
-        if (ret != null)
-            return ret;
-
-        SinglePixelPackedSampleModel sppsm;
-        sppsm = (SinglePixelPackedSampleModel)getSampleModel();
-        int base  = sppsm.getOffset(0, 0);
-        int tw    = sppsm.getWidth();
-
-        // The span we need to cover in the input image.
-        int width = tw+2*maxOffX;
-
-        // The start and end X in image's tile coordinate system...
-        int x0      = getTileGridXOffset() + xTile * tw - maxOffX
-                          - image.getTileGridXOffset();
-        int x1      = x0 + width-1;
-
-        int tile    = (int)Math.floor(x0/(double)tw);
-        int endTile = (int)Math.floor(x1/(double)tw);
-        int loc     = x0-(tile*tw);
-        int endLoc  = tw;
-
-        // Amount not used from right edge tile
-        int slop = ((endTile+1)*tw-1) - x1;
-
-        ret = new TileOffsets(width, base, 1,
-                              loc, endLoc, slop, tile, endTile);
-
-        xOffsets[xTile-getMinTileX()] = ret;
-        return ret;
+            filterBLPre(job.map, job.src, job.dest);
     }
 
-    public TileOffsets getYOffsets(int yTile) {
-        TileOffsets ret = yOffsets[yTile-getMinTileY()];
-        if (ret != null)
-            return ret;
-
-        SinglePixelPackedSampleModel sppsm;
-        sppsm = (SinglePixelPackedSampleModel)getSampleModel();
-        int stride  = sppsm.getScanlineStride();
-        int th      = sppsm.getHeight();
-
-        // The span we need to cover in the input image.
-        int height  = th+2*maxOffY;
-
-        // The start and end Y in image's tile coordinate system...
-        int y0      = getTileGridYOffset() + yTile * th - maxOffY
-                          - image.getTileGridYOffset();
-        int y1      = y0 + height - 1;
-
-        int tile    = (int)Math.floor(y0/(double)th);
-        int endTile = (int)Math.floor(y1/(double)th);
-        int loc     = y0-(tile*th);
-        int endLoc  = th;
+    /**
+     * Returns the region of the (padded) source image sampled when
+     * displacing the pixels of <code>r</code> with the given map: the
+     * region grown by the smallest and largest displacement found in
+     * the map, plus the extra column and row read by the bilinear
+     * interpolation.
+     */
+    protected Rectangle getSourceRect(Raster off, Rectangle r) {
+        DataBufferInt offDB = (DataBufferInt)off.getDataBuffer();
+        SinglePixelPackedSampleModel offSPPSM;
+        offSPPSM = (SinglePixelPackedSampleModel)off.getSampleModel();
+        final int offOff = offDB.getOffset() +
+            offSPPSM.getOffset(r.x - off.getSampleModelTranslateX(),
+                               r.y - off.getSampleModelTranslateY());
+        final int offAdjust = offSPPSM.getScanlineStride() - r.width;
+        final int[] offPixels = offDB.getBankData()[0];
 
-        // Amount not used from bottom edge tile
-        int slop = ((endTile+1)*th-1) - y1;
+        final int xShift = xChannel.toInt()*8;
+        final int yShift = yChannel.toInt()*8;
 
-        ret = new TileOffsets(height, 0, stride,
-                              loc, endLoc, slop, tile, endTile);
+        int xMin = 0xff, xMax = 0, yMin = 0xff, yMax = 0;
+        int ip = offOff;
+        for (int y=0; y<r.height; y++) {
+            for (int x=0; x<r.width; x++, ip++) {
+                int dPel = offPixels[ip];
+                int xv = (dPel>>xShift)&0xff;
+                int yv = (dPel>>yShift)&0xff;
+                if (xv < xMin) xMin = xv;
+                if (xv > xMax) xMax = xv;
+                if (yv < yMin) yMin = yv;
+                if (yv > yMax) yMax = yv;
+            }
+            ip += offAdjust;
+        }
 
-        yOffsets[yTile-getMinTileY()] = ret;
-        return ret;
+        // The displacement is monotonic in the map value, increasing
+        // or decreasing with the sign of the scale.
+        final int rnd = USE_NN ? 0x4000 : 0;
+        int dx0 = (fpScaleX*xMin+fpAdjX+rnd)>>15;
+        int dx1 = (fpScaleX*xMax+fpAdjX+rnd)>>15;
+        int dy0 = (fpScaleY*yMin+fpAdjY+rnd)>>15;
+        int dy1 = (fpScaleY*yMax+fpAdjY+rnd)>>15;
+        if (dx0 > dx1) { int t = dx0; dx0 = dx1; dx1 = t; }
+        if (dy0 > dy1) { int t = dy0; dy0 = dy1; dy1 = t; }
+
+        Rectangle srcR = new Rectangle(r.x+dx0, r.y+dy0,
+                                       r.width +dx1-dx0+1,
+                                       r.height+dy1-dy0+1);
+        return srcR.intersection(image.getBounds());
     }
 
-    public void filterBL(Raster off, WritableRaster dst,
-                         int [] xTile, int [] xOff,
-                         int [] yTile, int [] yOff) {
+    public void filterBL(Raster off, Raster src, WritableRaster dst) {
         final int w      = dst.getWidth();
         final int h      = dst.getHeight();
-        final int xStart = maxOffX;
-        final int yStart = maxOffY;
+        final int xStart = dst.getMinX();
+        final int yStart = dst.getMinY();
         final int xEnd   = xStart+w;
         final int yEnd   = yStart+h;
 
         // Access the integer buffer for each image.
         DataBufferInt dstDB = (DataBufferInt)dst.getDataBuffer();
         DataBufferInt offDB = (DataBufferInt)off.getDataBuffer();
+        DataBufferInt srcDB = (DataBufferInt)src.getDataBuffer();
 
         // Offset defines where in the stack the real data begin
-        SinglePixelPackedSampleModel dstSPPSM, offSPPSM;
+        SinglePixelPackedSampleModel dstSPPSM, offSPPSM, srcSPPSM;
 
         dstSPPSM = (SinglePixelPackedSampleModel)dst.getSampleModel();
         final int dstOff = dstDB.getOffset() +
@@ -298,6 +371,20 @@ public class DisplacementMapRed extends AbstractRed {
             offSPPSM.getOffset(dst.getMinX() - off.getSampleModelTranslateX(),
                                dst.getMinY() - off.getSampleModelTranslateY());
 
+        srcSPPSM = (SinglePixelPackedSampleModel)src.getSampleModel();
+        final int srcScanStride = srcSPPSM.getScanlineStride();
+        final int srcMinX = src.getMinX();
+        final int srcMinY = src.getMinY();
+        // The last column and row of src, where the interpolation
+        // reuses the same pixel.
+        final int srcMaxX = srcMinX+src.getWidth() -1;
+        final int srcMaxY = srcMinY+src.getHeight()-1;
+        // Offset of the (0, 0) pixel in the src buffer.
+        final int srcOff = srcDB.getOffset() +
+            srcSPPSM.getOffset(srcMinX - src.getSampleModelTranslateX(),
+                               srcMinY - src.getSampleModelTranslateY())
+            - srcMinX - srcMinY*srcScanStride;
+
         // Stride is the distance between two consecutive column elements,
         // in the one-dimention dataBuffer
         final int dstScanStride = dstSPPSM.getScanlineStride();
@@ -309,6 +396,7 @@ public class DisplacementMapRed extends AbstractRed {
         // Access the pixel value array
         final int[] dstPixels = dstDB.getBankData()[0];
         final int[] offPixels = offDB.getBankData()[0];
+        final int[] imgPix    = srcDB.getBankData()[0];
 
         // Below is the number of shifts for each axis
         // e.g when xChannel is ALPHA, the pixel needs
@@ -319,22 +407,11 @@ public class DisplacementMapRed extends AbstractRed {
         // The pointer of img and dst indicating where the pixel values are
         int dp = dstOff, ip = offOff;
 
-        // Fixed point representation of scale factor.
-        final int fpScaleX = (int)((scaleX/255.0)*(1<<15)+0.5);
-        final int fpAdjX   = (int)(-127.5*fpScaleX-0.5);
-        final int fpScaleY = (int)((scaleY/255.0)*(1<<15)+0.5);
-        final int fpAdjY   = (int)(-127.5*fpScaleY-0.5);
-
-        long start = System.currentTimeMillis();
-
         int pel00, pel01, pel10, pel11, xFrac, yFrac, newPel;
-        int sp0, sp1, pel0, pel1;
+        int sp0, sp1, pel0, pel1, pp, dx, dy;
 
         int x, y, x0, y0, xDisplace, yDisplace, dPel;
 
-        int xt=xTile[0]-1, yt=yTile[0]-1, xt1, yt1;
-        int [] imgPix = null;
-
         for (y=yStart; y<yEnd; y++) {
             for (x=xStart; x<xEnd; x++, dp++, ip++) {
                 dPel = offPixels[ip];
@@ -345,60 +422,13 @@ public class DisplacementMapRed extends AbstractRed {
                 x0 = x+(xDisplace>>15);
                 y0 = y+(yDisplace>>15);
 
-                if ((xt != xTile[x0]) ||
-                    (yt != yTile[y0])) {
-                    xt = xTile[x0]; yt = yTile[y0];
-                    imgPix = ((DataBufferInt)image.getTile(xt, yt)
-                              .getDataBuffer()).getBankData()[0];
-                }
-                pel00  = imgPix[xOff[x0]+yOff[y0]];
-
-                xt1 = xTile[x0+1];
-                yt1 = yTile[y0+1];
-                if ((yt == yt1)) {
-                    // Same tile vertically, check across...
-                    if ((xt == xt1)) {
-                        // All from same tile..
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        pel01  = imgPix[xOff[x0]  +yOff[y0+1]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                    } else {
-                        // Different tile horizontally...
-                        pel01  = imgPix[xOff[x0]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                        xt = xt1;
-                    }
-                } else {
-                    // Steped into next tile down, check across...
-                    if ((xt == xt1)) {
-                        // Different tile horizontally.
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel01  = imgPix[xOff[x0]  +yOff[y0+1]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                        yt = yt1;
-                    } else {
-                        // Ugg we are at the 4way intersection of tiles...
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel01  = imgPix[xOff[x0]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        xt = xt1;
-                    }
-                }
+                pp = srcOff+x0+y0*srcScanStride;
+                dx = (x0 < srcMaxX) ? 1 : 0;
+                dy = (y0 < srcMaxY) ? srcScanStride : 0;
+                pel00  = imgPix[pp];
+                pel10  = imgPix[pp+dx];
+                pel01  = imgPix[pp+dy];
+                pel11  = imgPix[pp+dx+dy];
 
                 xFrac = xDisplace&0x7FFF;
                 yFrac = yDisplace&0x7FFF;
@@ -449,29 +479,23 @@ public class DisplacementMapRed extends AbstractRed {
             dp += dstAdjust;
             ip += offAdjust;
         }
-
-        if (TIME) {
-            long end = System.currentTimeMillis();
-            System.out.println("Time: " + (end-start));
-        }
     }// end of the filter() method for Raster
 
-    public void filterBLPre(Raster off, WritableRaster dst,
-                            int [] xTile, int [] xOff,
-                            int [] yTile, int [] yOff) {
+    public void filterBLPre(Raster off, Raster src, WritableRaster dst) {
         final int w      = dst.getWidth();
         final int h      = dst.getHeight();
-        final int xStart = maxOffX;
-        final int yStart = maxOffY;
+        final int xStart = dst.getMinX();
+        final int yStart = dst.getMinY();
         final int xEnd   = xStart+w;
         final int yEnd   = yStart+h;
 
         // Access the integer buffer for each image.
         DataBufferInt dstDB = (DataBufferInt)dst.getDataBuffer();
         DataBufferInt offDB = (DataBufferInt)off.getDataBuffer();
+        DataBufferInt srcDB = (DataBufferInt)src.getDataBuffer();
 
         // Offset defines where in the stack the real data begin
-        SinglePixelPackedSampleModel dstSPPSM, offSPPSM;
+        SinglePixelPackedSampleModel dstSPPSM, offSPPSM, srcSPPSM;
 
         dstSPPSM = (SinglePixelPackedSampleModel)dst.getSampleModel();
         final int dstOff = dstDB.getOffset() +
@@ -483,6 +507,17 @@ public class DisplacementMapRed extends AbstractRed {
             offSPPSM.getOffset(dst.getMinX() - off.getSampleModelTranslateX(),
                                dst.getMinY() - off.getSampleModelTranslateY());
 
+        srcSPPSM = (SinglePixelPackedSampleModel)src.getSampleModel();
+        final int srcScanStride = srcSPPSM.getScanlineStride();
+        final int srcMinX = src.getMinX();
+        final int srcMinY = src.getMinY();
+        final int srcMaxX = srcMinX+src.getWidth() -1;
+        final int srcMaxY = srcMinY+src.getHeight()-1;
+        final int srcOff = srcDB.getOffset() +
+            srcSPPSM.getOffset(srcMinX - src.getSampleModelTranslateX(),
+                               srcMinY - src.getSampleModelTranslateY())
+            - srcMinX - srcMinY*srcScanStride;
+
         // Stride is the distance between two consecutive column elements,
         // in the one-dimention dataBuffer
         final int dstScanStride = dstSPPSM.getScanlineStride();
@@ -494,6 +529,7 @@ public class DisplacementMapRed extends AbstractRed {
         // Access the pixel value array
         final int[] dstPixels = dstDB.getBankData()[0];
         final int[] offPixels = offDB.getBankData()[0];
+        final int[] imgPix    = srcDB.getBankData()[0];
 
         // Below is the number of shifts for each axis
         // e.g when xChannel is ALPHA, the pixel needs
@@ -504,24 +540,12 @@ public class DisplacementMapRed extends AbstractRed {
         // The pointer of img and dst indicating where the pixel values are
         int dp = dstOff, ip = offOff;
 
-        // Fixed point representation of scale factor.
-        // Fixed point representation of scale factor.
-        final int fpScaleX = (int)((scaleX/255.0)*(1<<15)+0.5);
-        final int fpAdjX   = (int)(-127.5*fpScaleX-0.5);
-        final int fpScaleY = (int)((scaleY/255.0)*(1<<15)+0.5);
-        final int fpAdjY   = (int)(-127.5*fpScaleY-0.5);
-
-        long start = System.currentTimeMillis();
-
         int pel00, pel01, pel10, pel11, xFrac, yFrac, newPel;
-        int sp0, sp1, pel0, pel1, a00, a01, a10, a11;
+        int sp0, sp1, pel0, pel1, a00, a01, a10, a11, pp, dx, dy;
 
         int x, y, x0, y0, xDisplace, yDisplace, dPel;
         final int norm = (1<<24)/255;
 
-        int xt=xTile[0]-1, yt=yTile[0]-1, xt1, yt1;
-        int [] imgPix = null;
-
         for (y=yStart; y<yEnd; y++) {
             for (x=xStart; x<xEnd; x++, dp++, ip++) {
                 dPel = offPixels[ip];
@@ -532,60 +556,13 @@ public class DisplacementMapRed extends AbstractRed {
                 x0 = x+(xDisplace>>15);
                 y0 = y+(yDisplace>>15);
 
-                if ((xt != xTile[x0]) || (yt != yTile[y0])) {
-                    xt = xTile[x0];
-                    yt = yTile[y0];
-                    imgPix = ((DataBufferInt)image.getTile(xt, yt)
-                              .getDataBuffer()).getBankData()[0];
-                }
-                pel00  = imgPix[xOff[x0]+yOff[y0]];
-
-                xt1 = xTile[x0+1];
-                yt1 = yTile[y0+1];
-                if ((yt == yt1)) {
-                    // Same tile vertically, check across...
-                    if ((xt == xt1)) {
-                        // All from same tile..
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        pel01  = imgPix[xOff[x0]  +yOff[y0+1]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                    } else {
-                        // Different tile horizontally...
-                        pel01  = imgPix[xOff[x0]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                        xt = xt1;
-                    }
-                } else {
-                    // Steped into next tile down, check across...
-                    if ((xt == xt1)) {
-                        // Different tile horizontally.
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel01  = imgPix[xOff[x0]  +yOff[y0+1]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                        yt = yt1;
-                    } else {
-                        // Ugg we are at the 4way intersection of tiles...
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel01  = imgPix[xOff[x0]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        xt = xt1;
-                    }
-                }
+                pp = srcOff+x0+y0*srcScanStride;
+                dx = (x0 < srcMaxX) ? 1 : 0;
+                dy = (y0 < srcMaxY) ? srcScanStride : 0;
+                pel00  = imgPix[pp];
+                pel10  = imgPix[pp+dx];
+                pel01  = imgPix[pp+dy];
+                pel11  = imgPix[pp+dx+dy];
 
                 xFrac = xDisplace&0x7FFF;
                 yFrac = yDisplace&0x7FFF;
@@ -641,37 +618,30 @@ public class DisplacementMapRed extends AbstractRed {
             dp += dstAdjust;
             ip += offAdjust;
         }
-
-        if (TIME) {
-            long end = System.currentTimeMillis();
-            System.out.println("Time: " + (end-start));
-        }
     }// end of the filter() method for Raster
 
     /**
      * Does displacement map using Nearest neighbor interpolation
      *
      * @param off the displacement map
-     * @param dst stores the filtered image. If null, a destination will
-     *        be created. img and dst can refer to the same Raster, in
-     *        which situation the img will be modified.
+     * @param src the source pixels, covering the displaced locations
+     * @param dst stores the filtered image.
      */
-    public void filterNN(Raster off, WritableRaster dst,
-                         int [] xTile, int [] xOff,
-                         int [] yTile, int [] yOff) {
+    public void filterNN(Raster off, Raster src, WritableRaster dst) {
         final int w      = dst.getWidth();
         final int h      = dst.getHeight();
-        final int xStart = maxOffX;
-        final int yStart = maxOffY;
+        final int xStart = dst.getMinX();
+        final int yStart = dst.getMinY();
         final int xEnd   = xStart+w;
         final int yEnd   = yStart+h;
 
         // Access the integer buffer for each image.
         DataBufferInt dstDB = (DataBufferInt)dst.getDataBuffer();
         DataBufferInt offDB = (DataBufferInt)off.getDataBuffer();
+        DataBufferInt srcDB = (DataBufferInt)src.getDataBuffer();
 
         // Offset defines where in the stack the real data begin
-        SinglePixelPackedSampleModel dstSPPSM, offSPPSM;
+        SinglePixelPackedSampleModel dstSPPSM, offSPPSM, srcSPPSM;
 
         dstSPPSM = (SinglePixelPackedSampleModel)dst.getSampleModel();
         final int dstOff = dstDB.getOffset() +
@@ -680,8 +650,15 @@ public class DisplacementMapRed extends AbstractRed {
 
         offSPPSM = (SinglePixelPackedSampleModel)off.getSampleModel();
         final int offOff = offDB.getOffset() +
-            offSPPSM.getOffset(off.getMinX() - off.getSampleModelTranslateX(),
-                               off.getMinY() - off.getSampleModelTranslateY());
+            offSPPSM.getOffset(dst.getMinX() - off.getSampleModelTranslateX(),
+                               dst.getMinY() - off.getSampleModelTranslateY());
+
+        srcSPPSM = (SinglePixelPackedSampleModel)src.getSampleModel();
+        final int srcScanStride = srcSPPSM.getScanlineStride();
+        final int srcOff = srcDB.getOffset() +
+            srcSPPSM.getOffset(src.getMinX() - src.getSampleModelTranslateX(),
+                               src.getMinY() - src.getSampleModelTranslateY())
+            - src.getMinX() - src.getMinY()*srcScanStride;
 
         // Stride is the distance between two consecutive column elements,
         // in the one-dimention dataBuffer
@@ -694,6 +671,7 @@ public class DisplacementMapRed extends AbstractRed {
         // Access the pixel value array
         final int[] dstPixels = dstDB.getBankData()[0];
         final int[] offPixels = offDB.getBankData()[0];
+        final int[] imgPix    = srcDB.getBankData()[0];
 
         // Below is the number of shifts for each axis
         // e.g when xChannel is ALPHA, the pixel needs
@@ -701,21 +679,15 @@ public class DisplacementMapRed extends AbstractRed {
         final int xShift = xChannel.toInt()*8;
         final int yShift = yChannel.toInt()*8;
 
-        final int fpScaleX = (int)((scaleX/255.0)*(1<<15)+0.5);
-        final int fpScaleY = (int)((scaleY/255.0)*(1<<15)+0.5);
-
         // Calculate the shift to make '.5' no movement.
         // This also includes rounding factor (0x4000) for Fixed Point stuff.
-        final int fpAdjX   = (int)(-127.5*fpScaleX-0.5) + 0x4000;
-        final int fpAdjY   = (int)(-127.5*fpScaleY-0.5) + 0x4000;
+        final int fpAdjX   = this.fpAdjX + 0x4000;
+        final int fpAdjY   = this.fpAdjY + 0x4000;
 
         // The pointer of img and dst indicating where the pixel values are
         int dp = dstOff, ip = offOff;
 
-        long start = System.currentTimeMillis();
-        int y=yStart, xt=xTile[0]-1, yt=yTile[0]-1;
-        int [] imgPix = null;
-
+        int y=yStart;
         int x0, y0, xDisplace, yDisplace, dPel;
         while (y<yEnd) {
             int x=xStart;
@@ -728,13 +700,7 @@ public class DisplacementMapRed extends AbstractRed {
                 x0 = x+(xDisplace>>15);
                 y0 = y+(yDisplace>>15);
 
-                if ((xt != xTile[x0]) ||
-                    (yt != yTile[y0])) {
-                    xt = xTile[x0]; yt = yTile[y0];
-                    imgPix = ((DataBufferInt)image.getTile(xt, yt)
-                              .getDataBuffer()).getBankData()[0];
-                }
-                dstPixels[dp] = imgPix[xOff[x0]+yOff[y0]];
+                dstPixels[dp] = imgPix[srcOff+x0+y0*srcScanStride];
 
                 dp++;
                 ip++;
@@ -745,11 +711,5 @@ public class DisplacementMapRed extends AbstractRed {
             ip += offAdjust;
             y++;
         }
-        if (TIME) {
-            long end = System.currentTimeMillis();
-            System.out.println("Time: " + (end-start));
-        }
     }// end of the filter() method for Raster
 }
-
-
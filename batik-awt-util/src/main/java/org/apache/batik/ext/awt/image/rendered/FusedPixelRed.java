@@ -0,0 +1,331 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+
+/**
+ * This class applies a chain of per-pixel operations in a single pass
+ * over each tile.  It replaces consecutive {@link ColorMatrixRed},
+ * {@link ComponentTransferRed}, {@link Any2LsRGBRed} and
+ * {@link Any2sRGBRed} images: the source data is read once, unpremultiplied
+ * once, and every operation is applied to a scanline while it is still
+ * in the cache.  Consecutive lookup operations (component transfers and
+ * color space conversions) are composed into a single table.
+ *
+ * <p>Use {@link #fuse(CachableRed)} to collapse a chain; the result
+ * produces exactly the same pixels as the chain it replaces.</p>
+ *
+ * @version $Id$
+ */
+public class FusedPixelRed extends AbstractRed {
+
+    /**
+     * The operations to apply, from the source up.
+     */
+    protected PixelStage[] stages;
+
+    /**
+     * Collapses the chain of per-pixel operations ending with
+     * <code>red</code> into a single image.
+     * @param red The last operation of the chain.
+     * @return a FusedPixelRed, or <code>red</code> itself when there is
+     *         nothing to fuse.
+     */
+    public static CachableRed fuse(CachableRed red) {
+        LinkedList stages = new LinkedList();
+        LinkedList reds = new LinkedList();
+        CachableRed cur = red;
+        for (;;) {
+            if (cur instanceof FusedPixelRed) {
+                // Extend an already fused chain.
+                FusedPixelRed fpr = (FusedPixelRed)cur;
+                for (int i = fpr.stages.length - 1; i >= 0; i--) {
+                    stages.addFirst(fpr.stages[i]);
+                }
+                cur = (CachableRed)cur.getSources().get(0);
+                break;
+            }
+            PixelStage s = getStage(cur);
+            if (s == null) {
+                break;
+            }
+            stages.addFirst(s);
+            reds.addFirst(cur);
+            cur = (CachableRed)cur.getSources().get(0);
+        }
+
+        // The base must provide int packed pixels with alpha: keep
+        // the lowest operations unfused until it does.
+        while (!stages.isEmpty() && !isFusableSource(cur)) {
+            stages.removeFirst();
+            cur = (CachableRed)reds.removeFirst();
+        }
+
+        if (stages.size() < 2) {
+            return red;
+        }
+        return new FusedPixelRed(cur, red, compose(stages));
+    }
+
+    /**
+     * Creates a new FusedPixelRed.
+     * @param src The source of the first operation.
+     * @param last The last operation of the chain, giving the layout
+     *        and color model of the result.
+     * @param stages The operations to apply, from the source up.
+     */
+    protected FusedPixelRed(CachableRed src, CachableRed last,
+                            PixelStage[] stages) {
+        super(src, last.getBounds(), last.getColorModel(),
+              last.getSampleModel(), last.getTileGridXOffset(),
+              last.getTileGridYOffset(), null);
+        this.stages = stages;
+    }
+
+    /**
+     * Returns the number of passes applied to each scanline.
+     */
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    public WritableRaster copyData(WritableRaster wr) {
+        CachableRed src = (CachableRed)getSources().get(0);
+
+        if (!Any2sRGBRed.is_INT_PACK_COMP(wr.getSampleModel())
+            || wr.getNumBands() != 4) {
+            // Compute in our own layout and copy out.
+            SampleModel sm = getColorModel().createCompatibleSampleModel
+                (wr.getWidth(), wr.getHeight());
+            WritableRaster tmp = Raster.createWritableRaster
+                (sm, new Point(wr.getMinX(), wr.getMinY()));
+            copyData(tmp);
+            GraphicsUtil.copyData(tmp, wr);
+            return wr;
+        }
+
+        src.copyData(wr);
+        GraphicsUtil.coerceData(wr, src.getColorModel(), false);
+
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+        DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+        final int[] pixels = db.getBankData()[0];
+        final int w = wr.getWidth();
+        final int h = wr.getHeight();
+        final int scanStride = sppsm.getScanlineStride();
+        int sp = (db.getOffset() +
+                  sppsm.getOffset(wr.getMinX()-wr.getSampleModelTranslateX(),
+                                  wr.getMinY()-wr.getSampleModelTranslateY()));
+
+        for (int y = 0; y < h; y++) {
+            for (PixelStage stage : stages) {
+                stage.filter(pixels, sp, w);
+            }
+            sp += scanStride;
+        }
+        return wr;
+    }
+
+    /**
+     * Returns the operation performed by the given image, or null if it
+     * is not a per-pixel operation this class knows to apply.
+     */
+    protected static PixelStage getStage(CachableRed red) {
+        if (red instanceof ColorMatrixRed) {
+            return new MatrixStage(((ColorMatrixRed)red).getMatrix());
+        }
+        if (red instanceof ComponentTransferRed) {
+            byte[][] tables = ((ComponentTransferRed)red).getLookupTables();
+            int[][] luts = new int[4][];
+            for (int i = 0; i < 4; i++) {
+                int[] lut = new int[256];
+                for (int j = 0; j < 256; j++) {
+                    lut[j] = tables[i][j] & 0xff;
+                }
+                luts[i] = lut;
+            }
+            return new LookupStage(luts[3], luts[0], luts[1], luts[2]);
+        }
+        // High precision conversions can't be expressed as 8 bit lookups.
+        if (red instanceof Any2LsRGBRed && ((Any2LsRGBRed)red).srcIssRGB
+            && !((Any2LsRGBRed)red).isHighPrecision()) {
+            int[] lut = Any2LsRGBRed.sRGBToLsRGBLut;
+            return new LookupStage(null, lut, lut, lut);
+        }
+        if (red instanceof Any2sRGBRed && ((Any2sRGBRed)red).srcIsLsRGB
+            && !((Any2sRGBRed)red).isHighPrecision()) {
+            int[] lut = Any2sRGBRed.linearToSRGBLut;
+            return new LookupStage(null, lut, lut, lut);
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether the given image can be the source of a fused chain.
+     */
+    protected static boolean isFusableSource(CachableRed red) {
+        ColorModel cm = red.getColorModel();
+        SampleModel sm = red.getSampleModel();
+        return cm != null && cm.hasAlpha() && sm.getNumBands() == 4
+            && Any2sRGBRed.is_INT_PACK_COMP(sm);
+    }
+
+    /**
+     * Merges the consecutive lookup stages of the given list.
+     */
+    protected static PixelStage[] compose(List stages) {
+        LinkedList result = new LinkedList();
+        for (Object stage : stages) {
+            PixelStage s = (PixelStage)stage;
+            if (s instanceof LookupStage && !result.isEmpty()
+                && result.getLast() instanceof LookupStage) {
+                LookupStage prev = (LookupStage)result.removeLast();
+                s = prev.then((LookupStage)s);
+            }
+            result.add(s);
+        }
+        return (PixelStage[])result.toArray(new PixelStage[result.size()]);
+    }
+
+    /**
+     * A per-pixel operation on unpremultiplied, int packed ARGB pixels.
+     */
+    protected abstract static class PixelStage {
+
+        /**
+         * Applies this operation in place to <code>len</code> pixels
+         * starting at <code>off</code>.
+         */
+        public abstract void filter(int[] pixels, int off, int len);
+    }
+
+    /**
+     * Applies a color matrix, as {@link ColorMatrixRed} does.
+     */
+    protected static class MatrixStage extends PixelStage {
+
+        private final float a00, a01, a02, a03, a04;
+        private final float a10, a11, a12, a13, a14;
+        private final float a20, a21, a22, a23, a24;
+        private final float a30, a31, a32, a33, a34;
+
+        public MatrixStage(float[][] matrix) {
+            a00=matrix[0][0]/255f; a01=matrix[0][1]/255f; a02=matrix[0][2]/255f; a03=matrix[0][3]/255f; a04=matrix[0][4]/255f;
+            a10=matrix[1][0]/255f; a11=matrix[1][1]/255f; a12=matrix[1][2]/255f; a13=matrix[1][3]/255f; a14=matrix[1][4]/255f;
+            a20=matrix[2][0]/255f; a21=matrix[2][1]/255f; a22=matrix[2][2]/255f; a23=matrix[2][3]/255f; a24=matrix[2][4]/255f;
+            a30=matrix[3][0]/255f; a31=matrix[3][1]/255f; a32=matrix[3][2]/255f; a33=matrix[3][3]/255f; a34=matrix[3][4]/255f;
+        }
+
+        public void filter(int[] pixels, int off, int len) {
+            final int end = off + len;
+            for (int p = off; p < end; p++) {
+                int pel = pixels[p];
+
+                int a = pel >>> 24;
+                int r = (pel >> 16) & 0xff;
+                int g = (pel >> 8 ) & 0xff;
+                int b =  pel        & 0xff;
+
+                int dr = (int)((a00*r + a01*g + a02*b + a03*a + a04)*255.0f);
+                int dg = (int)((a10*r + a11*g + a12*b + a13*a + a14)*255.0f);
+                int db = (int)((a20*r + a21*g + a22*b + a23*a + a24)*255.0f);
+                int da = (int)((a30*r + a31*g + a32*b + a33*a + a34)*255.0f);
+
+                if ((dr & 0xFFFFFF00) != 0)
+                    dr = ((dr & 0x80000000) != 0)?0:255;
+                if ((dg & 0xFFFFFF00) != 0)
+                    dg = ((dg & 0x80000000) != 0)?0:255;
+                if ((db & 0xFFFFFF00) != 0)
+                    db = ((db & 0x80000000) != 0)?0:255;
+                if ((da & 0xFFFFFF00) != 0)
+                    da = ((da & 0x80000000) != 0)?0:255;
+
+                pixels[p] = (da << 24 | dr << 16 | dg << 8 | db);
+            }
+        }
+    }
+
+    /**
+     * Applies a lookup table to each component.  A null table leaves
+     * the component unchanged.
+     */
+    protected static class LookupStage extends PixelStage {
+
+        private final int[] aLut, rLut, gLut, bLut;
+
+        public LookupStage(int[] aLut, int[] rLut, int[] gLut, int[] bLut) {
+            this.aLut = aLut;
+            this.rLut = rLut;
+            this.gLut = gLut;
+            this.bLut = bLut;
+        }
+
+        /**
+         * Returns a stage applying this lookup followed by the given one.
+         */
+        public LookupStage then(LookupStage next) {
+            return new LookupStage(compose(aLut, next.aLut),
+                                   compose(rLut, next.rLut),
+                                   compose(gLut, next.gLut),
+                                   compose(bLut, next.bLut));
+        }
+
+        private static int[] compose(int[] first, int[] second) {
+            if (first == null) return second;
+            if (second == null) return first;
+            int[] lut = new int[256];
+            for (int i = 0; i < 256; i++) {
+                lut[i] = second[first[i]];
+            }
+            return lut;
+        }
+
+        public void filter(int[] pixels, int off, int len) {
+            final int end = off + len;
+            final int[] aLut = this.aLut;
+            final int[] rLut = this.rLut;
+            final int[] gLut = this.gLut;
+            final int[] bLut = this.bLut;
+            for (int p = off; p < end; p++) {
+                int pel = pixels[p];
+                int a = pel >>> 24;
+                int r = (pel >> 16) & 0xff;
+                int g = (pel >> 8 ) & 0xff;
+                int b =  pel        & 0xff;
+                if (aLut != null) a = aLut[a];
+                if (rLut != null) r = rLut[r];
+                if (gLut != null) g = gLut[g];
+                if (bLut != null) b = bLut[b];
+                pixels[p] = (a << 24 | r << 16 | g << 8 | b);
+            }
+        }
+    }
+}
@@ -230,613 +230,51 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
         return dest;
     }
 
-    /*
-     * This method compares the two input variables according
-     * to the doDilation boolean variable.
+    /**
+     * The number of columns processed together by the vertical pass.
      */
-    static final boolean isBetter (final int v1, final int v2, final boolean doDilation) {
-        if (v1 > v2)
-            return doDilation;
-        if (v1 < v2)
-            return !doDilation;
-        return true;
-    }
+    static final int STRIP_WIDTH = 64;
 
     /*
-     * This method deals with the condition that the Kernel is wider than
-     * the Image
+     * Computes the running maximum of a window of k values over
+     * in[0..n-1] using the van Herk/Gil-Werman algorithm, storing
+     * max(in[i..i+k-1]) in out[i] for 0 <= i <= n-k.  g and h receive
+     * the maxima from the start of each block of k values and from the
+     * end of it, so each output costs three comparisons whatever the
+     * value of k.
      */
-    private void specialProcessRow(Raster src, WritableRaster dest){
-        final int w = src.getWidth();
-        final int h = src.getHeight();
-
-        // Access the integer buffer for each image.
-        DataBufferInt srcDB = (DataBufferInt)src.getDataBuffer();
-        DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
-
-        // Offset defines where in the stack the real data begin
-        SinglePixelPackedSampleModel sppsm;
-        sppsm = (SinglePixelPackedSampleModel)src.getSampleModel();
-
-        final int srcOff = srcDB.getOffset() +
-            sppsm.getOffset(src.getMinX() - src.getSampleModelTranslateX(),
-                            src.getMinY() - src.getSampleModelTranslateY());
-
-
-        sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
-        final int dstOff = dstDB.getOffset() +
-            sppsm.getOffset(dest.getMinX() - dest.getSampleModelTranslateX(),
-                            dest.getMinY() - dest.getSampleModelTranslateY());
-
-        // Stride is the distance between two consecutive column elements,
-        // in the one-dimention dataBuffer
-        final int srcScanStride = ((SinglePixelPackedSampleModel)src.getSampleModel()).getScanlineStride();
-        final int dstScanStride = ((SinglePixelPackedSampleModel)dest.getSampleModel()).getScanlineStride();
-
-        // Access the pixel value array
-        final int[] srcPixels = srcDB.getBankData()[0];
-        final int[] destPixels = dstDB.getBankData()[0];
-
-        // The pointer of src and dest indicating where the pixel values are
-        int sp, dp;
-
-        // Declaration for the circular buffer's implementation
-        // These are the circular buffers' head pointer and
-        // the index pointers
-
-        // bufferHead points to the leftmost element in the circular buffer
-        int bufferHead;
-
-        int maxIndexA;
-        int maxIndexR;
-        int maxIndexG;
-        int maxIndexB;
-
-        // Temp variables
-        int pel, currentPixel, lastPixel;
-        int a,r,g,b;
-        int a1,r1,g1,b1;
-
-        // If image width is less than or equal to the radiusX,
-        // all the pixels share the same max/min value
-        if (w<=radiusX){
-            for (int i=0; i<h; i++){
-                // pointing to the first pixels of each row
-                sp = srcOff + i*srcScanStride;
-                dp = dstOff + i*dstScanStride;
-                pel = srcPixels[sp++];
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-
-                for (int k=1; k<w; k++){
-                    currentPixel = srcPixels[sp++];
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                    }
-                }
-                // all the element share the same max/min value
-                for (int k=0; k<w; k++){
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                }
-            }
+    static void runningMax(int [] in, int n, int k,
+                           int [] g, int [] h, int [] out) {
+        for (int i=0; i<n; i++) {
+            int v = in[i];
+            if ((i%k != 0) && (g[i-1] > v))
+                v = g[i-1];
+            g[i] = v;
         }
-
-        // When radiusX < w <= 2*radiusX
-        else {
-
-            // The width of the circular buffer is w
-            final int [] bufferA = new int [w];
-            final int [] bufferR = new int [w];
-            final int [] bufferG = new int [w];
-            final int [] bufferB = new int [w];
-
-            for (int i=0; i<h; i++){
-                // initialization of pointers, indice
-                // at the head of each row
-                sp = srcOff + i*srcScanStride;
-                dp = dstOff + i*dstScanStride;
-
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                pel = srcPixels[sp++];
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusX; k++){
-                    currentPixel = srcPixels[sp++];
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
-                }
-                destPixels[dp++] = (a << 24) | r | g | b;
-
-                //
-                // 1 <= j <= w-radiusX-1 : The left margin of each row.
-                //
-                for (int j=1; j<=w-radiusX-1; j++){
-                    lastPixel = srcPixels[sp++];
-
-                    // here is the Alpha channel
-
-                    // we retrieve the previous max/min value
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[j+radiusX] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = j+radiusX;
-                    }
-
-                    // now we deal with the Red channel
-
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[j+radiusX] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = j+radiusX;
-                    }
-
-                    // now we deal with the Green channel
-
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[j+radiusX] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = j+radiusX;
-                    }
-
-                    // now we deal with the Blue channel
-
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[j+radiusX] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = j+radiusX;
-                    }
-                    // now we have gone through the four channels and
-                    // updated the index array. then we'll pack the
-                    // new max/min value according to each channel's
-                    // max/min vlue
-
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                }
-                // Now is the inner body of the row:
-                // all elements in this segment share the same max/min value
-                for (int j = w-radiusX; j<= radiusX; j++){
-                    destPixels[dp] = destPixels[dp-1];
-                    dp++;
-                }
-                // Now the circular buffer is full
-                // Now is the right margin of the row when radiusX < w <= 2*radiusX
-                for (int j = radiusX+1; j<w; j++){
-
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[bufferHead+1];
-                        maxIndexA = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    else {
-                        a = bufferA[maxIndexA];
-                    }
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[bufferHead+1];
-                        maxIndexR = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    else {
-                        r = bufferR[maxIndexR];
-                    }
-
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[bufferHead+1];
-                        maxIndexG = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                    }
-
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[bufferHead+1];
-                        maxIndexB = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                    }
-
-                    // discard the leftmost element
-                    bufferHead++;
-
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                }
-                // return to the first pixel of the next row
-            }
-        }// When radiusX < w <=2*radiusX
-    }
-
-    /*
-     * This method deals with the condition when the Kernel is
-     * higher than the image.
-     */
-    private void specialProcessColumn(Raster src, WritableRaster dest){
-
-        final int w = src.getWidth();
-        final int h = src.getHeight();
-
-        // Access the integer buffer for each image.
-        DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
-
-        // Offset defines where in the stack the real data begin
-        final int dstOff = dstDB.getOffset();
-
-        // Stride is the distance between two consecutive column elements,
-        // in the one-dimention dataBuffer
-        final int dstScanStride = ((SinglePixelPackedSampleModel)dest.getSampleModel()).getScanlineStride();
-
-        // Access the pixel value array
-        final int[] destPixels = dstDB.getBankData()[0];
-
-        // The pointer of src and dest indicating where the pixel values are
-        int dp, cp;
-
-        // Declaration for the circular buffer's implementation
-        // These are the circular buffers' head pointer and
-        // the index pointers
-
-        // bufferHead points to the leftmost element in the circular buffer
-        int bufferHead;
-
-        int maxIndexA;
-        int maxIndexR;
-        int maxIndexG;
-        int maxIndexB;
-
-        // Temp variables
-        int pel, currentPixel, lastPixel;
-        int a,r,g,b;
-        int a1,r1,g1,b1;
-
-        // Here all the pixels share the same
-        // max/min value
-        if (h<=radiusY){
-            for (int j=0; j<w; j++){
-                dp = dstOff + j;
-                cp = dstOff + j;
-                pel = destPixels[cp];
-                cp += dstScanStride;
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-
-                for (int k=1; k<h; k++){
-                    currentPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                    }
-                }
-                for (int k=0; k<h; k++){
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                }
-                // return to the first pixel of the next column
-            }
+        for (int i=n-1; i>=0; i--) {
+            int v = in[i];
+            if ((i%k != k-1) && (i != n-1) && (h[i+1] > v))
+                v = h[i+1];
+            h[i] = v;
+        }
+        for (int i=0, last=n-k; i<=last; i++) {
+            int v0 = h[i];
+            int v1 = g[i+k-1];
+            out[i] = (v0 > v1) ? v0 : v1;
         }
-
-        // When radiusY < h <= 2*radiusY
-        else {
-
-            // The height of the circular buffer is h
-            final int [] bufferA = new int [h];
-            final int [] bufferR = new int [h];
-            final int [] bufferG = new int [h];
-            final int [] bufferB = new int [h];
-
-            for (int j=0; j<w; j++){
-                // initialization of pointers, indice
-                // at the head of each column
-                dp = dstOff + j;
-                cp = dstOff + j;
-
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                pel = destPixels[cp];
-                cp += dstScanStride;
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusY; k++){
-                    currentPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
-                }
-                // fill the first pixel of each column
-                destPixels[dp] = (a << 24) | r | g | b;
-                dp += dstScanStride;
-
-                //
-                // 1 <= i <= h-1-radiusY : The upper margin of each column.
-                //
-                for (int i=1; i<=h-radiusY-1; i++){
-                    lastPixel = destPixels[cp];
-                    cp += dstScanStride;
-
-                    // here is the Alpha channel
-
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[i+radiusY] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = i+radiusY;
-                    }
-
-                    // now we deal with the Red channel
-
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[i+radiusY] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = i+radiusY;
-                    }
-
-                    // now we deal with the Green channel
-
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[i+radiusY] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = i+radiusY;
-                    }
-
-                    // now we deal with the Blue channel
-
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[i+radiusY] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = i+radiusY;
-                    }
-                    // now we have gone through the four channels and
-                    // updated the index array. then we'll pack the
-                    // new max/min value according to each channel's
-                    // max/min vlue
-
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                }
-                // Now is the inner body of the column
-                // when radiusY < h <= 2*radiusY
-                for (int i = h-radiusY; i<= radiusY; i++){
-                    destPixels[dp] = destPixels[dp-dstScanStride];
-                    dp += dstScanStride;
-                }
-                // The circular buffer is full now
-
-                for (int i = radiusY+1; i<h; i++){
-
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[bufferHead+1];
-                        maxIndexA = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    else {
-                        a = bufferA[maxIndexA];
-                    }
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[bufferHead+1];
-                        maxIndexR = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    else {
-                        r = bufferR[maxIndexR];
-                    }
-
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[bufferHead+1];
-                        maxIndexG = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                    }
-
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[bufferHead+1];
-                        maxIndexB = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                    }
-
-                    // discard the leftmost element
-                    bufferHead++;
-
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                }
-                // return to the first pixel of the next column
-            }
-        } // when radiusY < h <= 2*radiusY
     }
 
-    /**
-     * Filters src and writes result into dest. If dest if null, then
-     * a Raster is created. If dest and src refer to the same object,
-     * then the source is modified.
-     * <p>
-     * The filtering kernel(the operation range for each pixel) is a
-     * rectangle of width 2*radiusX+1 and height radiusY+1
-     * <p>
-     * @param src the Raster to be filtered
-     * @param dest stores the filtered image. If null, a destination will
-     *        be created. src and dest can refer to the same Raster, in
-     *        which situation the src will be modified.
-     */
     public WritableRaster filter(Raster src, WritableRaster dest){
 
         //
-        //This method sorts the pixel values in the kernel window in two steps:
-        // 1. sort by row and store the result into an intermediate matrix
-        // 2. sort the intermediate matrix by column and output the max/min value
-        //    into the destination matrix element
+        // The window is separable: a pass over the rows computes the
+        // max/min along X into dest, then a pass over the columns of
+        // dest computes the max/min along Y in place.  Both passes use
+        // the van Herk/Gil-Werman running max, so the cost per pixel
+        // does not depend on the radius.  Erosion is done as the
+        // dilation of the inverted samples, and the samples beyond the
+        // edges are padded with the identity (zero once inverted), which
+        // clips the window to the image.
 
         //check destation
         if(dest!=null) checkCompatible(dest.getSampleModel());
@@ -853,676 +291,134 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
         DataBufferInt srcDB = (DataBufferInt)src.getDataBuffer();
         DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
 
+        SinglePixelPackedSampleModel srcSPPSM =
+            (SinglePixelPackedSampleModel)src.getSampleModel();
+        SinglePixelPackedSampleModel dstSPPSM =
+            (SinglePixelPackedSampleModel)dest.getSampleModel();
+
         // Offset defines where in the stack the real data begin
-        final int srcOff = srcDB.getOffset();
-        final int dstOff = dstDB.getOffset();
+        final int srcOff = (srcDB.getOffset() +
+                            srcSPPSM.getOffset
+                            (src.getMinX()-src.getSampleModelTranslateX(),
+                             src.getMinY()-src.getSampleModelTranslateY()));
+        final int dstOff = (dstDB.getOffset() +
+                            dstSPPSM.getOffset
+                            (dest.getMinX()-dest.getSampleModelTranslateX(),
+                             dest.getMinY()-dest.getSampleModelTranslateY()));
 
         // Stride is the distance between two consecutive column elements,
         // in the one-dimention dataBuffer
-        final int srcScanStride = ((SinglePixelPackedSampleModel)src.getSampleModel()).getScanlineStride();
-        final int dstScanStride = ((SinglePixelPackedSampleModel)dest.getSampleModel()).getScanlineStride();
+        final int srcScanStride = srcSPPSM.getScanlineStride();
+        final int dstScanStride = dstSPPSM.getScanlineStride();
 
         // Access the pixel value array
         final int[] srcPixels = srcDB.getBankData()[0];
         final int[] destPixels = dstDB.getBankData()[0];
 
-        // The pointer of src and dest indicating where the pixel values are
-        int sp, dp, cp;
-
-        // Declaration for the circular buffer's implementation
-        // These are the circular buffers' head pointer and
-        // the index pointers
-
-        // bufferHead points to the leftmost element in the circular buffer
-        int bufferHead;
-
-        int maxIndexA;
-        int maxIndexR;
-        int maxIndexG;
-        int maxIndexB;
-
-        // Temp variables
-        int pel, currentPixel, lastPixel;
-        int a,r,g,b;
-        int a1,r1,g1,b1;
-
-        // In both round, we are using an optimization approach
-        // to reduce excessive computation to sort values around
-        // the current pixel. The idea is as follows:
-        //           ----------------
-        //           |*|V|V|$|N|V|V|&|
-        //           ----------------
-        // For example, suppose we've finished pixel"$" and come
-        // to "N", the radius is 3. Then we must have got the max/min
-        // value and index array for "$". If the max/min is at
-        // "*"(using the index array to judge this),
-        // we need to recompute a max/min and the index array
-        // for "N"; if the max/min is not at "*", we can
-        // reuse the current max/min: we simply compare it with
-        // "&", and update the max/min and the index array.
+        // Inverting the samples turns the min into a max.
+        final int invert = doDilation ? 0 : 0xFF;
+
+        // The buffers are shared by all the rows (resp. columns) and
+        // channels of the image.
+        int n = Math.max(w+2*radiusX, h+2*radiusY);
+        final int [] line = new int[n];
+        final int [] g    = new int[n];
+        final int [] hb   = new int[n];
+        final int [] out  = new int[n];
 
         //
-        // The first round: sort by row
+        // The first round: max/min along the rows, from src to dest.
         //
-        if (w<=2*radiusX){
-            specialProcessRow(src, dest);
-        }
-
-        // when the size is large enough, we can
-        // use standard optimization method
-        else {
-
-            final int [] bufferA = new int [rangeX];
-            final int [] bufferR = new int [rangeX];
-            final int [] bufferG = new int [rangeX];
-            final int [] bufferB = new int [rangeX];
-
-            for (int i=0; i<h; i++){
-                // initialization of pointers, indice
-                // at the head of each row
-                sp = srcOff + i*srcScanStride;
-                dp = dstOff + i*dstScanStride;
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                //
-                // j=0 : Initialization, compute the max/min and
-                //       index array for the use of other pixels.
-                //
-                pel = srcPixels[sp++];
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusX; k++){
-                    currentPixel = srcPixels[sp++];
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
-                }
-                destPixels[dp++] = (a << 24) | r | g | b;
-
-                //
-                // 1 <= j <= radiusX : The left margin of each row.
-                //
-                for (int j=1; j<=radiusX; j++){
-                    lastPixel = srcPixels[sp++];
-
-                    // here is the Alpha channel
-
-                    // we retrieve the previous max/min value
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[j+radiusX] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = j+radiusX;
-                    }
-
-                    // now we deal with the Red channel
-
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[j+radiusX] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = j+radiusX;
-                    }
-
-                    // now we deal with the Green channel
-
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[j+radiusX] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = j+radiusX;
-                    }
-
-                    // now we deal with the Blue channel
-
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[j+radiusX] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = j+radiusX;
-                    }
-                    // now we have gone through the four channels and
-                    // updated the index array. then we'll pack the
-                    // new max/min value according to each channel's
-                    // max/min vlue
-
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                }
-
-                //
-                // radiusX <= j <= w-1-radiusX : Inner body of the row, between
-                //                               left and right margins
-                //
-                for (int j=radiusX+1; j<=w-1-radiusX; j++){
-                    lastPixel = srcPixels[sp++];
-                    a1 = lastPixel>>>24;
-                    r1 = lastPixel&0xff0000;
-                    g1 = lastPixel&0xff00;
-                    b1 = lastPixel&0xff;
-                    bufferA[bufferHead] = a1;
-                    bufferR[bufferHead] = r1;
-                    bufferG[bufferHead] = g1;
-                    bufferB[bufferHead] = b1;
-
-                    // Alpha channel:
-                    // we need to recompute a local max/min
-                    // and update the max/min index
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[0];
-                        maxIndexA = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        a = bufferA[maxIndexA];
-                        if (isBetter(a1, a, doDilation)){
-                            a = a1;
-                            maxIndexA = bufferHead;
-                        }
-                    }
-
-                    // Red channel
-                    // we need to recompute a local max/min
-                    // and update the index array
-
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[0];
-                        maxIndexR = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        r = bufferR[maxIndexR];
-                        if (isBetter(r1, r, doDilation)){
-                            r = r1;
-                            maxIndexR = bufferHead;
-                        }
-                    }
-
-                    // Green channel
-                    // we need to recompute a local max/min
-                    // and update the index array
-
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[0];
-                        maxIndexG = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                        if (isBetter(g1, g, doDilation)){
-                            g = g1;
-                            maxIndexG = bufferHead;
-                        }
-                    }
-
-                    // Blue channel
-                    // we need to recompute a local max/min
-                    // and update the index array
-
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[0];
-                        maxIndexB = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                        if (isBetter(b1, b, doDilation)){
-                            b = b1;
-                            maxIndexB = bufferHead;
-                        }
-                    }
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                    bufferHead = (bufferHead+1)%rangeX;
+        int len = w+2*radiusX;
+        for (int i=0; i<h; i++){
+            int sp = srcOff + i*srcScanStride;
+            int dp = dstOff + i*dstScanStride;
+            for (int shift=24; shift>=0; shift-=8) {
+                for (int j=0; j<w; j++)
+                    line[radiusX+j] =
+                        ((srcPixels[sp+j]>>>shift)&0xFF)^invert;
+                runningMax(line, len, rangeX, g, hb, out);
+                if (shift == 24) {
+                    for (int j=0; j<w; j++)
+                        destPixels[dp+j] = (out[j]^invert)<<24;
+                } else {
+                    for (int j=0; j<w; j++)
+                        destPixels[dp+j] |= (out[j]^invert)<<shift;
                 }
-
-                //
-                // w-radiusX <= j < w : The right margin of the row
-                //
-
-                // Head will be updated to indicate the current head
-                // of the remaining buffer
-                int head;
-                // Tail is where the last element is
-                final int tail = (bufferHead == 0)?rangeX-1:bufferHead -1;
-                int count = rangeX-1;
-
-                for (int j=w-radiusX; j<w; j++){
-                    head = (bufferHead+1)%rangeX;
-                    // Dealing with Alpha Channel:
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            a1 = bufferA[hd];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    // Dealing with Red Channel:
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            r1 = bufferR[hd];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    // Dealing with Green Channel:
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            g1 = bufferG[hd];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    // Dealing with Blue Channel:
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            b1 = bufferB[hd];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                    bufferHead = (bufferHead+1)%rangeX;
-                    // we throw another element
-                    count--;
-                }// end of the right margin of this row
-
-                // return to the beginning of the next row
             }
-        }// end of the first round!
+        }
 
         //
-        // Second round: sort by column
-        // the difference from the first round is that
-        // now we are accessing the intermediate matrix
+        // The second round: max/min along the columns of dest, in
+        // place. Columns are processed in strips so that the rows of
+        // the strip are read sequentially.
         //
-
-        // When the image size is smaller than the
-        // Kernel size
-        if (h<=2*radiusY){
-            specialProcessColumn(src, dest);
-        }
-
-        // when the size is large enough, we can
-        // use standard optimization method
-        else {
-            final int [] bufferA = new int [rangeY];
-            final int [] bufferR = new int [rangeY];
-            final int [] bufferG = new int [rangeY];
-            final int [] bufferB = new int [rangeY];
-
-            for (int j=0; j<w; j++){
-                // initialization of pointers, indice
-                // at the head of each column
-                dp = dstOff + j;
-                cp = dstOff + j;
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                // i=0 : The first pixel
-                pel = destPixels[cp];
-                cp += dstScanStride;
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusY; k++){
-                    currentPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
+        len = h+2*radiusY;
+        final int sw = Math.min(STRIP_WIDTH, w);
+        final int [] cols = new int[len*sw];
+        final int [] cg   = new int[len*sw];
+        final int [] ch   = new int[len*sw];
+        for (int x0=0; x0<w; x0+=sw) {
+            int stripW = Math.min(sw, w-x0);
+            for (int shift=24; shift>=0; shift-=8) {
+                // cols holds the padded strip, one row of sw per sample
+                for (int i=0; i<h; i++) {
+                    int dp = dstOff + i*dstScanStride + x0;
+                    int cp = (i+radiusY)*sw;
+                    for (int j=0; j<stripW; j++)
+                        cols[cp+j] = ((destPixels[dp+j]>>>shift)&0xFF)^invert;
                 }
-                destPixels[dp] = (a << 24) | r | g | b;
-                // go to the next element in the column.
-                dp += dstScanStride;
-
-                // 1 <= i <= radiusY : The upper margin of each row
-                for (int i=1; i<=radiusY; i++){
-                    int maxI = i+radiusY;
-                    // we can reuse the previous max/min value
-                    lastPixel = destPixels[cp];
-                    cp += dstScanStride;
-
-                    // here is the Alpha channel
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[maxI] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = maxI;
-                    }
-
-                    // now we deal with the Red channel
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[maxI] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = maxI;
+                stripMax(cols, len, sw, stripW, rangeY, cg, ch);
+                int mask = ~(0xFF<<shift);
+                for (int i=0; i<h; i++) {
+                    int dp = dstOff + i*dstScanStride + x0;
+                    int hp = i*sw;
+                    int gp = (i+rangeY-1)*sw;
+                    for (int j=0; j<stripW; j++) {
+                        int v0 = ch[hp+j];
+                        int v1 = cg[gp+j];
+                        int v = ((v0 > v1) ? v0 : v1)^invert;
+                        destPixels[dp+j] = (destPixels[dp+j]&mask)|(v<<shift);
                     }
-
-                    // now we deal with the Green channel
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[maxI] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = maxI;
-                    }
-
-                    // now we deal with the Blue channel
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[maxI] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = maxI;
-                    }
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
                 }
+            }
+        }
 
-                //
-                // radiusY +1 <= i <= h-1-radiusY:
-                //    inner body of the column between upper and lower margins
-                //
-
-                for (int i=radiusY+1; i<=h-1-radiusY; i++){
-
-                    lastPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = lastPixel>>>24;
-                    r1 = lastPixel&0xff0000;
-                    g1 = lastPixel&0xff00;
-                    b1 = lastPixel&0xff;
-                    bufferA[bufferHead] = a1;
-                    bufferR[bufferHead] = r1;
-                    bufferG[bufferHead] = g1;
-                    bufferB[bufferHead] = b1;
-
-                    // here we check if the previous max/min value can be
-                    // reused safely and, if possible, reuse the previous
-                    // maximum value
-
-                    // Alpha channel:
-
-                    // Recompute the local max/min
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[0];
-                        maxIndexA = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        a = bufferA[maxIndexA];
-                        if (isBetter(a1, a, doDilation)){
-                            a = a1;
-                            maxIndexA = bufferHead;
-                        }
-                    }
-
-                    // Red channel:
-
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[0];
-                        maxIndexR = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        r = bufferR[maxIndexR];
-                        if (isBetter(r1, r, doDilation)){
-                            r = r1;
-                            maxIndexR = bufferHead;
-                        }
-                    }
-
-                    // Green channel
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[0];
-                        maxIndexG = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                        if (isBetter(g1, g, doDilation)){
-                            g = g1;
-                            maxIndexG = bufferHead;
-                        }
-                    }
+        return dest;
+    }// end of the filter() method for Raster
 
-                    // Blue channel:
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[0];
-                        maxIndexB = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                        if (isBetter(b1, b, doDilation)){
-                            b = b1;
-                            maxIndexB = bufferHead;
-                        }
-                    }
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                    bufferHead = (bufferHead+1)%rangeY;
+    /*
+     * Column version of runningMax: computes, row by row, the block
+     * maxima g and h of the len rows of a strip of stripW columns
+     * (stored with a stride of sw) for windows of k rows.
+     */
+    private static void stripMax(int [] in, int len, int sw, int stripW,
+                                 int k, int [] g, int [] h) {
+        for (int i=0; i<len; i++) {
+            int p = i*sw;
+            if (i%k == 0) {
+                System.arraycopy(in, p, g, p, stripW);
+            } else {
+                for (int j=0; j<stripW; j++) {
+                    int v = in[p+j];
+                    int u = g[p-sw+j];
+                    g[p+j] = (u > v) ? u : v;
                 }
-
-                //
-                // h-radiusY <= i <= h-1 : The lower margin of the column
-                //
-
-                // head will be updated to indicate the current head
-                // of the remaining buffer:
-                int head;
-                // tail is where the last element in the buffer is
-                final int tail = (bufferHead == 0)?2*radiusY:bufferHead -1;
-                int count = rangeY-1;
-
-                for (int i= h-radiusY; i<h-1; i++){
-                    head = (bufferHead +1)%rangeY;
-
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            a1 = bufferA[hd];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            r1 = bufferR[hd];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            g1 = bufferG[hd];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            b1 = bufferB[hd];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                    bufferHead = (bufferHead+1)%rangeY;
-                    // we throw out this useless element
-                    count--;
+            }
+        }
+        for (int i=len-1; i>=0; i--) {
+            int p = i*sw;
+            if ((i%k == k-1) || (i == len-1)) {
+                System.arraycopy(in, p, h, p, stripW);
+            } else {
+                for (int j=0; j<stripW; j++) {
+                    int v = in[p+j];
+                    int u = h[p+sw+j];
+                    h[p+j] = (u > v) ? u : v;
                 }
-                // return to the beginning of the next column
             }
-        }// end of the second round!
-
-        return dest;
-    }// end of the filter() method for Raster
+        }
+    }
 
       /**
        * This implementation of filter does the morphology operation
@@ -0,0 +1,204 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class runs a per-row image operation over horizontal bands in
+ * parallel.  It is used by the generators and filters whose output
+ * rows can be computed independently of each other.
+ *
+ * <p>The work is split only when the image is large enough to amortize
+ * the hand-off; the calling thread always computes one of the bands.
+ * Bands submitted from a worker thread are run serially so nested
+ * operations cannot starve the pool.  The number of worker threads
+ * defaults to the number of available processors and can be set with
+ * the <code>org.apache.batik.ext.awt.image.parallelism</code> system
+ * property (<code>1</code> disables parallel processing).</p>
+ *
+ * @version $Id$
+ */
+public final class ParallelBands {
+
+    /**
+     * The operation to run over a band of rows.
+     */
+    public interface BandOp {
+
+        /**
+         * Processes the rows from <code>y0</code> (inclusive) to
+         * <code>y1</code> (exclusive), relative to the top of the image.
+         */
+        void run(int y0, int y1);
+    }
+
+    /**
+     * The minimum amount of work (in pixel operations) worth a band.
+     */
+    public static final int MIN_BAND_WORK = 32 * 1024;
+
+    /**
+     * The number of threads used to process bands.
+     */
+    private static int parallelism;
+    static {
+        int n = Runtime.getRuntime().availableProcessors();
+        try {
+            String s = System.getProperty
+                ("org.apache.batik.ext.awt.image.parallelism");
+            if (s != null) {
+                n = Integer.parseInt(s);
+            }
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        }
+        parallelism = Math.max(1, n);
+    }
+
+    /**
+     * Marks the pool threads, so nested calls are run serially.
+     */
+    private static final ThreadLocal IS_WORKER = new ThreadLocal();
+
+    /**
+     * The pool of worker threads, created on first use.
+     */
+    private static ExecutorService pool;
+
+    private ParallelBands() {
+    }
+
+    /**
+     * Returns the number of threads used to process bands.
+     */
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads used to process bands.  The default
+     * is the number of processors, or the value of the
+     * <code>org.apache.batik.ext.awt.image.parallelism</code> system
+     * property.  Bands already submitted complete normally.
+     */
+    public static synchronized void setParallelism(int n) {
+        n = Math.max(1, n);
+        if (n == parallelism)
+            return;
+        parallelism = n;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Runs the given operation over all the rows of an image.
+     * @param height The number of rows.
+     * @param rowWork An estimate of the work needed for one row (for
+     *        instance the row width times the cost of a pixel).
+     * @param op The operation to run.
+     */
+    public static void run(int height, long rowWork, final BandOp op) {
+        int nBands = getParallelism();
+        if (rowWork > 0) {
+            long maxBands = (rowWork * height) / MIN_BAND_WORK;
+            if (maxBands < nBands) {
+                nBands = (int)maxBands;
+            }
+        }
+        if (nBands > height) {
+            nBands = height;
+        }
+        if (nBands < 2 || IS_WORKER.get() != null) {
+            op.run(0, height);
+            return;
+        }
+
+        ExecutorService ex = getPool();
+        Future[] futures = new Future[nBands - 1];
+        int y = 0;
+        for (int b = 0; b < nBands - 1; b++) {
+            final int y0 = y;
+            final int y1 = (int)(((long)height * (b + 1)) / nBands);
+            try {
+                futures[b] = ex.submit(new Runnable() {
+                        public void run() {
+                            op.run(y0, y1);
+                        }
+                    });
+            } catch (RejectedExecutionException ree) {
+                // The pool was shut down by setParallelism.
+                op.run(y0, y1);
+            }
+            y = y1;
+        }
+        op.run(y, height);
+
+        for (Future future : futures) {
+            if (future == null)
+                continue;
+            boolean interrupted = false;
+            for (;;) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    Throwable t = ee.getCause();
+                    if (t instanceof RuntimeException)
+                        throw (RuntimeException)t;
+                    if (t instanceof Error)
+                        throw (Error)t;
+                    throw new RuntimeException(t);
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool
+                (Math.max(1, parallelism - 1), new ThreadFactory() {
+                        private int count;
+                        public Thread newThread(final Runnable r) {
+                            Thread t = new Thread(new Runnable() {
+                                    public void run() {
+                                        IS_WORKER.set(Boolean.TRUE);
+                                        r.run();
+                                    }
+                                }, "ParallelBands-" + count++);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of computed data, such as generated patterns, shared by all
+ * the images of a kind.  The values are held through soft references,
+ * so the garbage collector may reclaim them, and the least recently
+ * used values are evicted once the total size of the values exceeds
+ * the size of the cache.  The size of a value is given when it is put
+ * in the cache, in whatever unit the caller chooses (typically pixels).
+ *
+ * @version $Id$
+ */
+public class SoftLRUCache {
+
+    /**
+     * The values, in least recently used order.
+     * Maps keys to Entries.
+     */
+    protected LinkedHashMap map = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * The maximum total size of the values.
+     */
+    protected long maxSize;
+
+    /**
+     * The total size of the values in the cache.
+     */
+    protected long size;
+
+    /**
+     * Creates a new SoftLRUCache.
+     * @param maxSize The maximum total size of the values.
+     */
+    public SoftLRUCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the maximum total size of the values.
+     */
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum total size of the values.  Zero disables the
+     * cache.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trim();
+    }
+
+    /**
+     * Returns the total size of the values in the cache.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the value for the given key, or null if there is none or
+     * it has been reclaimed.
+     */
+    public synchronized Object get(Object key) {
+        Entry e = (Entry)map.get(key);
+        if (e == null) {
+            return null;
+        }
+        Object value = e.get();
+        if (value == null) {
+            map.remove(key);
+            size -= e.size;
+        }
+        return value;
+    }
+
+    /**
+     * Stores a value in the cache, evicting the least recently used
+     * values if needed.
+     * @param key The key of the value.
+     * @param value The value.
+     * @param valueSize The size of the value.
+     */
+    public synchronized void put(Object key, Object value, long valueSize) {
+        Entry old = (Entry)map.put(key, new Entry(value, valueSize));
+        if (old != null) {
+            size -= old.size;
+        }
+        size += valueSize;
+        trim();
+    }
+
+    /**
+     * Removes all the values.
+     */
+    public synchronized void clear() {
+        map.clear();
+        size = 0;
+    }
+
+    /**
+     * Evicts the least recently used values until the cache fits its
+     * maximum size.  Must be called with the cache lock held.
+     */
+    protected void trim() {
+        Iterator i = map.entrySet().iterator();
+        while (size > maxSize && i.hasNext()) {
+            Map.Entry me = (Map.Entry)i.next();
+            size -= ((Entry)me.getValue()).size;
+            i.remove();
+        }
+    }
+
+    /**
+     * A soft reference to a value, with the size of the value.
+     */
+    protected static class Entry extends SoftReference {
+
+        /**
+         * The size of the value.
+         */
+        protected final long size;
+
+        public Entry(Object value, long size) {
+            super(value);
+            this.size = size;
+        }
+    }
+}
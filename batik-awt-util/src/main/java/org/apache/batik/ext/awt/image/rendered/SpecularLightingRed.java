@@ -24,6 +24,8 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.Light;
@@ -70,6 +72,27 @@ public class SpecularLightingRed extends AbstractTiledRed{
      * true if calculations should be performed in linear sRGB
      */
     private boolean linear;
+
+    /**
+     * The number of intervals of the tables of powers.
+     */
+    static final int POW_TABLE_SIZE = 4096;
+
+    /**
+     * The maximum number of tables of powers kept.
+     */
+    static final int MAX_POW_TABLES = 16;
+
+    /**
+     * The tables of powers shared by all the instances, by exponent.
+     */
+    private static final Map powTables = new HashMap();
+
+    /**
+     * The powers of specularExponent over [0, 1], or null if Math.pow
+     * is used.
+     */
+    private float[] powTable;
      
 
     public SpecularLightingRed(double ks,
@@ -110,11 +133,62 @@ public class SpecularLightingRed extends AbstractTiledRed{
         return wr;
     }
 
-    public void genRect(WritableRaster wr) {
-        // Copy variable on stack for faster access in tight loop
-        final double scaleX = this.scaleX;
-        final double scaleY = this.scaleY;
+    /**
+     * Returns true if the specular exponent is applied through a
+     * precomputed table.
+     */
+    public boolean isExponentTableEnabled() {
+        return powTable != null;
+    }
 
+    /**
+     * Sets whether the specular exponent is applied through a table
+     * of precomputed powers, interpolated linearly, rather than with
+     * Math.pow for every pixel.  The difference with Math.pow is well
+     * below one code value.
+     */
+    public void setExponentTableEnabled(boolean enabled) {
+        powTable = enabled ? getPowTable(specularExponent) : null;
+    }
+
+    /**
+     * Returns the table of powers of <code>exponent</code> for
+     * POW_TABLE_SIZE+1 values evenly spaced over [0, 1].
+     */
+    private static float[] getPowTable(double exponent) {
+        Double key = Double.valueOf(exponent);
+        synchronized (powTables) {
+            float[] table = (float[])powTables.get(key);
+            if (table == null) {
+                // Animated exponents could otherwise fill the map.
+                if (powTables.size() >= MAX_POW_TABLES)
+                    powTables.clear();
+                table = new float[POW_TABLE_SIZE+1];
+                for (int i=0; i<=POW_TABLE_SIZE; i++)
+                    table[i] = (float)Math.pow((double)i/POW_TABLE_SIZE,
+                                               exponent);
+                powTables.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Returns <code>v</code> raised to the specular exponent.
+     */
+    private float pow(final float v) {
+        final float[] table = powTable;
+        if ((table == null) || !(v >= 0) || (v > 1))
+            return (float)Math.pow(v, specularExponent);
+        final float f = v*POW_TABLE_SIZE;
+        final int i = (int)f;
+        if (i == POW_TABLE_SIZE)
+            return table[i];
+        final float t0 = table[i];
+        return t0 + (f-i)*(table[i+1]-t0);
+    }
+
+    public void genRect(WritableRaster wr) {
         final double[] lightColor = light.getColor(linear);
 
         final int w = wr.getWidth();
@@ -132,87 +206,101 @@ public class SpecularLightingRed extends AbstractTiledRed{
             (db.getOffset() +
              sppsm.getOffset(minX-wr.getSampleModelTranslateX(), 
                              minY-wr.getSampleModelTranslateY()));
-        // int offset = db.getOffset();
         final int scanStride = sppsm.getScanlineStride();
-        final int adjust = scanStride - w;
-        int p = offset;
-        int a=0, i=0, j=0;
-
-        // x and y are in user space
-        double x = scaleX*minX;
-        double y = scaleY*minY;
-        double norm = 0;
 
-        int pixel = 0, tmp;
+        int tmp;
         double mult;
         mult = (lightColor[0]>lightColor[1])?lightColor[0]:lightColor[1];
         mult = (mult>lightColor[2])?mult:lightColor[2];
         
         double scale = 255/mult;
-        pixel = (int)(lightColor[0]*scale+0.5);
+        int pixel = (int)(lightColor[0]*scale+0.5);
         tmp   = (int)(lightColor[1]*scale+0.5);
         pixel = pixel<<8 | tmp;
         tmp   = (int)(lightColor[2]*scale+0.5);
         pixel = pixel<<8 | tmp;
 
-        mult*=255*ks;
+        final float fmult = (float)(mult*255*ks);
+        final int rgb = pixel;
 
-        // System.out.println("Pixel: 0x" + Integer.toHexString(pixel));
+        final float[] NA = bumpMap.getNormals(minX, minY, w, h);
 
-        final double[][][] NA = bumpMap.getNormalArray(minX, minY, w, h);
+        final long rowWork = (long)w*(light.isConstant() ? 8 : 32);
+        ParallelBands.run(h, rowWork, new ParallelBands.BandOp() {
+                public void run(int y0, int y1) {
+                    genRows(pixels, offset + y0*scanStride, scanStride,
+                            NA, minX, minY, w, y0, y1, fmult, rgb);
+                }
+            });
+    }
+
+    /**
+     * Lights rows <code>y0</code> (inclusive) to <code>y1</code>
+     * (exclusive) of the tile at (minX, minY), storing the result in
+     * <code>pixels</code> starting at <code>p</code>.
+     */
+    private void genRows(final int[] pixels, int p, final int scanStride,
+                         final float[] NA, final int minX, final int minY,
+                         final int w, final int y0, final int y1,
+                         final float mult, final int pixel) {
+        final int adjust = scanStride - w;
+        // x and y are in user space
+        final double x = scaleX*minX;
+        int np = y0*w*4;
+        int a;
 
-        // System.out.println("Entering Specular Lighting");
         if (light instanceof SpotLight) {
             SpotLight slight = (SpotLight)light;
+            final double[][] ZR = new double[w][4];
             final double[][] LA = new double[w][4];
-            for(i=0; i<h; i++){
-                // System.out.println("Row: " + i);
-                final double [][] NR = NA[i];
-                slight.getLightRow4(x, y+i*scaleY, scaleX, w, NR, LA);
-                for (j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
+            for(int i=y0; i<y1; i++){
+                for (int j=0; j<w; j++)
+                    ZR[j][3] = NA[np + j*4 + 3];
+                slight.getLightRow4(x, scaleY*(minY+i), scaleX, w, ZR, LA);
+                for (int j=0; j<w; j++){
                     // Get Light Vector
                     final double [] L = LA[j];
-                    double vs = L[3];
+                    final float vs = (float)L[3];
                     if (vs == 0) {
                         a = 0;
                     } else {
-                        L[2] += 1;
-                        norm = L[0]*L[0] + L[1]*L[1] + L[2]*L[2];
-                        norm = Math.sqrt(norm);
-                        double dot = N[0]*L[0] + N[1]*L[1] + N[2]*L[2];
-                        vs = vs*Math.pow(dot/norm, specularExponent);
-                        a = (int)(mult*vs + 0.5);
+                        final float L0 = (float)L[0];
+                        final float L1 = (float)L[1];
+                        final float L2 = (float)L[2] + 1;
+                        final float norm =
+                            (float)Math.sqrt(L0*L0 + L1*L1 + L2*L2);
+                        final float dot =
+                            NA[np]*L0 + NA[np+1]*L1 + NA[np+2]*L2;
+                        a = (int)(mult*vs*pow(dot/norm) + 0.5f);
                         if ((a & 0xFFFFFF00) != 0)
                             a = ((a & 0x80000000) != 0)?0:255;
                     }
+                    np += 4;
                     pixels[p++] = (a << 24 | pixel);
                 }
                 p += adjust;
             }
         } else if(!light.isConstant()){
+            final double[][] ZR = new double[w][4];
             final double[][] LA = new double[w][4];
-            for(i=0; i<h; i++){
-                // System.out.println("Row: " + i);
-                final double [][] NR = NA[i];
-                light.getLightRow(x, y+i*scaleY, scaleX, w, NR, LA);
-                for (j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
+            for(int i=y0; i<y1; i++){
+                for (int j=0; j<w; j++)
+                    ZR[j][3] = NA[np + j*4 + 3];
+                light.getLightRow(x, scaleY*(minY+i), scaleX, w, ZR, LA);
+                for (int j=0; j<w; j++){
                     // Get Light Vector
                     final double [] L = LA[j];
-                    L[2] += 1;
-                    norm = L[0]*L[0] + L[1]*L[1] + L[2]*L[2];
-                    norm = Math.sqrt(norm);
-                    double dot = N[0]*L[0] + N[1]*L[1] + N[2]*L[2];
-                    // vs = vs/norm;
-                    norm = Math.pow(dot/norm, specularExponent);
-                    a = (int)(mult*norm + 0.5);
+                    final float L0 = (float)L[0];
+                    final float L1 = (float)L[1];
+                    final float L2 = (float)L[2] + 1;
+                    final float norm =
+                        (float)Math.sqrt(L0*L0 + L1*L1 + L2*L2);
+                    final float dot =
+                        NA[np]*L0 + NA[np+1]*L1 + NA[np+2]*L2;
+                    a = (int)(mult*pow(dot/norm) + 0.5f);
                     if ((a & 0xFFFFFF00) != 0)
                         a = ((a & 0x80000000) != 0)?0:255;
+                    np += 4;
                     pixels[p++] = (a << 24 | pixel);
                 }
                 p += adjust;
@@ -225,30 +313,29 @@ public class SpecularLightingRed extends AbstractTiledRed{
 
             // Compute Half-way vector
             L[2] += 1;
-            norm = Math.sqrt(L[0]*L[0] + L[1]*L[1] + L[2]*L[2]);
+            double norm = Math.sqrt(L[0]*L[0] + L[1]*L[1] + L[2]*L[2]);
             if(norm > 0){
                 L[0] /= norm;
                 L[1] /= norm;
                 L[2] /= norm;
             }
-
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    a = (int)(mult*Math.pow(N[0]*L[0] + N[1]*L[1] + N[2]*L[2], 
-                                            specularExponent) + 0.5);
+            final float H0 = (float)L[0];
+            final float H1 = (float)L[1];
+            final float H2 = (float)L[2];
+
+            for(int i=y0; i<y1; i++){
+                for(int j=0; j<w; j++){
+                    a = (int)(mult*pow(NA[np]*H0 + NA[np+1]*H1 +
+                                       NA[np+2]*H2) + 0.5f);
                     
                     if ((a & 0xFFFFFF00) != 0)
                         a = ((a & 0x80000000) != 0)?0:255;
 
+                    np += 4;
                     pixels[p++] = (a << 24 | pixel);
                 }
                 p += adjust;
             }
         }
-        // System.out.println("Exiting Specular Lighting");
     }
 }
@@ -154,6 +154,9 @@ public class TileRed extends AbstractRed implements TileGenerator {
         }
         else {
             this.tile        = new TileCacheRed(GraphicsUtil.wrap(tile));
+            // Rendering a tile draws the source through Java2D, so keep
+            // the results: copyData keeps asking for the same few tiles.
+            tiles            = TileCache.getTileMap(this);
         }
     }
 
@@ -193,7 +196,7 @@ public class TileRed extends AbstractRed implements TileGenerator {
         }
 
         // System.out.println("Checking Cache [" + x + "," + y + "]");
-        return genTile(x,y);
+        return tiles.getTile(x, y);
     }
 
     public Raster genTile(int x, int y) {
@@ -29,6 +29,8 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
 /**
  * This class creates a RenderedImage in conformance to the one
  * defined for the feTurbulence filter of the SVG specification.  What
@@ -213,6 +215,24 @@ public final class TurbulencePatternRed extends AbstractRed {
     private final int[] latticeSelector = new int[BSize + 1];
     private final double[] gradient = new double[(BSize+1)*8];
 
+    /**
+     * The gradients in float precision, built on first use.
+     */
+    private float[] gradientF;
+
+    /**
+     * Whether the noise is computed in float rather than double
+     * precision.
+     */
+    private boolean floatPrecision;
+
+    /**
+     * The generated patterns, as int arrays keyed by PatternKey, with
+     * their number of pixels as size.
+     */
+    private static final SoftLRUCache patternCache
+        = new SoftLRUCache(1 << 22);
+
     public double getBaseFrequencyX(){
         return baseFrequencyX;
     }
@@ -237,6 +257,32 @@ public final class TurbulencePatternRed extends AbstractRed {
         return isFractalNoise;
     }
 
+    /**
+     * Returns true if the noise is computed in float precision.
+     */
+    public boolean isFloatPrecision(){
+        return floatPrecision;
+    }
+
+    /**
+     * Sets whether the noise should be computed in float precision.
+     * This is faster, at the expense of a difference of at most a
+     * couple of code values per component with the reference double
+     * precision computation.  Only the four channel, non-stitched
+     * patterns have a float implementation.
+     */
+    public void setFloatPrecision(boolean floatPrecision){
+        this.floatPrecision = floatPrecision;
+    }
+
+    /**
+     * Sets the maximum number of pixels kept in the cache of generated
+     * patterns shared by all the instances.  Zero disables the cache.
+     */
+    public static void setPatternCacheSize(int pixels){
+        patternCache.setMaxSize(pixels);
+    }
+
     public boolean[] getChannels(){
         boolean[] channels = new boolean[4];
         for (int channel : this.channels) channels[channel] = true;
@@ -1051,8 +1097,8 @@ public final class TurbulencePatternRed extends AbstractRed {
                 ("Cannot generate a noise pattern into a null raster");
 
 
-        int w = dest.getWidth();
-        int h = dest.getHeight();
+        final int w = dest.getWidth();
+        final int h = dest.getHeight();
 
         // Access the integer buffer for the destination Raster
         DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
@@ -1060,19 +1106,31 @@ public final class TurbulencePatternRed extends AbstractRed {
         int minX = dest.getMinX();
         int minY = dest.getMinY();
         sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
-        int dstOff = dstDB.getOffset() +
+        final int dstOff = dstDB.getOffset() +
             sppsm.getOffset(minX - dest.getSampleModelTranslateX(),
                             minY - dest.getSampleModelTranslateY());
 
         final int[] destPixels = dstDB.getBankData()[0];
-        int dstAdjust = sppsm.getScanlineStride() - w;
-
-        // Generate pixel pattern now
-        int i, end, dp=dstOff;
-        final int[] rgb = new int[4];
-        final double[] fSum = {0, 0, 0, 0};
-        final double[] noise = {0, 0, 0, 0};
+        final int scanStride = sppsm.getScanlineStride();
+
+        // Identical patterns are often generated for several
+        // documents, or several times for the same document.
+        PatternKey key = null;
+        if ((long)w*h <= patternCache.getMaxSize() / 4) {
+            key = new PatternKey(this, minX, minY, w, h);
+            int[] pattern = (int[])patternCache.get(key);
+            if (pattern != null) {
+                for (int i=0; i<h; i++)
+                    System.arraycopy(pattern, i*w,
+                                     destPixels, dstOff + i*scanStride, w);
+                return dest;
+            }
+        }
 
+        // Compute the starting point of each row, accumulating the
+        // steps exactly as a single pass over the raster would.
+        final double[] rowX = new double[h];
+        final double[] rowY = new double[h];
         final double tx0, tx1, ty0, ty1;
         tx0 = tx[0];
         tx1 = tx[1];
@@ -1085,23 +1143,285 @@ public final class TurbulencePatternRed extends AbstractRed {
         txf.transform(p, 0, p, 0, 1);
         double point_0 = p[0];
         double point_1 = p[1];
+        for (int i=0; i<h; i++) {
+            rowX[i] = point_0;
+            rowY[i] = point_1;
+            for (int j=0; j<w; j++) {
+                point_0 += tx0;
+                point_1 += tx1;
+            }
+            point_0 += ty0;
+            point_1 += ty1;
+        }
+
+        // Rows are independent: generate bands of them in parallel.
+        ParallelBands.run(h, (long)w*numOctaves*channels.length,
+                          new ParallelBands.BandOp() {
+                public void run(int y0, int y1) {
+                    generate(destPixels, dstOff + y0*scanStride, scanStride,
+                             w, rowX, rowY, y0, y1);
+                }
+            });
+
+        if (key != null) {
+            int[] pattern = new int[w*h];
+            for (int i=0; i<h; i++)
+                System.arraycopy(destPixels, dstOff + i*scanStride,
+                                 pattern, i*w, w);
+            patternCache.put(key, pattern, pattern.length);
+        }
+
+        return dest;
+    }
+
+    /**
+     * Identifies a generated pattern: the generator parameters and
+     * the device area.
+     */
+    private static final class PatternKey {
+        final double baseFrequencyX, baseFrequencyY;
+        final int numOctaves, seed, nChannels;
+        final boolean isFractalNoise, floatPrecision;
+        final int stitchW, stitchH, wrapX, wrapY;
+        final double[] matrix = new double[6];
+        final int x, y, w, h;
+        final int hash;
+
+        PatternKey(TurbulencePatternRed t, int x, int y, int w, int h) {
+            baseFrequencyX = t.baseFrequencyX;
+            baseFrequencyY = t.baseFrequencyY;
+            numOctaves = t.numOctaves;
+            seed = t.seed;
+            nChannels = t.channels.length;
+            isFractalNoise = t.isFractalNoise;
+            floatPrecision = t.floatPrecision;
+            if (t.stitchInfo != null) {
+                stitchW = t.stitchInfo.width;
+                stitchH = t.stitchInfo.height;
+                wrapX = t.stitchInfo.wrapX;
+                wrapY = t.stitchInfo.wrapY;
+            } else {
+                stitchW = stitchH = wrapX = wrapY = -1;
+            }
+            t.txf.getMatrix(matrix);
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+
+            long bits = Double.doubleToLongBits(baseFrequencyX) * 31
+                + Double.doubleToLongBits(baseFrequencyY);
+            for (double aMatrix : matrix)
+                bits = bits * 31 + Double.doubleToLongBits(aMatrix);
+            int hc = (int)(bits ^ (bits >>> 32));
+            hc = hc * 31 + seed;
+            hc = hc * 31 + numOctaves;
+            hc = hc * 31 + x;
+            hc = hc * 31 + y;
+            hc = hc * 31 + w;
+            hc = hc * 31 + h;
+            hash = hc;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof PatternKey))
+                return false;
+            PatternKey k = (PatternKey)o;
+            return hash == k.hash
+                && x == k.x && y == k.y && w == k.w && h == k.h
+                && seed == k.seed && numOctaves == k.numOctaves
+                && nChannels == k.nChannels
+                && isFractalNoise == k.isFractalNoise
+                && floatPrecision == k.floatPrecision
+                && stitchW == k.stitchW && stitchH == k.stitchH
+                && wrapX == k.wrapX && wrapY == k.wrapY
+                && baseFrequencyX == k.baseFrequencyX
+                && baseFrequencyY == k.baseFrequencyY
+                && Arrays.equals(matrix, k.matrix);
+        }
+    }
+
+    /**
+     * Generates rows of a four channel, non-stitched pattern in float
+     * precision.
+     */
+    private void generateFloat(final int[] destPixels, int dp, int dstAdjust,
+                               int w, double[] rowX, double[] rowY,
+                               int y0, int y1) {
+        synchronized (this) {
+            if (gradientF == null) {
+                float[] g = new float[gradient.length];
+                for (int i=0; i<g.length; i++)
+                    g[i] = (float)gradient[i];
+                gradientF = g;
+            }
+        }
+        final double tx0 = tx[0];
+        final double tx1 = tx[1];
+        for (int i=y0; i<y1; i++) {
+            double point_0 = rowX[i];
+            double point_1 = rowY[i];
+            for (int end=dp+w; dp<end; dp++) {
+                destPixels[dp] = turbulenceFloat_4(point_0, point_1);
+                point_0 += tx0;
+                point_1 += tx1;
+            }
+            dp += dstAdjust;
+        }
+    }
+
+    /**
+     * Float precision version of {@link #turbulence_4} and
+     * {@link #turbulenceFractal_4}.  The lattice coordinates are kept in
+     * double precision, only the interpolation is done with floats.
+     */
+    private int turbulenceFloat_4(double pointX, double pointY) {
+        final float[] gradient = gradientF;
+        final boolean fractal = isFractalNoise;
+        float ratio = fractal ? 127.5f : 255f;
+        float s0, s1, s2, s3;
+        s0 = s1 = s2 = s3 = fractal ? 127.5f : 0f;
+        int i, j, b0, b1, nOctave;
+        float rx0, rx1, ry0, ry1, sx, sy, n;
+        double px, py;
+
+        pointX *= baseFrequencyX;
+        pointY *= baseFrequencyY;
+
+        for (nOctave = numOctaves; nOctave > 0; nOctave--){
+            px = pointX+PerlinN;
+
+            b0 = ((int)px)&BM;
+            i = latticeSelector[b0 ];
+            j = latticeSelector[b0+1];
+
+            rx0 = (float)(px - (int)px);
+            rx1 = rx0 - 1.0f;
+            sx  = rx0 * rx0 * (3 - 2 * rx0);
+
+            py = pointY+PerlinN;
+            b0 = ((int)py) & BM;
+
+            b1 = ((j + b0)&BM)<<3;
+            b0 = ((i + b0)&BM)<<3;
+
+            ry0 = (float)(py - (int)py);
+            ry1 = ry0 - 1.0f;
+            sy  = ry0 * ry0 * (3 - 2 * ry0);
+
+            n = lerpF(sy,
+                      lerpF(sx,
+                            rx0*gradient[b0+0] + ry0*gradient[b0+1],
+                            rx1*gradient[b1+0] + ry0*gradient[b1+1]),
+                      lerpF(sx,
+                            rx0*gradient[b0+8+0] + ry1*gradient[b0+8+1],
+                            rx1*gradient[b1+8+0] + ry1*gradient[b1+8+1]));
+            s0 += ((fractal || n >= 0) ? n : -n) * ratio;
+
+            n = lerpF(sy,
+                      lerpF(sx,
+                            rx0*gradient[b0+2] + ry0*gradient[b0+3],
+                            rx1*gradient[b1+2] + ry0*gradient[b1+3]),
+                      lerpF(sx,
+                            rx0*gradient[b0+8+2] + ry1*gradient[b0+8+3],
+                            rx1*gradient[b1+8+2] + ry1*gradient[b1+8+3]));
+            s1 += ((fractal || n >= 0) ? n : -n) * ratio;
+
+            n = lerpF(sy,
+                      lerpF(sx,
+                            rx0*gradient[b0+4] + ry0*gradient[b0+5],
+                            rx1*gradient[b1+4] + ry0*gradient[b1+5]),
+                      lerpF(sx,
+                            rx0*gradient[b0+8+4] + ry1*gradient[b0+8+5],
+                            rx1*gradient[b1+8+4] + ry1*gradient[b1+8+5]));
+            s2 += ((fractal || n >= 0) ? n : -n) * ratio;
+
+            n = lerpF(sy,
+                      lerpF(sx,
+                            rx0*gradient[b0+6] + ry0*gradient[b0+7],
+                            rx1*gradient[b1+6] + ry0*gradient[b1+7]),
+                      lerpF(sx,
+                            rx0*gradient[b0+8+6] + ry1*gradient[b0+8+7],
+                            rx1*gradient[b1+8+6] + ry1*gradient[b1+8+7]));
+            s3 += ((fractal || n >= 0) ? n : -n) * ratio;
+
+            ratio  *= .5f;
+            pointX *= 2;
+            pointY *= 2;
+        }
+
+        i = (int)s0;
+        if ((i & 0xFFFFFF00) == 0) j  = i<<16;
+        else                       j  = ((i & 0x80000000) != 0)?0:0xFF0000;
+
+        i = (int)s1;
+        if ((i & 0xFFFFFF00) == 0) j |= i<<8;
+        else                       j |= ((i & 0x80000000) != 0)?0:0xFF00;
+
+        i = (int)s2;
+        if ((i & 0xFFFFFF00) == 0) j |= i;
+        else                       j |= ((i & 0x80000000) != 0)?0:0xFF;
+
+        i = (int)s3;
+        if ((i & 0xFFFFFF00) == 0) j |= i<<24;
+        else                       j |= ((i & 0x80000000) != 0)?0:0xFF000000;
+        return j;
+    }
+
+    private static float lerpF(float t, float a, float b) {
+        return a + t * (b - a);
+    }
+
+    /**
+     * Generates rows of the noise pattern.
+     * @param destPixels The destination pixels.
+     * @param dp The offset of the first pixel of row <code>y0</code>.
+     * @param scanStride The scanline stride of the destination.
+     * @param w The number of pixels per row.
+     * @param rowX The filter space x coordinate of the start of each row.
+     * @param rowY The filter space y coordinate of the start of each row.
+     * @param y0 The first row to generate.
+     * @param y1 The row after the last one to generate.
+     */
+    private void generate(final int[] destPixels, int dp, int scanStride,
+                          int w, double[] rowX, double[] rowY,
+                          int y0, int y1) {
+        int i, end;
+        final int[] rgb = new int[4];
+        final double[] fSum = {0, 0, 0, 0};
+        final double[] noise = {0, 0, 0, 0};
+        final double tx0 = tx[0];
+        final double tx1 = tx[1];
+        final int dstAdjust = scanStride - w;
+        double point_0, point_1;
+
+        if (floatPrecision && stitchInfo == null && channels.length == 4) {
+            generateFloat(destPixels, dp, dstAdjust, w, rowX, rowY, y0, y1);
+            return;
+        }
 
         if(isFractalNoise){
             if(stitchInfo == null){
                 if (channels.length == 4) {
-                    for(i=0; i<h; i++){
+                    for(i=y0; i<y1; i++){
+                        point_0 = rowX[i];
+                        point_1 = rowY[i];
                         for(end=dp+w; dp<end; dp++) {
                             destPixels[dp] = turbulenceFractal_4
                                 (point_0, point_1, fSum);
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
                         dp += dstAdjust;
                     }
                 } else {
-                    for(i=0; i<h; i++){
+                    for(i=y0; i<y1; i++){
+                        point_0 = rowX[i];
+                        point_1 = rowY[i];
                         for(end=dp+w; dp<end; dp++){
                             turbulenceFractal(rgb, point_0, point_1, fSum, noise);
 
@@ -1113,15 +1433,15 @@ public final class TurbulencePatternRed extends AbstractRed {
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
                         dp += dstAdjust;
                     }
                 }
             }
             else{
                 StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
+                for(i=y0; i<y1; i++){
+                    point_0 = rowX[i];
+                    point_1 = rowY[i];
                     for(end=dp+w; dp<end; dp++){
                         si.assign(this.stitchInfo);
                         turbulenceFractalStitch(rgb, point_0, point_1,
@@ -1135,8 +1455,6 @@ public final class TurbulencePatternRed extends AbstractRed {
                         point_0 += tx0;
                         point_1 += tx1;
                     }
-                    point_0 += ty0;
-                    point_1 += ty1;
                     dp += dstAdjust;
                 }
             }
@@ -1144,7 +1462,9 @@ public final class TurbulencePatternRed extends AbstractRed {
         else{ // Loop for turbulence noise
             if(stitchInfo == null){
                 if (channels.length == 4) {
-                    for(i=0; i<h; i++){
+                    for(i=y0; i<y1; i++){
+                        point_0 = rowX[i];
+                        point_1 = rowY[i];
                         for(end=dp+w; dp<end; dp++){
                             destPixels[dp] = turbulence_4
                                 (point_0, point_1, fSum);
@@ -1152,12 +1472,12 @@ public final class TurbulencePatternRed extends AbstractRed {
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
                         dp += dstAdjust;
                     }
                 } else {
-                    for(i=0; i<h; i++){
+                    for(i=y0; i<y1; i++){
+                        point_0 = rowX[i];
+                        point_1 = rowY[i];
                         for(end=dp+w; dp<end; dp++){
                             turbulence(rgb, point_0, point_1, fSum, noise);
 
@@ -1169,15 +1489,15 @@ public final class TurbulencePatternRed extends AbstractRed {
                             point_0 += tx0;
                             point_1 += tx1;
                         }
-                        point_0 += ty0;
-                        point_1 += ty1;
                         dp += dstAdjust;
                     }
                 }
             }
             else{
                 StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
+                for(i=y0; i<y1; i++){
+                    point_0 = rowX[i];
+                    point_1 = rowY[i];
                     for(end=dp+w; dp<end; dp++){
                         si.assign(this.stitchInfo);
                         turbulenceStitch(rgb, point_0, point_1,
@@ -1191,14 +1511,10 @@ public final class TurbulencePatternRed extends AbstractRed {
                         point_0 += tx0;
                         point_1 += tx1;
                     }
-                    point_0 += ty0;
-                    point_1 += ty1;
                     dp += dstAdjust;
                 }
             }
         }
-
-        return dest;
     }
 
     /**
@@ -207,6 +207,12 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      */
     protected TextPainter textPainter;
 
+    /**
+     * The cache of the text runs laid out for the text nodes, created
+     * on demand.
+     */
+    protected TextLayoutCache textLayoutCache;
+
     /**
      * Indicates that no DOM listeners should be registered.  In this
      * case the generated GVT tree should be totally independent of
@@ -424,6 +430,28 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         return textPainter;
     }
 
+    /**
+     * Returns the cache of the text runs laid out for the text nodes
+     * built with this bridge context.  It is cleared whenever the font
+     * faces known to this context change.
+     */
+    public TextLayoutCache getTextLayoutCache() {
+        if (textLayoutCache == null) {
+            textLayoutCache = new TextLayoutCache();
+        }
+        return textLayoutCache;
+    }
+
+    /**
+     * Notifies this bridge context that the font faces it resolves
+     * text against have changed, so any cached text layout is dropped.
+     */
+    public void fontFacesChanged() {
+        if (textLayoutCache != null) {
+            textLayoutCache.clear();
+        }
+    }
+
     /**
      * Returns the document this bridge context is dedicated to.
      */
@@ -439,6 +467,7 @@ public class BridgeContext implements ErrorConstants, CSSContext {
     protected void setDocument(Document document) {
         if (this.document != document){
             fontFamilyMap = null;
+            fontFacesChanged();
         }
         this.document = document;
         this.isSVG12 = ((SVGOMDocument) document).isSVG12();
@@ -462,6 +491,7 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      */
     protected void setFontFamilyMap(Map fontFamilyMap) {
         this.fontFamilyMap = fontFamilyMap;
+        fontFacesChanged();
     }
 
     /**
@@ -24,9 +24,13 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.batik.gvt.font.AWTFontFamily;
 import org.apache.batik.gvt.font.AWTGVTFont;
@@ -55,27 +59,106 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
 
     /**
      * List of all available fonts on the current system, plus a few common
-     * alternatives.
+     * alternatives.  The system fonts are only added by {@link #loadFonts()}.
      */
-    protected static final Map fonts = new HashMap();
+    protected static final ConcurrentMap fonts = new ConcurrentHashMap();
 
     protected static final List awtFontFamilies = new ArrayList();
 
     protected static final List awtFonts = new ArrayList();
 
+    /**
+     * Whether the system fonts were added to {@link #fonts}.
+     */
+    private static volatile boolean fontsLoaded;
+
     /**
      * This sets up the list of available fonts.
      */
     static {
-        fonts.put("sans-serif",      "SansSerif");
-        fonts.put("serif",           "Serif");
-        fonts.put("times",           "Serif");
-        fonts.put("times new roman", "Serif");
-        fonts.put("cursive",         "Dialog");
-        fonts.put("fantasy",         "Symbol");
-        fonts.put("monospace",       "Monospaced");
-        fonts.put("monospaced",      "Monospaced");
-        fonts.put("courier",         "Monospaced");
+        putGenericFonts(fonts);
+    }
+
+    /**
+     * Adds the generic font families, and a few common alternatives, to
+     * the given map.
+     */
+    private static void putGenericFonts(Map m) {
+        m.put("sans-serif",      "SansSerif");
+        m.put("serif",           "Serif");
+        m.put("times",           "Serif");
+        m.put("times new roman", "Serif");
+        m.put("cursive",         "Dialog");
+        m.put("fantasy",         "Symbol");
+        m.put("monospace",       "Monospaced");
+        m.put("monospaced",      "Monospaced");
+        m.put("courier",         "Monospaced");
+    }
+
+    /**
+     * Adds the fonts of the system to the list of available fonts, the
+     * first time it is called.  The font names are read from the
+     * {@link FontFamilyIndex} when there is an up to date one, rather
+     * than from the graphics environment.
+     */
+    protected static void loadFonts() {
+        if (fontsLoaded) {
+            return;
+        }
+        synchronized (awtFonts) {
+            if (fontsLoaded) {
+                return;
+            }
+            List names = null;
+            FontFamilyIndex index = FontFamilyIndex.getDefault();
+            if (index != null) {
+                names = index.load();
+            }
+            if (names == null) {
+                names = getSystemFontNames();
+                if (index != null) {
+                    index.store(names);
+                }
+            }
+
+            // Fill a HashMap in the same order as always, so that
+            // getFamilyThatCanDisplay tries the families in the same order.
+            Map m = new HashMap();
+            putGenericFonts(m);
+            for (int i = 0; i < names.size(); i += 2) {
+                m.put(names.get(i), names.get(i + 1));
+            }
+            fonts.putAll(m);
+
+            // first add the default font
+            awtFontFamilies.add(DEFAULT_FONT_FAMILY);
+            awtFonts.add(new AWTGVTFont(DEFAULT_FONT_FAMILY.getFamilyName(), 0, 12));
+
+            Set added = new HashSet();
+            Collection fontValues = m.values();
+            for (Object fontValue : fontValues) {
+                String fontFamily = (String) fontValue;
+                if (!added.add(fontFamily)) {
+                    // A later copy would never be the first to display
+                    // a character.
+                    continue;
+                }
+                AWTFontFamily awtFontFamily = new AWTFontFamily(fontFamily);
+                awtFontFamilies.add(awtFontFamily);
+                AWTGVTFont font = new AWTGVTFont(fontFamily, 0, 12);
+                awtFonts.add(font);
+            }
+            fontsLoaded = true;
+        }
+    }
+
+    /**
+     * Returns the names of the fonts of the graphics environment.
+     * @return a list of Strings, each lower case name being followed by
+     *         the font name it stands for.
+     */
+    protected static List getSystemFontNames() {
+        List names = new ArrayList();
 
         //
         // Load all fonts. Work around
@@ -87,7 +170,8 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
 
         int nFonts = fontNames != null ? fontNames.length : 0;
         for(int i=0; i<nFonts; i++){
-            fonts.put(fontNames[i].toLowerCase(), fontNames[i]);
+            names.add(fontNames[i].toLowerCase());
+            names.add(fontNames[i]);
 
             // also add the font name with the spaces removed
             StringTokenizer st = new StringTokenizer(fontNames[i]);
@@ -95,12 +179,14 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
             while (st.hasMoreTokens()) {
                 fontNameWithoutSpaces += st.nextToken();
             }
-            fonts.put(fontNameWithoutSpaces.toLowerCase(), fontNames[i]);
+            names.add(fontNameWithoutSpaces.toLowerCase());
+            names.add(fontNames[i]);
 
             // also add the font name with spaces replaced by dashes
             String fontNameWithDashes = fontNames[i].replace(' ', '-');
             if (!fontNameWithDashes.equals(fontNames[i])) {
-                fonts.put(fontNameWithDashes.toLowerCase(), fontNames[i]);
+                names.add(fontNameWithDashes.toLowerCase());
+                names.add(fontNames[i]);
             }
         }
 
@@ -109,31 +195,27 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
         //Without this, matching "Univers 45 Light" is not possible.
         Font[] allFonts = env.getAllFonts();
         for (Font f : allFonts) {
-            fonts.put(f.getFontName().toLowerCase(), f.getFontName());
+            names.add(f.getFontName().toLowerCase());
+            names.add(f.getFontName());
         }
-
-        // first add the default font
-        awtFontFamilies.add(DEFAULT_FONT_FAMILY);
-        awtFonts.add(new AWTGVTFont(DEFAULT_FONT_FAMILY.getFamilyName(), 0, 12));
-
-        Collection fontValues = fonts.values();
-        for (Object fontValue : fontValues) {
-            String fontFamily = (String) fontValue;
-            AWTFontFamily awtFontFamily = new AWTFontFamily(fontFamily);
-            awtFontFamilies.add(awtFontFamily);
-            AWTGVTFont font = new AWTGVTFont(fontFamily, 0, 12);
-            awtFonts.add(font);
-        }
-
+        return names;
     }
 
+    /**
+     * Stands for a family name that could not be resolved in
+     * {@link #resolvedFontFamilies}, which cannot hold nulls.
+     */
+    private static final Object UNRESOLVED = new Object();
+
     /**
      * This keeps track of all the resolved font families. This is to hopefully
      * reduce the number of font family objects used.
      */
-    protected static final Map resolvedFontFamilies = new HashMap();
+    protected static final ConcurrentMap resolvedFontFamilies =
+        new ConcurrentHashMap();
 
     public AWTFontFamily resolve(String familyName, FontFace fontFace) {
+        loadFonts();
         String fontName = (String)fonts.get(fontFace.getFamilyName().toLowerCase());
         if (fontName == null) {
             return null;
@@ -154,18 +236,28 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
         familyName = familyName.toLowerCase();
 
         // first see if this font family has already been resolved
-        GVTFontFamily resolvedFF =
-                (GVTFontFamily)resolvedFontFamilies.get(familyName);
+        Object resolved = resolvedFontFamilies.get(familyName);
 
-        if (resolvedFF == null) { // hasn't been resolved yet
+        if (resolved == null) { // hasn't been resolved yet
             // try to find a matching family name in the list of
             // available fonts
+            loadFonts();
             String awtFamilyName = (String)fonts.get(familyName);
+            Object ff = UNRESOLVED;
             if (awtFamilyName != null) {
-                resolvedFF = new AWTFontFamily(awtFamilyName);
+                ff = new AWTFontFamily(awtFamilyName);
             }
 
-            resolvedFontFamilies.put(familyName, resolvedFF);
+            // keep the family another thread may have resolved first, so
+            // that a name always resolves to the same object.
+            resolved = resolvedFontFamilies.putIfAbsent(familyName, ff);
+            if (resolved == null) {
+                resolved = ff;
+            }
+        }
+        GVTFontFamily resolvedFF = null;
+        if (resolved != UNRESOLVED) {
+            resolvedFF = (GVTFontFamily)resolved;
         }
 
         //  if (resolvedFF != null) {
@@ -180,6 +272,7 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
 
     /** {@inheritDoc} */
     public GVTFontFamily getFamilyThatCanDisplay(char c) {
+        loadFonts();
         for (int i = 0; i < awtFontFamilies.size(); i++) {
             AWTFontFamily fontFamily = (AWTFontFamily)awtFontFamilies.get(i);
             AWTGVTFont font = (AWTGVTFont)awtFonts.get(i);
@@ -19,14 +19,18 @@
 
 package org.apache.batik.bridge;
 
+import java.awt.Shape;
 import java.awt.font.FontRenderContext;
 import java.awt.font.TextAttribute;
+import java.awt.geom.PathIterator;
 import java.text.AttributedCharacterIterator;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.Arrays;
 
@@ -71,35 +75,125 @@ public class FlowTextPainter extends StrokingTextPainter {
         }
 
         AttributedCharacterIterator[] chunkACIs = getTextChunkACIs(aci);
-        textRuns = computeTextRuns(node, aci, chunkACIs);
 
         aci.first();
         List rgns = (List)aci.getAttribute(FLOW_REGIONS);
 
-        if (rgns != null) {
-            Iterator i = textRuns.iterator();
-            List chunkLayouts = new ArrayList();
-            TextRun tr = (TextRun)i.next();
-            List layouts = new ArrayList();
-            chunkLayouts.add(layouts);
-            layouts.add(tr.getLayout());
-            while (i.hasNext()) {
-                tr = (TextRun)i.next();
-                if (tr.isFirstRunInChunk()) {
-                    layouts = new ArrayList();
-                    chunkLayouts.add(layouts);
-                }
-                layouts.add(tr.getLayout());
-            }
+        if (rgns == null) {
+            textRuns = computeTextRuns(node, aci, chunkACIs);
+            node.setTextChunkLayouts(null);
+            node.setTextRuns(textRuns);
+            return node.getTextRuns();
+        }
 
-            textWrap(chunkACIs, chunkLayouts, rgns, fontRenderContext);
+        // Keep the leading paragraphs that did not change since the last
+        // layout, lines and all, and wrap again from the first one that
+        // did.
+        List lastParas = node.getTextChunkLayouts();
+        int firstChunk = getFirstChangedParagraph(lastParas, chunkACIs);
+        WrapState[] wrapStates = new WrapState[chunkACIs.length];
+        TextChunkLayout[] reusedChunks = null;
+        if (firstChunk > 0) {
+            reusedChunks = new TextChunkLayout[chunkACIs.length];
+            for (int i = 0; i < firstChunk; i++) {
+                reusedChunks[i] = (TextChunkLayout)lastParas.get(i);
+                wrapStates[i] = getWrapState(lastParas, i);
+            }
+            if (firstChunk < chunkACIs.length) {
+                wrapStates[firstChunk] = getWrapState(lastParas, firstChunk);
+            }
+        }
+        List paraLayouts = new ArrayList(chunkACIs.length);
+        textRuns = computeTextRuns(node, aci, chunkACIs,
+                                   reusedChunks, paraLayouts);
+
+        Iterator i = textRuns.iterator();
+        List chunkLayouts = new ArrayList();
+        TextRun tr = (TextRun)i.next();
+        List layouts = new ArrayList();
+        chunkLayouts.add(layouts);
+        layouts.add(tr.getLayout());
+        while (i.hasNext()) {
+            tr = (TextRun)i.next();
+            if (tr.isFirstRunInChunk()) {
+                layouts = new ArrayList();
+                chunkLayouts.add(layouts);
+            }
+            layouts.add(tr.getLayout());
         }
 
+        if (firstChunk < chunkACIs.length) {
+            textWrap(chunkACIs, chunkLayouts, rgns, fontRenderContext,
+                     firstChunk, wrapStates);
+        }
+        node.setTextChunkLayouts(getParagraphLayouts(paraLayouts,
+                                                     wrapStates));
 
         node.setTextRuns(textRuns);
         return node.getTextRuns();
     }
 
+    /**
+     * Returns the index of the first of the given paragraphs that must
+     * be laid out and wrapped again, given the paragraph layouts of the
+     * last layout of the node.  The paragraphs before it are the same,
+     * with the same flow regions, and the wrapping of the last layout
+     * reached the paragraph at that index, so it can go on from there.
+     */
+    protected int getFirstChangedParagraph(List lastParas,
+                                           AttributedCharacterIterator[] chunkACIs) {
+        if (lastParas == null) {
+            return 0;
+        }
+        int n = Math.min(lastParas.size(), chunkACIs.length);
+        int first = 0;
+        while (first < n) {
+            Object o = lastParas.get(first);
+            if (!(o instanceof ParagraphLayout) ||
+                !((ParagraphLayout)o).matches(chunkACIs[first])) {
+                break;
+            }
+            first++;
+        }
+        while ((first > 0) && (first < chunkACIs.length) &&
+               (getWrapState(lastParas, first) == null)) {
+            first--;
+        }
+        return first;
+    }
+
+    /**
+     * Returns the state of the wrapping when it reached the given
+     * paragraph of a last layout, or null.
+     */
+    protected static WrapState getWrapState(List paras, int i) {
+        if (i >= paras.size()) {
+            return null;
+        }
+        Object o = paras.get(i);
+        if (!(o instanceof ParagraphLayout)) {
+            return null;
+        }
+        return ((ParagraphLayout)o).getWrapState();
+    }
+
+    /**
+     * Returns the paragraph layouts to keep for the next layout of the
+     * node, or null if some paragraphs may not be reused.
+     */
+    protected List getParagraphLayouts(List chunkLayouts,
+                                       WrapState[] wrapStates) {
+        if (chunkLayouts.size() != wrapStates.length) {
+            return null;
+        }
+        List ret = new ArrayList(wrapStates.length);
+        for (int i = 0; i < wrapStates.length; i++) {
+            ret.add(new ParagraphLayout
+                    ((TextChunkLayout)chunkLayouts.get(i), wrapStates[i]));
+        }
+        return ret;
+    }
+
     public static final char SOFT_HYPHEN       = 0x00AD;
     public static final char ZERO_WIDTH_SPACE  = 0x200B;
     public static final char ZERO_WIDTH_JOINER = 0x200D;
@@ -113,6 +207,9 @@ public class FlowTextPainter extends StrokingTextPainter {
 
     public static final AttributedCharacterIterator.Attribute FLOW_LINE_BREAK
         = GVTAttributedCharacterIterator.TextAttribute.FLOW_LINE_BREAK;
+    public static final AttributedCharacterIterator.Attribute
+        FLOW_EMPTY_PARAGRAPH
+        = GVTAttributedCharacterIterator.TextAttribute.FLOW_EMPTY_PARAGRAPH;
     public static final AttributedCharacterIterator.Attribute LINE_HEIGHT
         = GVTAttributedCharacterIterator.TextAttribute.LINE_HEIGHT;
 
@@ -131,6 +228,27 @@ public class FlowTextPainter extends StrokingTextPainter {
                                    List chunkLayouts,
                                    List flowRects,
                                    FontRenderContext frc) {
+        return textWrap(acis, chunkLayouts, flowRects, frc, 0, null);
+    }
+
+    /**
+     * Wraps the chunks from firstChunk on into the flow regions.  The
+     * layouts of the chunks before it are left alone; they must have
+     * been wrapped by an earlier call that recorded in
+     * wrapStates[firstChunk] where the wrapping was when it reached
+     * that chunk.
+     *
+     * @param wrapStates If not null, receives for each chunk the state
+     *        of the wrapping when it reaches the chunk, unless already
+     *        set.
+     * @return true if some of the text did not fit in the regions.
+     */
+    public static boolean textWrap(AttributedCharacterIterator [] acis,
+                                   List chunkLayouts,
+                                   List flowRects,
+                                   FontRenderContext frc,
+                                   int firstChunk,
+                                   WrapState [] wrapStates) {
 
         // System.out.println("Len: " + acis.length + " Size: " +
         //                     chunkLayouts.size());
@@ -140,13 +258,23 @@ public class FlowTextPainter extends StrokingTextPainter {
         // glyphVector
         // GVTGlyphVector [] gvs            = new GVTGlyphVector[acis.length];       // todo - not used?
         WordInfo       [][] wordInfos    = new WordInfo[acis.length][];
-        Iterator clIter = chunkLayouts.iterator();
+        Iterator clIter = chunkLayouts.listIterator(firstChunk);
 
         float prevBotMargin = 0;
         int numWords = 0;
+        WrapState resumeState = null;
+        if (firstChunk > 0) {
+            resumeState = wrapStates[firstChunk];
+            numWords = resumeState.getNumWords();
+            acis[firstChunk-1].first();
+            BlockInfo bi = (BlockInfo)acis[firstChunk-1].getAttribute
+                (FLOW_PARAGRAPH);
+            prevBotMargin = bi.getBottomMargin();
+        }
         BlockInfo [] blockInfos = new BlockInfo[acis.length];
         float      [] topSkip   = new float[acis.length];
-        for (int chunk=0; clIter.hasNext(); chunk++) {
+        int        [] chunkWords = new int[acis.length];
+        for (int chunk=firstChunk; clIter.hasNext(); chunk++) {
             // System.err.print("Chunk: " + chunk + " Str: '");
             AttributedCharacterIterator aci = acis[chunk];
             List gvl = new LinkedList();
@@ -167,19 +295,37 @@ public class FlowTextPainter extends StrokingTextPainter {
             else
                 topSkip[chunk] = bi.getTopMargin();
             prevBotMargin = bi.getBottomMargin();
+            chunkWords[chunk] = numWords;
             numWords += wordInfos[chunk].length;
         }
 
-        Iterator frIter = flowRects.iterator();
+        ListIterator frIter;
+        if (resumeState == null) {
+            frIter = flowRects.listIterator();
+        } else {
+            frIter = flowRects.listIterator(resumeState.getRegion());
+        }
         RegionInfo currentRegion = null;
         int currWord = 0;
-        int chunk = 0;
+        int chunk = firstChunk;
         List lineInfos = new LinkedList();
         while(frIter.hasNext()) {
+            int region = frIter.nextIndex();
             currentRegion = (RegionInfo) frIter.next();
-            FlowRegions fr = new FlowRegions(currentRegion.getShape());
+            FlowRegions fr;
+            if (resumeState == null) {
+                fr = new FlowRegions(currentRegion.getShape());
+            } else {
+                fr = resumeState.getFlowRegions();
+                resumeState = null;
+            }
 
             while (chunk < wordInfos.length) {
+                if ((wrapStates != null) && (currWord == 0) &&
+                    (wrapStates[chunk] == null)) {
+                    wrapStates[chunk] = new WrapState(region, fr,
+                                                      chunkWords[chunk]);
+                }
                 WordInfo [] chunkInfo = wordInfos[chunk];
                 BlockInfo bi = blockInfos[chunk];
                 WordInfo  wi = chunkInfo[currWord];
@@ -518,4 +664,225 @@ public class FlowTextPainter extends StrokingTextPainter {
         return wordInfos;
     }
 
+    /**
+     * The state of the wrapping of a flow when it reaches the beginning
+     * of a paragraph, from which the paragraph and the ones after it
+     * can be wrapped again without wrapping the paragraphs before it.
+     */
+    public static class WrapState {
+
+        protected int region;
+        protected FlowRegions flowRegions;
+        protected int numWords;
+
+        /**
+         * Creates a new WrapState.
+         * @param region The index of the flow region being filled.
+         * @param fr The flow regions of that region, which are copied.
+         * @param numWords The number of words before the paragraph.
+         */
+        public WrapState(int region, FlowRegions fr, int numWords) {
+            this.region = region;
+            this.flowRegions = new FlowRegions(fr);
+            this.numWords = numWords;
+        }
+
+        public int getRegion() {
+            return region;
+        }
+
+        /**
+         * Returns a new copy of the flow regions, to go on with.
+         */
+        public FlowRegions getFlowRegions() {
+            return new FlowRegions(flowRegions);
+        }
+
+        public int getNumWords() {
+            return numWords;
+        }
+    }
+
+    /**
+     * The layout of a paragraph of flowed text, with the state of the
+     * wrapping when it reached the paragraph.  A paragraph matches
+     * another when it has the same text and attributes, with block
+     * infos, flow regions and line breaks compared by value since the
+     * bridge makes new ones each time it builds the text.
+     */
+    public static class ParagraphLayout extends TextChunkLayout {
+
+        protected WrapState wrapState;
+
+        /**
+         * Creates a new ParagraphLayout.
+         * @param l The layout of the paragraph.
+         * @param wrapState The state of the wrapping when it reached the
+         *        paragraph, or null if it did not.
+         */
+        public ParagraphLayout(TextChunkLayout l, WrapState wrapState) {
+            super(l.getACI(), l.getTextRuns(), l.getAdvance());
+            this.wrapState = wrapState;
+        }
+
+        public WrapState getWrapState() {
+            return wrapState;
+        }
+
+        /**
+         * Returns true if the given paragraph matches this one, including
+         * where its flowLine elements begin and end.
+         */
+        public boolean matches(AttributedCharacterIterator chunk) {
+            if (!super.matches(chunk)) {
+                return false;
+            }
+            // Walk the runs of all the attributes, as the run limit of
+            // the line breaks alone is searched to the end of the text
+            // when the paragraph is not in a flowLine.
+            int end = aci.getEndIndex();
+            int i = aci.getBeginIndex();
+            aci.setIndex(i);
+            chunk.setIndex(i);
+            Object line1 = aci.getAttribute(FLOW_LINE_BREAK);
+            Object line2 = chunk.getAttribute(FLOW_LINE_BREAK);
+            while (true) {
+                int limit = Math.min(aci.getRunLimit(), chunk.getRunLimit());
+                if (limit >= end) {
+                    return true;
+                }
+                aci.setIndex(limit);
+                chunk.setIndex(limit);
+                Object next1 = aci.getAttribute(FLOW_LINE_BREAK);
+                Object next2 = chunk.getAttribute(FLOW_LINE_BREAK);
+                if ((next1 != line1) != (next2 != line2)) {
+                    return false;
+                }
+                line1 = next1;
+                line2 = next2;
+            }
+        }
+
+        protected boolean sameValue(Object key, Object v1, Object v2) {
+            if (key == FLOW_PARAGRAPH) {
+                return sameBlock((BlockInfo)v1, (BlockInfo)v2);
+            }
+            if (key == FLOW_EMPTY_PARAGRAPH) {
+                List l1 = (List)v1;
+                List l2 = (List)v2;
+                if (l1.size() != l2.size()) {
+                    return false;
+                }
+                Iterator i1 = l1.iterator();
+                Iterator i2 = l2.iterator();
+                while (i1.hasNext()) {
+                    if (!sameBlock((BlockInfo)i1.next(),
+                                   (BlockInfo)i2.next())) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (key == FLOW_REGIONS) {
+                return sameRegions((List)v1, (List)v2);
+            }
+            if (key == FLOW_LINE_BREAK) {
+                // The markers only delimit flowLine elements, which
+                // matches() compares.
+                return true;
+            }
+            return super.sameValue(key, v1, v2);
+        }
+
+        protected boolean sameBlock(BlockInfo b1, BlockInfo b2) {
+            return (b1.getTopMargin()      == b2.getTopMargin())
+                && (b1.getRightMargin()    == b2.getRightMargin())
+                && (b1.getBottomMargin()   == b2.getBottomMargin())
+                && (b1.getLeftMargin()     == b2.getLeftMargin())
+                && (b1.getIndent()         == b2.getIndent())
+                && (b1.getTextAlignment()  == b2.getTextAlignment())
+                && (b1.getLineHeight()     == b2.getLineHeight())
+                && (b1.isFlowRegionBreak() == b2.isFlowRegionBreak())
+                && b1.getFontList().equals(b2.getFontList())
+                && sameFontAttrs(b1.getFontAttrs(), b2.getFontAttrs());
+        }
+
+        protected boolean sameFontAttrs(Map m1, Map m2) {
+            if (m1.size() != m2.size()) {
+                return false;
+            }
+            Iterator it = m1.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry e = (Map.Entry)it.next();
+                Object v1 = e.getValue();
+                Object v2 = m2.get(e.getKey());
+                if ((v1 != v2) &&
+                    ((v1 == null) || (v2 == null) ||
+                     !sameValue(e.getKey(), v1, v2))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        protected static boolean sameRegions(List l1, List l2) {
+            if (l1.size() != l2.size()) {
+                return false;
+            }
+            Iterator i1 = l1.iterator();
+            Iterator i2 = l2.iterator();
+            while (i1.hasNext()) {
+                RegionInfo r1 = (RegionInfo)i1.next();
+                RegionInfo r2 = (RegionInfo)i2.next();
+                if ((r1.getVerticalAlignment() != r2.getVerticalAlignment())
+                    || !sameShape(r1.getShape(), r2.getShape())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        protected static boolean sameShape(Shape s1, Shape s2) {
+            if (s1 == s2) {
+                return true;
+            }
+            PathIterator p1 = s1.getPathIterator(null);
+            PathIterator p2 = s2.getPathIterator(null);
+            if (p1.getWindingRule() != p2.getWindingRule()) {
+                return false;
+            }
+            double[] c1 = new double[6];
+            double[] c2 = new double[6];
+            for (; !p1.isDone(); p1.next(), p2.next()) {
+                if (p2.isDone()) {
+                    return false;
+                }
+                int type = p1.currentSegment(c1);
+                if (p2.currentSegment(c2) != type) {
+                    return false;
+                }
+                int n;
+                switch (type) {
+                case PathIterator.SEG_MOVETO:
+                case PathIterator.SEG_LINETO:
+                    n = 2;
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    n = 4;
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    n = 6;
+                    break;
+                default:
+                    n = 0;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (c1[i] != c2[i]) {
+                        return false;
+                    }
+                }
+            }
+            return p2.isDone();
+        }
+    }
 }
@@ -0,0 +1,281 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * A font name index kept on disk, so that the fonts of the graphics
+ * environment need not be enumerated each time a JVM starts, which is
+ * slow on systems with many fonts.
+ *
+ * <p>The index records the names found by
+ * {@link DefaultFontFamilyResolver} together with the modification times
+ * of the font directories, searched recursively, and of the Java runtime.
+ * It is out of date, and built again, as soon as one of them changes.
+ * The directories are the usual font directories of the platform and
+ * of the Java runtime, or the ones listed, separated by the path
+ * separator, in the <code>org.apache.batik.bridge.fontDirectories</code>
+ * system property.</p>
+ *
+ * <p>The index is only used when the
+ * <code>org.apache.batik.bridge.fontIndex</code> system property names
+ * the file to keep it in.</p>
+ *
+ * @version $Id$
+ */
+public class FontFamilyIndex {
+
+    /**
+     * The name of the system property that gives the index file.
+     */
+    public static final String FONT_INDEX_PROPERTY =
+        "org.apache.batik.bridge.fontIndex";
+
+    /**
+     * The name of the system property that lists the font directories.
+     */
+    public static final String FONT_DIRECTORIES_PROPERTY =
+        "org.apache.batik.bridge.fontDirectories";
+
+    /**
+     * The first bytes of an index file.
+     */
+    protected static final int MAGIC = 0x42464e49;
+
+    /**
+     * The version of the index file format.
+     */
+    protected static final int VERSION = 1;
+
+    /**
+     * The depth of subdirectories searched in a font directory.
+     */
+    protected static final int MAX_DEPTH = 8;
+
+    /**
+     * The index file.
+     */
+    protected File file;
+
+    /**
+     * The font directories.
+     */
+    protected List directories;
+
+    /**
+     * Creates a new FontFamilyIndex.
+     * @param file The index file.
+     * @param directories The font directories, as Files.
+     */
+    public FontFamilyIndex(File file, List directories) {
+        this.file = file;
+        this.directories = directories;
+    }
+
+    /**
+     * Returns the index named by the system properties, or null if
+     * there is none.
+     */
+    public static FontFamilyIndex getDefault() {
+        try {
+            String f = System.getProperty(FONT_INDEX_PROPERTY);
+            if ((f == null) || (f.length() == 0)) {
+                return null;
+            }
+            List dirs = new ArrayList();
+            String d = System.getProperty(FONT_DIRECTORIES_PROPERTY);
+            if (d != null) {
+                StringTokenizer st =
+                    new StringTokenizer(d, File.pathSeparator);
+                while (st.hasMoreTokens()) {
+                    dirs.add(new File(st.nextToken()));
+                }
+            } else {
+                addPlatformDirectories(dirs);
+            }
+            return new FontFamilyIndex(new File(f), dirs);
+        } catch (SecurityException se) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds the usual font directories of the platform and of the Java
+     * runtime to the given list.
+     */
+    protected static void addPlatformDirectories(List dirs) {
+        String javaHome = System.getProperty("java.home");
+        String userHome = System.getProperty("user.home");
+        String os = System.getProperty("os.name", "").toLowerCase();
+        dirs.add(new File(javaHome, "lib" + File.separator + "fonts"));
+        if (os.startsWith("windows")) {
+            String windir = System.getenv("WINDIR");
+            if (windir != null) {
+                dirs.add(new File(windir, "Fonts"));
+            }
+            String local = System.getenv("LOCALAPPDATA");
+            if (local != null) {
+                dirs.add(new File(local, "Microsoft" + File.separator
+                                  + "Windows" + File.separator + "Fonts"));
+            }
+        } else if (os.startsWith("mac")) {
+            dirs.add(new File("/System/Library/Fonts"));
+            dirs.add(new File("/Library/Fonts"));
+            dirs.add(new File("/Network/Library/Fonts"));
+            dirs.add(new File(userHome, "Library/Fonts"));
+        } else {
+            dirs.add(new File("/etc/fonts"));
+            dirs.add(new File("/usr/share/fonts"));
+            dirs.add(new File("/usr/local/share/fonts"));
+            dirs.add(new File("/usr/X11R6/lib/X11/fonts"));
+            dirs.add(new File(userHome, ".fonts"));
+            dirs.add(new File(userHome, ".local/share/fonts"));
+        }
+    }
+
+    /**
+     * Returns the names recorded in the index, or null if it is missing,
+     * unreadable or out of date.
+     * @return a list of Strings, each lower case name being followed by
+     *         the font name it stands for, in the order they were found.
+     */
+    public List load() {
+        try {
+            if (!file.isFile()) {
+                return null;
+            }
+            DataInputStream in = new DataInputStream
+                (new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+                    return null;
+                }
+                if (!in.readUTF().equals(getStamp())) {
+                    return null;
+                }
+                int n = in.readInt();
+                List names = new ArrayList(n);
+                for (int i = 0; i < n; i++) {
+                    names.add(in.readUTF());
+                }
+                return names;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            return null;
+        } catch (SecurityException se) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the given names to the index.  Errors are ignored, the
+     * index is then built again next time.
+     * @param names The names, as returned by {@link #load()}.
+     */
+    public void store(List names) {
+        File tmp = null;
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null) {
+                dir.mkdirs();
+            }
+            // Write another file and rename it, so that concurrent
+            // processes never read a partial index.
+            tmp = File.createTempFile("fonts", ".tmp", dir);
+            DataOutputStream out = new DataOutputStream
+                (new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(getStamp());
+                out.writeInt(names.size());
+                for (Object name : names) {
+                    out.writeUTF((String)name);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                }
+            }
+        } catch (IOException ioe) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        } catch (SecurityException se) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns a string that changes whenever the fonts of the system may
+     * have changed: the Java runtime and the latest modification time of
+     * the font directories and of their subdirectories.
+     */
+    protected String getStamp() {
+        long[] stamp = new long[2];
+        for (Object d : directories) {
+            addDirectory((File)d, stamp, 0);
+        }
+        return System.getProperty("java.home") + ';'
+            + System.getProperty("java.version") + ';'
+            + stamp[0] + ';' + stamp[1];
+    }
+
+    /**
+     * Adds the given directory and its subdirectories to stamp: the
+     * latest modification time and the number of directories.  The
+     * search stops at {@link #MAX_DEPTH}, in case of symbolic link
+     * cycles.
+     */
+    protected void addDirectory(File dir, long[] stamp, int depth) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        stamp[0] = Math.max(stamp[0], dir.lastModified());
+        stamp[1]++;
+        if (depth == MAX_DEPTH) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                addDirectory(f, stamp, depth + 1);
+            }
+        }
+    }
+}
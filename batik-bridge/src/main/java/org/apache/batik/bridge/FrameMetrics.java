@@ -0,0 +1,184 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+/**
+ * This class holds the timings of one frame rendered by an
+ * {@link UpdateManager}.  A frame covers all the runnables executed in
+ * the update thread since the previous repaint (script handlers and
+ * animation ticks), the collection of the dirty regions of the GVT
+ * tree, and the repaint of those regions.
+ *
+ * <p>The frame metrics are available from the event passed to
+ * {@link UpdateManagerListener#updateCompleted(UpdateManagerEvent)}.
+ * All the durations are in nanoseconds.</p>
+ *
+ * @version $Id$
+ */
+public class FrameMetrics {
+
+    /**
+     * The sequence number of the frame.
+     */
+    protected long frameNumber;
+
+    /**
+     * The system time in milliseconds at which the repaint started.
+     */
+    protected long frameTime;
+
+    /**
+     * The target frame duration in milliseconds.
+     */
+    protected long targetFrameTime;
+
+    /**
+     * The time spent running script and other update runnables.
+     */
+    protected long scriptTime;
+
+    /**
+     * The time spent running animation ticks.
+     */
+    protected long animationTime;
+
+    /**
+     * The time spent collecting the dirty regions of the GVT tree.
+     */
+    protected long gvtUpdateTime;
+
+    /**
+     * The time spent repainting the dirty regions.
+     */
+    protected long paintTime;
+
+    /**
+     * The number of runnables coalesced into this frame.
+     */
+    protected int runnableCount;
+
+    /**
+     * Creates a new FrameMetrics.
+     * @param frameNumber The sequence number of the frame.
+     * @param frameTime The system time in milliseconds at which the
+     *        repaint started.
+     * @param targetFrameTime The target frame duration in milliseconds.
+     * @param scriptTime The time spent running update runnables.
+     * @param animationTime The time spent running animation ticks.
+     * @param gvtUpdateTime The time spent collecting the dirty regions.
+     * @param paintTime The time spent repainting.
+     * @param runnableCount The number of runnables coalesced into the frame.
+     */
+    public FrameMetrics(long frameNumber, long frameTime,
+                        long targetFrameTime, long scriptTime,
+                        long animationTime, long gvtUpdateTime,
+                        long paintTime, int runnableCount) {
+        this.frameNumber = frameNumber;
+        this.frameTime = frameTime;
+        this.targetFrameTime = targetFrameTime;
+        this.scriptTime = scriptTime;
+        this.animationTime = animationTime;
+        this.gvtUpdateTime = gvtUpdateTime;
+        this.paintTime = paintTime;
+        this.runnableCount = runnableCount;
+    }
+
+    /**
+     * Returns the sequence number of the frame.
+     */
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * Returns the system time in milliseconds at which the repaint
+     * of this frame started.
+     */
+    public long getFrameTime() {
+        return frameTime;
+    }
+
+    /**
+     * Returns the target frame duration in milliseconds.
+     */
+    public long getTargetFrameTime() {
+        return targetFrameTime;
+    }
+
+    /**
+     * Returns the time spent running script and other update runnables,
+     * in nanoseconds.
+     */
+    public long getScriptTime() {
+        return scriptTime;
+    }
+
+    /**
+     * Returns the time spent running animation ticks, in nanoseconds.
+     */
+    public long getAnimationTime() {
+        return animationTime;
+    }
+
+    /**
+     * Returns the time spent collecting the dirty regions of the GVT
+     * tree, in nanoseconds.
+     */
+    public long getGVTUpdateTime() {
+        return gvtUpdateTime;
+    }
+
+    /**
+     * Returns the time spent repainting the dirty regions, in nanoseconds.
+     */
+    public long getPaintTime() {
+        return paintTime;
+    }
+
+    /**
+     * Returns the total time spent in the update thread for this frame,
+     * in nanoseconds.
+     */
+    public long getTotalTime() {
+        return scriptTime + animationTime + gvtUpdateTime + paintTime;
+    }
+
+    /**
+     * Returns the number of runnables coalesced into this frame.
+     */
+    public int getRunnableCount() {
+        return runnableCount;
+    }
+
+    /**
+     * Returns true if this frame took longer than the target frame time.
+     */
+    public boolean isOverBudget() {
+        return getTotalTime() > targetFrameTime * 1000000L;
+    }
+
+    public String toString() {
+        return "FrameMetrics[frame=" + frameNumber
+            + ", script=" + scriptTime
+            + ", animation=" + animationTime
+            + ", gvtUpdate=" + gvtUpdateTime
+            + ", paint=" + paintTime
+            + ", runnables=" + runnableCount + ']';
+    }
+}
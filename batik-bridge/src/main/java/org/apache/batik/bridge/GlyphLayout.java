@@ -87,6 +87,9 @@ public class GlyphLayout implements TextSpanLayout {
     // and spacing applied but neither will be touched if no text path
     // is present.
     private boolean pathApplied    = false;
+    // The cache of the layouts of runs without per-glyph positioning,
+    // may be null.
+    protected TextLayoutCache layoutCache;
 
 
     public static final AttributedCharacterIterator.Attribute FLOW_LINE_BREAK
@@ -132,6 +135,9 @@ public class GlyphLayout implements TextSpanLayout {
     private static final AttributedCharacterIterator.Attribute BASELINE_SHIFT
         = GVTAttributedCharacterIterator.TextAttribute.BASELINE_SHIFT;
 
+    private static final AttributedCharacterIterator.Attribute ARABIC_FORM
+        = GVTAttributedCharacterIterator.TextAttribute.ARABIC_FORM;
+
     private static final AttributedCharacterIterator.Attribute WRITING_MODE
         = GVTAttributedCharacterIterator.TextAttribute.WRITING_MODE;
 
@@ -155,6 +161,15 @@ public class GlyphLayout implements TextSpanLayout {
         runAtts.add(BASELINE_SHIFT);
     }
 
+    /**
+     * The attributes whose runs are checked before using the layout cache.
+     */
+    protected static Set cachedRunAtts = new HashSet(runAtts);
+
+    static {
+        cachedRunAtts.add(ARABIC_FORM);
+    }
+
     protected static Set szAtts = new HashSet();
 
     static {
@@ -219,6 +234,18 @@ public class GlyphLayout implements TextSpanLayout {
         return this.gv;
     }
 
+    /**
+     * Sets the cache used to share the glyph positions of identical
+     * runs.  The cache is only used for runs without per-glyph
+     * positioning, rotation or baseline shift that are laid out
+     * horizontally at the origin.
+     *
+     * @param layoutCache the cache to use, or null
+     */
+    public void setTextLayoutCache(TextLayoutCache layoutCache) {
+        this.layoutCache = layoutCache;
+    }
+
 
     /**
      * Returns the current text position at the beginning
@@ -1460,6 +1487,16 @@ public class GlyphLayout implements TextSpanLayout {
             // Nothing to do...
             return;
 
+        TextLayoutCache.Key key = null;
+        if (!layoutApplied && (xScale == 1) && (yScale == 1)) {
+            key = getShapedRunKey();
+            if ((key != null) && applyShapedRun(layoutCache.get(key))) {
+                spacingApplied = true;
+                pathApplied    = false;
+                return;
+            }
+        }
+
         if (!layoutApplied)
             // Must have clean layout to do spacing...
             doExplicitGlyphLayout();
@@ -1479,6 +1516,13 @@ public class GlyphLayout implements TextSpanLayout {
             layoutApplied  = false;
         }
 
+        if (key != null) {
+            int numGlyphs = gv.getNumGlyphs();
+            layoutCache.put(key, new TextLayoutCache.ShapedRun
+                            (gv.getGlyphPositions(0, numGlyphs+1, null),
+                             advance, !layoutApplied));
+        }
+
         // This will clear layoutApplied if it mucks with the current
         // character positions.
         applyStretchTransform(!adjSpacing);
@@ -1487,6 +1531,92 @@ public class GlyphLayout implements TextSpanLayout {
         pathApplied    = false;
     }
 
+    /**
+     * Returns the key of this run in the layout cache, or null if the
+     * cache is not used or the run has per-glyph positioning attributes
+     * (other than the absolute position of its first character, which
+     * is canceled out by the layout at the origin).
+     */
+    protected TextLayoutCache.Key getShapedRunKey() {
+        if ((layoutCache == null) || vertical || (textPath != null) ||
+            isAltGlyph || (offset.getX() != 0) || (offset.getY() != 0) ||
+            (getGlyphOrientationAngle() != 0)) {
+            return null;
+        }
+
+        int begin = aci.getBeginIndex();
+        int end   = aci.getEndIndex();
+        StringBuffer text = new StringBuffer(end - begin);
+        int runLimit = begin;
+        char c = aci.first();
+        for (int i = begin; i < end; i++, c = aci.next()) {
+            if (i == runLimit) {
+                runLimit = aci.getRunLimit(cachedRunAtts);
+                if (isSet(DX) || isSet(DY) || isSet(ROTATION) ||
+                    (aci.getAttribute(BASELINE_SHIFT) != null) ||
+                    (aci.getAttribute(ARABIC_FORM) != null)) {
+                    return null;
+                }
+                if ((i != begin) && (isSet(X) || isSet(Y))) {
+                    return null;
+                }
+            }
+            text.append(c);
+        }
+
+        aci.first();
+        Boolean customSpacing =  (Boolean) aci.getAttribute(
+               GVTAttributedCharacterIterator.TextAttribute.CUSTOM_SPACING);
+        if ((customSpacing != null) && customSpacing) {
+            return new TextLayoutCache.Key
+                (text.toString(), font, gv.getFontRenderContext(), true,
+                 (Float) aci.getAttribute
+                 (GVTAttributedCharacterIterator.TextAttribute.KERNING),
+                 (Float) aci.getAttribute
+                 (GVTAttributedCharacterIterator.TextAttribute.LETTER_SPACING),
+                 (Float) aci.getAttribute
+                 (GVTAttributedCharacterIterator.TextAttribute.WORD_SPACING));
+        }
+        return new TextLayoutCache.Key
+            (text.toString(), font, gv.getFontRenderContext(), false,
+             null, null, null);
+    }
+
+    /**
+     * Returns true if the given float attribute is set on the current
+     * character.
+     */
+    private boolean isSet(AttributedCharacterIterator.Attribute att) {
+        Float f = (Float) aci.getAttribute(att);
+        return (f != null) && !f.isNaN();
+    }
+
+    /**
+     * Moves the glyphs to the positions of a cached run.
+     *
+     * @param run the cached run, may be null
+     * @return false if the run could not be applied
+     */
+    protected boolean applyShapedRun(TextLayoutCache.ShapedRun run) {
+        int numGlyphs = gv.getNumGlyphs();
+        if ((run == null) || (run.getNumGlyphs() != numGlyphs)) {
+            return false;
+        }
+
+        gv.performDefaultLayout();
+        Point2D.Float pos = new Point2D.Float();
+        for (int i = 0; i <= numGlyphs; i++) {
+            pos.x = run.getX(i);
+            pos.y = run.getY(i);
+            gv.setGlyphPosition(i, pos);
+        }
+        advance = run.getAdvance();
+
+        layoutApplied = !run.hasCustomSpacing();
+        glyphAdvances = null;
+        return true;
+    }
+
     /**
      * Performs any spacing adjustments required and returns the new advance
      * value.
@@ -0,0 +1,387 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.BasicStroke;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.batik.css.engine.SVGCSSEngine;
+import org.apache.batik.css.engine.value.Value;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.LazyCompositeGraphicsNode;
+import org.apache.batik.parser.AWTPathProducer;
+import org.apache.batik.parser.AWTPolygonProducer;
+import org.apache.batik.parser.AWTPolylineProducer;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.css.CSSPrimitiveValue;
+
+/**
+ * A GVT builder that defers the construction of the content of
+ * &lt;g&gt; and &lt;a&gt; elements until it is first painted.
+ *
+ * <p>Before building the children of a group, a first pass estimates
+ * the area they may paint from their geometry attributes, their
+ * transforms and their stroke.  When such a conservative estimate can
+ * be computed, the children are placed under a {@link
+ * LazyCompositeGraphicsNode} that only builds them once the painted
+ * region intersects the estimate.  Groups containing content whose
+ * extent cannot be estimated cheaply (text, use, nested viewports,
+ * filters, markers...) are built eagerly, as is everything in dynamic
+ * documents where the bridges must track DOM mutations.</p>
+ *
+ * <p>This reduces the start up time and the memory footprint of very
+ * large documents (e.g. tiled maps) of which only a small area is
+ * ever displayed.</p>
+ *
+ * @version $Id$
+ */
+public class LazyGVTBuilder extends GVTBuilder {
+
+    /**
+     * The value returned by the estimation methods for elements that
+     * do not paint anything.
+     */
+    protected static final Rectangle2D NO_BOUNDS = new Rectangle();
+
+    /**
+     * The content bounds of the groups being built, estimated with the
+     * content of one of their ancestors.  Each lazy node keeps the
+     * bounds estimated with its own content, so that they are dropped
+     * with it if it is never built.
+     */
+    protected Map<Element, Rectangle2D> contentBounds =
+        new HashMap<Element, Rectangle2D>();
+
+    /**
+     * Constructs a new builder.
+     */
+    public LazyGVTBuilder() { }
+
+    /**
+     * Builds a composite Element, deferring the construction of its
+     * children when possible.
+     *
+     * @param ctx the bridge context
+     * @param e the element to build
+     * @param parentNode the composite graphics node, parent of the
+     *                   graphics node to build
+     * @exception BridgeException if an error occured while constructing
+     * the GVT tree
+     */
+    protected void buildComposite(final BridgeContext ctx,
+                                  final Element e,
+                                  CompositeGraphicsNode parentNode) {
+        Rectangle2D hint = null;
+        Map<Element, Rectangle2D> bounds = contentBounds;
+        if (!ctx.isDynamic() && isDeferrable(e)) {
+            hint = bounds.remove(e);
+            if (hint == null) {
+                bounds = new HashMap<Element, Rectangle2D>();
+                hint = estimateContentBounds(ctx, e, bounds);
+            }
+        }
+        if (hint == null || hint == NO_BOUNDS) {
+            buildComposite(ctx, e, parentNode, bounds);
+            return;
+        }
+        final Map<Element, Rectangle2D> nested = bounds;
+        LazyCompositeGraphicsNode.ContentBuilder cb =
+            new LazyCompositeGraphicsNode.ContentBuilder() {
+                public void buildContent(LazyCompositeGraphicsNode node) {
+                    try {
+                        buildComposite(ctx, e, node, nested);
+                    } catch (InterruptedBridgeException ex) {
+                        throw ex;
+                    } catch (BridgeException ex) {
+                        ctx.getUserAgent().displayError(ex);
+                    }
+                }
+            };
+        parentNode.add(new LazyCompositeGraphicsNode(hint, cb));
+    }
+
+    /**
+     * Builds the children of a composite Element, with the specified
+     * content bounds of the groups they contain.
+     */
+    protected void buildComposite(BridgeContext ctx,
+                                  Element e,
+                                  CompositeGraphicsNode parentNode,
+                                  Map<Element, Rectangle2D> bounds) {
+        Map<Element, Rectangle2D> old = contentBounds;
+        contentBounds = bounds;
+        try {
+            super.buildComposite(ctx, e, parentNode);
+        } finally {
+            contentBounds = old;
+        }
+    }
+
+    /**
+     * Returns true if the children of the specified element may be
+     * built lazily.
+     */
+    protected boolean isDeferrable(Element e) {
+        if (!SVG_NAMESPACE_URI.equals(e.getNamespaceURI())) {
+            return false;
+        }
+        String ln = e.getLocalName();
+        return ln.equals(SVG_G_TAG) || ln.equals(SVG_A_TAG);
+    }
+
+    /**
+     * Estimates the bounds of the children of the specified element in
+     * its user space, {@link #NO_BOUNDS} if they paint nothing, or null
+     * if they cannot be estimated.
+     * @param bounds receives the content bounds of the groups found
+     */
+    protected Rectangle2D estimateContentBounds
+        (BridgeContext ctx, Element e, Map<Element, Rectangle2D> bounds) {
+        Rectangle2D union = NO_BOUNDS;
+        for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            Rectangle2D r = estimateBounds(ctx, (Element)n, bounds);
+            if (r == null) {
+                return null;
+            }
+            if (r == NO_BOUNDS) {
+                continue;
+            }
+            if (union == NO_BOUNDS) {
+                union = r;
+            } else {
+                union.add(r);
+            }
+        }
+        return union;
+    }
+
+    /**
+     * Estimates the bounds of the area painted by the specified element
+     * in the user space of its parent, stroke included. Returns {@link
+     * #NO_BOUNDS} if the element does not paint anything, or null if
+     * its bounds cannot be estimated cheaply.
+     * @param bounds receives the content bounds of the groups found
+     */
+    protected Rectangle2D estimateBounds(BridgeContext ctx, Element e,
+                                         Map<Element, Rectangle2D> bounds) {
+        Bridge bridge = ctx.getBridge(e);
+        if (!(bridge instanceof GraphicsNodeBridge)) {
+            return NO_BOUNDS;
+        }
+        if (!SVG_NAMESPACE_URI.equals(e.getNamespaceURI())) {
+            return null;
+        }
+        if (!CSSUtilities.convertDisplay(e)) {
+            return NO_BOUNDS;
+        }
+        Value v = CSSUtilities.getComputedStyle(e, SVGCSSEngine.FILTER_INDEX);
+        if (v.getPrimitiveType() != CSSPrimitiveValue.CSS_IDENT) {
+            return null;
+        }
+
+        Rectangle2D r;
+        try {
+            String ln = e.getLocalName();
+            if (isDeferrable(e)) {
+                r = estimateContentBounds(ctx, e, bounds);
+                if (r != null) {
+                    // Keep it for when the group itself is built.
+                    bounds.put(e, r);
+                }
+            } else if (ln.equals(SVG_IMAGE_TAG)) {
+                // The image is clipped to its viewport, unless the
+                // 'overflow' property says otherwise.
+                if (!CSSUtilities.convertOverflow(e)) {
+                    return null;
+                }
+                r = estimateShapeBounds(ctx, e, ln);
+            } else {
+                r = estimateShapeBounds(ctx, e, ln);
+                if (r != null && r != NO_BOUNDS) {
+                    if (hasMarkers(e)) {
+                        return null;
+                    }
+                    r = addStroke(e, r);
+                }
+            }
+            if (r == null || r == NO_BOUNDS) {
+                return r;
+            }
+
+            String s = e.getAttributeNS(null, SVG_TRANSFORM_ATTRIBUTE);
+            if (s.length() != 0) {
+                AffineTransform at = SVGUtilities.convertTransform
+                    (e, SVG_TRANSFORM_ATTRIBUTE, s, ctx);
+                r = at.createTransformedShape(r).getBounds2D();
+            } else {
+                r = (Rectangle2D)r.clone();
+            }
+        } catch (IOException ex) {
+            return null;
+        } catch (RuntimeException ex) {
+            // Malformed content is reported when it is actually built.
+            return null;
+        }
+        return r;
+    }
+
+    /**
+     * Estimates the geometry bounds of a basic shape, path or image
+     * element in its own user space.
+     */
+    protected Rectangle2D estimateShapeBounds(BridgeContext ctx,
+                                              Element e,
+                                              String ln)
+        throws IOException {
+        UnitProcessor.Context uctx = UnitProcessor.createContext(ctx, e);
+        if (ln.equals(SVG_RECT_TAG) || ln.equals(SVG_IMAGE_TAG)) {
+            float x = coordinate(e, SVG_X_ATTRIBUTE, true, uctx);
+            float y = coordinate(e, SVG_Y_ATTRIBUTE, false, uctx);
+            float w = coordinate(e, SVG_WIDTH_ATTRIBUTE, true, uctx);
+            float h = coordinate(e, SVG_HEIGHT_ATTRIBUTE, false, uctx);
+            if (w <= 0 || h <= 0) {
+                return NO_BOUNDS;
+            }
+            return new Rectangle2D.Float(x, y, w, h);
+        }
+        if (ln.equals(SVG_CIRCLE_TAG)) {
+            float cx = coordinate(e, SVG_CX_ATTRIBUTE, true, uctx);
+            float cy = coordinate(e, SVG_CY_ATTRIBUTE, false, uctx);
+            String s = e.getAttributeNS(null, SVG_R_ATTRIBUTE);
+            if (s.length() == 0) {
+                return NO_BOUNDS;
+            }
+            float r = UnitProcessor.svgOtherLengthToUserSpace
+                (s, SVG_R_ATTRIBUTE, uctx);
+            return new Rectangle2D.Float(cx - r, cy - r, 2 * r, 2 * r);
+        }
+        if (ln.equals(SVG_ELLIPSE_TAG)) {
+            float cx = coordinate(e, SVG_CX_ATTRIBUTE, true, uctx);
+            float cy = coordinate(e, SVG_CY_ATTRIBUTE, false, uctx);
+            float rx = coordinate(e, SVG_RX_ATTRIBUTE, true, uctx);
+            float ry = coordinate(e, SVG_RY_ATTRIBUTE, false, uctx);
+            return new Rectangle2D.Float(cx - rx, cy - ry, 2 * rx, 2 * ry);
+        }
+        if (ln.equals(SVG_LINE_TAG)) {
+            float x1 = coordinate(e, SVG_X1_ATTRIBUTE, true, uctx);
+            float y1 = coordinate(e, SVG_Y1_ATTRIBUTE, false, uctx);
+            float x2 = coordinate(e, SVG_X2_ATTRIBUTE, true, uctx);
+            float y2 = coordinate(e, SVG_Y2_ATTRIBUTE, false, uctx);
+            return new Rectangle2D.Float(Math.min(x1, x2), Math.min(y1, y2),
+                                         Math.abs(x2 - x1),
+                                         Math.abs(y2 - y1));
+        }
+        Shape shape;
+        if (ln.equals(SVG_PATH_TAG)) {
+            String s = e.getAttributeNS(null, SVG_D_ATTRIBUTE);
+            if (s.length() == 0) {
+                return NO_BOUNDS;
+            }
+            shape = AWTPathProducer.createShape
+                (new StringReader(s), GeneralPath.WIND_NON_ZERO);
+        } else if (ln.equals(SVG_POLYLINE_TAG)) {
+            String s = e.getAttributeNS(null, SVG_POINTS_ATTRIBUTE);
+            if (s.length() == 0) {
+                return NO_BOUNDS;
+            }
+            shape = AWTPolylineProducer.createShape
+                (new StringReader(s), GeneralPath.WIND_NON_ZERO);
+        } else if (ln.equals(SVG_POLYGON_TAG)) {
+            String s = e.getAttributeNS(null, SVG_POINTS_ATTRIBUTE);
+            if (s.length() == 0) {
+                return NO_BOUNDS;
+            }
+            shape = AWTPolygonProducer.createShape
+                (new StringReader(s), GeneralPath.WIND_NON_ZERO);
+        } else {
+            return null;
+        }
+        return shape.getBounds2D();
+    }
+
+    /**
+     * Returns the value of the specified coordinate attribute in user
+     * units, 0 if the attribute is not specified.
+     */
+    protected float coordinate(Element e, String attr, boolean horizontal,
+                               UnitProcessor.Context uctx) {
+        String s = e.getAttributeNS(null, attr);
+        if (s.length() == 0) {
+            return 0;
+        }
+        if (horizontal) {
+            return UnitProcessor.svgHorizontalCoordinateToUserSpace
+                (s, attr, uctx);
+        }
+        return UnitProcessor.svgVerticalCoordinateToUserSpace(s, attr, uctx);
+    }
+
+    /**
+     * Returns true if one of the 'marker' properties of the specified
+     * element references a marker.
+     */
+    protected boolean hasMarkers(Element e) {
+        int[] idx = { SVGCSSEngine.MARKER_START_INDEX,
+                      SVGCSSEngine.MARKER_MID_INDEX,
+                      SVGCSSEngine.MARKER_END_INDEX };
+        for (int i : idx) {
+            Value v = CSSUtilities.getComputedStyle(e, i);
+            if (v.getPrimitiveType() != CSSPrimitiveValue.CSS_IDENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Grows the specified geometry bounds by the maximum extent of the
+     * stroke of the specified element.
+     */
+    protected Rectangle2D addStroke(Element e, Rectangle2D r) {
+        Value v = CSSUtilities.getComputedStyle(e, SVGCSSEngine.STROKE_INDEX);
+        if (v.getPrimitiveType() == CSSPrimitiveValue.CSS_IDENT) {
+            return r; // 'stroke:none'
+        }
+        Stroke s = PaintServer.convertStroke(e);
+        if (!(s instanceof BasicStroke)) {
+            return r;
+        }
+        BasicStroke bs = (BasicStroke)s;
+        // Miter joins may extend up to miterlimit * width / 2 from the
+        // path, square caps up to sqrt(2) * width / 2.
+        double pad = bs.getLineWidth() / 2
+            * Math.max(bs.getMiterLimit(), 1.5);
+        return new Rectangle2D.Double(r.getX() - pad, r.getY() - pad,
+                                      r.getWidth() + 2 * pad,
+                                      r.getHeight() + 2 * pad);
+    }
+}
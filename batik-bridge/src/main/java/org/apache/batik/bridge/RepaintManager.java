@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Collection;
 
 import org.apache.batik.gvt.renderer.ImageRenderer;
+import org.apache.batik.ext.awt.geom.DirtyRectGrid;
 import org.apache.batik.ext.awt.geom.RectListManager;
 
 /**
@@ -41,6 +42,12 @@ public class RepaintManager {
     static final int COPY_OVERHEAD      = 10000;
     static final int COPY_LINE_OVERHEAD = 10;
 
+    /**
+     * The number of dirty areas above which they are coalesced with a
+     * DirtyRectGrid rather than with RectListManager.mergeRects.
+     */
+    static final int GRID_MERGE_THRESHOLD = 64;
+
     /**
      * The renderer used to repaint the buffer.
      */
@@ -80,8 +87,22 @@ public class RepaintManager {
         }
         RectListManager devRLM = null;
         try {
-            devRLM = new RectListManager(rects);
-            devRLM.mergeRects(COPY_OVERHEAD, COPY_LINE_OVERHEAD);
+            if (rects.size() > GRID_MERGE_THRESHOLD) {
+                // Many changed areas: coalesce them in linear time.
+                Rectangle bounds = null;
+                for (Object rect : rects) {
+                    if (bounds == null) bounds = new Rectangle((Rectangle) rect);
+                    else                bounds.add((Rectangle) rect);
+                }
+                DirtyRectGrid grid = new DirtyRectGrid(bounds);
+                for (Object rect : rects) {
+                    grid.add((Rectangle) rect);
+                }
+                devRLM = grid.getRects(COPY_OVERHEAD, COPY_LINE_OVERHEAD);
+            } else {
+                devRLM = new RectListManager(rects);
+                devRLM.mergeRects(COPY_OVERHEAD, COPY_LINE_OVERHEAD);
+            }
         } catch(Exception e) {
             e.printStackTrace();
         }
@@ -18,10 +18,14 @@
  */
 package org.apache.batik.bridge;
 
-import org.apache.batik.gvt.text.ArabicTextHandler;
+import java.util.Map;
+
+import org.apache.batik.constants.XMLConstants;
+import org.apache.batik.dom.events.NodeEventTarget;
 import org.apache.batik.gvt.font.GVTFontFace;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
 
 /**
  * Bridge class for the &lt;font&gt; element.
@@ -44,6 +48,74 @@ public class SVGFontElementBridge extends AbstractSVGBridge {
         return SVG_FONT_TAG;
     }
 
+    /**
+     * Returns the index of the glyphs and kerning pairs of the given
+     * &lt;font&gt; element.  It is built the first time it is asked for
+     * and kept in the font family map of the bridge context, so all the
+     * fonts derived from the element share it.  In a dynamic document
+     * the index is dropped from the map as soon as the element or its
+     * content is modified, and built again on the next request.
+     */
+    public SVGFontIndex getFontIndex(BridgeContext ctx, Element fontElement) {
+        Map fontFamilyMap = ctx.getFontFamilyMap();
+        SVGFontIndex index = (SVGFontIndex)fontFamilyMap.get(fontElement);
+        if (index == null) {
+            index = new SVGFontIndex(fontElement);
+            fontFamilyMap.put(fontElement, index);
+            if (ctx.isDynamic()) {
+                FontMutationListener l = new FontMutationListener
+                    (fontFamilyMap, (NodeEventTarget)fontElement, index);
+                for (int i = 0; i < MUTATION_EVENT_TYPES.length; i++) {
+                    l.target.addEventListenerNS
+                        (XMLConstants.XML_EVENTS_NAMESPACE_URI,
+                         MUTATION_EVENT_TYPES[i], l, false, null);
+                    ctx.storeEventListenerNS
+                        (l.target, XMLConstants.XML_EVENTS_NAMESPACE_URI,
+                         MUTATION_EVENT_TYPES[i], l, false);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The mutation events that make the index of a font out of date.
+     */
+    protected static final String[] MUTATION_EVENT_TYPES = {
+        "DOMAttrModified", "DOMNodeInserted", "DOMNodeRemoved",
+        "DOMCharacterDataModified"
+    };
+
+    /**
+     * Drops the index of a &lt;font&gt; element from the font family map
+     * when the element or its content is modified.  The listener
+     * removes itself, a new one is added when the index is built again.
+     */
+    protected static class FontMutationListener implements EventListener {
+        protected Map fontFamilyMap;
+        protected NodeEventTarget target;
+        protected SVGFontIndex index;
+
+        public FontMutationListener(Map fontFamilyMap,
+                                    NodeEventTarget target,
+                                    SVGFontIndex index) {
+            this.fontFamilyMap = fontFamilyMap;
+            this.target = target;
+            this.index = index;
+        }
+
+        public void handleEvent(Event evt) {
+            if (fontFamilyMap.get(target) == index) {
+                fontFamilyMap.remove(target);
+            }
+            for (int i = 0; i < MUTATION_EVENT_TYPES.length; i++) {
+                target.removeEventListenerNS
+                    (XMLConstants.XML_EVENTS_NAMESPACE_URI,
+                     MUTATION_EVENT_TYPES[i], this, false);
+            }
+        }
+    }
+
     /**
      * Constructs a new SVGGVTFont that represents the specified &lt;font&gt; element
      * at the requested size.
@@ -61,69 +133,7 @@ public class SVGFontElementBridge extends AbstractSVGBridge {
                                  Element textElement,
                                  float size,
                                  GVTFontFace fontFace) {
-
-
-        // construct a list of glyph codes that this font can display and
-        // a list of the glyph elements
-        NodeList glyphElements = fontElement.getElementsByTagNameNS
-            (SVG_NAMESPACE_URI, SVG_GLYPH_TAG);
-        int numGlyphs = glyphElements.getLength();
-        String[] glyphCodes = new String[numGlyphs];
-        String[] glyphNames = new String[numGlyphs];
-        String[] glyphLangs = new String[numGlyphs];
-        String[] glyphOrientations = new String[numGlyphs];
-        String[] glyphForms = new String[numGlyphs];
-        Element[] glyphElementArray = new Element[numGlyphs];
-
-        for (int i = 0; i < numGlyphs; i++) {
-            Element glyphElement = (Element)glyphElements.item(i);
-            glyphCodes[i] = glyphElement.getAttributeNS(null, SVG_UNICODE_ATTRIBUTE);
-            if (glyphCodes[i].length() > 1) {
-                // ligature, may need to reverse if arabic so that it is in visual order
-                if (ArabicTextHandler.arabicChar(glyphCodes[i].charAt(0))) {
-                    glyphCodes[i] = (new StringBuffer(glyphCodes[i])).reverse().toString();
-                }
-            }
-            glyphNames[i] = glyphElement.getAttributeNS(null, SVG_GLYPH_NAME_ATTRIBUTE);
-            glyphLangs[i] = glyphElement.getAttributeNS(null, SVG_LANG_ATTRIBUTE);
-            glyphOrientations[i] = glyphElement.getAttributeNS(null, SVG_ORIENTATION_ATTRIBUTE);
-            glyphForms[i] = glyphElement.getAttributeNS(null, SVG_ARABIC_FORM_ATTRIBUTE);
-            glyphElementArray[i] = glyphElement;
-        }
-
-        // get the missing glyph element
-        NodeList missingGlyphElements = fontElement.getElementsByTagNameNS
-            (SVG_NAMESPACE_URI, SVG_MISSING_GLYPH_TAG);
-        Element missingGlyphElement = null;
-        if (missingGlyphElements.getLength() > 0) {
-            missingGlyphElement = (Element)missingGlyphElements.item(0);
-        }
-
-        // get the hkern elements
-        NodeList hkernElements = fontElement.getElementsByTagNameNS
-            (SVG_NAMESPACE_URI, SVG_HKERN_TAG);
-        Element[] hkernElementArray = new Element[hkernElements.getLength()];
-
-        for (int i = 0; i < hkernElementArray.length; i++) {
-            Element hkernElement = (Element)hkernElements.item(i);
-            hkernElementArray[i] = hkernElement;
-        }
-
-        // get the vkern elements
-        NodeList vkernElements = fontElement.getElementsByTagNameNS
-            (SVG_NAMESPACE_URI, SVG_VKERN_TAG);
-        Element[] vkernElementArray = new Element[vkernElements.getLength()];
-
-        for (int i = 0; i < vkernElementArray.length; i++) {
-            Element vkernElement = (Element)vkernElements.item(i);
-            vkernElementArray[i] = vkernElement;
-        }
-
-        // return the new SVGGVTFont
-        return new SVGGVTFont
-            (size, fontFace, glyphCodes, glyphNames, glyphLangs,
-             glyphOrientations, glyphForms, ctx,
-             glyphElementArray, missingGlyphElement,
-             hkernElementArray, vkernElementArray, textElement);
+        return new SVGGVTFont(size, fontFace, getFontIndex(ctx, fontElement),
+                              ctx, textElement);
     }
 }
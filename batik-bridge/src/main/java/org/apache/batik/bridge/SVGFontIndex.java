@@ -0,0 +1,344 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.gvt.font.Kern;
+import org.apache.batik.gvt.font.KerningTable;
+import org.apache.batik.gvt.text.ArabicTextHandler;
+import org.apache.batik.util.SVGConstants;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * The glyphs and kerning pairs of an SVG &lt;font&gt; element, read once
+ * and indexed so that the {@link SVGGVTFont}s created for this element,
+ * whatever their size or text element, find the candidate glyphs of a
+ * character, a unicode string or a glyph name without scanning every
+ * glyph.
+ *
+ * <p>Glyph codes are the positions of the glyph elements in document
+ * order and every index lists its glyph codes in increasing order, so a
+ * lookup yields the same first match as a scan of all the glyphs.  The
+ * kerning tables are built the first time they are needed.</p>
+ *
+ * @version $Id$
+ */
+public class SVGFontIndex implements SVGConstants {
+
+    /**
+     * An empty array of glyph codes.
+     */
+    protected static final int[] EMPTY = new int[0];
+
+    protected String[] glyphUnicodes;
+    protected String[] glyphNames;
+    protected String[] glyphLangs;
+    protected String[] glyphOrientations;
+    protected String[] glyphForms;
+    protected Element[] glyphElements;
+    protected Element missingGlyphElement;
+    protected Element[] hkernElements;
+    protected Element[] vkernElements;
+
+    /**
+     * The glyph codes by unicode value.
+     */
+    protected Map unicodeIndex = new HashMap();
+
+    /**
+     * The glyph codes by glyph name.
+     */
+    protected Map nameIndex = new HashMap();
+
+    /**
+     * The glyph codes by first character of their unicode value.
+     */
+    protected Map firstCharIndex = new HashMap();
+
+    /**
+     * The glyph codes by any character of their unicode value.
+     */
+    protected Map charIndex = new HashMap();
+
+    /**
+     * The kerning tables, created on demand.
+     */
+    protected KerningTable hKerningTable;
+    protected KerningTable vKerningTable;
+
+    /**
+     * Creates the index of the given &lt;font&gt; element.
+     */
+    public SVGFontIndex(Element fontElement) {
+        // construct a list of glyph codes that this font can display and
+        // a list of the glyph elements
+        NodeList glyphList = fontElement.getElementsByTagNameNS
+            (SVG_NAMESPACE_URI, SVG_GLYPH_TAG);
+        int numGlyphs = glyphList.getLength();
+        glyphUnicodes = new String[numGlyphs];
+        glyphNames = new String[numGlyphs];
+        glyphLangs = new String[numGlyphs];
+        glyphOrientations = new String[numGlyphs];
+        glyphForms = new String[numGlyphs];
+        glyphElements = new Element[numGlyphs];
+
+        for (int i = 0; i < numGlyphs; i++) {
+            Element glyphElement = (Element)glyphList.item(i);
+            glyphUnicodes[i] =
+                glyphElement.getAttributeNS(null, SVG_UNICODE_ATTRIBUTE);
+            if (glyphUnicodes[i].length() > 1) {
+                // ligature, may need to reverse if arabic so that it is
+                // in visual order
+                if (ArabicTextHandler.arabicChar(glyphUnicodes[i].charAt(0))) {
+                    glyphUnicodes[i] = (new StringBuffer(glyphUnicodes[i]))
+                        .reverse().toString();
+                }
+            }
+            glyphNames[i] =
+                glyphElement.getAttributeNS(null, SVG_GLYPH_NAME_ATTRIBUTE);
+            glyphLangs[i] =
+                glyphElement.getAttributeNS(null, SVG_LANG_ATTRIBUTE);
+            glyphOrientations[i] =
+                glyphElement.getAttributeNS(null, SVG_ORIENTATION_ATTRIBUTE);
+            glyphForms[i] =
+                glyphElement.getAttributeNS(null, SVG_ARABIC_FORM_ATTRIBUTE);
+            glyphElements[i] = glyphElement;
+        }
+
+        // get the missing glyph element
+        NodeList missingGlyphList = fontElement.getElementsByTagNameNS
+            (SVG_NAMESPACE_URI, SVG_MISSING_GLYPH_TAG);
+        if (missingGlyphList.getLength() > 0) {
+            missingGlyphElement = (Element)missingGlyphList.item(0);
+        }
+
+        hkernElements = getElements(fontElement, SVG_HKERN_TAG);
+        vkernElements = getElements(fontElement, SVG_VKERN_TAG);
+
+        buildIndexes();
+    }
+
+    /**
+     * Creates an index of the given glyph data.  The arrays are not
+     * copied.
+     */
+    public SVGFontIndex(String[] glyphUnicodes,
+                        String[] glyphNames,
+                        String[] glyphLangs,
+                        String[] glyphOrientations,
+                        String[] glyphForms,
+                        Element[] glyphElements,
+                        Element missingGlyphElement,
+                        Element[] hkernElements,
+                        Element[] vkernElements) {
+        this.glyphUnicodes = glyphUnicodes;
+        this.glyphNames = glyphNames;
+        this.glyphLangs = glyphLangs;
+        this.glyphOrientations = glyphOrientations;
+        this.glyphForms = glyphForms;
+        this.glyphElements = glyphElements;
+        this.missingGlyphElement = missingGlyphElement;
+        this.hkernElements = hkernElements;
+        this.vkernElements = vkernElements;
+        buildIndexes();
+    }
+
+    /**
+     * Returns the descendants of the font element with the given name.
+     */
+    protected static Element[] getElements(Element fontElement,
+                                           String localName) {
+        NodeList nl = fontElement.getElementsByTagNameNS
+            (SVG_NAMESPACE_URI, localName);
+        Element[] elements = new Element[nl.getLength()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = (Element)nl.item(i);
+        }
+        return elements;
+    }
+
+    /**
+     * Fills the unicode, name and character indexes.
+     */
+    protected void buildIndexes() {
+        for (int i = 0; i < glyphUnicodes.length; i++) {
+            String unicode = glyphUnicodes[i];
+            add(unicodeIndex, unicode, i);
+            if (glyphNames[i] != null) {
+                add(nameIndex, glyphNames[i], i);
+            }
+            if (unicode.length() > 0) {
+                add(firstCharIndex, unicode.charAt(0), i);
+            }
+            for (int j = 0; j < unicode.length(); j++) {
+                char c = unicode.charAt(j);
+                if (unicode.indexOf(c) == j) {
+                    add(charIndex, c, i);
+                }
+            }
+        }
+        toArrays(unicodeIndex);
+        toArrays(nameIndex);
+        toArrays(firstCharIndex);
+        toArrays(charIndex);
+    }
+
+    private static void add(Map index, Object key, int glyphCode) {
+        List l = (List)index.get(key);
+        if (l == null) {
+            l = new ArrayList(1);
+            index.put(key, l);
+        }
+        l.add(glyphCode);
+    }
+
+    private static void toArrays(Map index) {
+        Iterator it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry e = (Map.Entry)it.next();
+            List l = (List)e.getValue();
+            int[] codes = new int[l.size()];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = (Integer)l.get(i);
+            }
+            e.setValue(codes);
+        }
+    }
+
+    private static int[] lookup(Map index, Object key) {
+        int[] codes = (int[])index.get(key);
+        return (codes == null) ? EMPTY : codes;
+    }
+
+    /**
+     * Returns the number of glyphs.
+     */
+    public int getNumGlyphs() {
+        return glyphUnicodes.length;
+    }
+
+    public String getGlyphUnicode(int glyphCode) {
+        return glyphUnicodes[glyphCode];
+    }
+
+    public String getGlyphName(int glyphCode) {
+        return glyphNames[glyphCode];
+    }
+
+    public String getGlyphLang(int glyphCode) {
+        return glyphLangs[glyphCode];
+    }
+
+    public String getGlyphOrientation(int glyphCode) {
+        return glyphOrientations[glyphCode];
+    }
+
+    public String getGlyphForm(int glyphCode) {
+        return glyphForms[glyphCode];
+    }
+
+    public Element getGlyphElement(int glyphCode) {
+        return glyphElements[glyphCode];
+    }
+
+    public Element getMissingGlyphElement() {
+        return missingGlyphElement;
+    }
+
+    /**
+     * Returns the codes of the glyphs whose unicode value equals the
+     * given string, in increasing order.  The array must not be modified.
+     */
+    public int[] getGlyphCodesForUnicode(String unicode) {
+        return lookup(unicodeIndex, unicode);
+    }
+
+    /**
+     * Returns the codes of the glyphs with the given name, in increasing
+     * order.  The array must not be modified.
+     */
+    public int[] getGlyphCodesForName(String name) {
+        return lookup(nameIndex, name);
+    }
+
+    /**
+     * Returns the codes of the glyphs whose unicode value starts with
+     * the given character, in increasing order.  The array must not be
+     * modified.
+     */
+    public int[] getGlyphCodesStartingWith(char c) {
+        return lookup(firstCharIndex, c);
+    }
+
+    /**
+     * Returns the codes of the glyphs whose unicode value contains the
+     * given character, in increasing order.  The array must not be
+     * modified.
+     */
+    public int[] getGlyphCodesContaining(char c) {
+        return lookup(charIndex, c);
+    }
+
+    /**
+     * Returns the horizontal kerning table, creating it with the given
+     * font if needed.  The kerning values are in font units.
+     */
+    public synchronized KerningTable getHKerningTable(BridgeContext ctx,
+                                                      SVGGVTFont font) {
+        if (hKerningTable == null) {
+            hKerningTable = createKerningTable(ctx, font, hkernElements);
+        }
+        return hKerningTable;
+    }
+
+    /**
+     * Returns the vertical kerning table, creating it with the given
+     * font if needed.  The kerning values are in font units.
+     */
+    public synchronized KerningTable getVKerningTable(BridgeContext ctx,
+                                                      SVGGVTFont font) {
+        if (vKerningTable == null) {
+            vKerningTable = createKerningTable(ctx, font, vkernElements);
+        }
+        return vKerningTable;
+    }
+
+    /**
+     * Creates a kerning table from hkern or vkern elements.
+     */
+    protected KerningTable createKerningTable(BridgeContext ctx,
+                                              SVGGVTFont font,
+                                              Element[] kernElements) {
+        Kern[] entries = new Kern[kernElements.length];
+        for (int i = 0; i < kernElements.length; i++) {
+            Element kernElement = kernElements[i];
+            SVGKernElementBridge kernBridge =
+                (SVGKernElementBridge)ctx.getBridge(kernElement);
+            entries[i] = kernBridge.createKern(ctx, kernElement, font);
+        }
+        return new KerningTable(entries);
+    }
+}
@@ -57,17 +57,9 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
 
     private float fontSize;
     private GVTFontFace fontFace;
-    private String[] glyphUnicodes;
-    private String[] glyphNames;
-    private String[] glyphLangs;
-    private String[] glyphOrientations;
-    private String[] glyphForms;
-    private Element[] glyphElements;
-    private Element[] hkernElements;
-    private Element[] vkernElements;
+    private SVGFontIndex index;
     private BridgeContext ctx;
     private Element textElement;
-    private Element missingGlyphElement;
     private KerningTable hKerningTable;
     private KerningTable vKerningTable;
     private String language;
@@ -109,18 +101,34 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
                       Element[] hkernElements,
                       Element[] vkernElements,
                       Element textElement) {
+        this(fontSize, fontFace,
+             new SVGFontIndex(glyphUnicodes, glyphNames, glyphLangs,
+                              glyphOrientations, glyphForms, glyphElements,
+                              missingGlyphElement, hkernElements,
+                              vkernElements),
+             ctx, textElement);
+    }
+
+    /**
+     * Constructs a new SVGGVTFont of the specified size.
+     *
+     * @param fontSize The size of the font to create.
+     * @param fontFace The font face that describes the font.
+     * @param index The glyphs and kerning pairs of the SVG font, which
+     * may be shared with other fonts.
+     * @param ctx The bridge context.
+     * @param textElement The text element that contains the text to
+     * be rendered using this font.
+     */
+    public SVGGVTFont(float fontSize,
+                      GVTFontFace fontFace,
+                      SVGFontIndex index,
+                      BridgeContext ctx,
+                      Element textElement) {
         this.fontFace = fontFace;
         this.fontSize = fontSize;
-        this.glyphUnicodes = glyphUnicodes;
-        this.glyphNames = glyphNames;
-        this.glyphLangs = glyphLangs;
-        this.glyphOrientations = glyphOrientations;
-        this.glyphForms = glyphForms;
+        this.index = index;
         this.ctx = ctx;
-        this.glyphElements = glyphElements;
-        this.missingGlyphElement = missingGlyphElement;
-        this.hkernElements = hkernElements;
-        this.vkernElements = vkernElements;
         this.scale         = fontSize/fontFace.getUnitsPerEm();
         this.textElement = textElement;
 
@@ -140,32 +148,14 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
 
 
     /**
-     * Creates the kerning tables for this font. Two tables are created,
-     * horizontal and vertical. If there are not children vkern or hkern
-     * elements these tables will be empty.
+     * Gets the kerning tables of this font from the font index, where
+     * they are created the first time a font of this SVG font needs
+     * them. If there are not children vkern or hkern elements these
+     * tables will be empty.
      */
     private void createKerningTables() {
-
-        Kern[] hEntries = new Kern[hkernElements.length];
-        for (int i = 0; i < hkernElements.length; i++) {
-            Element hkernElement = hkernElements[i];
-            SVGHKernElementBridge hkernBridge =
-                (SVGHKernElementBridge)ctx.getBridge(hkernElement);
-            Kern hkern = hkernBridge.createKern(ctx, hkernElement, this);
-            hEntries[i] = hkern;
-        }
-        hKerningTable = new KerningTable(hEntries);
-
-        Kern[] vEntries = new Kern[vkernElements.length];
-        for (int i = 0; i < vkernElements.length; i++) {
-            Element vkernElement = vkernElements[i];
-            SVGVKernElementBridge vkernBridge =
-                (SVGVKernElementBridge)ctx.getBridge(vkernElement);
-            Kern vkern = vkernBridge.createKern(ctx, vkernElement, this);
-            vEntries[i] = vkern;
-        }
-        vKerningTable = new KerningTable(vEntries);
-
+        hKerningTable = index.getHKerningTable(ctx, this);
+        vKerningTable = index.getVKerningTable(ctx, this);
     }
 
     /**
@@ -179,14 +169,16 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return The horizontal kerning value.
      */
     public float getHKern(int glyphCode1, int glyphCode2) {
-        if (glyphCode1 < 0 || glyphCode1 >= glyphUnicodes.length
-            || glyphCode2 < 0 || glyphCode2 >= glyphUnicodes.length) {
+        int numGlyphs = index.getNumGlyphs();
+        if (glyphCode1 < 0 || glyphCode1 >= numGlyphs
+            || glyphCode2 < 0 || glyphCode2 >= numGlyphs) {
             return 0f;
         }
         float ret;
-        ret = hKerningTable.getKerningValue(glyphCode1, glyphCode2,
-                                            glyphUnicodes[glyphCode1],
-                                            glyphUnicodes[glyphCode2]);
+        ret = hKerningTable.getKerningValue
+            (glyphCode1, glyphCode2,
+             index.getGlyphUnicode(glyphCode1),
+             index.getGlyphUnicode(glyphCode2));
         return ret*scale;
     }
 
@@ -201,14 +193,16 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return The vertical kerning value.
      */
     public float getVKern(int glyphCode1, int glyphCode2) {
-        if (glyphCode1 < 0 || glyphCode1 >= glyphUnicodes.length
-            || glyphCode2 < 0 || glyphCode2 >= glyphUnicodes.length) {
+        int numGlyphs = index.getNumGlyphs();
+        if (glyphCode1 < 0 || glyphCode1 >= numGlyphs
+            || glyphCode2 < 0 || glyphCode2 >= numGlyphs) {
             return 0f;
         }
         float ret;
-        ret = vKerningTable.getKerningValue(glyphCode1, glyphCode2,
-                                            glyphUnicodes[glyphCode1],
-                                            glyphUnicodes[glyphCode2]);
+        ret = vKerningTable.getKerningValue
+            (glyphCode1, glyphCode2,
+             index.getGlyphUnicode(glyphCode1),
+             index.getGlyphUnicode(glyphCode2));
         return ret*scale;
     }
 
@@ -221,17 +215,7 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return An array of matching glyph codes. This may be empty.
      */
     public int[] getGlyphCodesForName(String name) {
-        List glyphCodes = new ArrayList();
-        for (int i = 0; i < glyphNames.length; i++) {
-            if (glyphNames[i] != null && glyphNames[i].equals(name)) {
-                glyphCodes.add(i);
-            }
-        }
-        int[] glyphCodeArray = new int[glyphCodes.size()];
-        for (int i = 0; i < glyphCodes.size(); i++) {
-            glyphCodeArray[i] = (Integer) glyphCodes.get(i);
-        }
-        return glyphCodeArray;
+        return (int[])index.getGlyphCodesForName(name).clone();
     }
 
     /**
@@ -243,17 +227,7 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return An array of matching glyph codes. This may be empty.
      */
     public int[] getGlyphCodesForUnicode(String unicode) {
-        List glyphCodes = new ArrayList();
-        for (int i = 0; i < glyphUnicodes.length; i++) {
-            if (glyphUnicodes[i] != null && glyphUnicodes[i].equals(unicode)) {
-                glyphCodes.add(i);
-            }
-        }
-        int[] glyphCodeArray = new int[glyphCodes.size()];
-        for (int i = 0; i < glyphCodes.size(); i++) {
-            glyphCodeArray[i] = (Integer) glyphCodes.get(i);
-        }
-        return glyphCodeArray;
+        return (int[])index.getGlyphCodesForUnicode(unicode).clone();
     }
 
     /**
@@ -413,10 +387,10 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return true if the glyph can be displayed.
      */
     public boolean canDisplayGivenName(String name) {
-        for (int i = 0; i < glyphNames.length; i++) {
-            if (glyphNames[i] != null && glyphNames[i].equals(name)
-                && languageMatches(glyphLangs[i])
-                && orientationMatches(glyphOrientations[i])) {
+        int[] glyphCodes = index.getGlyphCodesForName(name);
+        for (int i : glyphCodes) {
+            if (languageMatches(index.getGlyphLang(i))
+                && orientationMatches(index.getGlyphOrientation(i))) {
                 return true;
             }
         }
@@ -433,10 +407,10 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return true if the character can be displayed.
      */
     public boolean canDisplay(char c) {
-        for (int i = 0; i < glyphUnicodes.length; i++) {
-            if (glyphUnicodes[i].indexOf(c) != -1
-                && languageMatches(glyphLangs[i])
-                && orientationMatches(glyphOrientations[i])) {
+        int[] glyphCodes = index.getGlyphCodesContaining(c);
+        for (int i : glyphCodes) {
+            if (languageMatches(index.getGlyphLang(i))
+                && orientationMatches(index.getGlyphOrientation(i))) {
                 return true;
             }
         }
@@ -485,15 +459,16 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
 
             boolean foundMatchingGlyph = false;
 
-            for (int i = 0; i < glyphUnicodes.length; i++) {
-                if (glyphUnicodes[i].indexOf(c) == 0
-                    && languageMatches(glyphLangs[i])
-                    && orientationMatches(glyphOrientations[i])
-                    && formMatches(glyphUnicodes[i], glyphForms[i],
+            int[] glyphCodes = index.getGlyphCodesStartingWith(c);
+            for (int i : glyphCodes) {
+                String glyphUnicode = index.getGlyphUnicode(i);
+                if (languageMatches(index.getGlyphLang(i))
+                    && orientationMatches(index.getGlyphOrientation(i))
+                    && formMatches(glyphUnicode, index.getGlyphForm(i),
                                    aci, currentIndex)) {
                     // found a possible match
 
-                    if (glyphUnicodes[i].length() == 1)  { // not a ligature
+                    if (glyphUnicode.length() == 1)  { // not a ligature
                         foundMatchingGlyph = true;
                         break;
 
@@ -501,9 +476,9 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
                         // glyphCodes[i] is a ligature so try and
                         // match the rest of the glyphCode chars
                         boolean matched = true;
-                        for (int j = 1; j < glyphUnicodes[i].length(); j++) {
+                        for (int j = 1; j < glyphUnicode.length(); j++) {
                             c = iter.next();
-                            if (glyphUnicodes[i].charAt(j) != c) {
+                            if (glyphUnicode.charAt(j) != c) {
                                 matched = false;
                                 break;
                             }
@@ -580,15 +555,16 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
         char c = ci.first();
         while (c != CharacterIterator.DONE) {
             boolean foundMatchingGlyph = false;
-            for (int i = 0; i < glyphUnicodes.length; i++) {
-                if (glyphUnicodes[i].indexOf(c) == 0 &&
-                    languageMatches(glyphLangs[i]) &&
-                    orientationMatches(glyphOrientations[i]) &&
-                    formMatches(glyphUnicodes[i], glyphForms[i], aci,
+            int[] glyphCodes = index.getGlyphCodesStartingWith(c);
+            for (int i : glyphCodes) {
+                String glyphUnicode = index.getGlyphUnicode(i);
+                if (languageMatches(index.getGlyphLang(i)) &&
+                    orientationMatches(index.getGlyphOrientation(i)) &&
+                    formMatches(glyphUnicode, index.getGlyphForm(i), aci,
                                 ci.getIndex())) {  // found a possible match
 
-                    if (glyphUnicodes[i].length() == 1)  { // not a ligature
-                        Element glyphElement = glyphElements[i];
+                    if (glyphUnicode.length() == 1)  { // not a ligature
+                        Element glyphElement = index.getGlyphElement(i);
                         SVGGlyphElementBridge glyphBridge =
                             (SVGGlyphElementBridge)ctx.getBridge(glyphElement);
                         TextPaintInfo tpi = null;
@@ -606,16 +582,16 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
                         // match the rest of the glyphCode chars
                         int current = ci.getIndex();
                         boolean matched = true;
-                        for (int j = 1; j < glyphUnicodes[i].length(); j++) {
+                        for (int j = 1; j < glyphUnicode.length(); j++) {
                             c = ci.next();
-                            if (glyphUnicodes[i].charAt(j) != c) {
+                            if (glyphUnicode.charAt(j) != c) {
                                 matched = false;
                                 break;
                             }
                         }
                         if (matched) { // found a matching ligature!
 
-                            Element glyphElement = glyphElements[i];
+                            Element glyphElement = index.getGlyphElement(i);
                             SVGGlyphElementBridge glyphBridge
                                 = (SVGGlyphElementBridge)ctx.getBridge
                                 (glyphElement);
@@ -642,6 +618,7 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
             }
             if (!foundMatchingGlyph) {
                 // add the missing glyph
+                Element missingGlyphElement = index.getMissingGlyphElement();
                 SVGGlyphElementBridge glyphBridge =
                     (SVGGlyphElementBridge)ctx.getBridge(missingGlyphElement);
                 TextPaintInfo tpi = null;
@@ -683,7 +660,7 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
         int nGlyphs = glyphCodes.length;
         StringBuffer workBuff = new StringBuffer( nGlyphs );
         for (int glyphCode : glyphCodes) {
-            workBuff.append(glyphUnicodes[glyphCode]);
+            workBuff.append(index.getGlyphUnicode(glyphCode));
         }
         StringCharacterIterator sci = new StringCharacterIterator( workBuff.toString() );
         return createGlyphVector(frc, sci);
@@ -712,10 +689,7 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return The new font object.
      */
     public GVTFont deriveFont(float size) {
-        return new SVGGVTFont(size, fontFace, glyphUnicodes, glyphNames,
-                              glyphLangs, glyphOrientations, glyphForms, ctx,
-                              glyphElements, missingGlyphElement,
-                              hkernElements, vkernElements, textElement);
+        return new SVGGVTFont(size, fontFace, index, ctx, textElement);
     }
 
     public String getFamilyName() {
@@ -135,6 +135,11 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
     // in this text element.
     protected WeakHashMap elemTPI = new WeakHashMap();
 
+    // The TextPainterInfo of each element before the text is laid
+    // out again.  Elements keep theirs so the text painter can reuse
+    // the layout of the text chunks that did not change.
+    protected Map lastTPI;
+
     // This is true if any of the spans of this text element
     // use a 'complex' SVG font (meaning the font uses more
     // and just the 'd' attribute on the glyph element.
@@ -192,6 +197,7 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
         // specify the text painter to use
         if (ctx.getTextPainter() != null)
             node.setTextPainter(ctx.getTextPainter());
+        node.setTextLayoutCache(ctx.getTextLayoutCache());
 
         // 'text-rendering' and 'color-rendering'
         RenderingHints hints = null;
@@ -625,9 +631,11 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
                                       Element e,
                                       GraphicsNode node) {
         TextNode tn = (TextNode)node;
-        elemTPI.clear();
+        lastTPI = elemTPI;
+        elemTPI = new WeakHashMap();
 
         AttributedString as = buildAttributedString(ctx, e);
+        lastTPI = null;
         if (as == null) {
             tn.setAttributedCharacterIterator(null);
             return;
@@ -1577,11 +1585,18 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
         }
 
         // Add null TPI objects to the text (after we set it on the
-        // Text we will swap in the correct values.
-        TextPaintInfo pi = new TextPaintInfo();
-        // Set some basic props so we can get bounds info for complex paints.
-        pi.visible   = true;
-        pi.fillPaint = Color.black;
+        // Text we will swap in the correct values.  When the text is
+        // laid out again the element keeps its previous TPI.
+        TextPaintInfo pi = null;
+        if (lastTPI != null) {
+            pi = (TextPaintInfo)lastTPI.get(element);
+        }
+        if (pi == null) {
+            pi = new TextPaintInfo();
+            // Set some basic props so we can get bounds info for complex paints.
+            pi.visible   = true;
+            pi.fillPaint = Color.black;
+        }
         result.put(PAINT_INFO, pi);
         elemTPI.put(element, pi);
 
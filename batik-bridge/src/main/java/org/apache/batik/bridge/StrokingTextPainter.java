@@ -30,12 +30,14 @@ import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.text.AttributedCharacterIterator;
-import java.text.AttributedString;
+import java.lang.ref.SoftReference;
 import java.text.CharacterIterator;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.batik.gvt.font.GVTFont;
@@ -44,6 +46,7 @@ import org.apache.batik.gvt.font.GVTGlyphMetrics;
 import org.apache.batik.gvt.font.GVTLineMetrics;
 import org.apache.batik.gvt.text.AttributedCharacterSpanIterator;
 import org.apache.batik.gvt.text.BidiAttributedCharacterIterator;
+import org.apache.batik.gvt.text.GVTACIImpl;
 import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
 import org.apache.batik.gvt.text.TextPaintInfo;
 import org.apache.batik.gvt.text.TextPath;
@@ -188,7 +191,14 @@ public class StrokingTextPainter extends BasicTextPainter {
         }
 
         AttributedCharacterIterator[] chunkACIs = getTextChunkACIs(aci);
-        textRuns = computeTextRuns(node, aci, chunkACIs);
+
+        // Reuse the chunks that did not change since the last layout.
+        TextChunkLayout[] reusedChunks =
+            getReusableTextChunks(node, chunkACIs);
+        List chunkLayouts = new ArrayList(chunkACIs.length);
+        textRuns = computeTextRuns(node, aci, chunkACIs,
+                                   reusedChunks, chunkLayouts);
+        node.setTextChunkLayouts(chunkLayouts);
 
         // cache the textRuns so don't need to recalculate
         node.setTextRuns(textRuns);
@@ -198,11 +208,37 @@ public class StrokingTextPainter extends BasicTextPainter {
     public List computeTextRuns(TextNode node,
                                 AttributedCharacterIterator aci,
                                 AttributedCharacterIterator [] chunkACIs) {
+        return computeTextRuns(node, aci, chunkACIs, null, null);
+    }
+
+    /**
+     * Computes the text runs of the given chunks.
+     *
+     * @param reusedChunks For each chunk, the chunk of a previous layout
+     *        whose runs are taken instead of laying the chunk out again,
+     *        or null.  The array itself may be null.
+     * @param chunkLayouts If not null, receives the TextChunkLayouts of
+     *        the chunks that may be reused by a later layout.
+     */
+    protected List computeTextRuns(TextNode node,
+                                   AttributedCharacterIterator aci,
+                                   AttributedCharacterIterator [] chunkACIs,
+                                   TextChunkLayout [] reusedChunks,
+                                   List chunkLayouts) {
         int [][] chunkCharMaps = new int[chunkACIs.length][];
+        AttributedCharacterIterator [] sourceACIs = null;
+        if (chunkLayouts != null) {
+            sourceACIs = (AttributedCharacterIterator[])chunkACIs.clone();
+        }
 
         // reorder each chunk ACI for bidi text
         int chunkStart = aci.getBeginIndex();
         for (int i = 0; i < chunkACIs.length; i++) {
+            if ((reusedChunks != null) && (reusedChunks[i] != null)) {
+                chunkStart += (chunkACIs[i].getEndIndex()-
+                               chunkACIs[i].getBeginIndex());
+                continue;
+            }
             BidiAttributedCharacterIterator iter;
             iter = new BidiAttributedCharacterIterator
                 (chunkACIs[i], fontRenderContext, chunkStart);
@@ -211,16 +247,44 @@ public class StrokingTextPainter extends BasicTextPainter {
             chunkStart += (chunkACIs[i].getEndIndex()-
                            chunkACIs[i].getBeginIndex());
         }
-        return computeTextRuns(node, aci, chunkACIs, chunkCharMaps);
+        return computeTextRuns(node, aci, chunkACIs, chunkCharMaps,
+                               reusedChunks, sourceACIs, chunkLayouts);
     }
 
     protected List computeTextRuns(TextNode node,
                                 AttributedCharacterIterator aci,
                                 AttributedCharacterIterator [] chunkACIs,
                                 int [][] chunkCharMaps) {
+        return computeTextRuns(node, aci, chunkACIs, chunkCharMaps,
+                               null, null, null);
+    }
+
+    /**
+     * Computes the text runs of the given bidi reordered chunks.
+     *
+     * @param reusedChunks For each chunk, the chunk of a previous layout
+     *        whose runs are taken instead of laying the chunk out again,
+     *        or null.  The array itself may be null.
+     * @param sourceACIs The chunks before bidi reordering, recorded in
+     *        the TextChunkLayouts.  Only used when chunkLayouts is not
+     *        null.
+     * @param chunkLayouts If not null, receives the TextChunkLayouts of
+     *        the chunks that may be reused by a later layout.
+     */
+    protected List computeTextRuns(TextNode node,
+                                AttributedCharacterIterator aci,
+                                AttributedCharacterIterator [] chunkACIs,
+                                int [][] chunkCharMaps,
+                                TextChunkLayout [] reusedChunks,
+                                AttributedCharacterIterator [] sourceACIs,
+                                List chunkLayouts) {
         // add font matching attributes
         int chunkStart = aci.getBeginIndex();
         for (int i = 0; i < chunkACIs.length; i++) {
+            if ((reusedChunks != null) && (reusedChunks[i] != null)) {
+                chunkStart += (chunkACIs[i].getEndIndex() - chunkACIs[i].getBeginIndex());
+                continue;
+            }
             chunkACIs    [i] = createModifiedACIForFontMatching(chunkACIs[i]);
             chunkStart += (chunkACIs[i].getEndIndex() - chunkACIs[i].getBeginIndex());
         }
@@ -236,21 +300,39 @@ public class StrokingTextPainter extends BasicTextPainter {
             // create from the ACI.
             chunkACIs[currentChunk].first();
 
-            List perChunkRuns = new ArrayList();
-            chunk = getTextChunk(node,
-                                 chunkACIs[currentChunk],
-                                 chunkCharMaps != null ? chunkCharMaps[currentChunk] : null,
-                                 perChunkRuns,
-                                 prevChunk);
-
-            // Perform bidi reordering on chunk's runs. Must be performed before
-            // adjusting chunk offsets.
-            perChunkRuns = reorderTextRuns(chunk, perChunkRuns);
+            List perChunkRuns;
+            TextChunkLayout reused = null;
+            if (reusedChunks != null) {
+                reused = reusedChunks[currentChunk];
+            }
+            if (reused != null) {
+                perChunkRuns = new ArrayList(reused.getTextRuns());
+                int begin = (prevChunk == null) ? 0 : prevChunk.end;
+                chunk = new TextChunk(begin, begin + perChunkRuns.size(),
+                                      reused.getAdvance());
+            } else {
+                perChunkRuns = new ArrayList();
+                chunk = getTextChunk(node,
+                                     chunkACIs[currentChunk],
+                                     chunkCharMaps != null ? chunkCharMaps[currentChunk] : null,
+                                     perChunkRuns,
+                                     prevChunk);
+
+                // Perform bidi reordering on chunk's runs. Must be performed before
+                // adjusting chunk offsets.
+                perChunkRuns = reorderTextRuns(chunk, perChunkRuns);
+            }
 
             // Adjust according to text-anchor property value.
             chunkACIs[currentChunk].first();
             if (chunk != null) {
+                Point2D advance = chunk.advance;
                 location = adjustChunkOffsets(location, perChunkRuns, chunk);
+                if ((chunkLayouts != null) && isReusable(perChunkRuns)) {
+                    chunkLayouts.add(new TextChunkLayout
+                                     (sourceACIs[currentChunk],
+                                      perChunkRuns, advance));
+                }
             }
             
             // Append per chunk runs to overall node runs.
@@ -264,6 +346,57 @@ public class StrokingTextPainter extends BasicTextPainter {
         return perNodeRuns;
     }
 
+    /**
+     * Returns, for each of the given chunks, the chunk of the last layout
+     * of the node that may be reused instead of laying it out again, or
+     * null.  A chunk is reused when it covers the same characters, with
+     * the same layout attributes, as a chunk of the last layout, so
+     * editing one tspan of a large text element only lays out again the
+     * chunks the edit touches.
+     */
+    protected TextChunkLayout[] getReusableTextChunks
+        (TextNode node, AttributedCharacterIterator[] chunkACIs) {
+        List lastChunks = node.getTextChunkLayouts();
+        if ((lastChunks == null) || lastChunks.isEmpty()) {
+            return null;
+        }
+        Map byBegin = new HashMap();
+        Iterator it = lastChunks.iterator();
+        while (it.hasNext()) {
+            TextChunkLayout l = (TextChunkLayout)it.next();
+            byBegin.put(l.getACI().getBeginIndex(), l);
+        }
+        TextChunkLayout[] reused = null;
+        for (int i = 0; i < chunkACIs.length; i++) {
+            AttributedCharacterIterator chunkACI = chunkACIs[i];
+            TextChunkLayout l =
+                (TextChunkLayout)byBegin.get(chunkACI.getBeginIndex());
+            if ((l != null) && l.matches(chunkACI)) {
+                if (reused == null) {
+                    reused = new TextChunkLayout[chunkACIs.length];
+                }
+                reused[i] = l;
+            }
+        }
+        return reused;
+    }
+
+    /**
+     * Returns true if the given runs of a chunk may be reused by a later
+     * layout.  The runs of chunks stretched to a 'textLength' are not,
+     * since their layouts were scaled.
+     */
+    protected boolean isReusable(List chunkRuns) {
+        Iterator it = chunkRuns.iterator();
+        while (it.hasNext()) {
+            Float length = ((TextRun)it.next()).getLength();
+            if ((length != null) && !length.isNaN()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Reorder text runs as required by bidi algorithm.
      * @param runs - unordered runs
@@ -423,7 +556,7 @@ public class StrokingTextPainter extends BasicTextPainter {
         (AttributedCharacterIterator aci) {
 
         aci.first();
-        AttributedString as = null;
+        GVTACIImpl as = null;
         int asOff = 0;
         int begin = aci.getBeginIndex();
         boolean moreChunks = true;
@@ -454,7 +587,7 @@ public class StrokingTextPainter extends BasicTextPainter {
             boolean[] fontAssigned = new boolean[aciLength];
 
             if (as == null)
-                as = new AttributedString(aci);
+                as = new GVTACIImpl(aci);
 
             GVTFont defaultFont = null;
             int numSet=0;
@@ -582,8 +715,10 @@ public class StrokingTextPainter extends BasicTextPainter {
             }
             start = end;
         }
-        if (as != null)
-            return as.getIterator();
+        if (as != null) {
+            as.first();
+            return as;
+        }
 
         // Didn't do anything return original ACI
         return aci;
@@ -647,6 +782,10 @@ public class StrokingTextPainter extends BasicTextPainter {
 
             layout = getTextLayoutFactory().createTextLayout
                 (runaci, subCharMap, offset, frc);
+            if (layout instanceof GlyphLayout) {
+                ((GlyphLayout)layout).setTextLayoutCache
+                    (node.getTextLayoutCache());
+            }
 
             textRuns.add(new TextRun(layout, runaci, isChunkStart));
 
@@ -1627,6 +1766,117 @@ public class StrokingTextPainter extends BasicTextPainter {
     }
 
 
+    /**
+     * The laid out runs of a text chunk, with the chunk of the attributed
+     * character iterator they were laid out from, so a later layout of
+     * the same text node can reuse them if the chunk did not change.
+     */
+    public static class TextChunkLayout {
+
+        protected AttributedCharacterIterator aci;
+        protected List textRuns;
+        protected Point2D advance;
+
+        /**
+         * Creates a new TextChunkLayout.
+         * @param aci The chunk, before bidi reordering.
+         * @param textRuns The runs of the chunk.
+         * @param advance The advance of the chunk before any text anchor
+         *        adjustment.
+         */
+        public TextChunkLayout(AttributedCharacterIterator aci,
+                               List textRuns,
+                               Point2D advance) {
+            this.aci = aci;
+            this.textRuns = textRuns;
+            this.advance = advance;
+        }
+
+        public AttributedCharacterIterator getACI() {
+            return aci;
+        }
+
+        public List getTextRuns() {
+            return textRuns;
+        }
+
+        public Point2D getAdvance() {
+            return advance;
+        }
+
+        /**
+         * Returns true if the given chunk has the same characters at the
+         * same indices and the same attributes as this one.  The text
+         * compound ids match when they refer to the same element, and
+         * the paint infos only when they are the same object, since the
+         * reused runs keep painting with this chunk's.
+         */
+        public boolean matches(AttributedCharacterIterator chunk) {
+            int begin = aci.getBeginIndex();
+            int end   = aci.getEndIndex();
+            if ((chunk.getBeginIndex() != begin) ||
+                (chunk.getEndIndex()   != end)) {
+                return false;
+            }
+            int i = begin;
+            while (i < end) {
+                aci.setIndex(i);
+                chunk.setIndex(i);
+                if (!sameAttributes(aci.getAttributes(),
+                                    chunk.getAttributes())) {
+                    return false;
+                }
+                int limit = Math.min(aci.getRunLimit(), chunk.getRunLimit());
+                for (; i < limit; i++) {
+                    if (aci.setIndex(i) != chunk.setIndex(i)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private boolean sameAttributes(Map m1, Map m2) {
+            // The attribute maps of an AttributedString are views that
+            // rebuild their entries on each call, so copy them once.
+            Set entries = m1.entrySet();
+            m2 = new HashMap(m2);
+            if (entries.size() != m2.size()) {
+                return false;
+            }
+            Iterator it = entries.iterator();
+            while (it.hasNext()) {
+                Map.Entry e = (Map.Entry)it.next();
+                Object v1 = e.getValue();
+                Object v2 = m2.get(e.getKey());
+                if (v1 == v2) {
+                    continue;
+                }
+                if ((v1 == null) || (v2 == null) ||
+                    !sameValue(e.getKey(), v1, v2)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns true if two distinct, non null values of the given
+         * attribute lay out the same way.
+         */
+        protected boolean sameValue(Object key, Object v1, Object v2) {
+            if (key == PAINT_INFO) {
+                return false;
+            }
+            if ((v1 instanceof SoftReference) &&
+                (v2 instanceof SoftReference)) {
+                Object r1 = ((SoftReference)v1).get();
+                return (r1 != null) && (r1 == ((SoftReference)v2).get());
+            }
+            return v1.equals(v2);
+        }
+    }
+
     /**
      * Inner convenience class for associating a TextLayout for
      * sub-spans, and the ACI which iterates over that subspan.
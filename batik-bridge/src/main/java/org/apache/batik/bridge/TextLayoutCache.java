@@ -0,0 +1,234 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Point2D;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.batik.gvt.font.GVTFont;
+
+/**
+ * A bounded cache of the glyph positions computed by {@link GlyphLayout}
+ * for text runs that carry no per-glyph positioning, so documents that
+ * repeat the same label many times (axis ticks, legends) only lay it
+ * out once.
+ *
+ * <p>A run is identified by its characters, its font, the font render
+ * context and its spacing properties.  The cached {@link ShapedRun}s are
+ * immutable and relative to a zero offset, so they can be shared by any
+ * number of layouts.  A bridge context owns one cache, which it clears
+ * when the font faces it knows about change.</p>
+ *
+ * @version $Id$
+ */
+public class TextLayoutCache {
+
+    /**
+     * The default maximum number of runs.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 2048;
+
+    /**
+     * The runs, in access order.
+     */
+    protected Map runs;
+
+    /**
+     * Creates a new TextLayoutCache.
+     */
+    public TextLayoutCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Creates a new TextLayoutCache.
+     * @param maximumSize The maximum number of runs held.
+     */
+    public TextLayoutCache(final int maximumSize) {
+        runs = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the shaped run associated with the given key, or null.
+     */
+    public synchronized ShapedRun get(Key key) {
+        return (ShapedRun)runs.get(key);
+    }
+
+    /**
+     * Associates a shaped run with the given key.
+     */
+    public synchronized void put(Key key, ShapedRun run) {
+        runs.put(key, run);
+    }
+
+    /**
+     * Returns the number of runs in this cache.
+     */
+    public synchronized int size() {
+        return runs.size();
+    }
+
+    /**
+     * Removes all the runs from this cache.
+     */
+    public synchronized void clear() {
+        runs.clear();
+    }
+
+    /**
+     * Identifies a text run.
+     */
+    public static class Key {
+
+        protected String text;
+        protected GVTFont font;
+        protected FontRenderContext frc;
+        protected boolean customSpacing;
+        protected Float kerning;
+        protected Float letterSpacing;
+        protected Float wordSpacing;
+        protected int hash;
+
+        /**
+         * Creates a new key.
+         * @param text The characters of the run, in visual order.
+         * @param font The font of the run.
+         * @param frc The font render context used to create the glyphs.
+         * @param customSpacing Whether spacing properties apply.
+         * @param kerning The explicit kerning, or null.
+         * @param letterSpacing The letter spacing, or null.
+         * @param wordSpacing The word spacing, or null.
+         */
+        public Key(String text, GVTFont font, FontRenderContext frc,
+                   boolean customSpacing, Float kerning,
+                   Float letterSpacing, Float wordSpacing) {
+            this.text = text;
+            this.font = font;
+            this.frc = frc;
+            this.customSpacing = customSpacing;
+            this.kerning = kerning;
+            this.letterSpacing = letterSpacing;
+            this.wordSpacing = wordSpacing;
+            int h = text.hashCode();
+            h = h * 31 + font.hashCode();
+            h = h * 31 + frc.hashCode();
+            h = h * 31 + (customSpacing ? 1 : 0);
+            h = h * 31 + hashCode(kerning);
+            h = h * 31 + hashCode(letterSpacing);
+            this.hash = h * 31 + hashCode(wordSpacing);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return (hash == k.hash)
+                && text.equals(k.text)
+                && font.equals(k.font)
+                && frc.equals(k.frc)
+                && (customSpacing == k.customSpacing)
+                && equals(kerning, k.kerning)
+                && equals(letterSpacing, k.letterSpacing)
+                && equals(wordSpacing, k.wordSpacing);
+        }
+
+        private static int hashCode(Object o) {
+            return (o == null) ? 0 : o.hashCode();
+        }
+
+        private static boolean equals(Object o1, Object o2) {
+            return (o1 == null) ? (o2 == null) : o1.equals(o2);
+        }
+    }
+
+    /**
+     * The immutable result of laying out a text run at a zero offset.
+     */
+    public static class ShapedRun {
+
+        protected float[] positions;
+        protected double advanceX;
+        protected double advanceY;
+        protected boolean customSpacing;
+
+        /**
+         * Creates a new shaped run.
+         * @param positions The glyph positions, including the position
+         *        following the last glyph, as returned by
+         *        GVTGlyphVector.getGlyphPositions.  The array is not
+         *        copied.
+         * @param advance The advance of the run.
+         * @param customSpacing Whether spacing properties were applied.
+         */
+        public ShapedRun(float[] positions, Point2D advance,
+                         boolean customSpacing) {
+            this.positions = positions;
+            this.advanceX = advance.getX();
+            this.advanceY = advance.getY();
+            this.customSpacing = customSpacing;
+        }
+
+        /**
+         * Returns the number of glyphs of the run.
+         */
+        public int getNumGlyphs() {
+            return positions.length / 2 - 1;
+        }
+
+        /**
+         * Returns the x coordinate of a glyph position.
+         */
+        public float getX(int i) {
+            return positions[2 * i];
+        }
+
+        /**
+         * Returns the y coordinate of a glyph position.
+         */
+        public float getY(int i) {
+            return positions[2 * i + 1];
+        }
+
+        /**
+         * Returns a new point holding the advance of the run.
+         */
+        public Point2D getAdvance() {
+            return new Point2D.Double(advanceX, advanceY);
+        }
+
+        /**
+         * Returns whether spacing properties were applied to the run.
+         */
+        public boolean hasCustomSpacing() {
+            return customSpacing;
+        }
+    }
+}
@@ -77,11 +77,22 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
      */
     protected List textRuns;
 
+    /**
+     * The text chunks of the last layout that the text painter may reuse
+     * once the attributed character iterator is replaced, or null.
+     */
+    protected List textChunkLayouts;
+
     /**
      * The text painter used to display the text of this text node.
      */
     protected TextPainter textPainter = StrokingTextPainter.getInstance();
 
+    /**
+     * The cache of the text runs laid out by the text painter, or null.
+     */
+    protected TextLayoutCache textLayoutCache;
+
     /**
      * Internal Cache: Bounds for this text node, without taking any of the
      * rendering attributes (e.g., stroke) into account
@@ -126,6 +137,24 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
         return textPainter;
     }
 
+    /**
+     * Sets the cache the text painter may use to reuse the layout of
+     * identical text runs.
+     *
+     * @param textLayoutCache the cache to use, or null to disable it
+     */
+    public void setTextLayoutCache(TextLayoutCache textLayoutCache) {
+        this.textLayoutCache = textLayoutCache;
+    }
+
+    /**
+     * Returns the cache of the text runs laid out by the text painter,
+     * or null.
+     */
+    public TextLayoutCache getTextLayoutCache() {
+        return textLayoutCache;
+    }
+
     /**
      * Returns a list of text runs.
      */
@@ -142,6 +171,24 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
         this.textRuns = textRuns;
     }
 
+    /**
+     * Returns the text chunks of the last layout of this text node that
+     * the text painter may reuse, or null.  Unlike the text runs, they
+     * are kept when the attributed character iterator changes.
+     */
+    public List getTextChunkLayouts() {
+        return textChunkLayouts;
+    }
+
+    /**
+     * Sets the text chunks of the last layout of this text node.
+     *
+     * @param textChunkLayouts the text chunks, or null to forget them
+     */
+    public void setTextChunkLayouts(List textChunkLayouts) {
+        this.textChunkLayouts = textChunkLayouts;
+    }
+
     /**
      * Returns the text of this <code>TextNode</code> as a string.
      */
@@ -140,7 +140,8 @@ public class UpdateManager  {
     protected ScriptingEnvironment[] secondaryScriptingEnvironments;
 
     /**
-     * The current minRepaintTime
+     * The current minRepaintTime, which is also the target duration
+     * of a frame.
      */
     protected int minRepaintTime;
 
@@ -194,6 +195,26 @@ public class UpdateManager  {
         this.minRepaintTime = minRepaintTime;
     }
 
+    /**
+     * Returns the number of frames per second the repaints target.
+     */
+    public float getTargetFrameRate() {
+        return minRepaintTime <= 0 ? 0 : 1000f / minRepaintTime;
+    }
+
+    /**
+     * Sets the number of frames per second the repaints should target.
+     * A value of zero or less disables the frame budget, so the rendering
+     * is updated after each runnable.
+     */
+    public void setTargetFrameRate(float fps) {
+        if (fps <= 0) {
+            minRepaintTime = 0;
+        } else {
+            minRepaintTime = Math.max(1, Math.round(1000f / fps));
+        }
+    }
+
     /**
      * Creates an appropriate ScriptingEnvironment and XBL manager for
      * the given document.
@@ -506,12 +527,16 @@ public class UpdateManager  {
                 (this, repaintManager.getOffScreen(), null);
             fireEvent(updateStartedDispatcher, ev);
 
+            long frameTime = System.currentTimeMillis();
+            long t0 = System.nanoTime();
             Collection c = repaintManager.updateRendering(areas);
+            long paintTime = System.nanoTime() - t0;
             List l = new ArrayList(c);
 
+            FrameMetrics fm = endFrame(frameTime, paintTime);
             ev = new UpdateManagerEvent
                 (this, repaintManager.getOffScreen(),
-                 l, clearPaintingTransform);
+                 l, clearPaintingTransform, fm);
             fireEvent(updateCompletedDispatcher, ev);
         } catch (ThreadDeath td) {
             UpdateManagerEvent ev = new UpdateManagerEvent
@@ -531,6 +556,103 @@ public class UpdateManager  {
      */
     long outOfDateTime=0;
 
+    /**
+     * The system time in millisec at which the last repaint started.
+     */
+    long lastFrameTime;
+
+    /**
+     * The system time in millisec at which the last repaint ended.
+     */
+    long lastFrameEndTime;
+
+    /**
+     * The number of frames rendered so far.
+     */
+    long frameCount;
+
+    /**
+     * The time spent in script runnables since the last frame, in
+     * nanoseconds.
+     */
+    long frameScriptTime;
+
+    /**
+     * The time spent in animation ticks since the last frame, in
+     * nanoseconds.
+     */
+    long frameAnimationTime;
+
+    /**
+     * The time spent collecting the dirty areas for the current frame,
+     * in nanoseconds.
+     */
+    long frameUpdateTime;
+
+    /**
+     * The number of runnables run since the last frame.
+     */
+    int frameRunnableCount;
+
+    /**
+     * The nanosecond time at which the current runnable started.
+     */
+    long runnableStartTime;
+
+    /**
+     * Returns the system time in millisec before which the pending
+     * changes should be coalesced rather than repainted.  Frames are
+     * started at most every minRepaintTime millisec; when repainting
+     * takes longer than that, at least half of the frame time is left
+     * to the runnables so they are not starved by the repaints.
+     */
+    protected long getNextFrameTime() {
+        long next = lastFrameTime + minRepaintTime;
+        long t = lastFrameEndTime + minRepaintTime / 2;
+        if (t > next) next = t;
+        if (outOfDateTime != 0) {
+            // Let a burst of changes that follows an idle period
+            // settle a little before repainting.
+            t = outOfDateTime + minRepaintTime / 2;
+            if (t > next) next = t;
+        }
+        return next;
+    }
+
+    /**
+     * Collects the dirty areas of the GVT tree and repaints them.
+     */
+    protected void repaintDirtyAreas() {
+        long t0 = System.nanoTime();
+        List dirtyAreas = updateTracker.getDirtyAreas();
+        updateTracker.clear();
+        frameUpdateTime = System.nanoTime() - t0;
+        if (dirtyAreas != null) {
+            updateRendering(dirtyAreas, false);
+        }
+        outOfDateTime = 0;
+    }
+
+    /**
+     * Ends the current frame and returns its timings.
+     * @param frameTime The system time in millisec at which the repaint
+     *        started.
+     * @param paintTime The repaint duration in nanoseconds.
+     */
+    protected FrameMetrics endFrame(long frameTime, long paintTime) {
+        FrameMetrics fm = new FrameMetrics
+            (++frameCount, frameTime, minRepaintTime,
+             frameScriptTime, frameAnimationTime, frameUpdateTime,
+             paintTime, frameRunnableCount);
+        frameScriptTime = 0;
+        frameAnimationTime = 0;
+        frameUpdateTime = 0;
+        frameRunnableCount = 0;
+        lastFrameTime = frameTime;
+        lastFrameEndTime = System.currentTimeMillis();
+        return fm;
+    }
+
     /**
      * Repaints the dirty areas, if needed.
      */
@@ -551,8 +673,9 @@ public class UpdateManager  {
             releaseAllRedrawSuspension();
         }
 
-        if (ctime-outOfDateTime < minRepaintTime) {
-            // We very recently did a repaint check if other
+        long next = getNextFrameTime();
+        if (ctime < next) {
+            // The frame is not due yet, check if other
             // repaint runnables are pending.
             synchronized (updateRunnableQueue.getIteratorLock()) {
                 Iterator i = updateRunnableQueue.iterator();
@@ -564,14 +687,13 @@ public class UpdateManager  {
                         return;
 
             }
+            // Nothing else will repaint, so do it when the frame
+            // is due.
+            createFrameTimer(next - ctime);
+            return;
         }
 
-        List dirtyAreas = updateTracker.getDirtyAreas();
-        updateTracker.clear();
-        if (dirtyAreas != null) {
-            updateRendering(dirtyAreas, false);
-        }
-        outOfDateTime = 0;
+        repaintDirtyAreas();
     }
 
     /**
@@ -594,12 +716,7 @@ public class UpdateManager  {
             return;
         }
 
-        List dirtyAreas = updateTracker.getDirtyAreas();
-        updateTracker.clear();
-        if (dirtyAreas != null) {
-            updateRendering(dirtyAreas, false);
-        }
-        outOfDateTime = 0;
+        repaintDirtyAreas();
     }
 
     protected static class SuspensionInfo {
@@ -635,12 +752,54 @@ public class UpdateManager  {
         }
     }
 
+    /**
+     * Triggers a repaint when the next frame is due.
+     */
+    protected static class FrameTimerTask extends TimerTask {
+        UpdateManager um;
+        FrameTimerTask(UpdateManager um) {
+            this.um = um;
+        }
+        public void run() {
+            RunnableQueue rq = um.getUpdateRunnableQueue();
+            if (rq == null) return;
+            try {
+                rq.invokeLater(new Runnable() {
+                        public void run() {
+                            um.frameTimerTask = null;
+                        }
+                    });
+            } catch (IllegalStateException ise) {
+                // The update thread has exited, which would otherwise
+                // also stop the shared timer thread.
+            }
+        }
+    }
+
     List suspensionList = new ArrayList();
     int nextSuspensionIndex = 1;
     long allResumeTime = -1;
     Timer repaintTriggerTimer = null;
     TimerTask repaintTimerTask = null;
 
+    /**
+     * The pending frame timer task, only accessed from the update
+     * thread.
+     */
+    TimerTask frameTimerTask = null;
+
+    /**
+     * Sets up a timer that will trigger a repaint in the given
+     * number of millisec, unless one is already pending.
+     */
+    void createFrameTimer(long delay) {
+        if (frameTimerTask != null) return;
+        if (repaintTriggerTimer == null)
+            repaintTriggerTimer = new Timer(true);
+        frameTimerTask = new FrameTimerTask(this);
+        repaintTriggerTimer.schedule(frameTimerTask, delay);
+    }
+
     void createRepaintTimer() {
         if (repaintTimerTask != null) return;
         if (allResumeTime < 0)        return;
@@ -851,6 +1010,7 @@ public class UpdateManager  {
         extends RunnableQueue.RunHandlerAdapter {
 
         public void runnableStart(RunnableQueue rq, Runnable r) {
+            runnableStartTime = System.nanoTime();
             if (running && !(r instanceof NoRepaintRunnable)) {
                 // Mark the document as updated when the
                 // runnable starts.
@@ -865,6 +1025,14 @@ public class UpdateManager  {
          * has returned.
          */
         public void runnableInvoked(RunnableQueue rq, Runnable r) {
+            long t = System.nanoTime() - runnableStartTime;
+            if (r instanceof RunnableQueue.IdleRunnable) {
+                // Animation ticks are run as the idle runnable.
+                frameAnimationTime += t;
+            } else {
+                frameScriptTime += t;
+            }
+            frameRunnableCount++;
             if (running && !(r instanceof NoRepaintRunnable)) {
                 repaint();
             }
@@ -47,6 +47,11 @@ public class UpdateManagerEvent extends EventObject {
      */
     protected boolean clearPaintingTransform;
 
+    /**
+     * The timings of the frame that produced this update, if any.
+     */
+    protected FrameMetrics frameMetrics;
+
     /**
      * Creates a new UpdateManagerEvent.
      * @param source the object that originated the event, ie. the
@@ -79,6 +84,22 @@ public class UpdateManagerEvent extends EventObject {
         this.clearPaintingTransform = cpt;
     }
 
+    /**
+     * Creates a new UpdateManagerEvent.
+     * @param source the object that originated the event, ie. the
+     *               UpdateManager.
+     * @param bi the image to paint.
+     * @param das List of dirty areas.
+     * @param cpt Indicates if the painting transform should be
+     *            cleared as a result of this event.
+     * @param fm The timings of the frame that produced this update.
+     */
+    public UpdateManagerEvent(Object source, BufferedImage bi,
+                              List das, boolean cpt, FrameMetrics fm) {
+        this(source, bi, das, cpt);
+        this.frameMetrics = fm;
+    }
+
     /**
      * Returns the image to display, or null if the rendering failed.
      */
@@ -100,4 +121,12 @@ public class UpdateManagerEvent extends EventObject {
     public boolean getClearPaintingTransform() {
         return clearPaintingTransform;
     }
+
+    /**
+     * Returns the timings of the frame that produced this update, or
+     * null if this event does not report a completed update.
+     */
+    public FrameMetrics getFrameMetrics() {
+        return frameMetrics;
+    }
 }
@@ -217,6 +217,7 @@ public class SVGFlowRootElementBridge extends SVG12TextElementBridge {
         if (ctx.getTextPainter() != null) {
             tn.setTextPainter(ctx.getTextPainter());
         }
+        tn.setTextLayoutCache(ctx.getTextLayoutCache());
         textNode = tn;
         cgn.add(tn);
 
@@ -137,6 +137,25 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
      */
     private Rectangle2D bounds;
 
+    /**
+     * The geometry generation of this node. It is incremented each time
+     * something affecting the bounds of this node, in its own or in its
+     * parent's coordinate system, changes.
+     */
+    private volatile int generation;
+
+    /**
+     * The content generation of this node. It is incremented each time
+     * something that may change the rendering of this node or of one
+     * of its descendants changes.
+     */
+    private volatile int contentGeneration;
+
+    /**
+     * Internal Cache: the last bounds returned by getTransformedBounds.
+     */
+    private volatile TransformedBounds transformedBounds;
+
 
     protected GraphicsNodeChangeEvent changeStartedEvent   = null;
     protected GraphicsNodeChangeEvent changeCompletedEvent = null;
@@ -200,6 +219,9 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
             // transform.
             inverseTransform = transform;
         }
+        // The bounds in this node's user space are not affected, only
+        // the transformed ones and those of the ancestors.
+        generation++;
         if (parent != null)
             parent.invalidateGeometryCache();
         fireGraphicsNodeChangeCompleted();
@@ -658,6 +680,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
     public void fireGraphicsNodeChangeStarted
         (GraphicsNodeChangeEvent changeStartedEvent) {
         // If we had per node listeners we would fire them here...
+        invalidateContent();
 
         RootGraphicsNode rootGN = getRoot();
         if (rootGN == null) return;
@@ -680,6 +703,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
         }
 
         // If we had per node listeners we would fire them here...
+        invalidateContent();
 
         RootGraphicsNode rootGN = getRoot();
         if (rootGN == null) return;
@@ -751,6 +775,38 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
             parent.invalidateGeometryCache();
         }
         bounds = null;
+        generation++;
+        contentGeneration++;
+    }
+
+    /**
+     * Returns the geometry generation of this node. Two calls returning
+     * the same value guarantee that the bounds of this node have not
+     * changed in between.
+     */
+    public int getGeometryGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the content generation of this node. Two calls returning
+     * the same value guarantee that nothing affecting the rendering of
+     * this node or of its descendants has changed in between.
+     */
+    public int getContentGeneration() {
+        return contentGeneration;
+    }
+
+    /**
+     * Increments the content generation of this node and of its
+     * ancestors.  This is called each time this node is changed.
+     */
+    protected void invalidateContent() {
+        AbstractGraphicsNode n = this;
+        while (n != null) {
+            n.contentGeneration++;
+            n = n.parent;
+        }
     }
 
     /**
@@ -805,6 +861,30 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
      *        be concatenated. Should not be null.
      */
     public Rectangle2D getTransformedBounds(AffineTransform txf){
+        int gen = generation;
+        TransformedBounds tb = transformedBounds;
+        if ((tb != null) && tb.matches(txf, gen)) {
+            return (tb.bounds == null) ? null
+                : (Rectangle2D)tb.bounds.clone();
+        }
+
+        Rectangle2D tBounds = computeTransformedBounds(txf);
+        if (!HaltingThread.hasBeenHalted()) {
+            transformedBounds = new TransformedBounds
+                (txf, (tBounds == null) ? null
+                      : (Rectangle2D)tBounds.clone(), gen);
+        }
+        return tBounds;
+    }
+
+    /**
+     * Computes the bounds returned by {@link #getTransformedBounds},
+     * without looking at or filling the cache.
+     *
+     * @param txf the affine transform with which this node's transform should
+     *        be concatenated. Should not be null.
+     */
+    protected Rectangle2D computeTransformedBounds(AffineTransform txf) {
         AffineTransform t = txf;
         if (transform != null) {
             t = new AffineTransform(txf);
@@ -819,8 +899,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
             // Use txf, not t
             tBounds = getTransformedPrimitiveBounds(txf);
         } else {
-            tBounds = t.createTransformedShape
-                (filter.getBounds2D()).getBounds2D();
+            tBounds = transformBounds(filter.getBounds2D(), t);
         }
         // Factor in the clipping area, if any
         if (tBounds != null) {
@@ -834,12 +913,9 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
             // Factor in the mask, if any
             if(mask != null) {
                 Rectangle2D.intersect
-                    (tBounds,
-                     t.createTransformedShape(mask.getBounds2D()).getBounds2D(),
-                     tBounds);
+                    (tBounds, transformBounds(mask.getBounds2D(), t), tBounds);
             }
         }
-
         return tBounds;
     }
 
@@ -861,7 +937,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
             t.concatenate(transform);
         }
 
-        return t.createTransformedShape(tpBounds).getBounds2D();
+        return transformBounds(tpBounds, t);
     }
 
     /**
@@ -885,7 +961,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
             t.concatenate(transform);
         }
 
-        return t.createTransformedShape(tpBounds).getBounds2D();
+        return transformBounds(tpBounds, t);
     }
 
     /**
@@ -909,7 +985,7 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
             t.concatenate(transform);
         }
 
-        return t.createTransformedShape(sBounds).getBounds2D();
+        return transformBounds(sBounds, t);
     }
 
     /**
@@ -963,6 +1039,84 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
         return (contains(p) ? this : null);
     }
 
+    /**
+     * Returns the bounds of the specified rectangle transformed by the
+     * specified transform. This is equivalent to
+     * <code>t.createTransformedShape(r).getBounds2D()</code> but does
+     * not build an intermediate path, and reduces to a few
+     * multiplications for axis aligned transforms.
+     */
+    public static Rectangle2D transformBounds(Rectangle2D r,
+                                              AffineTransform t) {
+        if (r == null) {
+            return null;
+        }
+        double x0 = r.getX();
+        double y0 = r.getY();
+        double x1 = x0 + r.getWidth();
+        double y1 = y0 + r.getHeight();
+        if (t == null) {
+            return new Rectangle2D.Double(x0, y0, x1 - x0, y1 - y0);
+        }
+        double m00 = t.getScaleX(), m01 = t.getShearX(), m02 = t.getTranslateX();
+        double m10 = t.getShearY(), m11 = t.getScaleY(), m12 = t.getTranslateY();
+
+        double minX, maxX, minY, maxY;
+        if ((m01 == 0) && (m10 == 0)) {
+            minX = x0 * m00 + m02;
+            maxX = x1 * m00 + m02;
+            minY = y0 * m11 + m12;
+            maxY = y1 * m11 + m12;
+            if (minX > maxX) {
+                double tmp = minX; minX = maxX; maxX = tmp;
+            }
+            if (minY > maxY) {
+                double tmp = minY; minY = maxY; maxY = tmp;
+            }
+        } else {
+            // Each coordinate of the result is reached at one of the
+            // corners, pick them independently per matrix term.
+            double ax0 = m00 * x0, ax1 = m00 * x1;
+            double bx0 = m01 * y0, bx1 = m01 * y1;
+            double ay0 = m10 * x0, ay1 = m10 * x1;
+            double by0 = m11 * y0, by1 = m11 * y1;
+            minX = Math.min(ax0, ax1) + Math.min(bx0, bx1) + m02;
+            maxX = Math.max(ax0, ax1) + Math.max(bx0, bx1) + m02;
+            minY = Math.min(ay0, ay1) + Math.min(by0, by1) + m12;
+            maxY = Math.max(ay0, ay1) + Math.max(by0, by1) + m12;
+        }
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * The result of a getTransformedBounds call, valid as long as the
+     * transform and the generation of the node are the same.
+     */
+    private static final class TransformedBounds {
+        final double m00, m01, m02, m10, m11, m12;
+        final Rectangle2D bounds;
+        final int generation;
+
+        TransformedBounds(AffineTransform t, Rectangle2D bounds,
+                          int generation) {
+            m00 = t.getScaleX();
+            m01 = t.getShearX();
+            m02 = t.getTranslateX();
+            m10 = t.getShearY();
+            m11 = t.getScaleY();
+            m12 = t.getTranslateY();
+            this.bounds = bounds;
+            this.generation = generation;
+        }
+
+        boolean matches(AffineTransform t, int generation) {
+            return (this.generation == generation)
+                && (m00 == t.getScaleX()) && (m11 == t.getScaleY())
+                && (m02 == t.getTranslateX()) && (m12 == t.getTranslateY())
+                && (m01 == t.getShearX()) && (m10 == t.getShearY());
+        }
+    }
+
     static double EPSILON = 1e-6;
 
     /**
@@ -0,0 +1,276 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+
+import org.apache.batik.util.HaltingThread;
+
+/**
+ * A composite graphics node whose children are only built the first
+ * time they are actually needed.  Until then the node only knows a
+ * conservative estimate of the area its content may paint (the
+ * bounds hint), which is used to cull it when it lies outside of the
+ * painted region.
+ *
+ * <p>The content is materialized when the node is painted with a clip
+ * that intersects the bounds hint, when a point inside the hint is
+ * hit tested, or when an exact geometry (geometry bounds or outline)
+ * is requested.  Accessing the children list directly does not
+ * materialize the content; use {@link #materialize()} first when the
+ * complete tree is needed.</p>
+ *
+ * @version $Id$
+ */
+public class LazyCompositeGraphicsNode extends CompositeGraphicsNode {
+
+    /**
+     * The interface implemented by the objects responsible for building
+     * the deferred content of a lazy composite graphics node.
+     */
+    public interface ContentBuilder {
+
+        /**
+         * Builds the children of the specified node.
+         *
+         * @param node the lazy node to populate
+         */
+        void buildContent(LazyCompositeGraphicsNode node);
+    }
+
+    /**
+     * The conservative bounds of the deferred content, in the user
+     * space of this node.
+     */
+    protected Rectangle2D boundsHint;
+
+    /**
+     * The builder of the deferred content, null once materialized.
+     */
+    protected volatile ContentBuilder contentBuilder;
+
+    /**
+     * Constructs a new lazy composite graphics node.
+     *
+     * @param boundsHint the conservative bounds of the content that
+     *        will be built, including stroke
+     * @param contentBuilder the object that builds the content
+     */
+    public LazyCompositeGraphicsNode(Rectangle2D boundsHint,
+                                     ContentBuilder contentBuilder) {
+        this.boundsHint = boundsHint;
+        this.contentBuilder = contentBuilder;
+    }
+
+    /**
+     * Returns the bounds hint of this node.
+     */
+    public Rectangle2D getBoundsHint() {
+        return boundsHint;
+    }
+
+    /**
+     * Returns true if the content of this node has been built.
+     */
+    public boolean isMaterialized() {
+        return contentBuilder == null;
+    }
+
+    /**
+     * Builds the content of this node if it has not been built yet.
+     */
+    public void materialize() {
+        if (contentBuilder == null) {
+            return;
+        }
+        synchronized (this) {
+            ContentBuilder cb = contentBuilder;
+            if (cb == null) {
+                return;
+            }
+            try {
+                cb.buildContent(this);
+            } catch (RuntimeException ex) {
+                // Drop the partial content so the next request starts
+                // over (typically the building thread has been halted).
+                while (count > 0) {
+                    remove(count - 1);
+                }
+                throw ex;
+            }
+            contentBuilder = null;
+            invalidateGeometryCache();
+        }
+    }
+
+    /**
+     * Paints this node without applying Filter, Mask, Composite, and clip.
+     * This is only reached when the painted area intersects the bounds
+     * of this node, so the content is built first.
+     *
+     * @param g2d the Graphics2D to use
+     */
+    public void primitivePaint(Graphics2D g2d) {
+        try {
+            materialize();
+        } catch (RuntimeException ex) {
+            if (HaltingThread.hasBeenHalted()) {
+                return;
+            }
+            throw ex;
+        }
+        super.primitivePaint(g2d);
+    }
+
+    /**
+     * Returns the bounds of the area covered by this node's primitive paint.
+     */
+    public Rectangle2D getPrimitiveBounds() {
+        if (contentBuilder != null) {
+            return (Rectangle2D)boundsHint.clone();
+        }
+        return super.getPrimitiveBounds();
+    }
+
+    /**
+     * Returns the bounds of this node's primitivePaint after applying
+     * the input transform (if any), concatenated with this node's
+     * transform (if any).
+     *
+     * @param txf the affine transform with which this node's transform should
+     *        be concatenated. Should not be null.
+     */
+    public Rectangle2D getTransformedPrimitiveBounds(AffineTransform txf) {
+        if (contentBuilder != null) {
+            return transformHint(txf);
+        }
+        return super.getTransformedPrimitiveBounds(txf);
+    }
+
+    /**
+     * Returns the bounds of the area covered by this node, without
+     * taking any of its rendering attributes into account. As these
+     * bounds must be exact, the content is built first.
+     */
+    public Rectangle2D getGeometryBounds() {
+        materialize();
+        return super.getGeometryBounds();
+    }
+
+    /**
+     * Returns the bounds of the area covered by this node, without taking
+     * any of its rendering attribute into account, transformed by the
+     * concatenation of the input transform and this node's transform.
+     *
+     * @param txf the affine transform with which this node's transform should
+     *        be concatenated. Should not be null.
+     */
+    public Rectangle2D getTransformedGeometryBounds(AffineTransform txf) {
+        materialize();
+        return super.getTransformedGeometryBounds(txf);
+    }
+
+    /**
+     * Returns the bounds of the sensitive area covered by this node.
+     */
+    public Rectangle2D getSensitiveBounds() {
+        if (contentBuilder != null) {
+            return (Rectangle2D)boundsHint.clone();
+        }
+        return super.getSensitiveBounds();
+    }
+
+    /**
+     * Returns the bounds of the sensitive area covered by this node,
+     * transformed by the concatenation of the input transform and
+     * this node's transform.
+     *
+     * @param txf the affine transform with which this node's
+     * transform should be concatenated. Should not be null.
+     */
+    public Rectangle2D getTransformedSensitiveBounds(AffineTransform txf) {
+        if (contentBuilder != null) {
+            return transformHint(txf);
+        }
+        return super.getTransformedSensitiveBounds(txf);
+    }
+
+    /**
+     * Returns true if the specified Point2D is inside the boundary of this
+     * node, false otherwise.
+     *
+     * @param p the specified Point2D in the user space
+     */
+    public boolean contains(Point2D p) {
+        if (contentBuilder != null) {
+            if (!boundsHint.contains(p)) {
+                return false;
+            }
+            materialize();
+        }
+        return super.contains(p);
+    }
+
+    /**
+     * Returns the GraphicsNode containing point p if this node or one of its
+     * children is sensitive to mouse events at p.
+     *
+     * @param p the specified Point2D in the user space
+     */
+    public GraphicsNode nodeHitAt(Point2D p) {
+        if (contentBuilder != null) {
+            if (!boundsHint.contains(p)) {
+                return null;
+            }
+            materialize();
+        }
+        return super.nodeHitAt(p);
+    }
+
+    /**
+     * Returns the outline of this node.
+     */
+    public Shape getOutline() {
+        materialize();
+        return super.getOutline();
+    }
+
+    /**
+     * Returns the bounds hint transformed by the concatenation of the
+     * specified transform and this node's transform.
+     */
+    protected Rectangle2D transformHint(AffineTransform txf) {
+        AffineTransform t = txf;
+        if (transform != null) {
+            t = new AffineTransform(txf);
+            t.concatenate(transform);
+        }
+        if (t == null) {
+            return (Rectangle2D)boundsHint.clone();
+        }
+        if ((t.getShearX() == 0) && (t.getShearY() == 0)) {
+            return getTransformedBBox(boundsHint, t);
+        }
+        return t.createTransformedShape(boundsHint).getBounds2D();
+    }
+}
@@ -50,6 +50,7 @@ public class ProxyGraphicsNode extends AbstractGraphicsNode {
      */
     public void setSource(GraphicsNode source) {
         this.source = source;
+        invalidateGeometryCache();
     }
 
     /**
@@ -80,6 +81,19 @@ public class ProxyGraphicsNode extends AbstractGraphicsNode {
         return source.getBounds();
     }
 
+    /**
+     * Returns the bounds of this node after applying the input transform
+     * (if any), concatenated with this node's transform (if any).  They
+     * are not cached: they depend on the source, whose changes do not
+     * change the geometry generation of this node.
+     *
+     * @param txf the affine transform with which this node's transform should
+     *        be concatenated. Should not be null.
+     */
+    public Rectangle2D getTransformedBounds(AffineTransform txf) {
+        return computeTransformedBounds(txf);
+    }
+
     /**
      * Returns the bounds of this node's primitivePaint after applying
      * the input transform (if any), concatenated with this node's
@@ -196,8 +196,8 @@ public class UpdateTracker extends GraphicsNodeChangeAdapter {
                     if (f != null) {
                         // If we have a filter and a change region
                         // Update our full filter extents.
-                        Shape s = at.createTransformedShape(f.getBounds2D());
-                        ret = s.getBounds2D();
+                        ret = AbstractGraphicsNode.transformBounds
+                            (f.getBounds2D(), at);
                         break;
                     }
                     if ((ret == null) || (ret == NULL_RECT)) ret = r2d;
@@ -213,7 +213,7 @@ public class UpdateTracker extends GraphicsNodeChangeAdapter {
             } else if (ret == NULL_RECT)
                 ret = null;
             if (ret != null)
-                ret = at.createTransformedShape(ret).getBounds2D();
+                ret = AbstractGraphicsNode.transformBounds(ret, at);
         }
         return ret;
     }
@@ -352,9 +352,11 @@ public class BackgroundRable8Bit
      * may produce different results.  This method may be used to
      * determine whether an existing rendering may be cached and
      * reused.  It is always safe to return true.
+     * The background is painted by other nodes, whose changes are not
+     * reflected in the time stamp of this Rable, so this returns true.
      */
     public boolean isDynamic(){
-        return false;
+        return true;
     }
 
     /**
@@ -34,6 +34,7 @@ import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.renderable.PaintRable;
 import org.apache.batik.ext.awt.image.rendered.CachableRed;
 import org.apache.batik.ext.awt.image.rendered.TranslateRed;
+import org.apache.batik.gvt.AbstractGraphicsNode;
 import org.apache.batik.gvt.GraphicsNode;
 
 /**
@@ -72,6 +73,7 @@ public class GraphicsNodeRable8Bit
      * if it should use paint.  
      */
     public void setUsePrimitivePaint(boolean usePrimitivePaint) {
+        touch();
         this.usePrimitivePaint = usePrimitivePaint;
     }
 
@@ -95,6 +97,7 @@ public class GraphicsNodeRable8Bit
             throw new IllegalArgumentException();
         }
 
+        touch();
         this.node = node;
     }
 
@@ -177,15 +180,32 @@ public class GraphicsNodeRable8Bit
         return bounds;
     }
 
+    /**
+     * Returns the current modification timestamp on this Renderable
+     * node.  Besides the changes made to this Rable, it follows the
+     * content generation of the node, so it changes whenever the node
+     * or one of its descendants is modified.
+     */
+    public long getTimeStamp() {
+        long ts = super.getTimeStamp();
+        if (node instanceof AbstractGraphicsNode) {
+            int gen = ((AbstractGraphicsNode)node).getContentGeneration();
+            ts = (ts << 32) + (gen & 0xFFFFFFFFL);
+        }
+        return ts;
+    }
+
     /**
      * Returns true if successive renderings (that is, calls to
      * createRendering() or createScaledRendering()) with the same arguments
      * may produce different results.  This method may be used to
      * determine whether an existing rendering may be cached and
      * reused.  It is always safe to return true.
+     * Only the changes of an <code>AbstractGraphicsNode</code> are
+     * reflected in the time stamp, other nodes are dynamic.
      */
     public boolean isDynamic(){
-        return false;
+        return !(node instanceof AbstractGraphicsNode);
     }
 
     /**
@@ -53,6 +53,21 @@ public class FlowRegions {
         gotoY(startY);
     }
 
+    /**
+     * Creates a new FlowRegions in the same state as the given one, so
+     * the flow can go on from that point more than once.  The segment
+     * lists are shared, as splitting them does not modify them.
+     */
+    public FlowRegions(FlowRegions fr) {
+        this.flowShape    = fr.flowShape;
+        this.sl           = fr.sl;
+        this.sr           = fr.sr;
+        this.validRanges  = fr.validRanges;
+        this.currentRange = fr.currentRange;
+        this.currentY     = fr.currentY;
+        this.lineHeight   = fr.lineHeight;
+    }
+
     public double getCurrentY() { return currentY; }
     public double getLineHeight() { return lineHeight; }
 
@@ -0,0 +1,204 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.flow;
+
+/**
+ * Finds the line break opportunities of a run of characters with the
+ * pair table of {@link TextLineBreaks}.
+ *
+ * <p>The iterator works directly on a character array and keeps its
+ * state in a few fields, so it allocates nothing once created and can
+ * be reused for any number of texts.  Each call to {@link #next(int)}
+ * returns the end of the next word, that is the offset of the next
+ * break opportunity.  The end of the text is always a break.</p>
+ *
+ * <p>Complex context (SA) characters and object replacement characters
+ * (CB) are broken as alphabetic characters, as no dictionary based
+ * analysis is done.</p>
+ *
+ * @version $Id$
+ */
+public class LineBreakIterator {
+
+    /**
+     * The value returned by {@link #next(int)} when there are no more
+     * breaks.
+     */
+    public static final int DONE = -1;
+
+    /**
+     * The characters.
+     */
+    protected char[] text;
+
+    /**
+     * The end of the text.
+     */
+    protected int end;
+
+    /**
+     * The index of the next character to examine.
+     */
+    protected int pos;
+
+    /**
+     * The beginning of the current word.
+     */
+    protected int wordBegin;
+
+    /**
+     * The class used to look up the pair table, the class of the last
+     * character and of the character before it.
+     */
+    protected byte cls, curCls, prevCls, prevPrevCls;
+
+    /**
+     * The last character examined.
+     */
+    protected char prevCh;
+
+    /**
+     * Sets the text to iterate over.  The array is not copied.
+     * @param text The characters.
+     * @param begin The index of the first character.
+     * @param end The index following the last character.
+     */
+    public void setText(char[] text, int begin, int end) {
+        this.text = text;
+        this.end = end;
+        if (begin == end) {
+            pos = wordBegin = end + 1;
+            return;
+        }
+        startLine(begin);
+        prevPrevCls = -1;
+    }
+
+    /**
+     * Returns the offset of the next break opportunity of the whole
+     * text, or DONE.
+     */
+    public int next() {
+        return next(end);
+    }
+
+    /**
+     * Returns the offset of the next break opportunity, or DONE.  A
+     * break is always returned at <code>limit</code>, where a new line
+     * starts; this is used for paragraph and explicit line breaks.
+     * @param limit An offset after the last break returned, and not
+     *        after the end of the text.
+     */
+    public int next(int limit) {
+        if (wordBegin >= end) {
+            return DONE;
+        }
+        char[] text = this.text;
+        while (pos < limit) {
+            int ich = pos++;
+            char ch = text[ich];
+            int brk = DONE;
+            curCls = lineBreakClass(ch);
+            if (curCls == TextLineBreaks.CHAR_CLASS_SP) {
+                // no break before spaces
+            } else if ((ch == TextLineBreaks.CHAR_ZERO_WIDTH_JOINER) ||
+                       (prevCh == TextLineBreaks.CHAR_ZERO_WIDTH_JOINER)) {
+                // This isn't in the Unicode line breaking alg.  but it
+                // seems needed as otherwise it does produce a break.
+            } else if ((curCls == TextLineBreaks.CHAR_CLASS_BK) ||
+                       (curCls == TextLineBreaks.CHAR_CLASS_LF)) {
+                brk = ich;
+                cls = TextLineBreaks.CHAR_CLASS_BK;
+            } else if (prevCls == TextLineBreaks.CHAR_CLASS_CR) {
+                brk = ich - 1;
+                cls = TextLineBreaks.CHAR_CLASS_BK;
+            } else if (curCls == TextLineBreaks.CHAR_CLASS_CR) {
+                // break after the line feed, if any
+            } else if (curCls == TextLineBreaks.CHAR_CLASS_CM) {
+                // a combining mark after a space is an ideograph
+                if (prevCls == TextLineBreaks.CHAR_CLASS_SP) {
+                    cls = TextLineBreaks.CHAR_CLASS_ID;
+                    if ((prevPrevCls != -1) &&
+                        (prevPrevCls < TextLineBreaks.brkPairs.length) &&
+                        (TextLineBreaks.brkPairs[prevPrevCls]
+                                                [TextLineBreaks.CHAR_CLASS_ID]
+                         == TextLineBreaks.BREAK_ACTION_DIRECT)) {
+                        brk = ich - 1;
+                    }
+                }
+            } else if (cls == TextLineBreaks.CHAR_CLASS_BK) {
+                cls = curCls;
+            } else {
+                byte action = TextLineBreaks.brkPairs[cls][curCls];
+                if ((action == TextLineBreaks.BREAK_ACTION_DIRECT) ||
+                    ((action == TextLineBreaks.BREAK_ACTION_INDIRECT) &&
+                     (prevCls == TextLineBreaks.CHAR_CLASS_SP))) {
+                    brk = ich;
+                }
+                cls = curCls;
+            }
+            prevPrevCls = prevCls;
+            prevCls = curCls;
+            prevCh = ch;
+            if (brk > wordBegin) {
+                wordBegin = brk;
+                return brk;
+            }
+        }
+
+        // a new line starts at the limit
+        int brk = limit;
+        if (limit < end) {
+            startLine(limit);
+            prevPrevCls = prevCls;
+        } else {
+            pos = wordBegin = end + 1;
+        }
+        return brk;
+    }
+
+    /**
+     * Resets the state of the iterator at the beginning of a line.
+     */
+    protected void startLine(int begin) {
+        char ch = text[begin];
+        curCls = prevCls = lineBreakClass(ch);
+        cls = curCls;
+        if (cls >= TextLineBreaks.CHAR_CLASS_CM) {
+            cls = TextLineBreaks.CHAR_CLASS_AL;
+        }
+        prevCh = ch;
+        wordBegin = begin;
+        pos = begin + 1;
+    }
+
+    /**
+     * Returns the class of the given character, with the classes that
+     * are not in the pair table and not handled separately resolved to
+     * alphabetic.
+     */
+    protected static byte lineBreakClass(char ch) {
+        byte c = TextLineBreaks.getCharCharClass(ch);
+        if ((c == TextLineBreaks.CHAR_CLASS_SA) ||
+            (c == TextLineBreaks.CHAR_CLASS_CB)) {
+            return TextLineBreaks.CHAR_CLASS_AL;
+        }
+        return c;
+    }
+}
@@ -21,7 +21,9 @@ package org.apache.batik.gvt.flow;
 
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
@@ -47,160 +49,52 @@ public class TextLineBreaks {
         lineBrks.add(FLOW_LINE_BREAK);
     }
 
-    // placeholder function for complex break analysis
-    static int findComplexBreak(AttributedCharacterIterator aci)
-    {
-        int cnt = 0;
-        for(char ch = aci.current();
-            ch == AttributedCharacterIterator.DONE;
-            ch = aci.next(), cnt++) {
-
-            // .. do complex break analysis here Right now we aren't
-            // do any, we just find the end of the run of
-            // CHAR_CLASS_SA.
-
-            if (getCharCharClass(ch) != CHAR_CLASS_SA)
-                break;
-        }
-        return cnt;
-    }
-
     // handle spaces separately, all others by table
     // as - Attributed string to attribute with Word extents.
     public static void findLineBrk(AttributedString as) {
         AttributedCharacterIterator aci = as.getIterator();
-        if (aci.getEndIndex() == 0)
+        int begin = aci.getBeginIndex();
+        int len = aci.getEndIndex() - begin;
+        if (len == 0)
             return;
-        char ch = aci.current(), prevCh = (char)-1;
-        byte         cls = getCharCharClass(ch);
-        if (cls == CHAR_CLASS_LF) cls = CHAR_CLASS_BK;
-        byte      curCls = cls;
-        byte     prevCls = cls;
-        byte prevPrevCls = -1;
-        int  wordCnt = 0;
-        int  wordBegin = aci.getBeginIndex();
-        // loop over all pairs in the string
-        int ich = wordBegin+1;
-        int lineEnd = aci.getRunLimit(lineBrks);
-
-        // handle case where input starts with an LF
-        if (cls >= CHAR_CLASS_CM) cls = CHAR_CLASS_AL;
 
-        for (ch = aci.next();
+        char[] chars = new char[len];
+        int i = 0;
+        for (char ch = aci.first();
              ch != AttributedCharacterIterator.DONE;
-             ich++, prevCh = ch, ch = aci.next(),
-             prevPrevCls = prevCls, prevCls = curCls) {
-
-            if (ich == lineEnd) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich);
-                wordBegin = ich;
-
-                cls    = getCharCharClass(ch);
-                curCls = cls;
-                prevCls = cls;
-                if (cls >= CHAR_CLASS_CM) cls = CHAR_CLASS_AL;
-
-                lineEnd = aci.getRunLimit(lineBrks);
-                continue;
-            }
-
-            // handle spaces
-            curCls = getCharCharClass(ch);
-            if (curCls == CHAR_CLASS_SP) {
-                // pbrk[ich-1] = BREAK_ACTION_PROHIBITED;
-                continue;
-            }
-
-            // handle complex scripts
-            if (curCls == CHAR_CLASS_SA) {
-                ich += findComplexBreak(aci);
-                ch = aci.previous();
-                if (ch != AttributedCharacterIterator.DONE)
-                    prevCls = getCharCharClass(ch);
-                ch = aci.next();
-                if (ch != AttributedCharacterIterator.DONE)
-                    curCls = cls = getCharCharClass(ch);
-                continue;
-            }
-
-            // This isn't in the Unicode line breaking alg.  but it
-            // seems needed as otherwise it does produce a break.
-            if ((ch == CHAR_ZERO_WIDTH_JOINER) ||
-                (prevCh == CHAR_ZERO_WIDTH_JOINER))
-                continue; // Don't allow break around JOINER.
-
-            if ((curCls == CHAR_CLASS_BK) || (curCls == CHAR_CLASS_LF)) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich);
-                wordBegin = ich;
-                cls = CHAR_CLASS_BK;
-                continue;
-            }
-            if (prevCls == CHAR_CLASS_CR) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich-1);
-                wordBegin = ich-1;
-                cls = CHAR_CLASS_BK;
-                continue;
-            }
-            if (curCls == CHAR_CLASS_CR) {
-                continue;
-            }
-
-            // handle combining marks
-            if (curCls == CHAR_CLASS_CM) {
-                if (prevCls == CHAR_CLASS_SP) {
-                    cls = CHAR_CLASS_ID;
-                    if (prevPrevCls != -1) {
-                        if (brkPairs[prevPrevCls][CHAR_CLASS_ID] ==
-                            BREAK_ACTION_DIRECT) {
-                            as.addAttribute(WORD_LIMIT, wordCnt++,
-                                            wordBegin, ich-1);
-                            wordBegin = ich-1;
-                            // pbrk[ich-2] = BREAK_ACTION_DIRECT;
-                        } else {
-                            // pbrk[ich-2] = BREAK_ACTION_PROHIBITED;
-                        }
-                    }
-                }
-                // pbrk[ich-1] = BREAK_ACTION_PROHIBITED;
-                continue;
-            }
+             ch = aci.next()) {
+            chars[i++] = ch;
+        }
 
-            if (cls == CHAR_CLASS_BK) {
-                cls = curCls;
-                continue;
+        // find all the breaks before changing the attributed string,
+        // paragraphs and explicit line breaks force a break.
+        int[] brks = new int[Math.max(16, len / 4)];
+        int brkCnt = 0;
+        LineBreakIterator lbi = new LineBreakIterator();
+        lbi.setText(chars, 0, len);
+        aci.setIndex(begin);
+        int lineEnd = aci.getRunLimit(lineBrks) - begin;
+        for (int brk = lbi.next(lineEnd);
+             brk != LineBreakIterator.DONE;
+             brk = lbi.next(lineEnd)) {
+            if (brkCnt == brks.length) {
+                int[] tmp = new int[brkCnt * 2];
+                System.arraycopy(brks, 0, tmp, 0, brkCnt);
+                brks = tmp;
             }
-
-            // lookup pair table information
-            byte brk = brkPairs[cls][curCls];
-
-            if (brk == BREAK_ACTION_DIRECT) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich);
-                wordBegin = ich;
-                // pbrk[ich-1] = brk;
-            } else if (brk == BREAK_ACTION_INDIRECT) {
-                if (prevCls == CHAR_CLASS_SP) {
-                    as.addAttribute(WORD_LIMIT, wordCnt++,
-                                    wordBegin, ich);
-                    wordBegin = ich;
-                }
-                // pbrk[ich-1] = ((prevCls == CHAR_CLASS_SP) ?
-                //                BREAK_ACTION_INDIRECT :
-                //                BREAK_ACTION_PROHIBITED);
+            brks[brkCnt++] = brk;
+            if ((brk == lineEnd) && (brk < len)) {
+                aci.setIndex(begin + brk);
+                lineEnd = aci.getRunLimit(lineBrks) - begin;
             }
-            cls = curCls;
         }
 
-        // always break at the end
-        as.addAttribute(WORD_LIMIT, wordCnt++,
-                        wordBegin, ich);
-        wordBegin = ich;
-        // pbrk[ich-1] = BREAK_ACTION_DIRECT;
-
-        return;
+        int wordBegin = begin;
+        for (int wordCnt = 0; wordCnt < brkCnt; wordCnt++) {
+            int wordEnd = begin + brks[wordCnt];
+            as.addAttribute(WORD_LIMIT, wordCnt, wordBegin, wordEnd);
+            wordBegin = wordEnd;
+        }
    }
 
     public static byte[] stringToLineBreakClasses(String s) {
@@ -212,11 +106,19 @@ public class TextLineBreaks {
         return ret;
     }
 
+    /**
+     * Returns the line break class of the given character.
+     */
     public static byte getCharCharClass(char ch) {
-        if (ch < QUICK_LUT_SIZE) {
-            if (quickLut == null) buildQuickLut();
-            return quickLut[ch];
-        }
+        return classBlocks[classIndex[ch >> CLASS_BLOCK_SHIFT]
+                           + (ch & CLASS_BLOCK_MASK)];
+    }
+
+    /**
+     * Returns the line break class of the given character by searching
+     * the raw range tables.
+     */
+    protected static byte searchCharClass(char ch) {
         int len = raw_data.length;
         int l = 0;
         int r = (len/2)-1;
@@ -234,23 +136,26 @@ public class TextLineBreaks {
 
     public static final char CHAR_ZERO_WIDTH_JOINER = 0x200D;
 
-    protected static final int QUICK_LUT_SIZE = 256;
-
-    protected static void buildQuickLut() {
-        int entry = 0;
-        quickLut = new byte[QUICK_LUT_SIZE];
-        int i=0;
-        while (i<QUICK_LUT_SIZE) {
-            int max = raw_data[2*entry+1];
-            byte cls = raw_classes[entry];
-            while (i<=max) {
-                quickLut[i] = cls;
-                i++;
-                if (i>=QUICK_LUT_SIZE) break;
-            }
-            entry++;
-        }
-    }
+    /**
+     * The classes are looked up in two stages: the high bits of a
+     * character select a block of classes in classBlocks, through
+     * classIndex, and the low bits the class in the block.  Identical
+     * blocks are stored once.
+     */
+    protected static final int CLASS_BLOCK_SHIFT = 6;
+    protected static final int CLASS_BLOCK_SIZE  = 1 << CLASS_BLOCK_SHIFT;
+    protected static final int CLASS_BLOCK_MASK  = CLASS_BLOCK_SIZE - 1;
+
+    /**
+     * The offset in classBlocks of the block of each group of
+     * CLASS_BLOCK_SIZE characters.
+     */
+    static final char [] classIndex;
+
+    /**
+     * The distinct blocks of classes.
+     */
+    static final byte [] classBlocks;
 
     // direct break     (blank in table)
     public static final byte BREAK_ACTION_DIRECT     = 0;
@@ -360,8 +265,6 @@ public class TextLineBreaks {
         {  0, 2, 1, 1, 1, 2, 2, 2, 0, 0, 1, 1, 0, 1, 1, 1, 0, 0, 2, 1 }};// 19
 
 
-    static byte [] quickLut = null;
-
     static final char [] raw_data = {
         0x0000, 0x0008,
         0x0009, 0x0009,
@@ -1939,4 +1842,32 @@ public class TextLineBreaks {
         CHAR_CLASS_CM,
         CHAR_CLASS_CB,
         CHAR_CLASS_AI };
+
+    static {
+        int nBlocks = 0x10000 >> CLASS_BLOCK_SHIFT;
+        char [] index = new char[nBlocks];
+        byte [] blocks = new byte[0x10000];
+        int used = 0;
+        Map offsets = new HashMap();
+        char [] block = new char[CLASS_BLOCK_SIZE];
+        for (int b = 0; b < nBlocks; b++) {
+            for (int i = 0; i < CLASS_BLOCK_SIZE; i++) {
+                char ch = (char)((b << CLASS_BLOCK_SHIFT) + i);
+                block[i] = (char)searchCharClass(ch);
+            }
+            String key = new String(block);
+            Integer off = (Integer)offsets.get(key);
+            if (off == null) {
+                off = used;
+                offsets.put(key, off);
+                for (int i = 0; i < CLASS_BLOCK_SIZE; i++) {
+                    blocks[used++] = (byte)block[i];
+                }
+            }
+            index[b] = (char)off.intValue();
+        }
+        classIndex = index;
+        classBlocks = new byte[used];
+        System.arraycopy(blocks, 0, classBlocks, 0, used);
+    }
 }
@@ -30,7 +30,6 @@ import java.awt.geom.Rectangle2D;
 import java.text.AttributedCharacterIterator;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.batik.gvt.text.ArabicTextHandler;
@@ -57,7 +56,6 @@ public class AWTGVTFont implements GVTFont {
         this.size = font.getSize2D();
         this.awtFont = font.deriveFont(FONT_SIZE);
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -70,7 +68,6 @@ public class AWTGVTFont implements GVTFont {
         this.size = font.getSize2D()*scale;
         this.awtFont = font.deriveFont(FONT_SIZE);
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -89,7 +86,6 @@ public class AWTGVTFont implements GVTFont {
             this.size = awtFont.getSize2D();
         }
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -103,7 +99,6 @@ public class AWTGVTFont implements GVTFont {
         this.awtFont = new Font(name, style, (int)FONT_SIZE);
         this.size  = size;
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -215,6 +210,26 @@ public class AWTGVTFont implements GVTFont {
         return awtFont.getFamily();
     }
 
+    /**
+     * Returns true if the given object is an AWTGVTFont wrapping an equal
+     * font at the same size, in which case both produce the same glyphs.
+     */
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof AWTGVTFont)) {
+            return false;
+        }
+        AWTGVTFont f = (AWTGVTFont)o;
+        return (size == f.size) && awtFont.equals(f.awtFont);
+    }
+
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(size);
+        return awtFont.hashCode() * 31 + (int)(bits ^ (bits >>> 32));
+    }
+
     /**
      *  Returns a LineMetrics object created with the specified arguments.
      */
@@ -282,21 +297,51 @@ public class AWTGVTFont implements GVTFont {
     public static final float FONT_SIZE = 48.0f;
 
     /**
-     * Returns the geometry of the specified character. This method also put
-     * the in cache the geometry associated to the specified character if
+     * The name of the system property giving the maximum number of
+     * glyphs held by the shared glyph geometry cache.
+     */
+    public static final String GLYPH_CACHE_SIZE_PROPERTY =
+        "org.apache.batik.gvt.font.glyphCacheSize";
+
+    /**
+     * The glyph geometry cache shared by all the AWTGVTFonts.
+     */
+    protected static final AWTGlyphGeometryCache glyphGeometryCache;
+    static {
+        int n = AWTGlyphGeometryCache.DEFAULT_MAXIMUM_SIZE;
+        try {
+            String s = System.getProperty(GLYPH_CACHE_SIZE_PROPERTY);
+            if (s != null) {
+                n = Integer.parseInt(s);
+            }
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        }
+        glyphGeometryCache = new AWTGlyphGeometryCache(n);
+    }
+
+    /**
+     * Returns the glyph geometry cache shared by all the AWTGVTFonts,
+     * mostly to consult its statistics.
+     */
+    public static AWTGlyphGeometryCache getGlyphGeometryCache() {
+        return glyphGeometryCache;
+    }
+
+    /**
+     * Returns the geometry of the specified glyph. This method also put
+     * the in cache the geometry associated to the specified glyph if
      * needed.
      */
     public static
         AWTGlyphGeometryCache.Value getGlyphGeometry(AWTGVTFont font,
-                                                     char c,
+                                                     int glyphCode,
                                                      GlyphVector gv,
                                                      int glyphIndex,
                                                      Point2D glyphPos) {
 
-        AWTGlyphGeometryCache glyphCache =
-            (AWTGlyphGeometryCache)fontCache.get(font.awtFont);
-
-        AWTGlyphGeometryCache.Value v = glyphCache.get(c);
+        AWTGlyphGeometryCache.Value v =
+            glyphGeometryCache.get(font.awtFont, glyphCode);
         if (v == null) {
             Shape outline = gv.getGlyphOutline(glyphIndex);
             GlyphMetrics metrics = gv.getGlyphMetrics(glyphIndex);
@@ -307,31 +352,10 @@ public class AWTGVTFont implements GVTFont {
                 outline = tr.createTransformedShape(outline);
             }
             v = new AWTGlyphGeometryCache.Value(outline, gmB);
-            //System.out.println("put "+font.awtFont+" "+c);
-            glyphCache.put(c, v);
+            v = glyphGeometryCache.put(font.awtFont, glyphCode, v);
         }
         return v;
     }
 
-    //
-    // static cache for AWTGVTFont
-    //
-
-    static Map fontCache = new HashMap(11);
-
-    static void initializeFontCache(Font awtFont) {
-        if (!fontCache.containsKey(awtFont)) {
-            fontCache.put(awtFont, new AWTGlyphGeometryCache());
-        }
-    }
-
-    static void putAWTGVTFont(AWTGVTFont font) {
-        fontCache.put(font.awtFont, font);
-    }
-
-    static AWTGVTFont getAWTGVTFont(Font awtFont) {
-        return (AWTGVTFont)fontCache.get(awtFont);
-    }
-
 }
 
@@ -18,7 +18,9 @@
  */
 package org.apache.batik.gvt.font;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
+import java.awt.Composite;
 import java.awt.Graphics2D;
 import java.awt.Paint;
 import java.awt.RenderingHints;
@@ -412,10 +414,9 @@ public class AWTGVTGlyphVector implements GVTGlyphVector {
 
         // -- start glyph cache code --
         Point2D glyphPos = defaultGlyphPositions[glyphIndex];
-        char c = ci.setIndex(ci.getBeginIndex()+glyphIndex);
-        ci.setIndex(ci.getBeginIndex());
         AWTGlyphGeometryCache.Value v = AWTGVTFont.getGlyphGeometry
-            (gvtFont, c, awtGlyphVector, glyphIndex, glyphPos);
+            (gvtFont, awtGlyphVector.getGlyphCode(glyphIndex),
+             awtGlyphVector, glyphIndex, glyphPos);
         Rectangle2D gmB = v.getBounds2D();
         // -- end glyph cache code --
 
@@ -446,10 +447,9 @@ public class AWTGVTGlyphVector implements GVTGlyphVector {
 */
             // -- start glyph cache code --
             Point2D glyphPos = defaultGlyphPositions[glyphIndex];
-            char c = ci.setIndex(ci.getBeginIndex()+glyphIndex);
-            ci.setIndex(ci.getBeginIndex());
             AWTGlyphGeometryCache.Value v = AWTGVTFont.getGlyphGeometry
-                (gvtFont, c, awtGlyphVector, glyphIndex, glyphPos);
+                (gvtFont, awtGlyphVector.getGlyphCode(glyphIndex),
+                 awtGlyphVector, glyphIndex, glyphPos);
             Shape glyphOutline = v.getOutline();
            // -- end glyph cache code --
 
@@ -582,10 +582,9 @@ public class AWTGVTGlyphVector implements GVTGlyphVector {
 */
             // -- start glyph cache code --
             Point2D glyphPos = defaultGlyphPositions[glyphIndex];
-            char c = ci.setIndex(ci.getBeginIndex()+glyphIndex);
-            ci.setIndex(ci.getBeginIndex());
             AWTGlyphGeometryCache.Value v = AWTGVTFont.getGlyphGeometry
-                (gvtFont, c, awtGlyphVector, glyphIndex, glyphPos);
+                (gvtFont, awtGlyphVector.getGlyphCode(glyphIndex),
+                 awtGlyphVector, glyphIndex, glyphPos);
             Rectangle2D glyphBounds = v.getOutlineBounds2D();
            // -- end glyph cache code --
 
@@ -948,20 +947,105 @@ public class AWTGVTGlyphVector implements GVTGlyphVector {
             }
 
         } else {
-            Shape outline = getOutline();
-
             // check if we need to fill this glyph
-            if (fillPaint != null) {
+            if ((fillPaint != null) &&
+                !fillFromGlyphAtlas(graphics2D, fillPaint)) {
                 graphics2D.setPaint(fillPaint);
-                graphics2D.fill(outline);
+                graphics2D.fill(getOutline());
             }
 
             // check if we need to draw the outline of this glyph
             if (stroke != null && strokePaint != null) {
                 graphics2D.setStroke(stroke);
                 graphics2D.setPaint(strokePaint);
-                graphics2D.draw(outline);
+                graphics2D.draw(getOutline());
+            }
+        }
+    }
+
+    /**
+     * Fills the glyphs by copying them from the glyph atlas.  This is
+     * only possible for small glyphs filled with a color, without
+     * glyph transforms, when the user to device transform is a
+     * translation and a uniform scale.
+     *
+     * @return false, without drawing anything, if the glyphs must be
+     *         filled from their outline
+     */
+    protected boolean fillFromGlyphAtlas(Graphics2D g2d, Paint fillPaint) {
+        if (!(fillPaint instanceof Color) || !GlyphAtlas.isEnabled(g2d)) {
+            return false;
+        }
+        Composite c = g2d.getComposite();
+        if (!(c instanceof AlphaComposite) ||
+            (((AlphaComposite)c).getRule() != AlphaComposite.SRC_OVER)) {
+            return false;
+        }
+        AffineTransform at = g2d.getTransform();
+        if (((at.getType() & ~(AffineTransform.TYPE_TRANSLATION |
+                               AffineTransform.TYPE_UNIFORM_SCALE)) != 0) ||
+            (at.getScaleX() <= 0)) {
+            return false;
+        }
+        double scale = at.getScaleX() * scaleFactor;
+        if (scale * AWTGVTFont.FONT_SIZE > GlyphAtlas.MAX_GLYPH_SIZE) {
+            return false;
+        }
+
+        int numGlyphs = getNumGlyphs();
+        for (int i = 0; i < numGlyphs; i++) {
+            if (glyphTransforms[i] != null) {
+                return false;
+            }
+        }
+
+        Object aa = g2d.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        if (aa == null) {
+            aa = RenderingHints.VALUE_ANTIALIAS_DEFAULT;
+        }
+        Object sc = g2d.getRenderingHint(RenderingHints.KEY_STROKE_CONTROL);
+        if (sc == null) {
+            sc = RenderingHints.VALUE_STROKE_DEFAULT;
+        }
+        int argb = ((Color)fillPaint).getRGB();
+        int steps = GlyphAtlas.SUBPIXEL_STEPS;
+        GlyphAtlas atlas = GlyphAtlas.getInstance();
+
+        GlyphAtlas.Glyph [] glyphs = new GlyphAtlas.Glyph[numGlyphs];
+        int [] pixels = new int[2 * numGlyphs];
+        double [] pt = new double[2];
+        for (int i = 0; i < numGlyphs; i++) {
+            if (!glyphVisible[i]) {
+                continue;
+            }
+            pt[0] = glyphPositions[i].getX();
+            pt[1] = glyphPositions[i].getY();
+            at.transform(pt, 0, pt, 0, 1);
+            long qx = (long)Math.floor(pt[0] * steps + 0.5);
+            long qy = (long)Math.floor(pt[1] * steps + 0.5);
+            long px = (qx >= 0) ? qx / steps : -((-qx + steps - 1) / steps);
+            long py = (qy >= 0) ? qy / steps : -((-qy + steps - 1) / steps);
+            int code = awtGlyphVector.getGlyphCode(i);
+            AWTGlyphGeometryCache.Value v = AWTGVTFont.getGlyphGeometry
+                (gvtFont, code, awtGlyphVector, i, defaultGlyphPositions[i]);
+            glyphs[i] = atlas.getGlyph
+                (gvtFont.awtFont, code, v.getOutline(), scale,
+                 (int)(qx - px * steps), (int)(qy - py * steps), argb,
+                 aa, sc);
+            if (glyphs[i] == null) {
+                return false;
+            }
+            pixels[2 * i]     = (int)px;
+            pixels[2 * i + 1] = (int)py;
+        }
+
+        g2d.setTransform(new AffineTransform());
+        for (int i = 0; i < numGlyphs; i++) {
+            if (glyphs[i] != null) {
+                glyphs[i].draw(g2d, pixels[2 * i], pixels[2 * i + 1]);
             }
         }
+        g2d.setTransform(at);
+        return true;
     }
 }
@@ -18,14 +18,23 @@
  */
 package org.apache.batik.gvt.font;
 
+import java.awt.Font;
 import java.awt.Shape;
 import java.awt.geom.Rectangle2D;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class represents a doubly indexed hash table, which holds
- * soft references to the contained glyph geometry informations.
+ * This class is a bounded, thread safe cache of glyph geometry
+ * informations, indexed by font and glyph code.
+ *
+ * <p>The table is split into independently locked segments, each of
+ * which evicts its least recently used entries once it holds its share
+ * of the maximum number of glyphs, so threads laying out text at the
+ * same time rarely contend and the memory used stays bounded whatever
+ * the number of fonts.  The number of hits, misses and evictions is
+ * recorded so the cache can be sized for a given workload.</p>
  *
  * @author <a href="mailto:stephane@hillion.org">Stephane Hillion</a>
  * @author <a href="mailto:tkormann@ilog.fr">Thierry Kormann</a>
@@ -34,165 +43,164 @@ import java.lang.ref.SoftReference;
 public class AWTGlyphGeometryCache {
 
     /**
-     * The initial capacity
+     * The default maximum number of glyphs.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 8192;
+
+    /**
+     * The number of segments, a power of two.
+     */
+    protected static final int SEGMENTS = 16;
+
+    /**
+     * The segments.
      */
-    protected static final int INITIAL_CAPACITY = 71;
+    protected Segment[] segments;
 
     /**
-     * The underlying array
+     * The maximum number of glyphs.
      */
-    protected Entry[] table;
+    protected int maximumSize;
 
     /**
-     * The number of entries
+     * The number of lookups that found their glyph.
      */
-    protected int count;
+    protected AtomicLong hits = new AtomicLong();
 
     /**
-     * The reference queue.
+     * The number of lookups that did not find their glyph.
      */
-    protected ReferenceQueue referenceQueue = new ReferenceQueue();
+    protected AtomicLong misses = new AtomicLong();
+
+    /**
+     * The number of glyphs removed to stay within the maximum size.
+     */
+    protected AtomicLong evictions = new AtomicLong();
 
     /**
      * Creates a new AWTGlyphGeometryCache.
      */
     public AWTGlyphGeometryCache() {
-        table = new Entry[INITIAL_CAPACITY];
+        this(DEFAULT_MAXIMUM_SIZE);
     }
 
     /**
      * Creates a new AWTGlyphGeometryCache.
-     * @param c The inital capacity.
+     * @param maximumSize The maximum number of glyphs held.
      */
-    public AWTGlyphGeometryCache(int c) {
-        table = new Entry[c];
+    public AWTGlyphGeometryCache(int maximumSize) {
+        this.maximumSize = Math.max(SEGMENTS, maximumSize);
+        int perSegment = this.maximumSize / SEGMENTS;
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
     }
 
     /**
-     * Returns the size of this table.
+     * Returns the number of glyphs in this cache.
      */
     public int size() {
-        return count;
+        int n = 0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment s = segments[i];
+            synchronized (s) {
+                n += s.size();
+            }
+        }
+        return n;
     }
 
     /**
-     * Gets the value of a variable
-     * @return the value or null
+     * Returns the maximum number of glyphs held by this cache.
      */
-    public Value get(char c) {
-        int hash  = hashCode(c) & 0x7FFFFFFF;
-        int index = hash % table.length;
-
-        for (Entry e = table[index]; e != null; e = e.next) {
-            if ((e.hash == hash) && e.match(c)) {
-                return (Value)e.get();
-            }
-        }
-        return null;
+    public int getMaximumSize() {
+        return maximumSize;
     }
 
     /**
-     * Sets a new value for the given variable
-     * @return the old value or null
+     * Returns the number of lookups that found their glyph.
      */
-    public Value put(char c, Value value) {
-        removeClearedEntries();
-
-        int hash  = hashCode(c) & 0x7FFFFFFF;
-        int index = hash % table.length;
-
-        Entry e = table[index];
-        if (e != null) {
-            if ((e.hash == hash) && e.match(c)) {
-                Object old = e.get();
-                table[index] = new Entry(hash, c, value, e.next);
-                return (Value)old;
-            }
-            Entry o = e;
-            e = e.next;
-            while (e != null) {
-                if ((e.hash == hash) && e.match(c)) {
-                    Object old = e.get();
-                    e = new Entry(hash, c, value, e.next);
-                    o.next = e;
-                    return (Value)old;
-                }
-
-                o = e;
-                e = e.next;
-            }
-        }
-
-        // The key is not in the hash table
-        int len = table.length;
-        if (count++ >= (len - (len >> 2))) {
-            // more than 75% loaded: grow
-            rehash();
-            index = hash % table.length;
-        }
-
-        table[index] = new Entry(hash, c, value, table[index]);
-        return null;
+    public long getHitCount() {
+        return hits.get();
     }
 
     /**
-     * Clears the table.
+     * Returns the number of lookups that did not find their glyph.
      */
-    public void clear() {
-        table = new Entry[INITIAL_CAPACITY];
-        count = 0;
-        referenceQueue = new ReferenceQueue();
+    public long getMissCount() {
+        return misses.get();
     }
 
     /**
-     * Rehash the table
+     * Returns the number of glyphs removed to stay within the maximum
+     * size.
      */
-    protected void rehash () {
-        Entry[] oldTable = table;
-
-        table = new Entry[oldTable.length * 2 + 1];
-
-        for (int i = oldTable.length-1; i >= 0; i--) {
-            for (Entry old = oldTable[i]; old != null;) {
-                Entry e = old;
-                old = old.next;
+    public long getEvictionCount() {
+        return evictions.get();
+    }
 
-                int index = e.hash % table.length;
-                e.next = table[index];
-                table[index] = e;
-            }
+    /**
+     * Returns the geometry of a glyph.
+     * @param font The font of the glyph, at the size of the cached
+     *        geometry.
+     * @param glyphCode The code of the glyph in the font.
+     * @return the value or null
+     */
+    public Value get(Font font, int glyphCode) {
+        Key k = new Key(font, glyphCode);
+        Segment s = segmentFor(k);
+        Value v;
+        synchronized (s) {
+            v = (Value)s.get(k);
         }
+        if (v == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return v;
     }
 
     /**
-     * Computes a hash code corresponding to the given objects.
+     * Sets the geometry of a glyph, unless another thread did it first.
+     * @return the value now associated with the glyph
      */
-    protected int hashCode(char c) {
-        return c;
+    public Value put(Font font, int glyphCode, Value value) {
+        Key k = new Key(font, glyphCode);
+        Segment s = segmentFor(k);
+        synchronized (s) {
+            Value old = (Value)s.get(k);
+            if (old != null) {
+                return old;
+            }
+            s.put(k, value);
+        }
+        return value;
     }
 
     /**
-     * Removes the cleared entries.
+     * Clears the table and the statistics.
      */
-    protected void removeClearedEntries() {
-        Entry e;
-        while ((e = (Entry)referenceQueue.poll()) != null) {
-            int index = e.hash % table.length;
-            Entry t = table[index];
-            if (t == e) {
-                table[index] = e.next;
-            } else {
-                loop: for (;t!=null;) {
-                    Entry c = t.next;
-                    if (c == e) {
-                        t.next = e.next;
-                        break loop;
-                    }
-                    t = c;
-                }
+    public void clear() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment s = segments[i];
+            synchronized (s) {
+                s.clear();
             }
-            count--;
         }
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * Returns the segment holding the given key.
+     */
+    protected Segment segmentFor(Key k) {
+        int h = k.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
     }
 
     /**
@@ -236,40 +244,73 @@ public class AWTGlyphGeometryCache {
     }
 
     /**
-     * To manage collisions
+     * The key of a glyph: its font and its code in the font.
      */
-    protected class Entry extends SoftReference {
+    protected static class Key {
 
         /**
-         * The hash code
+         * The font.
          */
-        public int hash;
+        protected Font font;
 
         /**
-         * The character
+         * The glyph code.
          */
-        public char c;
+        protected int glyphCode;
 
         /**
-         * The next entry
+         * The hash code.
          */
-        public Entry next;
+        protected int hash;
 
         /**
-         * Creates a new entry
+         * Creates a new key.
          */
-        public Entry(int hash, char c, Value value, Entry next) {
-            super(value, referenceQueue);
-            this.hash  = hash;
-            this.c  = c;
-            this.next  = next;
+        public Key(Font font, int glyphCode) {
+            this.font = font;
+            this.glyphCode = glyphCode;
+            this.hash = font.hashCode() * 31 + glyphCode;
+        }
+
+        public int hashCode() {
+            return hash;
         }
 
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return (glyphCode == k.glyphCode)
+                && ((font == k.font) || font.equals(k.font));
+        }
+    }
+
+    /**
+     * A segment of the table, kept in access order so the least
+     * recently used glyph is evicted first.
+     */
+    protected class Segment extends LinkedHashMap {
+
         /**
-         * Whether this entry match the given keys.
+         * The maximum number of glyphs in this segment.
          */
-        public boolean match(char o2) {
-            return (c == o2);
+        protected int capacity;
+
+        /**
+         * Creates a new segment.
+         */
+        public Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
         }
     }
 }
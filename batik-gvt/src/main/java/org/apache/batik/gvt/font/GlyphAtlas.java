@@ -0,0 +1,340 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.font;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
+
+/**
+ * A cache of glyphs rasterized in a few large images, used to draw
+ * small text that is only translated and uniformly scaled on the
+ * device by copying pixels instead of filling outlines.
+ *
+ * <p>A glyph is rasterized once per font, glyph code, device scale,
+ * color, anti-aliasing and stroke control hints, and position in the
+ * pixel rounded to a quarter of a pixel in each direction.  The glyphs
+ * are packed in rows on pages of {@link #PAGE_SIZE} pixels; once
+ * {@link #MAX_PAGES} pages are full the whole atlas is dropped and
+ * filled again.  Glyphs larger than {@link #MAX_GLYPH_SIZE} pixels are
+ * not cached, they render faster and better from their outline.</p>
+ *
+ * <p>The atlas is used when the
+ * {@link RenderingHintsKeyExt#KEY_GLYPH_ATLAS} rendering hint is on, or
+ * when it is not set and the <code>org.apache.batik.gvt.font.glyphAtlas</code>
+ * system property is <code>true</code>.</p>
+ *
+ * @version $Id$
+ */
+public class GlyphAtlas {
+
+    /**
+     * The width and height of a page.
+     */
+    public static final int PAGE_SIZE = 512;
+
+    /**
+     * The maximum number of pages.
+     */
+    public static final int MAX_PAGES = 8;
+
+    /**
+     * The maximum width or height of a cached glyph, in pixels.
+     */
+    public static final int MAX_GLYPH_SIZE = 64;
+
+    /**
+     * The number of positions a glyph is rasterized at within a pixel,
+     * in each direction.
+     */
+    public static final int SUBPIXEL_STEPS = 4;
+
+    /**
+     * The name of the system property that enables the atlas when the
+     * rendering hint is not set.
+     */
+    public static final String GLYPH_ATLAS_PROPERTY =
+        "org.apache.batik.gvt.font.glyphAtlas";
+
+    /**
+     * Whether the atlas is used when the rendering hint is not set.
+     */
+    protected static final boolean enabledByDefault;
+    static {
+        boolean b = false;
+        try {
+            b = Boolean.getBoolean(GLYPH_ATLAS_PROPERTY);
+        } catch (SecurityException se) {
+        }
+        enabledByDefault = b;
+    }
+
+    /**
+     * The atlas shared by all the glyph vectors.
+     */
+    protected static final GlyphAtlas instance = new GlyphAtlas();
+
+    /**
+     * Returns true if text drawn on the given graphics may use the
+     * atlas: it must be enabled and the graphics must draw into a
+     * BufferedImage created through GraphicsUtil, outside of any
+     * printing or vector transcoding.
+     */
+    public static boolean isEnabled(Graphics2D g2d) {
+        Object v = g2d.getRenderingHint(RenderingHintsKeyExt.KEY_GLYPH_ATLAS);
+        if (v == RenderingHintsKeyExt.VALUE_GLYPH_ATLAS_OFF) {
+            return false;
+        }
+        if ((v != RenderingHintsKeyExt.VALUE_GLYPH_ATLAS_ON) &&
+            !enabledByDefault) {
+            return false;
+        }
+        return (g2d.getRenderingHint
+                (RenderingHintsKeyExt.KEY_BUFFERED_IMAGE) != null)
+            && (g2d.getRenderingHint
+                (RenderingHintsKeyExt.KEY_TRANSCODING) == null);
+    }
+
+    /**
+     * Returns the atlas shared by all the glyph vectors.
+     */
+    public static GlyphAtlas getInstance() {
+        return instance;
+    }
+
+    /**
+     * The glyphs, by key.
+     */
+    protected Map glyphs = new HashMap();
+
+    /**
+     * The page being filled.
+     */
+    protected BufferedImage page;
+
+    /**
+     * The number of pages allocated since the atlas was last dropped.
+     */
+    protected int pageCount;
+
+    /**
+     * The position and height of the row being filled.
+     */
+    protected int rowX, rowY, rowHeight;
+
+    /**
+     * A reusable key used for lookups.
+     */
+    protected Key lookupKey = new Key();
+
+    /**
+     * Returns the cached glyph for the given parameters, rasterizing it
+     * if needed.
+     *
+     * @param font The font, used to identify the glyph.
+     * @param glyphCode The code of the glyph in the font.
+     * @param outline The outline of the glyph, with its origin at 0,0.
+     * @param scale The scale from the outline to device space.
+     * @param subX The horizontal position in the pixel, in
+     *        1/SUBPIXEL_STEPS of a pixel.
+     * @param subY The vertical position in the pixel, in
+     *        1/SUBPIXEL_STEPS of a pixel.
+     * @param argb The color of the glyph.
+     * @param antialias The value of the antialiasing hint.
+     * @param strokeControl The value of the stroke control hint.
+     * @return the glyph, or null if it is too large to be cached
+     */
+    public synchronized Glyph getGlyph(Font font, int glyphCode,
+                                       Shape outline, double scale,
+                                       int subX, int subY, int argb,
+                                       Object antialias,
+                                       Object strokeControl) {
+        lookupKey.set(font, glyphCode, scale, subX, subY, argb,
+                      antialias, strokeControl);
+        Glyph g = (Glyph)glyphs.get(lookupKey);
+        if (g != null) {
+            return g;
+        }
+
+        double offX = subX / (double)SUBPIXEL_STEPS;
+        double offY = subY / (double)SUBPIXEL_STEPS;
+        AffineTransform at = new AffineTransform(scale, 0, 0, scale,
+                                                 offX, offY);
+        Shape devOutline = at.createTransformedShape(outline);
+        Rectangle r = devOutline.getBounds();
+        r.grow(1, 1);
+        if ((r.width > MAX_GLYPH_SIZE) || (r.height > MAX_GLYPH_SIZE)) {
+            return null;
+        }
+
+        allocate(r.width, r.height);
+        Graphics2D g2d = page.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialias);
+        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
+                             strokeControl);
+        g2d.setColor(new Color(argb, true));
+        g2d.translate(rowX - r.x, rowY - r.y);
+        g2d.fill(devOutline);
+        g2d.dispose();
+
+        g = new Glyph(page, rowX, rowY, r.x, r.y, r.width, r.height);
+        rowX += r.width + 1;
+        glyphs.put(new Key(lookupKey), g);
+        return g;
+    }
+
+    /**
+     * Makes room for a glyph of the given size at rowX, rowY.
+     */
+    protected void allocate(int w, int h) {
+        if ((page != null) && (rowX + w > PAGE_SIZE)) {
+            rowX = 0;
+            rowY += rowHeight + 1;
+            rowHeight = 0;
+        }
+        if ((page == null) || (rowY + h > PAGE_SIZE)) {
+            if (pageCount == MAX_PAGES) {
+                glyphs.clear();
+                pageCount = 0;
+            }
+            page = new BufferedImage(PAGE_SIZE, PAGE_SIZE,
+                                     BufferedImage.TYPE_INT_ARGB_PRE);
+            pageCount++;
+            rowX = 0;
+            rowY = 0;
+            rowHeight = 0;
+        }
+        if (h > rowHeight) {
+            rowHeight = h;
+        }
+    }
+
+    /**
+     * Removes all the glyphs from this atlas.
+     */
+    public synchronized void clear() {
+        glyphs.clear();
+        page = null;
+        pageCount = 0;
+    }
+
+    /**
+     * A rasterized glyph: a region of a page and the offset of the
+     * region from the pixel the glyph origin falls in.
+     */
+    public static class Glyph {
+
+        public final BufferedImage page;
+        public final int pageX, pageY;
+        public final int offsetX, offsetY;
+        public final int width, height;
+
+        Glyph(BufferedImage page, int pageX, int pageY,
+              int offsetX, int offsetY, int width, int height) {
+            this.page = page;
+            this.pageX = pageX;
+            this.pageY = pageY;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Draws this glyph with its origin in the pixel x, y of the
+         * given graphics, which must have an identity transform.
+         */
+        public void draw(Graphics2D g2d, int x, int y) {
+            int dx = x + offsetX;
+            int dy = y + offsetY;
+            g2d.drawImage(page, dx, dy, dx + width, dy + height,
+                          pageX, pageY, pageX + width, pageY + height,
+                          null);
+        }
+    }
+
+    /**
+     * The key of a rasterized glyph.
+     */
+    protected static class Key {
+
+        protected Font font;
+        protected int glyphCode;
+        protected double scale;
+        protected int subX, subY;
+        protected int argb;
+        protected Object antialias;
+        protected Object strokeControl;
+        protected int hash;
+
+        Key() {
+        }
+
+        Key(Key k) {
+            set(k.font, k.glyphCode, k.scale, k.subX, k.subY, k.argb,
+                k.antialias, k.strokeControl);
+        }
+
+        void set(Font font, int glyphCode, double scale, int subX, int subY,
+                 int argb, Object antialias, Object strokeControl) {
+            this.font = font;
+            this.glyphCode = glyphCode;
+            this.scale = scale;
+            this.subX = subX;
+            this.subY = subY;
+            this.argb = argb;
+            this.antialias = antialias;
+            this.strokeControl = strokeControl;
+            long bits = Double.doubleToLongBits(scale);
+            int h = font.hashCode();
+            h = h * 31 + glyphCode;
+            h = h * 31 + (int)(bits ^ (bits >>> 32));
+            h = h * 31 + subX * SUBPIXEL_STEPS + subY;
+            this.hash = h * 31 + argb;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return (hash == k.hash) && (glyphCode == k.glyphCode)
+                && (scale == k.scale) && (subX == k.subX)
+                && (subY == k.subY) && (argb == k.argb)
+                && (antialias == k.antialias)
+                && (strokeControl == k.strokeControl)
+                && font.equals(k.font);
+        }
+    }
+}
@@ -70,6 +70,20 @@ public class Kern {
             Arrays.sort(this.secondGlyphCodes);
     }
 
+    /**
+     * Returns the sorted glyph codes of the first set of glyphs, or null.
+     */
+    int[] getFirstGlyphCodes() {
+        return firstGlyphCodes;
+    }
+
+    /**
+     * Returns the unicode ranges of the first set of glyphs.
+     */
+    UnicodeRange[] getFirstUnicodeRanges() {
+        return firstUnicodeRanges;
+    }
+
     /**
      * Returns true if the specified glyph is one of the glyphs considered
      * as first by this kerning entry. Returns false otherwise.
@@ -18,19 +18,54 @@
  */
 package org.apache.batik.gvt.font;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The KerningTable class holds a kerning table (a collection of Kern
  * elements). It provides a more convenient method of looking up kerning values
  * when laying out glyphs.
  *
+ * <p>The entries are indexed by the glyph codes and the characters of
+ * their first set of glyphs, so a lookup only tests the few entries that
+ * may apply to the first glyph, in the order of the table.  Unicode
+ * ranges wider than {@link #MAX_INDEXED_RANGE} characters are not
+ * indexed and always tested.</p>
+ *
  * @author <a href="mailto:dean.jackson@cmis.csiro.au">Dean Jackson</a>
  * @version $Id$ 
  */
 public class KerningTable {
 
+    /**
+     * The width of the widest unicode range indexed by character.
+     */
+    public static final int MAX_INDEXED_RANGE = 256;
+
+    private static final int[] EMPTY = new int[0];
+
     private Kern[] entries;
 
+    /**
+     * The indices of the entries, by glyph code of their first glyphs.
+     */
+    private Map codeIndex = new HashMap();
+
+    /**
+     * The indices of the entries, by character in the unicode ranges of
+     * their first glyphs.
+     */
+    private Map charIndex = new HashMap();
+
+    /**
+     * The indices of the entries with a unicode range too wide to be
+     * indexed.
+     */
+    private int[] wideEntries;
+
     /**
      * Creates a KerningTable from an array of Kern entries.
      *
@@ -39,6 +74,66 @@ public class KerningTable {
      */
     public KerningTable(Kern[] entries) {
         this.entries = entries;
+
+        List wide = new ArrayList();
+        for (int i = 0; i < entries.length; i++) {
+            int[] codes = entries[i].getFirstGlyphCodes();
+            if (codes != null) {
+                for (int code : codes) {
+                    add(codeIndex, code, i);
+                }
+            }
+            boolean isWide = false;
+            UnicodeRange[] ranges = entries[i].getFirstUnicodeRanges();
+            for (UnicodeRange range : ranges) {
+                int first = range.getFirstUnicodeValue();
+                int last = range.getLastUnicodeValue();
+                if (last < 0 || last < first) {
+                    continue;
+                }
+                if (last - first >= MAX_INDEXED_RANGE) {
+                    isWide = true;
+                    continue;
+                }
+                for (int c = first; c <= last; c++) {
+                    add(charIndex, c, i);
+                }
+            }
+            if (isWide) {
+                wide.add(i);
+            }
+        }
+        toArrays(codeIndex);
+        toArrays(charIndex);
+        wideEntries = toArray(wide);
+    }
+
+    private static void add(Map index, Integer key, int entry) {
+        List l = (List)index.get(key);
+        if (l == null) {
+            l = new ArrayList(2);
+            index.put(key, l);
+        }
+        // An entry may list the same first glyph more than once.
+        if (l.isEmpty() || ((Integer)l.get(l.size() - 1)) != entry) {
+            l.add(entry);
+        }
+    }
+
+    private static void toArrays(Map index) {
+        Iterator it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry e = (Map.Entry)it.next();
+            e.setValue(toArray((List)e.getValue()));
+        }
+    }
+
+    private static int[] toArray(List l) {
+        int[] a = new int[l.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = (Integer)l.get(i);
+        }
+        return a;
     }
 
     /**
@@ -57,12 +152,39 @@ public class KerningTable {
                                  int glyphCode2,
                                  String glyphUnicode1, 
                                  String glyphUnicode2) {
-        for (Kern entry : entries) {
+        int[] byCode = (int[])codeIndex.get(glyphCode1);
+        if (byCode == null) {
+            byCode = EMPTY;
+        }
+        int[] byChar = EMPTY;
+        int[] wide = EMPTY;
+        if (glyphUnicode1.length() > 0) {
+            byChar = (int[])charIndex.get((int)glyphUnicode1.charAt(0));
+            if (byChar == null) {
+                byChar = EMPTY;
+            }
+            wide = wideEntries;
+        }
+
+        // Walk the three sorted candidate lists in table order.
+        int i = 0, j = 0, k = 0;
+        for (;;) {
+            int e = Integer.MAX_VALUE;
+            if (i < byCode.length) e = byCode[i];
+            if (j < byChar.length && byChar[j] < e) e = byChar[j];
+            if (k < wide.length && wide[k] < e) e = wide[k];
+            if (e == Integer.MAX_VALUE) {
+                return 0f;
+            }
+            if (i < byCode.length && byCode[i] == e) i++;
+            if (j < byChar.length && byChar[j] == e) j++;
+            if (k < wide.length && wide[k] == e) k++;
+
+            Kern entry = entries[e];
             if (entry.matchesFirstGlyph(glyphCode1, glyphUnicode1) &&
                     entry.matchesSecondGlyph(glyphCode2, glyphUnicode2)) {
                 return entry.getAdjustValue();
             }
         }
-        return 0f;
     }
 }
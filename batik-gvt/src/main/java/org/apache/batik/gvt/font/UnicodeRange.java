@@ -86,4 +86,20 @@ public class UnicodeRange {
                 (unicodeVal <= lastUnicodeValue));
     }
 
+    /**
+     * Returns the first unicode value of this range, or -1 if the range
+     * is not valid.
+     */
+    int getFirstUnicodeValue() {
+        return firstUnicodeValue;
+    }
+
+    /**
+     * Returns the last unicode value of this range, or -1 if the range
+     * is not valid.
+     */
+    int getLastUnicodeValue() {
+        return lastUnicodeValue;
+    }
+
 }
@@ -19,10 +19,10 @@
 package org.apache.batik.gvt.text;
 
 import java.awt.font.FontRenderContext;
+import java.awt.font.TextAttribute;
 import java.awt.font.TextLayout;
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -73,51 +73,27 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
         this.chunkStart = chunkStart;
         aci.first();
         int   numChars    = aci.getEndIndex()-aci.getBeginIndex();
-        AttributedString as;
-
-         // Ideally we would do a 'quick' check on chars and
-         // attributes to decide if we really need to do bidi or not.
-        if (false) {
-            // Believe it or not this is much slower than the else case
-            // but the two are exactly equivalent (including the stripping
-            // of null keys/values).
-            as = new AttributedString(aci);
-        } else {
-            StringBuffer strB = new StringBuffer( numChars );
-            char c = aci.first();
-            for (int i = 0; i < numChars; i++) {
-                strB.append(c);
-                c = aci.next();
-            }
-            as = new AttributedString(strB.toString());
-            int start=aci.getBeginIndex();
-            int end  =aci.getEndIndex();
-            int index = start;
-            while (index < end) {
-                aci.setIndex(index);
-                Map attrMap = aci.getAttributes();
-                int extent  = aci.getRunLimit();
-                Map destMap = new HashMap(attrMap.size());
-                for (Object o : attrMap.entrySet()) {
-                    // Font doesn't like getting attribute sets with
-                    // null keys or values so we strip them here.
-                    Map.Entry e = (Map.Entry) o;
-                    Object key = e.getKey();
-                    if (key == null) continue;
-                    Object value = e.getValue();
-                    if (value == null) continue;
-                    destMap.put(key, value);
-                }
-                // System.out.println("Run: " + (index-start) + "->" +
-                //                    (extent-start) + " of " + numChars);
-                as.addAttributes (destMap, index-start, extent-start);
-                index = extent;
-            }
+        // The copy strips null keys and values, which Font doesn't like.
+        GVTACIImpl as = new GVTACIImpl(aci);
+        boolean leftToRight = (numChars > 0) && isLeftToRight(as);
+
+        if (leftToRight) {
+            // Every character is at level 0, so there is no need to
+            // lay the text out to find its levels.
+            as.addAttribute
+                (GVTAttributedCharacterIterator.TextAttribute.BIDI_LEVEL,
+                 0, 0, numChars);
+            as.first();
+            this.reorderedACI = as;
+            newCharOrder = new int[numChars];
+            for (int i=0; i<numChars; i++)
+                newCharOrder[i] = chunkStart+i;
+            return;
         }
 
         // We Just want it to do BIDI for us...
         // In 1.4 we might be able to use the BIDI class...
-        TextLayout tl = new TextLayout(as.getIterator(), frc);
+        TextLayout tl = new TextLayout(as, frc);
 
         int[] charIndices = new int[numChars];
         int[] charLevels  = new int[numChars];
@@ -146,7 +122,8 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
             (GVTAttributedCharacterIterator.TextAttribute.BIDI_LEVEL,
                     currBiDi, runStart, numChars);
 
-        aci = as.getIterator();
+        aci = as;
+        aci.first();
 
         if ((runStart == 0) && (currBiDi==0)) {
             // This avoids all the mucking about we need to do when
@@ -264,6 +241,79 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
         reorderedACI = reorderedAS.getIterator();
     }
 
+    /**
+     * Returns true if nothing in the given text can take it off
+     * level 0: see {@link #isLeftToRight(char)} and
+     * {@link #isLeftToRight(Object,Object)}.
+     */
+    protected static boolean isLeftToRight(GVTACIImpl as) {
+        for (char c = as.first(); c != DONE; c = as.next()) {
+            if (!isLeftToRight(c)) {
+                return false;
+            }
+        }
+        int end = as.getEndIndex();
+        for (int i = 0; i < end; i = as.getRunLimit()) {
+            as.setIndex(i);
+            for (Object o : as.getAttributes().entrySet()) {
+                Map.Entry e = (Map.Entry) o;
+                if (!isLeftToRight(e.getKey(), e.getValue())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given character is at level 0 in text that is
+     * left to right by default, whatever the characters around it: it
+     * is neither a right to left character, nor an Arabic number, nor a
+     * directional formatting character.  Surrogates and unassigned
+     * characters are not, as they may be right to left.
+     */
+    protected static boolean isLeftToRight(char c) {
+        if (c < 0x0590) {
+            // Latin, Greek, Cyrillic and Armenian, up to Hebrew.
+            return true;
+        }
+        if ((c >= 0x2066) && (c <= 0x2069)) {
+            // The isolates, unknown to Character in Java 8.
+            return false;
+        }
+        if (Character.isSurrogate(c)) {
+            return false;
+        }
+        switch (Character.getDirectionality(c)) {
+        case Character.DIRECTIONALITY_RIGHT_TO_LEFT:
+        case Character.DIRECTIONALITY_RIGHT_TO_LEFT_ARABIC:
+        case Character.DIRECTIONALITY_ARABIC_NUMBER:
+        case Character.DIRECTIONALITY_LEFT_TO_RIGHT_EMBEDDING:
+        case Character.DIRECTIONALITY_LEFT_TO_RIGHT_OVERRIDE:
+        case Character.DIRECTIONALITY_RIGHT_TO_LEFT_EMBEDDING:
+        case Character.DIRECTIONALITY_RIGHT_TO_LEFT_OVERRIDE:
+        case Character.DIRECTIONALITY_POP_DIRECTIONAL_FORMAT:
+        case Character.DIRECTIONALITY_UNDEFINED:
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Returns true if the given attribute leaves the text left to right
+     * by default, with no embedding or shaping of the digits.
+     */
+    protected static boolean isLeftToRight(Object key, Object value) {
+        if (key == TextAttribute.RUN_DIRECTION) {
+            return !TextAttribute.RUN_DIRECTION_RTL.equals(value);
+        }
+        if (key == TextAttribute.BIDI_EMBEDDING) {
+            return Integer.valueOf(0).equals(value);
+        }
+        return key != TextAttribute.NUMERIC_SHAPING;
+    }
+
     // Returns an array that give the character index in the source ACI for
     // each character in this ACI.
     public int[] getCharMap() { return newCharOrder; }
@@ -20,9 +20,6 @@ package org.apache.batik.gvt.text;
 
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
-import java.text.CharacterIterator;
-import java.text.StringCharacterIterator;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -32,10 +29,19 @@ import java.util.Set;
  * GVTACIImpl
  *
  * Used to implement SVG &lt;tspan&gt; and &lt;text&gt;
- * attributes.  This implementation is designed for efficient support
- * of per-character attributes (i.e. single character attribute spans).
- * It supports an extended set of TextAttributes, via inner class
- * GVTAttributedCharacterIterator.TextAttributes.
+ * attributes.  It supports an extended set of TextAttributes, via inner
+ * class GVTAttributedCharacterIterator.TextAttributes.
+ *
+ * <p>The text is kept in columns rather than in a map per run: the
+ * first character of each run is in an int array, and the values of
+ * each attribute key are in an array with one entry per run.  Looking
+ * up an attribute of the current character is then an array access,
+ * and no map is created unless {@link #getAttributes()} is called.
+ * Null keys and values are never stored.</p>
+ *
+ * <p>The iterator is also the text: {@link #addAttribute} and
+ * {@link #setAttributeArray} modify it in place, while clones keep the
+ * contents they were created with.</p>
  *
  * @author <a href="mailto:bill.haneman@ireland.sun.com">Bill Haneman</a>
  * @version $Id$
@@ -44,24 +50,59 @@ import java.util.Set;
 public class GVTACIImpl
                 implements GVTAttributedCharacterIterator {
 
-    private String simpleString;
-    private Set allAttributes;
-    private ArrayList mapList;
-    private static int START_RUN = 2;
-    private static int END_RUN = 3;
-    private static int MID_RUN = 1;
-    private static int SINGLETON = 0;
-    private int[] charInRun;
-    private CharacterIterator iter = null;
-    private int currentIndex = -1;
+    /**
+     * The characters.
+     */
+    protected char[] chars;
+
+    /**
+     * The number of runs.
+     */
+    protected int numRuns;
+
+    /**
+     * The index of the first character of each run, followed by the
+     * length of the text.
+     */
+    protected int[] runStarts;
+
+    /**
+     * The number of attribute keys.
+     */
+    protected int numKeys;
+
+    /**
+     * The attribute keys.
+     */
+    protected AttributedCharacterIterator.Attribute[] keys;
+
+    /**
+     * The values of each key, one entry per run.
+     */
+    protected Object[][] values;
+
+    /**
+     * Whether the arrays are shared with a clone, so that they must be
+     * copied before they are modified.
+     */
+    protected boolean shared;
+
+    /**
+     * The current index.
+     */
+    protected int index;
+
+    /**
+     * The run of the current index, numRuns at the end of the text.
+     */
+    protected int run;
 
     /**
      * Constructs a new GVTAttributedCharacterIterator with no attributes
      *     and a null string.
      */
     public GVTACIImpl() {
-        simpleString = "";
-        buildAttributeTables();
+        setString("");
     }
 
     /**
@@ -77,17 +118,27 @@ public class GVTACIImpl
      * Sets this iterator's contents to an unattributed copy of String s.
      */
     public void setString(String s) {
-        simpleString = s;
-        iter = new StringCharacterIterator(simpleString);
-        buildAttributeTables();
+        chars = s.toCharArray();
+        numKeys = 0;
+        keys = new AttributedCharacterIterator.Attribute[4];
+        values = new Object[4][];
+        if (chars.length == 0) {
+            numRuns = 0;
+            runStarts = new int[] { 0 };
+        } else {
+            numRuns = 1;
+            runStarts = new int[] { 0, chars.length };
+        }
+        shared = false;
+        run = numRuns;
+        first();
     }
 
     /**
      * Assigns this iterator's contents to be equivalent to AttributedString s.
      */
     public void setString(AttributedString s) {
-        iter = s.getIterator();
-        buildAttributeTables((AttributedCharacterIterator) iter);
+        buildAttributeTables(s.getIterator());
     }
 
     /**
@@ -108,24 +159,59 @@ public class GVTACIImpl
          Object[] attValues, int beginIndex, int endIndex) {
 
         beginIndex = Math.max(beginIndex, 0);
-        endIndex = Math.min(endIndex, simpleString.length());
-        if (charInRun[beginIndex] == END_RUN) {
-            if (charInRun[beginIndex - 1] == MID_RUN) {
-                charInRun[beginIndex - 1] = END_RUN;
-            } else {
-                charInRun[beginIndex - 1] = SINGLETON;
+        endIndex = Math.min(endIndex, chars.length);
+        int runStart = beginIndex;
+        Object value = null;
+        for (int i = beginIndex; i < endIndex; ++i) {
+            Object v = attValues[Math.min(i - beginIndex,
+                                          attValues.length - 1)];
+            if (i == beginIndex) {
+                value = v;
+            } else if (v != value) {
+                addAttribute(attr, value, runStart, i);
+                runStart = i;
+                value = v;
             }
         }
-        if (charInRun[endIndex + 1] == END_RUN) {
-            charInRun[endIndex + 1] = SINGLETON;
-        } else if (charInRun[endIndex + 1] == MID_RUN) {
-            charInRun[endIndex + 1] = START_RUN;
+        if (runStart < endIndex) {
+            addAttribute(attr, value, runStart, endIndex);
         }
-        for (int i = beginIndex; i <= endIndex; ++i) {
-            charInRun[i] = SINGLETON;
-            int n = Math.min(i, attValues.length - 1);
-            ((Map) mapList.get(i)).put(attr, attValues[n]);
+    }
+
+    /**
+     * Adds an attribute to a range of the text, as
+     * AttributedString.addAttribute does.  A null value removes the
+     * attribute from the range.
+     * @param attribute The attribute key.
+     * @param value The attribute value.
+     * @param beginIndex The index of the first character of the range.
+     * @param endIndex The index of the character following the last
+     *        character of the range.
+     */
+    public void addAttribute(AttributedCharacterIterator.Attribute attribute,
+                             Object value, int beginIndex, int endIndex) {
+        if (attribute == null) {
+            throw new NullPointerException();
+        }
+        if ((beginIndex < 0) || (endIndex > chars.length)
+            || (beginIndex >= endIndex)) {
+            throw new IllegalArgumentException("Invalid substring range");
+        }
+        if (shared) {
+            unshare();
+        }
+        // As in AttributedString, a null value still breaks the runs.
+        int k = getKeyIndex(attribute);
+        if (k == -1) {
+            k = addKey(attribute);
+        }
+        int first = breakRun(beginIndex);
+        int last = breakRun(endIndex);
+        Object[] column = values[k];
+        for (int r = first; r < last; r++) {
+            column[r] = value;
         }
+        run = getRun(index);
     }
 
     //From java.text.AttributedCharacterIterator
@@ -134,7 +220,11 @@ public class GVTACIImpl
      * Get the keys of all attributes defined on the iterator's text range.
      */
     public Set getAllAttributeKeys() {
-        return allAttributes;
+        Set s = new HashSet();
+        for (int k = 0; k < numKeys; k++) {
+            s.add(keys[k]);
+        }
+        return s;
     }
 
     /**
@@ -143,7 +233,11 @@ public class GVTACIImpl
      */
     public Object getAttribute(AttributedCharacterIterator.Attribute attribute)
     {
-        return getAttributes().get(attribute);
+        if (run == numRuns) {
+            return null;
+        }
+        int k = getKeyIndex(attribute);
+        return (k == -1) ? null : values[k][run];
     }
 
     /**
@@ -151,7 +245,16 @@ public class GVTACIImpl
      * character.
      */
     public Map getAttributes() {
-        return (Map) mapList.get(currentIndex);
+        Map m = new HashMap();
+        if (run < numRuns) {
+            for (int k = 0; k < numKeys; k++) {
+                Object v = values[k][run];
+                if (v != null) {
+                    m.put(keys[k], v);
+                }
+            }
+        }
+        return m;
     }
 
     /**
@@ -160,11 +263,7 @@ public class GVTACIImpl
      *     character.
      */
     public int getRunLimit() {
-        int  ndx = currentIndex;
-        do {
-            ++ndx;
-        } while (charInRun[ndx] == MID_RUN);
-        return ndx;
+        return (run == numRuns) ? chars.length : runStarts[run + 1];
     }
 
     /**
@@ -173,34 +272,37 @@ public class GVTACIImpl
      *      character.
      */
     public int getRunLimit(AttributedCharacterIterator.Attribute attribute) {
-        int ndx = currentIndex;
-        Object  value = getAttributes().get(attribute);
-
-        //to avoid null pointer, treat null value as special case:-(
-        if (value == null) {
-            do {
-                 ++ndx;
-            } while (((Map) mapList.get(ndx)).get(attribute) == null);
-        } else {
-            do {
-                ++ndx;
-            } while (value.equals(((Map) mapList.get(ndx)).get(attribute)));
+        if (run == numRuns) {
+            return chars.length;
+        }
+        int k = getKeyIndex(attribute);
+        if (k == -1) {
+            return chars.length;
+        }
+        Object[] column = values[k];
+        Object value = column[run];
+        int r = run + 1;
+        while ((r < numRuns) && valuesMatch(value, column[r])) {
+            r++;
         }
-        return ndx;
+        return runStarts[r];
     }
 
-
     /**
      * Get the index of the first character following the
      *     run with respect to the given attributes containing the current
      *     character.
      */
     public int getRunLimit(Set attributes) {
-        int ndx = currentIndex;
-        do {
-            ++ndx;
-        } while (attributes.equals(mapList.get(ndx)));
-        return ndx;
+        if (run == numRuns) {
+            return chars.length;
+        }
+        int[] ks = getKeyIndices(attributes);
+        int r = run + 1;
+        while ((r < numRuns) && runsMatch(ks, run, r)) {
+            r++;
+        }
+        return runStarts[r];
     }
 
     /**
@@ -208,9 +310,7 @@ public class GVTACIImpl
      *    respect to all attributes containing the current character.
      */
     public int getRunStart() {
-        int ndx = currentIndex;
-        while (charInRun[ndx] == MID_RUN) --ndx;
-        return ndx;
+        return (run == numRuns) ? chars.length : runStarts[run];
     }
 
     /**
@@ -220,22 +320,20 @@ public class GVTACIImpl
      *      is requested.
      */
     public int getRunStart(AttributedCharacterIterator.Attribute attribute) {
-        int ndx = currentIndex - 1;
-        Object value = getAttributes().get(attribute);
-
-        //to avoid null pointer, treat null value as special case:-(
-        try {
-            if (value == null) {
-                while (((Map) mapList.get(ndx - 1)).get(attribute) == null)
-                    --ndx;
-            } else {
-                while (value.equals(
-                        ((Map) mapList.get(ndx - 1)).get(attribute)) )
-                    --ndx;
-            }
-        } catch(IndexOutOfBoundsException e) {
+        if (run == numRuns) {
+            return chars.length;
+        }
+        int k = getKeyIndex(attribute);
+        if (k == -1) {
+            return 0;
         }
-        return ndx;
+        Object[] column = values[k];
+        Object value = column[run];
+        int r = run;
+        while ((r > 0) && valuesMatch(value, column[r - 1])) {
+            r--;
+        }
+        return runStarts[r];
     }
 
     /**
@@ -245,12 +343,15 @@ public class GVTACIImpl
      *      index.
      */
     public int getRunStart(Set attributes) {
-        int ndx = currentIndex;
-        try {
-            while (attributes.equals(mapList.get(ndx - 1))) --ndx;
-        } catch(IndexOutOfBoundsException e) {
+        if (run == numRuns) {
+            return chars.length;
         }
-        return ndx;
+        int[] ks = getKeyIndices(attributes);
+        int r = run;
+        while ((r > 0) && runsMatch(ks, run, r - 1)) {
+            r--;
+        }
+        return runStarts[r];
     }
 
     //From CharacterIterator
@@ -259,9 +360,14 @@ public class GVTACIImpl
      * Create a copy of this iterator
      */
     public Object clone() {
-        GVTAttributedCharacterIterator cloneACI =
-                new GVTACIImpl(this);
-        return cloneACI;
+        try {
+            GVTACIImpl cloneACI = (GVTACIImpl) super.clone();
+            shared = true;
+            cloneACI.shared = true;
+            return cloneACI;
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError();
+        }
     }
 
     /**
@@ -270,7 +376,7 @@ public class GVTACIImpl
      * <br><b>Specified by:</b> java.text.CharacterIterator.
      */
     public char current() {
-        return iter.current();
+        return (index < chars.length) ? chars[index] : DONE;
     }
 
     /**
@@ -279,7 +385,7 @@ public class GVTACIImpl
      * <br><b>Specified by:</b> java.text.CharacterIterator.
      */
     public char first() {
-        return iter.first();
+        return setIndex(0);
     }
 
     /**
@@ -287,7 +393,7 @@ public class GVTACIImpl
      * <br><b>Specified by:</b> java.text.CharacterIterator.
      */
     public int getBeginIndex() {
-        return iter.getBeginIndex();
+        return 0;
     }
 
     /**
@@ -295,7 +401,7 @@ public class GVTACIImpl
      * <br><b>Specified by:</b> java.text.CharacterIterator.
      */
     public int getEndIndex() {
-        return iter.getEndIndex();
+        return chars.length;
     }
 
     /**
@@ -303,7 +409,7 @@ public class GVTACIImpl
      * <br><b>Specified by:</b> java.text.CharacterIterator.
      */
     public int getIndex() {
-        return iter.getIndex();
+        return index;
     }
 
     /**
@@ -312,7 +418,7 @@ public class GVTACIImpl
      * <br><b>Specified by:</b> java.text.CharacterIterator.
      */
     public char last() {
-        return iter.last();
+        return setIndex(Math.max(chars.length - 1, 0));
     }
 
     /**
@@ -321,7 +427,16 @@ public class GVTACIImpl
      * <br><b>Specified by:</b> java.text.CharacterIterator.
      */
     public char next() {
-        return iter.next();
+        if (index >= chars.length - 1) {
+            index = chars.length;
+            run = numRuns;
+            return DONE;
+        }
+        index++;
+        if (index == runStarts[run + 1]) {
+            run++;
+        }
+        return chars[index];
     }
 
     /**
@@ -330,7 +445,14 @@ public class GVTACIImpl
      * <br><b>Specified by:</b> java.text.CharacterIterator.
      */
     public char previous() {
-        return iter.previous();
+        if (index == 0) {
+            return DONE;
+        }
+        index--;
+        if (index < runStarts[run]) {
+            run--;
+        }
+        return chars[index];
     }
 
     /**
@@ -340,43 +462,224 @@ public class GVTACIImpl
      * <br><b>Specified by:</b> java.text.CharacterIterator.
      */
     public char setIndex(int position) {
-        return iter.setIndex(position);
+        if ((position < 0) || (position > chars.length)) {
+            throw new IllegalArgumentException("Invalid index");
+        }
+        index = position;
+        if ((run == numRuns) || (position < runStarts[run])
+            || (position >= runStarts[run + 1])) {
+            run = getRun(position);
+        }
+        return current();
+    }
+
+    /**
+     * Returns the run that contains the given index, numRuns at the
+     * end of the text.
+     */
+    protected int getRun(int position) {
+        if (position >= chars.length) {
+            return numRuns;
+        }
+        int lo = 0;
+        int hi = numRuns - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (runStarts[mid] <= position) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the index of the column of the given key, or -1.
+     */
+    protected int getKeyIndex(Object key) {
+        for (int k = 0; k < numKeys; k++) {
+            if (keys[k] == key) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the indices of the columns of the given keys that are
+     * present.
+     */
+    protected int[] getKeyIndices(Set attributes) {
+        int[] ks = new int[attributes.size()];
+        int n = 0;
+        for (Object attribute : attributes) {
+            int k = getKeyIndex(attribute);
+            if (k != -1) {
+                ks[n++] = k;
+            }
+        }
+        if (n < ks.length) {
+            int[] tmp = new int[n];
+            System.arraycopy(ks, 0, tmp, 0, n);
+            ks = tmp;
+        }
+        return ks;
+    }
+
+    /**
+     * Returns true if the given runs have the same values in the given
+     * columns.
+     */
+    protected boolean runsMatch(int[] ks, int r1, int r2) {
+        for (int k : ks) {
+            if (!valuesMatch(values[k][r1], values[k][r2])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the two attribute values are the same.
+     */
+    protected static boolean valuesMatch(Object v1, Object v2) {
+        return (v1 == v2) || ((v1 != null) && v1.equals(v2));
+    }
+
+    /**
+     * Adds a column for the given key, with no values.
+     */
+    protected int addKey(AttributedCharacterIterator.Attribute key) {
+        if (numKeys == keys.length) {
+            AttributedCharacterIterator.Attribute[] tk =
+                new AttributedCharacterIterator.Attribute[numKeys * 2];
+            System.arraycopy(keys, 0, tk, 0, numKeys);
+            keys = tk;
+            Object[][] tv = new Object[numKeys * 2][];
+            System.arraycopy(values, 0, tv, 0, numKeys);
+            values = tv;
+        }
+        keys[numKeys] = key;
+        values[numKeys] = new Object[runStarts.length - 1];
+        return numKeys++;
+    }
+
+    /**
+     * Makes room for the given number of runs.
+     */
+    protected void ensureRunCapacity(int n) {
+        if (n < runStarts.length) {
+            return;
+        }
+        int capacity = Math.max(n, runStarts.length * 2);
+        int[] trs = new int[capacity + 1];
+        System.arraycopy(runStarts, 0, trs, 0, numRuns + 1);
+        runStarts = trs;
+        for (int k = 0; k < numKeys; k++) {
+            Object[] tv = new Object[capacity];
+            System.arraycopy(values[k], 0, tv, 0, numRuns);
+            values[k] = tv;
+        }
     }
 
-    //Private methods:
+    /**
+     * Makes sure a run starts at the given index, and returns it.
+     */
+    protected int breakRun(int position) {
+        int r = getRun(position);
+        if ((r == numRuns) || (runStarts[r] == position)) {
+            return r;
+        }
+        ensureRunCapacity(numRuns + 1);
+        System.arraycopy(runStarts, r + 1, runStarts, r + 2, numRuns - r);
+        runStarts[r + 1] = position;
+        for (int k = 0; k < numKeys; k++) {
+            Object[] column = values[k];
+            System.arraycopy(column, r + 1, column, r + 2, numRuns - r - 1);
+            column[r + 1] = column[r];
+        }
+        numRuns++;
+        return r + 1;
+    }
 
-    private void buildAttributeTables() {
-        allAttributes = new HashSet();
-        mapList = new ArrayList(simpleString.length());
-        charInRun = new int[simpleString.length()];
-        for (int i = 0; i < charInRun.length; ++i) {
-            charInRun[i] = SINGLETON;
-            /*
-             * XXX TODO: loosen assumption, initially each character has its own
-             * attribute map.
-             */
-            mapList.set(i, new HashMap());
+    /**
+     * Copies the arrays shared with a clone.
+     */
+    protected void unshare() {
+        runStarts = (int[]) runStarts.clone();
+        keys = (AttributedCharacterIterator.Attribute[]) keys.clone();
+        values = (Object[][]) values.clone();
+        for (int k = 0; k < numKeys; k++) {
+            values[k] = (Object[]) values[k].clone();
         }
+        shared = false;
     }
 
-    private void buildAttributeTables(AttributedCharacterIterator aci) {
-        allAttributes = aci.getAllAttributeKeys();
-        int length = aci.getEndIndex() - aci.getBeginIndex();
-        mapList = new ArrayList(length);
-        charInRun = new int[length];
-        char  c = aci.first();
-        char[] chars = new char[length];
+    /**
+     * Copies the text and the attributes of the given iterator.  The
+     * runs of the iterator that have the same attributes are merged.
+     */
+    protected void buildAttributeTables(AttributedCharacterIterator aci) {
+        int begin = aci.getBeginIndex();
+        int length = aci.getEndIndex() - begin;
+        chars = new char[length];
+        char c = aci.first();
         for (int i = 0; i < length; ++i) {
             chars[i] = c;
-            charInRun[i] = SINGLETON;
-            /*
-             * XXX TODO:loosen assumption, initially each character
-             * has its own attribute map.
-             */
-            mapList.set(i, new HashMap(aci.getAttributes()));
             c = aci.next();
         }
-        simpleString = new String(chars);
+        numRuns = 0;
+        runStarts = new int[9];
+        numKeys = 0;
+        keys = new AttributedCharacterIterator.Attribute[8];
+        values = new Object[8][];
+        shared = false;
+
+        Object[] runValues = new Object[8];
+        int i = 0;
+        while (i < length) {
+            aci.setIndex(begin + i);
+            Map attrMap = aci.getAttributes();
+            int limit = aci.getRunLimit() - begin;
+            for (Object o : attrMap.entrySet()) {
+                // Font doesn't like getting attribute sets with
+                // null keys or values so we strip them here.
+                Map.Entry e = (Map.Entry) o;
+                Object key = e.getKey();
+                Object value = e.getValue();
+                if ((key == null) || (value == null)) continue;
+                int k = getKeyIndex(key);
+                if (k == -1) {
+                    k = addKey((AttributedCharacterIterator.Attribute) key);
+                }
+                if (k >= runValues.length) {
+                    Object[] tmp = new Object[runValues.length * 2];
+                    System.arraycopy(runValues, 0, tmp, 0, runValues.length);
+                    runValues = tmp;
+                }
+                runValues[k] = value;
+            }
+            boolean same = (numRuns > 0);
+            for (int k = 0; same && (k < numKeys); k++) {
+                same = valuesMatch(values[k][numRuns - 1], runValues[k]);
+            }
+            if (!same) {
+                ensureRunCapacity(numRuns + 1);
+                runStarts[numRuns] = i;
+                for (int k = 0; k < numKeys; k++) {
+                    values[k][numRuns] = runValues[k];
+                }
+                numRuns++;
+            }
+            for (int k = 0; k < numKeys; k++) {
+                runValues[k] = null;
+            }
+            i = limit;
+        }
+        runStarts[numRuns] = length;
+        run = numRuns;
+        first();
     }
 
     //Inner classes:
@@ -0,0 +1,131 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.bridge;
+
+import java.util.List;
+
+import org.apache.batik.bridge.svg12.SVG12BridgeContext;
+import org.apache.batik.test.TestReport;
+import org.w3c.dom.Document;
+
+/**
+ * Checks that when one paragraph of a flowRoot flowing through several
+ * regions is edited in a dynamic document, the glyph positions and
+ * visibility of the text are those of a fresh layout of the edited
+ * document, and the paragraphs before the edit keep their runs.
+ *
+ * @version $Id$
+ */
+public class FlowTextReuseTest extends TextChunkReuseTest {
+
+    /**
+     * The content of the paragraphs.  The third one is a region break,
+     * which is not edited as the bridge ignores changes of its content.
+     */
+    protected String[] paragraphs = {
+        "The first paragraph fills the first region.",
+        "The second one is short.",
+        "A region break.",
+        "The fourth paragraph starts the second region and goes on"
+            + " for a few lines until the region is nearly full.",
+        "The fifth one.",
+        "The sixth paragraph ends in the last region, or overflows"
+            + " it when it grows."
+    };
+
+    public TestReport runImpl() throws Exception {
+        Document doc = createDocument();
+        TextNode tn = build(doc);
+
+        String edit = "edit of a paragraph in the middle of a region";
+        paragraphs[4] = "The fifth one, longer.";
+        TestReport report = check(edit, tn, doc, 4);
+        if (report != null)
+            return report;
+
+        edit = "edit of the last paragraph, overflowing the last region";
+        StringBuffer sb = new StringBuffer(paragraphs[5]);
+        for (int i = 0; i < 8; i++) {
+            sb.append(" It grows again.");
+        }
+        paragraphs[5] = sb.toString();
+        report = check(edit, tn, doc, 5);
+        if (report != null)
+            return report;
+
+        // The region break after the second paragraph keeps the fourth
+        // one at the top of the second region.
+        edit = "edit of a paragraph overflowing into the next region";
+        paragraphs[1] = "The second one is now long enough to flow past"
+            + " the end of the first region.";
+        report = check(edit, tn, doc, 1);
+        if (report != null)
+            return report;
+
+        edit = "edit of the paragraph after the region break";
+        paragraphs[3] = "The fourth paragraph, shorter.";
+        report = check(edit, tn, doc, 3);
+        if (report != null)
+            return report;
+
+        return reportSuccess();
+    }
+
+    /**
+     * Replaces the text of the given paragraph of the dynamic document,
+     * then checks the layout.
+     */
+    protected TestReport check(String edit, TextNode tn, Document doc,
+                               int para) throws Exception {
+        List before = getTextRuns(tn);
+        doc.getElementById("p" + para).getFirstChild()
+            .setNodeValue(paragraphs[para]);
+        List after = getTextRuns(tn);
+        if (para > 0 && before.get(0) != after.get(0)) {
+            return fail(ERROR_CHUNK_NOT_REUSED, edit,
+                        "the first paragraph was laid out again");
+        }
+        return checkFresh(edit, tn);
+    }
+
+    protected Document createDocument() throws Exception {
+        StringBuffer sb = new StringBuffer();
+        sb.append("<svg xmlns='http://www.w3.org/2000/svg' version='1.2' ");
+        sb.append("width='300' height='300'>");
+        sb.append("<flowRoot id='t' font-family='SansSerif' ");
+        sb.append("font-size='12' line-height='15px'><flowRegion>");
+        sb.append("<rect x='10' y='10' width='150' height='45'/>");
+        sb.append("<rect x='10' y='70' width='120' height='75'/>");
+        sb.append("<rect x='10' y='160' width='150' height='60'/>");
+        sb.append("</flowRegion><flowDiv>");
+        for (int i = 0; i < paragraphs.length; i++) {
+            String tag = (i == 2) ? "flowRegionBreak" : "flowPara";
+            sb.append('<').append(tag).append(" id='p").append(i);
+            sb.append("'>").append(paragraphs[i]);
+            sb.append("</").append(tag).append('>');
+        }
+        sb.append("</flowDiv></flowRoot></svg>");
+        return parse(sb.toString());
+    }
+
+    protected BridgeContext createBridgeContext() {
+        return new SVG12BridgeContext(new UserAgentAdapter());
+    }
+}
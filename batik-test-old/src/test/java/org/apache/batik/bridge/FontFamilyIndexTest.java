@@ -0,0 +1,134 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.bridge;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that a <code>FontFamilyIndex</code> gives back the names it
+ * stored, and that it is out of date once its font directories change.
+ * Both the index file and the font directory are temporary.
+ *
+ * @version $Id$
+ */
+public class FontFamilyIndexTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        File indexDir = createTempDirectory("index");
+        File fontDir = createTempDirectory("fonts");
+        try {
+            File file = new File(indexDir, "fonts.idx");
+            List dirs = new ArrayList();
+            dirs.add(fontDir);
+            FontFamilyIndex index = new FontFamilyIndex(file, dirs);
+
+            // No index yet.
+            if (index.load() != null) {
+                return false;
+            }
+
+            // Round trip, also through another instance.
+            List names = Arrays.asList(new String[] {
+                "dejavu sans", "DejaVu Sans",
+                "dejavusans", "DejaVu Sans",
+                "élégante", "Élégante" });
+            index.store(names);
+            if (!names.equals(index.load())) {
+                return false;
+            }
+            if (!names.equals(new FontFamilyIndex(file, dirs).load())) {
+                return false;
+            }
+
+            // A new font subdirectory makes the index out of date.
+            File sub = new File(fontDir, "truetype");
+            if (!sub.mkdir()) {
+                return false;
+            }
+            if (index.load() != null) {
+                return false;
+            }
+
+            // Built again, it is up to date.
+            List more = new ArrayList(names);
+            more.add("newfont");
+            more.add("NewFont");
+            index.store(more);
+            if (!more.equals(index.load())) {
+                return false;
+            }
+
+            // So is a change of the modification time of a subdirectory.
+            if (!sub.setLastModified(sub.lastModified() + 60000)) {
+                return false;
+            }
+            if (index.load() != null) {
+                return false;
+            }
+            index.store(names);
+            if (!names.equals(index.load())) {
+                return false;
+            }
+
+            // A damaged index is ignored.
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(new byte[] { 0x42, 0x46 });
+            } finally {
+                out.close();
+            }
+            return index.load() == null;
+        } finally {
+            delete(indexDir);
+            delete(fontDir);
+        }
+    }
+
+    /**
+     * Creates an empty temporary directory.
+     */
+    protected File createTempDirectory(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Deletes a file or a directory and its content.
+     */
+    protected void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                delete(file);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.bridge;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks the totals and the budget check of <code>FrameMetrics</code>.
+ *
+ * @version $Id$
+ */
+public class FrameMetricsTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        long ms = 1000000L;
+        FrameMetrics fm = new FrameMetrics
+            (7, 123456, 20, 3 * ms, 4 * ms, 1 * ms, 2 * ms, 5);
+        if (fm.getFrameNumber() != 7
+            || fm.getFrameTime() != 123456
+            || fm.getTargetFrameTime() != 20
+            || fm.getScriptTime() != 3 * ms
+            || fm.getAnimationTime() != 4 * ms
+            || fm.getGVTUpdateTime() != 1 * ms
+            || fm.getPaintTime() != 2 * ms
+            || fm.getRunnableCount() != 5) {
+            return false;
+        }
+        if (fm.getTotalTime() != 10 * ms || fm.isOverBudget()) {
+            return false;
+        }
+
+        // Exactly on budget is not over it.
+        fm = new FrameMetrics(1, 0, 10, 4 * ms, 0, 1 * ms, 5 * ms, 1);
+        if (fm.isOverBudget()) {
+            return false;
+        }
+        fm = new FrameMetrics(1, 0, 10, 4 * ms, 0, 1 * ms, 5 * ms + 1, 1);
+        if (!fm.isOverBudget()) {
+            return false;
+        }
+
+        // Without a budget, any work is over it.
+        fm = new FrameMetrics(1, 0, 0, 0, 0, 0, 1, 1);
+        return fm.isOverBudget();
+    }
+}
@@ -0,0 +1,236 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.bridge;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.apache.batik.gvt.CanvasGraphicsNode;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.LazyCompositeGraphicsNode;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+
+/**
+ * Checks that a document transcoded with the
+ * <code>KEY_LAZY_GVT_BUILD</code> hint, over an area of interest, gives
+ * the same image as when it is built eagerly, and that the lazy nodes
+ * left unpainted build the same content.
+ *
+ * @version $Id$
+ */
+public class LazyGVTBuilderTest extends AbstractTest {
+
+    /**
+     * Error when the document was not built lazily.
+     */
+    public static final String ERROR_NOT_LAZY =
+        "LazyGVTBuilderTest.error.not.lazy";
+
+    /**
+     * Error when the builder still holds bounds after the build.
+     */
+    public static final String ERROR_BOUNDS_LEFT =
+        "LazyGVTBuilderTest.error.bounds.left";
+
+    /**
+     * Error when the images differ.
+     * {0} = pixel position
+     */
+    public static final String ERROR_IMAGES_DIFFER =
+        "LazyGVTBuilderTest.error.images.differ";
+
+    /**
+     * Error when the fully built trees differ.
+     * {0} = node count of the eager tree
+     * {1} = node count of the lazy tree
+     */
+    public static final String ERROR_TREES_DIFFER =
+        "LazyGVTBuilderTest.error.trees.differ";
+
+    public static final String ENTRY_KEY_PIXEL = "LazyGVTBuilderTest.pixel";
+    public static final String ENTRY_KEY_EAGER_NODES =
+        "LazyGVTBuilderTest.eager.nodes";
+    public static final String ENTRY_KEY_LAZY_NODES =
+        "LazyGVTBuilderTest.lazy.nodes";
+
+    /**
+     * The document to transcode.
+     */
+    protected String inputURI;
+
+    /**
+     * The area of interest.
+     */
+    protected Rectangle2D aoi;
+
+    public LazyGVTBuilderTest(String inputURI,
+                              Float x, Float y, Float width, Float height) {
+        this.inputURI = inputURI;
+        this.aoi = new Rectangle2D.Float(x, y, width, height);
+    }
+
+    public String getName() {
+        return getId() + " " + inputURI;
+    }
+
+    public TestReport runImpl() throws Exception {
+        String uri = new File(inputURI).getAbsoluteFile().toURI().toString();
+        TestTranscoder eager = new TestTranscoder(false);
+        eager.transcode(new TranscoderInput(uri), null);
+        TestTranscoder lazy = new TestTranscoder(true);
+        lazy.transcode(new TranscoderInput(uri), null);
+
+        DefaultTestReport report = new DefaultTestReport(this);
+        if (!(lazy.getBuilder() instanceof LazyGVTBuilder)
+            || lazy.lazyNodes == 0) {
+            report.setErrorCode(ERROR_NOT_LAZY);
+            report.setPassed(false);
+            return report;
+        }
+        if (!((LazyGVTBuilder)lazy.getBuilder()).contentBounds.isEmpty()) {
+            report.setErrorCode(ERROR_BOUNDS_LEFT);
+            report.setPassed(false);
+            return report;
+        }
+
+        BufferedImage a = eager.image;
+        BufferedImage b = lazy.image;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) {
+                    report.setErrorCode(ERROR_IMAGES_DIFFER);
+                    report.addDescriptionEntry(ENTRY_KEY_PIXEL, x + "," + y);
+                    report.setPassed(false);
+                    return report;
+                }
+            }
+        }
+
+        int ne = eager.nodes;
+        int nl = lazy.nodes;
+        if (ne != nl) {
+            report.setErrorCode(ERROR_TREES_DIFFER);
+            report.addDescriptionEntry(ENTRY_KEY_EAGER_NODES, "" + ne);
+            report.addDescriptionEntry(ENTRY_KEY_LAZY_NODES, "" + nl);
+            report.setPassed(false);
+            return report;
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Returns the number of lazy nodes in the specified tree, without
+     * building the unbuilt ones.
+     */
+    protected int countLazyNodes(GraphicsNode node) {
+        int n = 0;
+        if (node instanceof LazyCompositeGraphicsNode) {
+            n++;
+            if (!((LazyCompositeGraphicsNode)node).isMaterialized()) {
+                return n;
+            }
+        }
+        if (node instanceof CompositeGraphicsNode) {
+            for (Object c : ((CompositeGraphicsNode)node).getChildren()) {
+                n += countLazyNodes((GraphicsNode)c);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of nodes in the specified tree, lazy nodes
+     * excepted, building them if needed.
+     */
+    protected int countNodes(GraphicsNode node) {
+        int n = 1;
+        if (node instanceof LazyCompositeGraphicsNode) {
+            ((LazyCompositeGraphicsNode)node).materialize();
+            n = 0;
+        }
+        if (node instanceof CompositeGraphicsNode) {
+            for (Object c : ((CompositeGraphicsNode)node).getChildren()) {
+                n += countNodes((GraphicsNode)c);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * An image transcoder that keeps its image and its GVT tree.
+     */
+    protected class TestTranscoder extends ImageTranscoder {
+
+        /**
+         * The transcoded image.
+         */
+        protected BufferedImage image;
+
+        /**
+         * The number of lazy nodes in the GVT tree once painted.
+         */
+        protected int lazyNodes;
+
+        /**
+         * The number of nodes in the fully built GVT tree.
+         */
+        protected int nodes;
+
+        /**
+         * The GVT tree, which the transcoder drops once painted.
+         */
+        protected GraphicsNode gvtRoot;
+
+        public TestTranscoder(boolean lazy) {
+            addTranscodingHint(KEY_AOI, aoi);
+            addTranscodingHint(KEY_LAZY_GVT_BUILD, lazy);
+        }
+
+        public BufferedImage createImage(int w, int h) {
+            return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        /**
+         * Keeps the image and counts the nodes of the tree, while the
+         * bridge context needed to build the lazy nodes is still alive.
+         */
+        public void writeImage(BufferedImage img, TranscoderOutput output) {
+            image = img;
+            lazyNodes = countLazyNodes(gvtRoot);
+            nodes = countNodes(gvtRoot);
+        }
+
+        public GVTBuilder getBuilder() {
+            return builder;
+        }
+
+        protected CanvasGraphicsNode getCanvasGraphicsNode(GraphicsNode gn) {
+            gvtRoot = gn;
+            return super.getCanvasGraphicsNode(gn);
+        }
+    }
+}
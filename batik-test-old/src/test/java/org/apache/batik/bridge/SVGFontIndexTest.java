@@ -0,0 +1,114 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.bridge;
+
+import java.io.StringReader;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.util.SVGConstants;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Checks that the <code>SVGFontIndex</code> of a &lt;font&gt; element is
+ * shared while the element is unchanged, and is built again once the
+ * glyphs of the font are modified in a dynamic document.
+ *
+ * @version $Id$
+ */
+public class SVGFontIndexTest extends AbstractTest {
+
+    /**
+     * The document, a font with two glyphs and a text using it.
+     */
+    public static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='100' height='100'>"
+        + "<defs><font id='f' horiz-adv-x='500'>"
+        + "<font-face font-family='Test' units-per-em='1000'/>"
+        + "<missing-glyph d='M0 0h400v700h-400z'/>"
+        + "<glyph id='a' unicode='a' glyph-name='a1' d='M0 0h400v400z'/>"
+        + "<glyph id='b' unicode='b' d='M0 0h400v700z'/>"
+        + "</font></defs>"
+        + "<rect id='r' width='10' height='10'/>"
+        + "<text x='10' y='50' font-family='Test' font-size='20'>ab</text>"
+        + "</svg>";
+
+    public boolean runImplBasic() throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("http://example.org/font.svg",
+                                        new StringReader(DOCUMENT));
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamicState(BridgeContext.DYNAMIC);
+        new GVTBuilder().build(ctx, doc);
+
+        Element font = doc.getElementById("f");
+        SVGFontElementBridge bridge =
+            (SVGFontElementBridge)ctx.getBridge(font);
+
+        // Built for the text, then shared.
+        SVGFontIndex index = bridge.getFontIndex(ctx, font);
+        if (index.getNumGlyphs() != 2
+            || bridge.getFontIndex(ctx, font) != index) {
+            return false;
+        }
+
+        // Changes outside of the font keep the index.
+        doc.getElementById("r").setAttributeNS(null, "width", "20");
+        if (bridge.getFontIndex(ctx, font) != index) {
+            return false;
+        }
+
+        // A glyph attribute change.
+        doc.getElementById("b").setAttributeNS
+            (null, SVGConstants.SVG_UNICODE_ATTRIBUTE, "c");
+        index = bridge.getFontIndex(ctx, font);
+        if (index.getGlyphCodesForUnicode("b").length != 0
+            || index.getGlyphCodesForUnicode("c").length != 1
+            || bridge.getFontIndex(ctx, font) != index) {
+            return false;
+        }
+
+        // A new glyph.
+        Element glyph = doc.createElementNS
+            (SVGConstants.SVG_NAMESPACE_URI, SVGConstants.SVG_GLYPH_TAG);
+        glyph.setAttributeNS(null, SVGConstants.SVG_UNICODE_ATTRIBUTE, "d");
+        font.appendChild(glyph);
+        index = bridge.getFontIndex(ctx, font);
+        if (index.getNumGlyphs() != 3
+            || index.getGlyphCodesForUnicode("d").length != 1) {
+            return false;
+        }
+
+        // A removed glyph.
+        font.removeChild(doc.getElementById("a"));
+        index = bridge.getFontIndex(ctx, font);
+        if (index.getNumGlyphs() != 2
+            || index.getGlyphCodesForName("a1").length != 0) {
+            return false;
+        }
+
+        // A change of the font element itself.
+        font.setAttributeNS(null, "horiz-adv-x", "600");
+        return bridge.getFontIndex(ctx, font) != index;
+    }
+}
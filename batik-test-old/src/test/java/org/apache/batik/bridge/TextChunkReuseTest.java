@@ -0,0 +1,291 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.bridge;
+
+import java.awt.geom.Point2D;
+import java.io.StringReader;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.font.GVTGlyphVector;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.w3c.dom.Document;
+
+/**
+ * Checks that when one chunk of a text element is edited in a dynamic
+ * document, the chunks the edit does not touch keep their runs, and
+ * that the resulting runs and glyph positions are those of a fresh
+ * layout of the edited document.
+ *
+ * @version $Id$
+ */
+public class TextChunkReuseTest extends AbstractTest {
+
+    /**
+     * Error when a chunk that should be reused was laid out again.
+     * {0} = the edit, {1} = the chunk
+     */
+    public static final String ERROR_CHUNK_NOT_REUSED =
+        "TextChunkReuseTest.error.chunk.not.reused";
+
+    /**
+     * Error when the layout differs from a fresh one.
+     * {0} = the edit, {1} = the difference
+     */
+    public static final String ERROR_LAYOUT_MISMATCH =
+        "TextChunkReuseTest.error.layout.mismatch";
+
+    public static final String ENTRY_KEY_ERROR_DESCRIPTION =
+        "TextChunkReuseTest.entry.key.error.description";
+
+    /**
+     * The content of the chunks, one absolutely positioned tspan each.
+     */
+    protected String[] chunks = {
+        "first cell", "second cell", "third cell",
+        "שלום world", "last cell"
+    };
+
+    /**
+     * The font size of the second chunk.
+     */
+    protected String fontSize = "12";
+
+    public TestReport runImpl() throws Exception {
+        Document doc = createDocument();
+        TextNode tn = build(doc);
+        List before = getChunks(tn);
+
+        // The same number of characters in the third chunk: all the
+        // other chunks keep their runs.
+        String edit = "same length edit of the third chunk";
+        chunks[2] = "THIRD CELL";
+        doc.getElementById("c2").getFirstChild().setNodeValue(chunks[2]);
+        TestReport report = check(edit, tn, before,
+                                  new boolean[] { true, true, false,
+                                                  true, true });
+        if (report != null)
+            return report;
+
+        // A longer fourth chunk: the last chunk moves to new indices.
+        edit = "longer fourth chunk";
+        before = getChunks(tn);
+        chunks[3] = chunks[3] + " and more";
+        doc.getElementById("c3").getFirstChild().setNodeValue(chunks[3]);
+        report = check(edit, tn, before,
+                       new boolean[] { true, true, true, false, false });
+        if (report != null)
+            return report;
+
+        // A style change of the second chunk.
+        edit = "font size of the second chunk";
+        before = getChunks(tn);
+        fontSize = "17";
+        doc.getElementById("c1").setAttributeNS(null, "font-size", fontSize);
+        report = check(edit, tn, before,
+                       new boolean[] { true, false, true, true, true });
+        if (report != null)
+            return report;
+
+        return reportSuccess();
+    }
+
+    /**
+     * Checks the layout of <code>tn</code> after an edit.
+     * @param before The runs of each chunk before the edit.
+     * @param reused Whether each chunk is expected to keep its runs.
+     */
+    protected TestReport check(String edit, TextNode tn, List before,
+                               boolean[] reused) throws Exception {
+        List after = getChunks(tn);
+        for (int i = 0; i < reused.length; i++) {
+            if (reused[i] && !sameRuns((List)before.get(i),
+                                       (List)after.get(i))) {
+                return fail(ERROR_CHUNK_NOT_REUSED, edit,
+                            "chunk " + i + " was laid out again");
+            }
+        }
+
+        return checkFresh(edit, tn);
+    }
+
+    /**
+     * Compares the layout of <code>tn</code> after an edit with the
+     * layout of a fresh build of the edited document.
+     */
+    protected TestReport checkFresh(String edit, TextNode tn)
+        throws Exception {
+        TextNode fresh = build(createDocument());
+        String error = compare(getTextRuns(fresh), getTextRuns(tn));
+        if (error != null) {
+            return fail(ERROR_LAYOUT_MISMATCH, edit, error);
+        }
+        return null;
+    }
+
+    /**
+     * Builds the document in a dynamic bridge context and returns the
+     * text node of the tested text.
+     */
+    protected TextNode build(Document doc) {
+        BridgeContext ctx = createBridgeContext();
+        ctx.setDynamicState(BridgeContext.DYNAMIC);
+        new GVTBuilder().build(ctx, doc);
+        return (TextNode)ctx.getGraphicsNode(doc.getElementById("t"));
+    }
+
+    protected Document createDocument() throws Exception {
+        StringBuffer sb = new StringBuffer();
+        sb.append("<svg xmlns='http://www.w3.org/2000/svg' width='300' ");
+        sb.append("height='200'><text id='t' font-family='SansSerif' ");
+        sb.append("font-size='12'>");
+        for (int i = 0; i < chunks.length; i++) {
+            sb.append("<tspan id='c").append(i).append("' x='150' y='");
+            sb.append(20 + 30 * i).append('\'');
+            if (i == 1) {
+                sb.append(" font-size='").append(fontSize).append('\'');
+            }
+            if (i % 2 == 1) {
+                sb.append(" text-anchor='middle'");
+            }
+            sb.append('>').append(chunks[i]).append("</tspan>");
+        }
+        sb.append("</text></svg>");
+        return parse(sb.toString());
+    }
+
+    protected BridgeContext createBridgeContext() {
+        return new BridgeContext(new UserAgentAdapter());
+    }
+
+    protected Document parse(String document) throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        return f.createDocument("http://example.org/text.svg",
+                                new StringReader(document));
+    }
+
+    protected List getTextRuns(TextNode tn) {
+        StrokingTextPainter tp = (StrokingTextPainter)tn.getTextPainter();
+        return tp.getTextRuns(tn, tn.getAttributedCharacterIterator());
+    }
+
+    /**
+     * Returns the runs of the text node, split into its chunks.
+     */
+    protected List getChunks(TextNode tn) {
+        List ret = new ArrayList();
+        List chunk = null;
+        for (Object o : getTextRuns(tn)) {
+            StrokingTextPainter.TextRun run = (StrokingTextPainter.TextRun)o;
+            if (run.isFirstRunInChunk() || chunk == null) {
+                chunk = new ArrayList();
+                ret.add(chunk);
+            }
+            chunk.add(run);
+        }
+        return ret;
+    }
+
+    protected boolean sameRuns(List l1, List l2) {
+        if (l1.size() != l2.size())
+            return false;
+        for (int i = 0; i < l1.size(); i++) {
+            if (l1.get(i) != l2.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns null if both lists of runs cover the same characters with
+     * the same glyph positions and visibility, otherwise a description
+     * of the first difference.
+     */
+    protected String compare(List expected, List actual) {
+        if (expected.size() != actual.size()) {
+            return expected.size() + " runs expected, got " + actual.size();
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            StrokingTextPainter.TextRun e =
+                (StrokingTextPainter.TextRun)expected.get(i);
+            StrokingTextPainter.TextRun a =
+                (StrokingTextPainter.TextRun)actual.get(i);
+            String run = "run " + i + ": ";
+            if (!getText(e.getACI()).equals(getText(a.getACI()))
+                || e.getACI().getBeginIndex() != a.getACI().getBeginIndex()) {
+                return run + "expected \"" + getText(e.getACI())
+                    + "\", got \"" + getText(a.getACI()) + '"';
+            }
+            if (e.isFirstRunInChunk() != a.isFirstRunInChunk()
+                || e.getAnchorType() != a.getAnchorType()
+                || e.getBidiLevel() != a.getBidiLevel()) {
+                return run + "attributes differ";
+            }
+            if (!e.getLayout().getOffset().equals(a.getLayout().getOffset())) {
+                return run + "offset expected " + e.getLayout().getOffset()
+                    + ", got " + a.getLayout().getOffset();
+            }
+            GVTGlyphVector egv = e.getLayout().getGlyphVector();
+            GVTGlyphVector agv = a.getLayout().getGlyphVector();
+            if (egv.getNumGlyphs() != agv.getNumGlyphs()) {
+                return run + egv.getNumGlyphs() + " glyphs expected, got "
+                    + agv.getNumGlyphs();
+            }
+            for (int g = 0; g <= egv.getNumGlyphs(); g++) {
+                Point2D ep = egv.getGlyphPosition(g);
+                Point2D ap = agv.getGlyphPosition(g);
+                if (!ep.equals(ap)) {
+                    return run + "glyph " + g + " expected at " + ep
+                        + ", got " + ap;
+                }
+                if ((g < egv.getNumGlyphs()) &&
+                    (egv.isGlyphVisible(g) != agv.isGlyphVisible(g))) {
+                    return run + "glyph " + g + " expected "
+                        + (egv.isGlyphVisible(g) ? "visible" : "hidden");
+                }
+            }
+        }
+        return null;
+    }
+
+    protected String getText(AttributedCharacterIterator aci) {
+        StringBuffer sb = new StringBuffer();
+        for (char c = aci.first(); c != AttributedCharacterIterator.DONE;
+             c = aci.next()) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    protected TestReport fail(String code, String edit, String description) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(ENTRY_KEY_ERROR_DESCRIPTION,
+                                   "after the " + edit + ": " + description);
+        report.setPassed(false);
+        return report;
+    }
+}
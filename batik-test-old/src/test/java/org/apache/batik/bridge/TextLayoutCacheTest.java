@@ -0,0 +1,211 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.bridge;
+
+import java.util.List;
+
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.w3c.dom.Document;
+
+/**
+ * Checks that the text layout cache gives the glyph positions and
+ * advances of a layout done without it.  The same labels are laid out
+ * several times with different absolute positions and spacing
+ * properties, so later ones are taken from the cache.  Runs with
+ * per-glyph positioning must not use the cache, and the cache must be
+ * cleared when the font faces change.
+ *
+ * @version $Id$
+ */
+public class TextLayoutCacheTest extends TextChunkReuseTest {
+
+    /**
+     * Error when a cached layout differs from an uncached one.
+     * {0} = the case, {1} = the text, {2} = the difference
+     */
+    public static final String ERROR_CACHED_LAYOUT_MISMATCH =
+        "TextLayoutCacheTest.error.cached.layout.mismatch";
+
+    /**
+     * Error when the cache holds runs it should not.
+     * {0} = the case, {1} = the number of runs
+     */
+    public static final String ERROR_BAD_CACHE_SIZE =
+        "TextLayoutCacheTest.error.bad.cache.size";
+
+    /**
+     * Labels positioned by the x and y of their first character only.
+     */
+    protected static final String[] POSITIONED = {
+        "<text x='10' y='20'>Tick 100</text>",
+        "<text x='130.5' y='60.25'>Tick 100</text>",
+        "<text y='90'><tspan x='40'>Tick 100</tspan></text>",
+        "<text x='200' y='120' text-anchor='end'>Tick 100</text>"
+    };
+
+    /**
+     * Labels with spacing properties, each value twice.
+     */
+    protected static final String[] SPACED = {
+        "<text x='10' y='20' letter-spacing='2'>AV Tick label</text>",
+        "<text x='10' y='40' letter-spacing='5'>AV Tick label</text>",
+        "<text x='90' y='60' letter-spacing='5'>AV Tick label</text>",
+        "<text x='10' y='80' word-spacing='4'>AV Tick label</text>",
+        "<text x='10' y='100' word-spacing='9'>AV Tick label</text>",
+        "<text x='70' y='120' word-spacing='9'>AV Tick label</text>",
+        "<text x='10' y='140' kerning='0'>AV Tick label</text>",
+        "<text x='10' y='160' kerning='3'>AV Tick label</text>",
+        "<text x='50' y='180' kerning='3'>AV Tick label</text>",
+        "<text x='10' y='200'>AV Tick label</text>",
+        "<text x='10' y='220' letter-spacing='2' word-spacing='4'"
+            + " kerning='3'>AV Tick label</text>",
+        "<text x='60' y='240' letter-spacing='2' word-spacing='4'"
+            + " kerning='3'>AV Tick label</text>"
+    };
+
+    /**
+     * Labels with per-glyph positioning, which bypass the cache.
+     */
+    protected static final String[] BYPASSED = {
+        "<text x='10' y='20' dx='3'>Tick 100</text>",
+        "<text x='10' y='40' dx='7'>Tick 100</text>",
+        "<text x='10' y='60' dx='0 2 4'>Tick 100</text>",
+        "<text x='10' y='80' rotate='10'>Tick 100</text>",
+        "<text x='10' y='100' rotate='20'>Tick 100</text>",
+        "<text x='10' y='120'><tspan baseline-shift='3'>Tick 100</tspan>"
+            + "</text>",
+        "<text x='10' y='140'><tspan baseline-shift='6'>Tick 100</tspan>"
+            + "</text>"
+    };
+
+    public TestReport runImpl() throws Exception {
+        TestReport report = check("x on the first character", POSITIONED,
+                                  true);
+        if (report != null)
+            return report;
+        report = check("spacing properties", SPACED, true);
+        if (report != null)
+            return report;
+        report = check("per-glyph positioning", BYPASSED, false);
+        if (report != null)
+            return report;
+        return reportSuccess();
+    }
+
+    /**
+     * Lays out the given texts with and without the cache and compares
+     * them, then checks that <code>fontFacesChanged</code> clears the
+     * cache.
+     * @param cached Whether the texts are expected to use the cache.
+     */
+    protected TestReport check(String desc, String[] texts, boolean cached)
+        throws Exception {
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        TextNode[] actual = build(ctx, texts);
+        BridgeContext uncachedCtx =
+            new BridgeContext(new UserAgentAdapter()) {
+                public TextLayoutCache getTextLayoutCache() {
+                    return null;
+                }
+            };
+        TextNode[] expected = build(uncachedCtx, texts);
+
+        for (int i = 0; i < texts.length; i++) {
+            List e = getTextRuns(expected[i]);
+            List a = getTextRuns(actual[i]);
+            String error = compare(e, a);
+            if (error == null) {
+                error = compareAdvances(e, a);
+            }
+            if (error != null) {
+                return failCache(ERROR_CACHED_LAYOUT_MISMATCH, desc,
+                                 texts[i] + ": " + error);
+            }
+        }
+
+        TextLayoutCache cache = ctx.getTextLayoutCache();
+        if (cached ? cache.size() == 0 : cache.size() != 0) {
+            return failCache(ERROR_BAD_CACHE_SIZE, desc,
+                             cache.size() + " runs cached");
+        }
+        ctx.fontFacesChanged();
+        if (cache.size() != 0) {
+            return failCache(ERROR_BAD_CACHE_SIZE, desc, cache.size()
+                             + " runs left after the font faces changed");
+        }
+        return null;
+    }
+
+    /**
+     * Builds a document holding the given texts and returns their
+     * text nodes.
+     */
+    protected TextNode[] build(BridgeContext ctx, String[] texts)
+        throws Exception {
+        StringBuffer sb = new StringBuffer();
+        sb.append("<svg xmlns='http://www.w3.org/2000/svg' width='300' ");
+        sb.append("height='260' font-family='SansSerif' font-size='12'>");
+        for (int i = 0; i < texts.length; i++) {
+            sb.append("<g id='t").append(i).append("'>");
+            sb.append(texts[i]).append("</g>");
+        }
+        sb.append("</svg>");
+        Document doc = parse(sb.toString());
+        ctx.setDynamicState(BridgeContext.DYNAMIC);
+        new GVTBuilder().build(ctx, doc);
+        TextNode[] ret = new TextNode[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            ret[i] = (TextNode)ctx.getGraphicsNode
+                (doc.getElementById("t" + i).getFirstChild());
+        }
+        return ret;
+    }
+
+    /**
+     * Returns null if the runs have the same advances, otherwise a
+     * description of the first difference.
+     */
+    protected String compareAdvances(List expected, List actual) {
+        for (int i = 0; i < expected.size(); i++) {
+            StrokingTextPainter.TextRun e =
+                (StrokingTextPainter.TextRun)expected.get(i);
+            StrokingTextPainter.TextRun a =
+                (StrokingTextPainter.TextRun)actual.get(i);
+            if (!e.getLayout().getAdvance2D().equals
+                (a.getLayout().getAdvance2D())) {
+                return "run " + i + ": advance expected "
+                    + e.getLayout().getAdvance2D() + ", got "
+                    + a.getLayout().getAdvance2D();
+            }
+        }
+        return null;
+    }
+
+    protected TestReport failCache(String code, String desc,
+                                   String description) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(ENTRY_KEY_ERROR_DESCRIPTION,
+                                   desc + ": " + description);
+        report.setPassed(false);
+        return report;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.bridge;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.renderer.ConcreteImageRendererFactory;
+import org.apache.batik.gvt.renderer.ImageRenderer;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.RunnableQueue;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Checks that an <code>UpdateManager</code> posted changes faster than
+ * its frame budget repaints at most once per frame, still repaints the
+ * last change, and reports consistent frame metrics.
+ *
+ * @version $Id$
+ */
+public class UpdateManagerFrameTest extends AbstractTest {
+
+    /**
+     * Error when two frames are closer than the frame budget.
+     * {0} = interval
+     */
+    public static final String ERROR_FRAME_TOO_EARLY =
+        "UpdateManagerFrameTest.error.frame.too.early";
+
+    /**
+     * Error when the last change was not repainted.
+     */
+    public static final String ERROR_CHANGE_NOT_PAINTED =
+        "UpdateManagerFrameTest.error.change.not.painted";
+
+    /**
+     * Error when the changes were not coalesced.
+     * {0} = number of frames
+     */
+    public static final String ERROR_NOT_COALESCED =
+        "UpdateManagerFrameTest.error.not.coalesced";
+
+    /**
+     * Error when the frame metrics are inconsistent.
+     * {0} = the frame metrics
+     */
+    public static final String ERROR_BAD_METRICS =
+        "UpdateManagerFrameTest.error.bad.metrics";
+
+    public static final String ENTRY_KEY_INTERVAL =
+        "UpdateManagerFrameTest.interval";
+    public static final String ENTRY_KEY_FRAMES =
+        "UpdateManagerFrameTest.frames";
+    public static final String ENTRY_KEY_METRICS =
+        "UpdateManagerFrameTest.metrics";
+
+    /**
+     * The document changed.
+     */
+    public static final String DOCUMENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='100' height='100'>"
+        + "<rect id='r' width='10' height='10' fill='blue'/></svg>";
+
+    /**
+     * The number of changes posted.
+     */
+    public static final int CHANGE_COUNT = 40;
+
+    /**
+     * The time between two changes, in millisec.
+     */
+    public static final int CHANGE_INTERVAL = 5;
+
+    /**
+     * The frame budget, in millisec.
+     */
+    protected int frameTime;
+
+    public UpdateManagerFrameTest(Integer frameTime) {
+        this.frameTime = frameTime;
+    }
+
+    public TestReport runImpl() throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("http://example.org/frame.svg",
+                                        new StringReader(DOCUMENT));
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamicState(BridgeContext.DYNAMIC);
+        GraphicsNode gn = new GVTBuilder().build(ctx, doc);
+
+        final UpdateManager um = new UpdateManager(ctx, gn, doc);
+        um.setMinRepaintTime(frameTime);
+        final List frames = Collections.synchronizedList(new ArrayList());
+        um.addUpdateManagerListener(new UpdateManagerAdapter() {
+                public void updateCompleted(UpdateManagerEvent e) {
+                    frames.add(e.getFrameMetrics());
+                }
+            });
+        ImageRenderer renderer =
+            new ConcreteImageRendererFactory().createDynamicImageRenderer();
+        renderer.setTree(gn);
+        um.manageUpdates(renderer);
+
+        final long[] lastChange = new long[1];
+        try {
+            RunnableQueue rq = um.getUpdateRunnableQueue();
+            rq.invokeAndWait(new Runnable() {
+                    public void run() {
+                        um.updateRendering(new AffineTransform(), false,
+                                           new Rectangle(0, 0, 100, 100),
+                                           100, 100);
+                    }
+                });
+            frames.clear();
+
+            final Element rect = doc.getElementById("r");
+            for (int i = 0; i < CHANGE_COUNT; i++) {
+                final String x = String.valueOf(i);
+                rq.invokeLater(new Runnable() {
+                        public void run() {
+                            rect.setAttributeNS(null, "x", x);
+                            lastChange[0] = System.currentTimeMillis();
+                        }
+                    });
+                Thread.sleep(CHANGE_INTERVAL);
+            }
+            Thread.sleep(3 * frameTime + 100);
+        } finally {
+            um.interrupt();
+        }
+
+        DefaultTestReport report = new DefaultTestReport(this);
+        FrameMetrics[] fm;
+        synchronized (frames) {
+            fm = (FrameMetrics[])frames.toArray(new FrameMetrics[0]);
+        }
+        int maxFrames = CHANGE_COUNT * CHANGE_INTERVAL / frameTime + 3;
+        if (fm.length == 0 || fm.length > maxFrames) {
+            report.setErrorCode(ERROR_NOT_COALESCED);
+            report.addDescriptionEntry(ENTRY_KEY_FRAMES, "" + fm.length);
+            report.setPassed(false);
+            return report;
+        }
+        if (fm[fm.length - 1].getFrameTime() < lastChange[0]) {
+            report.setErrorCode(ERROR_CHANGE_NOT_PAINTED);
+            report.setPassed(false);
+            return report;
+        }
+        int runnables = 0;
+        for (int i = 0; i < fm.length; i++) {
+            if (i > 0) {
+                long dt = fm[i].getFrameTime() - fm[i - 1].getFrameTime();
+                if (dt < frameTime) {
+                    report.setErrorCode(ERROR_FRAME_TOO_EARLY);
+                    report.addDescriptionEntry(ENTRY_KEY_INTERVAL, "" + dt);
+                    report.setPassed(false);
+                    return report;
+                }
+            }
+            if ((fm[i].getFrameNumber() != fm[0].getFrameNumber() + i)
+                || (fm[i].getTargetFrameTime() != frameTime)
+                || (fm[i].getScriptTime() < 0)
+                || (fm[i].getPaintTime() < 0)) {
+                report.setErrorCode(ERROR_BAD_METRICS);
+                report.addDescriptionEntry(ENTRY_KEY_METRICS, fm[i]);
+                report.setPassed(false);
+                return report;
+            }
+            runnables += fm[i].getRunnableCount();
+        }
+        if (runnables < CHANGE_COUNT) {
+            report.setErrorCode(ERROR_BAD_METRICS);
+            report.addDescriptionEntry(ENTRY_KEY_METRICS, "" + runnables);
+            report.setPassed(false);
+            return report;
+        }
+        return reportSuccess();
+    }
+}
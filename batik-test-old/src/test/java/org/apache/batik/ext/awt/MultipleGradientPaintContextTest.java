@@ -0,0 +1,303 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt;
+
+import java.awt.Color;
+import java.awt.PaintContext;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that the gradient table cache, the raster pool and the span
+ * fill of axis aligned linear gradients do not change the colors
+ * produced by the gradient paint contexts.
+ *
+ * <p>The reference colors are produced the way the contexts did
+ * before these optimizations: the caches are emptied so the tables
+ * are computed for the context, and linear gradients are filled pixel
+ * by pixel with <code>fillSpans</code>.  The same gradients are then
+ * painted through <code>getRaster</code> with the caches warm, for
+ * several configurations in a row, so a table or a raster shared by
+ * mistake between configurations shows up as a difference.</p>
+ *
+ * @version $Id$
+ */
+public class MultipleGradientPaintContextTest extends AbstractTest {
+
+    /**
+     * Error when a raster differs from the reference colors.
+     * {0} = configuration
+     * {1} = area
+     * {2} = pixel position
+     * {3} = expected pixel
+     * {4} = actual pixel
+     */
+    public static final String ERROR_PIXEL_DIFFERS =
+        "MultipleGradientPaintContextTest.error.pixel.differs";
+
+    public static final String ENTRY_KEY_CONFIGURATION =
+        "MultipleGradientPaintContextTest.configuration";
+    public static final String ENTRY_KEY_AREA =
+        "MultipleGradientPaintContextTest.area";
+    public static final String ENTRY_KEY_PIXEL =
+        "MultipleGradientPaintContextTest.pixel";
+    public static final String ENTRY_KEY_EXPECTED =
+        "MultipleGradientPaintContextTest.expected";
+    public static final String ENTRY_KEY_ACTUAL =
+        "MultipleGradientPaintContextTest.actual";
+
+    /**
+     * The areas painted, including single rows and columns, which do
+     * not take the span fill paths.
+     */
+    protected static final Rectangle[] AREAS = {
+        new Rectangle(3, -5, 64, 48),
+        new Rectangle(100, 20, 1, 40),
+        new Rectangle(7, 9, 40, 1),
+        new Rectangle(-20, 0, 200, 3),
+        new Rectangle(10, 10, 16, 16)
+    };
+
+    /**
+     * The stops of the gradients: simple, with a discontinuity, with
+     * stops so close the tables are looked up in two steps, and with
+     * transparent colors.
+     */
+    protected static final float[][] FRACTIONS = {
+        { 0f, 1f },
+        { 0f, .4f, .4f, 1f },
+        { 0f, .0005f, .5f, 1f },
+        { 0f, .3f, 1f }
+    };
+
+    protected static final Color[][] COLORS = {
+        { Color.red, Color.blue },
+        { Color.yellow, Color.green, Color.black, Color.white },
+        { Color.cyan, Color.magenta, Color.orange, Color.pink },
+        { new Color(255, 0, 0, 0), new Color(0, 128, 255, 200),
+          new Color(20, 200, 20, 90) }
+    };
+
+    /**
+     * The gradient vectors, as start and end points: vertical and
+     * horizontal in device space, diagonal, and reversed.
+     */
+    protected static final float[][] VECTORS = {
+        { 10, 5, 10, 60 },
+        { 5, 10, 70, 10 },
+        { 0, 0, 30, 45 },
+        { 90, 30, 20, 30 }
+    };
+
+    protected static final ColorModel[] COLOR_MODELS = {
+        ColorModel.getRGBdefault(),
+        GraphicsUtil.sRGB_Pre
+    };
+
+    /**
+     * The cycle method: "NoCycle", "Repeat" or "Reflect".
+     */
+    protected String cycleName;
+
+    protected MultipleGradientPaint.CycleMethodEnum cycleMethod;
+
+    /**
+     * Whether the anti aliased fill is requested.
+     */
+    protected boolean antialias;
+
+    public MultipleGradientPaintContextTest(String cycleMethod,
+                                            Boolean antialias) {
+        this.cycleName = cycleMethod;
+        if ("NoCycle".equals(cycleMethod)) {
+            this.cycleMethod = MultipleGradientPaint.NO_CYCLE;
+        } else if ("Repeat".equals(cycleMethod)) {
+            this.cycleMethod = MultipleGradientPaint.REPEAT;
+        } else if ("Reflect".equals(cycleMethod)) {
+            this.cycleMethod = MultipleGradientPaint.REFLECT;
+        } else {
+            throw new IllegalArgumentException(cycleMethod);
+        }
+        this.antialias = antialias;
+    }
+
+    public String getName() {
+        return getId() + " " + cycleName + (antialias ? " antialias" : "");
+    }
+
+    public TestReport runImpl() throws Exception {
+        RenderingHints hints = new RenderingHints
+            (RenderingHints.KEY_COLOR_RENDERING,
+             antialias ? RenderingHints.VALUE_COLOR_RENDER_QUALITY
+                       : RenderingHints.VALUE_COLOR_RENDER_SPEED);
+
+        List paints = new ArrayList();
+        List names = new ArrayList();
+        for (int s = 0; s < FRACTIONS.length; s++) {
+            for (int cs = 0; cs < 2; cs++) {
+                MultipleGradientPaint.ColorSpaceEnum colorSpace = (cs == 0)
+                    ? MultipleGradientPaint.SRGB
+                    : MultipleGradientPaint.LINEAR_RGB;
+                for (int v = 0; v < VECTORS.length; v++) {
+                    float[] vec = VECTORS[v];
+                    paints.add(new LinearGradientPaint
+                               (new Point2D.Float(vec[0], vec[1]),
+                                new Point2D.Float(vec[2], vec[3]),
+                                FRACTIONS[s], COLORS[s], cycleMethod,
+                                colorSpace, new AffineTransform()));
+                    names.add("linear stops=" + s + " linear=" + cs
+                              + " vector=" + v);
+                }
+                paints.add(new RadialGradientPaint
+                           (new Point2D.Float(30, 20), 40,
+                            new Point2D.Float(20, 25),
+                            FRACTIONS[s], COLORS[s], cycleMethod,
+                            colorSpace, new AffineTransform()));
+                names.add("radial stops=" + s + " linear=" + cs);
+            }
+        }
+
+        Rectangle deviceBounds = new Rectangle(-50, -50, 300, 300);
+        AffineTransform xform = AffineTransform.getScaleInstance(1.5, 1.5);
+
+        // The reference colors, computed with empty caches.
+        int n = paints.size() * COLOR_MODELS.length;
+        Raster[][] expected = new Raster[n][];
+        for (int i = 0; i < n; i++) {
+            MultipleGradientPaint p = (MultipleGradientPaint)
+                paints.get(i / COLOR_MODELS.length);
+            ColorModel cm = COLOR_MODELS[i % COLOR_MODELS.length];
+            expected[i] = new Raster[AREAS.length];
+            for (int a = 0; a < AREAS.length; a++) {
+                MultipleGradientPaintContext.clearCaches();
+                MultipleGradientPaintContext ctx = (MultipleGradientPaintContext)
+                    p.createContext(cm, deviceBounds, deviceBounds, xform,
+                                    hints);
+                expected[i][a] = referenceRaster(ctx, AREAS[a]);
+            }
+        }
+
+        // The same paints with the caches warm.  Each context paints
+        // all the areas, and is disposed so its raster is pooled.
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < n; i++) {
+                MultipleGradientPaint p = (MultipleGradientPaint)
+                    paints.get(i / COLOR_MODELS.length);
+                ColorModel cm = COLOR_MODELS[i % COLOR_MODELS.length];
+                PaintContext ctx = p.createContext
+                    (cm, deviceBounds, deviceBounds, xform, hints);
+                for (int a = 0; a < AREAS.length; a++) {
+                    // Alternate the order of the areas between passes
+                    // so rasters are reused at other sizes.
+                    int ai = (pass == 0) ? a : AREAS.length - 1 - a;
+                    Rectangle r = AREAS[ai];
+                    Raster actual = ctx.getRaster(r.x, r.y, r.width, r.height);
+                    TestReport report = compare
+                        (names.get(i / COLOR_MODELS.length) + " cm=" + cm
+                         + " pass=" + pass, r, expected[i][ai], actual);
+                    if (report != null) {
+                        return report;
+                    }
+                }
+                ctx.dispose();
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Returns the colors of the given area as the context produced
+     * them before the span fill: pixel by pixel for linear gradients.
+     */
+    protected Raster referenceRaster(MultipleGradientPaintContext ctx,
+                                     Rectangle r) {
+        WritableRaster wr = ctx.dataModel.createCompatibleWritableRaster
+            (r.width, r.height);
+        int[] pixels = ((DataBufferInt)wr.getDataBuffer()).getBankData()[0];
+        if (ctx instanceof LinearGradientPaintContext) {
+            ((LinearGradientPaintContext)ctx).fillSpans
+                (pixels, 0, 0, r.x, r.y, r.width, r.height);
+        } else {
+            ctx.fillRaster(pixels, 0, 0, r.x, r.y, r.width, r.height);
+        }
+        GraphicsUtil.coerceData(wr, ctx.dataModel,
+                                ctx.getColorModel().isAlphaPremultiplied());
+        return wr;
+    }
+
+    /**
+     * Compares the first <code>r.width</code> by <code>r.height</code>
+     * pixels of two rasters.  Returns a failed report or null.
+     */
+    protected TestReport compare(String config, Rectangle r,
+                                 Raster expected, Raster actual) {
+        int[] e = null;
+        int[] a = null;
+        for (int y = 0; y < r.height; y++) {
+            e = expected.getPixels(expected.getMinX(), expected.getMinY()+y,
+                                   r.width, 1, e);
+            a = actual.getPixels(actual.getMinX(), actual.getMinY()+y,
+                                 r.width, 1, a);
+            for (int i = 0; i < e.length; i++) {
+                if (e[i] != a[i]) {
+                    int bands = expected.getNumBands();
+                    int x = i / bands;
+                    DefaultTestReport report = new DefaultTestReport(this);
+                    report.setErrorCode(ERROR_PIXEL_DIFFERS);
+                    report.addDescriptionEntry(ENTRY_KEY_CONFIGURATION, config);
+                    report.addDescriptionEntry(ENTRY_KEY_AREA, r.toString());
+                    report.addDescriptionEntry
+                        (ENTRY_KEY_PIXEL, (r.x + x) + "," + (r.y + y));
+                    report.addDescriptionEntry
+                        (ENTRY_KEY_EXPECTED, toString(e, x*bands, bands));
+                    report.addDescriptionEntry
+                        (ENTRY_KEY_ACTUAL, toString(a, x*bands, bands));
+                    report.setPassed(false);
+                    return report;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String toString(int[] samples, int off, int len) {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < len; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(samples[off+i]);
+        }
+        return sb.toString();
+    }
+}
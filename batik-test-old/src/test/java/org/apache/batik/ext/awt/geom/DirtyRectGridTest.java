@@ -0,0 +1,77 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt.geom;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that the rectangles produced by <code>DirtyRectGrid</code>
+ * cover every dirty area added to it.
+ *
+ * @version $Id$
+ */
+public class DirtyRectGridTest extends AbstractTest {
+
+    /**
+     * The number of dirty rectangles to add.
+     */
+    protected int count;
+
+    public DirtyRectGridTest(Integer count) {
+        this.count = count;
+    }
+
+    public boolean runImplBasic() throws Exception {
+        Random rand = new Random(count);
+        Rectangle bounds = new Rectangle(0, 0, 800, 600);
+        Rectangle [] rects = new Rectangle[count];
+        DirtyRectGrid grid = new DirtyRectGrid(bounds);
+        for (int i=0; i<count; i++) {
+            rects[i] = new Rectangle(rand.nextInt(900) - 50,
+                                     rand.nextInt(700) - 50,
+                                     1 + rand.nextInt(60),
+                                     1 + rand.nextInt(60));
+            grid.add(rects[i]);
+        }
+        RectListManager rlm = grid.getRects(10000, 10);
+
+        for (Rectangle rect : rects) {
+            Rectangle r = rect.intersection(bounds);
+            for (int y = r.y; y < r.y + r.height; y++) {
+                for (int x = r.x; x < r.x + r.width; x++) {
+                    boolean covered = false;
+                    for (Object aRlm : rlm) {
+                        if (((Rectangle) aRlm).contains(x, y)) {
+                            covered = true;
+                            break;
+                        }
+                    }
+                    if (!covered) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image;
+
+import java.awt.CompositeContext;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.test.PerformanceTest;
+
+/**
+ * Measures the cost of compositing unpremultiplied layers with every
+ * SVGComposite rule, relative to the cost of compositing the same
+ * layers when they are premultiplied.  The score is the overhead of
+ * converting the unpremultiplied data, a row at a time, to and from
+ * premultiplied data.
+ *
+ * @version $Id$
+ */
+public class SVGCompositePerformanceTest extends PerformanceTest {
+
+    /**
+     * The rules that are measured.
+     */
+    protected static final CompositeRule[] RULES = {
+        CompositeRule.OVER, CompositeRule.IN, CompositeRule.OUT,
+        CompositeRule.ATOP, CompositeRule.XOR,
+        CompositeRule.ARITHMETIC(0.5f, 0.25f, 0.25f, 0f),
+        CompositeRule.MULTIPLY, CompositeRule.SCREEN,
+        CompositeRule.DARKEN, CompositeRule.LIGHTEN
+    };
+
+    /**
+     * The size of the composited layers.
+     */
+    protected int size;
+
+    /**
+     * The source and destination layers, premultiplied and
+     * unpremultiplied, built on first use.
+     */
+    protected WritableRaster srcPre, dstPre, srcUnpre, dstUnpre;
+
+    /**
+     * Creates a new SVGCompositePerformanceTest.
+     * @param size The width and height of the composited layers.
+     */
+    public SVGCompositePerformanceTest(Integer size) {
+        this.size = size;
+    }
+
+    public String getName() {
+        return "SVGComposite Unpremultiplied Layers (" + size + "x" + size + ")";
+    }
+
+    /**
+     * Creates a layer with a mix of opaque, transparent and partially
+     * transparent pixels.
+     */
+    protected WritableRaster createLayer(ColorModel cm, int seed) {
+        WritableRaster wr = cm.createCompatibleWritableRaster(size, size);
+        boolean pre = cm.isAlphaPremultiplied();
+        int [] pixel = new int[1];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int a = ((x * seed + y) >> 2) & 0x1FF;
+                a = (a > 255) ? 0 : a;
+                int v = (x ^ y) & 0xFF;
+                if (pre) {
+                    v = (v * a) / 255;
+                }
+                pixel[0] = (a << 24) | (v << 16) | (v << 8) | v;
+                wr.setDataElements(x, y, pixel);
+            }
+        }
+        return wr;
+    }
+
+    /**
+     * Composites the layers with every rule.
+     */
+    protected void composite(ColorModel cm, WritableRaster src,
+                             WritableRaster dst) {
+        WritableRaster out = cm.createCompatibleWritableRaster(size, size);
+        for (int i = 0; i < RULES.length; i++) {
+            CompositeContext ctx =
+                new SVGComposite(RULES[i]).createContext(cm, cm, null);
+            ctx.compose(src, dst, out);
+            ctx.dispose();
+        }
+    }
+
+    /**
+     * Composites premultiplied layers.
+     */
+    protected void runRef() {
+        ColorModel cm = GraphicsUtil.sRGB_Pre;
+        if (srcPre == null) {
+            srcPre = createLayer(cm, 3);
+            dstPre = createLayer(cm, 5);
+        }
+        composite(cm, srcPre, dstPre);
+    }
+
+    /**
+     * Composites unpremultiplied layers.
+     */
+    protected void runOp() {
+        ColorModel cm = GraphicsUtil.sRGB_Unpre;
+        if (srcUnpre == null) {
+            srcUnpre = createLayer(cm, 3);
+            dstUnpre = createLayer(cm, 5);
+        }
+        composite(cm, srcUnpre, dstUnpre);
+    }
+}
@@ -0,0 +1,324 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt.image;
+
+import java.awt.CompositeContext;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that the int packed SVGComposite contexts give the same
+ * results as before they premultiplied unpremultiplied data a row at a
+ * time and skipped the arithmetic for opaque and clear pixels.  The
+ * reference premultiplies the whole rasters with
+ * <code>GraphicsUtil.coerceData</code> and, for the rules that now
+ * have shortcuts, blends every pixel with the previous kernels.
+ * Premultiplied and unpremultiplied sources and destinations are
+ * composited, in place and not, with alphas of 0, 255 and in between.
+ *
+ * @version $Id$
+ */
+public class SVGCompositeTest extends AbstractTest {
+
+    public static final String ERROR_WRONG_CONTEXT =
+        "SVGCompositeTest.error.wrong.context";
+
+    public static final String ERROR_WRONG_PIXEL =
+        "SVGCompositeTest.error.wrong.pixel";
+
+    public static final String ERROR_INPUT_CHANGED =
+        "SVGCompositeTest.error.input.changed";
+
+    public static final String ENTRY_KEY_ERROR_DESCRIPTION =
+        "SVGCompositeTest.entry.key.error.description";
+
+    protected static final CompositeRule[] RULES = {
+        CompositeRule.OVER, CompositeRule.IN, CompositeRule.OUT,
+        CompositeRule.ATOP, CompositeRule.XOR,
+        CompositeRule.ARITHMETIC(0.5f, 0.25f, 0.25f, 0f),
+        CompositeRule.MULTIPLY, CompositeRule.SCREEN,
+        CompositeRule.DARKEN, CompositeRule.LIGHTEN
+    };
+
+    /**
+     * The alphas of the pixels: every source alpha meets every
+     * destination alpha on each row.
+     */
+    protected static final int[] ALPHAS = { 0, 255, 1, 128, 254, 77 };
+
+    protected static final int WIDTH  = 40;
+    protected static final int HEIGHT = 7;
+
+    /**
+     * Composites the way the int packed contexts did before: the
+     * inherited compose premultiplies the whole rasters in place, then
+     * precompose blends them.
+     */
+    protected static class ReferenceContext
+        extends SVGComposite.AlphaPreCompositeContext {
+
+        int rule;
+        SVGComposite.AlphaPreCompositeContext_INT_PACK kernel;
+
+        ReferenceContext
+            (ColorModel srcCM, ColorModel dstCM, int rule,
+             SVGComposite.AlphaPreCompositeContext_INT_PACK kernel) {
+            super(srcCM, dstCM);
+            this.rule = rule;
+            this.kernel = kernel;
+        }
+
+        protected void precompose(Raster src, Raster dstIn,
+                                  WritableRaster dstOut) {
+            if (!hasPreviousKernel(rule)
+                || (kernel instanceof
+                    SVGComposite.OverCompositeContext_INT_PACK_UNPRE)) {
+                // These kernels did not change.
+                kernel.precompose(src, dstIn, dstOut);
+                return;
+            }
+            int x0 = dstOut.getMinX();
+            int y0 = dstOut.getMinY();
+            int[] s = new int[1];
+            int[] d = new int[1];
+            for (int y = y0; y < y0 + dstOut.getHeight(); y++) {
+                for (int x = x0; x < x0 + dstOut.getWidth(); x++) {
+                    src.getDataElements(x, y, s);
+                    dstIn.getDataElements(x, y, d);
+                    d[0] = blend(rule, s[0], d[0]);
+                    dstOut.setDataElements(x, y, d);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true for the rules whose kernels now have shortcuts.
+     */
+    protected static boolean hasPreviousKernel(int rule) {
+        switch (rule) {
+        case CompositeRule.RULE_OVER:
+        case CompositeRule.RULE_IN:
+        case CompositeRule.RULE_OUT:
+        case CompositeRule.RULE_ATOP:
+        case CompositeRule.RULE_XOR:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Blends two premultiplied pixels the way the previous int packed
+     * kernels did.
+     */
+    protected static int blend(int rule, int srcP, int dstP) {
+        final int norm = (1<<24)/255;
+        final int pt5  = (1<<23);
+        int srcM, dstM;
+        switch (rule) {
+        case CompositeRule.RULE_OVER:
+            dstM = (255-(srcP>>>24))*norm;
+            return
+                (((     srcP & 0xFF000000) +
+                  (((((dstP>>>24)     )*dstM+pt5)&0xFF000000)     ))|
+                 ((     srcP & 0x00FF0000) +
+                  (((((dstP>> 16)&0xFF)*dstM+pt5)&0xFF000000)>>> 8))|
+                 ((     srcP & 0x0000FF00) +
+                  (((((dstP>>  8)&0xFF)*dstM+pt5)&0xFF000000)>>>16))|
+                 ((     srcP & 0x000000FF) +
+                  (((((dstP     )&0xFF)*dstM+pt5)         )>>>24)));
+        case CompositeRule.RULE_IN:
+        case CompositeRule.RULE_OUT:
+            srcM = (dstP>>>24);
+            if (rule == CompositeRule.RULE_OUT)
+                srcM = 255-srcM;
+            srcM *= norm;
+            return
+                ((((((srcP>>>24)     )*srcM + pt5)&0xFF000000)     ) |
+                 (((((srcP>> 16)&0xFF)*srcM + pt5)&0xFF000000)>>> 8) |
+                 (((((srcP>>  8)&0xFF)*srcM + pt5)&0xFF000000)>>>16) |
+                 (((((srcP     )&0xFF)*srcM + pt5)           )>>>24));
+        case CompositeRule.RULE_ATOP:
+            srcM = (     dstP>>>24) *norm;
+            dstM = (255-(srcP>>>24))*norm;
+            return
+                ((dstP&0xFF000000)                                   |
+                 (((((srcP>> 16)&0xFF)*srcM +
+                    ((dstP>> 16)&0xFF)*dstM + pt5)&0xFF000000)>>> 8) |
+                 (((((srcP>>  8)&0xFF)*srcM +
+                    ((dstP>>  8)&0xFF)*dstM + pt5)&0xFF000000)>>>16) |
+                 (((((srcP     )&0xFF)*srcM +
+                    ((dstP     )&0xFF)*dstM + pt5)           )>>>24));
+        default: // RULE_XOR
+            srcM = (255-(dstP>>>24))*norm;
+            dstM = (255-(srcP>>>24))*norm;
+            return
+                ((((((srcP>>>24)     )*srcM +
+                    ((dstP>>>24)     )*dstM + pt5)&0xFF000000)     ) |
+                 (((((srcP>> 16)&0xFF)*srcM +
+                    ((dstP>> 16)&0xFF)*dstM + pt5)&0xFF000000)>>> 8) |
+                 (((((srcP>>  8)&0xFF)*srcM +
+                    ((dstP>>  8)&0xFF)*dstM + pt5)&0xFF000000)>>>16) |
+                 (((((srcP     )&0xFF)*srcM +
+                    ((dstP     )&0xFF)*dstM + pt5)           )>>>24));
+        }
+    }
+
+    public TestReport runImpl() throws Exception {
+        for (int r = 0; r < RULES.length; r++) {
+            for (int c = 0; c < 8; c++) {
+                boolean srcPre  = (c & 1) != 0;
+                boolean dstPre  = (c & 2) != 0;
+                boolean inPlace = (c & 4) != 0;
+                String name = RULES[r] + " with "
+                    + (srcPre ? "" : "un") + "premultiplied source and "
+                    + (dstPre ? "" : "un") + "premultiplied destination"
+                    + (inPlace ? ", in place" : "");
+                TestReport report = check(RULES[r], srcPre, dstPre, inPlace,
+                                          name);
+                if (report != null)
+                    return report;
+            }
+        }
+        return reportSuccess();
+    }
+
+    protected TestReport check(CompositeRule rule, boolean srcPre,
+                               boolean dstPre, boolean inPlace,
+                               String name) {
+        ColorModel srcCM = srcPre ? GraphicsUtil.sRGB_Pre
+                                  : GraphicsUtil.sRGB_Unpre;
+        ColorModel dstCM = dstPre ? GraphicsUtil.sRGB_Pre
+                                  : GraphicsUtil.sRGB_Unpre;
+        Random rand = new Random(rule.getRule() * 8 + (srcPre ? 1 : 0)
+                                 + (dstPre ? 2 : 0));
+        WritableRaster src = createLayer(srcCM, rand, true);
+        WritableRaster dst = createLayer(dstCM, rand, false);
+        WritableRaster out = inPlace ? dst : createLayer(dstCM, rand, false);
+
+        CompositeContext ctx =
+            new SVGComposite(rule).createContext(srcCM, dstCM, null);
+        if (!(ctx instanceof SVGComposite.AlphaPreCompositeContext_INT_PACK)) {
+            return fail(ERROR_WRONG_CONTEXT, name + ": "
+                        + ctx.getClass().getName());
+        }
+        SVGComposite.AlphaPreCompositeContext_INT_PACK kernel =
+            (SVGComposite.AlphaPreCompositeContext_INT_PACK)ctx;
+
+        // The previous unpremultiplied source kernel read the source as
+        // is, so the reference must not premultiply it.
+        ColorModel refSrcCM = srcCM;
+        if (kernel instanceof SVGComposite.OverCompositeContext_INT_PACK_UNPRE)
+            refSrcCM = GraphicsUtil.sRGB_Pre;
+        WritableRaster refSrc = copy(src);
+        WritableRaster refDst = copy(dst);
+        WritableRaster refOut = inPlace ? refDst : copy(out);
+        new ReferenceContext(refSrcCM, dstCM, rule.getRule(), kernel)
+            .compose(refSrc, refDst, refOut);
+
+        WritableRaster srcIn = copy(src);
+        WritableRaster dstIn = copy(dst);
+        ctx.compose(src, dst, out);
+        ctx.dispose();
+
+        String error = compare(out, refOut);
+        if (error != null) {
+            return fail(ERROR_WRONG_PIXEL, name + ": " + error);
+        }
+        error = compare(src, srcIn);
+        if (error == null && !inPlace) {
+            error = compare(dst, dstIn);
+        }
+        if (error != null) {
+            return fail(ERROR_INPUT_CHANGED, name + ": " + error);
+        }
+        return null;
+    }
+
+    /**
+     * Creates a layer inside a larger raster, so its data does not
+     * start at the origin of the data buffer.  Premultiplied layers
+     * hold valid premultiplied colors.
+     */
+    protected WritableRaster createLayer(ColorModel cm, Random rand,
+                                         boolean source) {
+        WritableRaster parent =
+            cm.createCompatibleWritableRaster(WIDTH + 5, HEIGHT + 3);
+        WritableRaster wr =
+            parent.createWritableChild(3, 2, WIDTH, HEIGHT, 0, 0, null);
+        boolean pre = cm.isAlphaPremultiplied();
+        int[] pixel = new int[1];
+        int n = ALPHAS.length;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = source ? ALPHAS[x % n] : ALPHAS[(x / n + y) % n];
+                int p = a << 24;
+                for (int s = 0; s < 24; s += 8) {
+                    int v = rand.nextInt(pre ? a + 1 : 256);
+                    p |= v << s;
+                }
+                pixel[0] = p;
+                wr.setDataElements(x, y, pixel);
+            }
+        }
+        return wr;
+    }
+
+    protected WritableRaster copy(WritableRaster wr) {
+        WritableRaster ret = wr.createCompatibleWritableRaster();
+        ret.setRect(wr);
+        return ret;
+    }
+
+    /**
+     * Returns null if both rasters hold the same pixels, otherwise a
+     * description of the first difference.
+     */
+    protected String compare(Raster actual, Raster expected) {
+        int[] a = new int[1], e = new int[1];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                actual.getDataElements(x, y, a);
+                expected.getDataElements(x, y, e);
+                if (a[0] != e[0]) {
+                    return "(" + x + ", " + y + "): expected "
+                        + Integer.toHexString(e[0]) + ", got "
+                        + Integer.toHexString(a[0]);
+                }
+            }
+        }
+        return null;
+    }
+
+    protected TestReport fail(String code, String description) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(ENTRY_KEY_ERROR_DESCRIPTION, description);
+        report.setPassed(false);
+        return report;
+    }
+}
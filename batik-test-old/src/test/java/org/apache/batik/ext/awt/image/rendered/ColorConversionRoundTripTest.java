@@ -0,0 +1,270 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks the conversions between sRGB and linear sRGB: the single pass
+ * <code>applyLutPre_INT</code> against <code>coerceData</code> followed
+ * by <code>applyLut_INT</code>, the 16 bit lookup tables against the
+ * exact transfer functions, and the cases where
+ * <code>GraphicsUtil</code> returns the original image instead of
+ * converting it back.
+ *
+ * @version $Id$
+ */
+public class ColorConversionRoundTripTest extends AbstractTest {
+
+    public static final String ERROR_PRE_MISMATCH =
+        "ColorConversionRoundTripTest.error.pre.mismatch";
+
+    public static final String ERROR_LUT16_MISMATCH =
+        "ColorConversionRoundTripTest.error.lut16.mismatch";
+
+    public static final String ERROR_ROUND_TRIP =
+        "ColorConversionRoundTripTest.error.round.trip";
+
+    public static final String ENTRY_KEY_ERROR_DESCRIPTION =
+        "ColorConversionRoundTripTest.entry.key.error.description";
+
+    /**
+     * The largest distance allowed between a 16 bit table lookup and the
+     * exact value, in 8 bit code values: half a code value of rounding
+     * plus the error of quantizing the input to 16 bits.
+     */
+    protected static final double LUT16_TOLERANCE = 0.55;
+
+    protected static final int W = 67, H = 23;
+
+    protected Random random = new Random(0x5EED);
+
+    public TestReport runImpl() throws Exception {
+        String error = checkLutPre(Any2sRGBRed.linearToSRGBLut);
+        if (error == null)
+            error = checkLutPre(Any2LsRGBRed.sRGBToLsRGBLut);
+        if (error != null)
+            return fail(ERROR_PRE_MISMATCH, error);
+
+        error = checkLut16(true, true);
+        if (error == null)
+            error = checkLut16(false, true);
+        if (error == null)
+            error = checkLut16(true, false);
+        if (error == null)
+            error = checkLut16(false, false);
+        if (error != null)
+            return fail(ERROR_LUT16_MISMATCH, error);
+
+        error = checkRoundTrips();
+        if (error != null)
+            return fail(ERROR_ROUND_TRIP, error);
+
+        return reportSuccess();
+    }
+
+    protected TestReport fail(String code, String description) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(ENTRY_KEY_ERROR_DESCRIPTION, description);
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * Compares <code>applyLutPre_INT</code> with <code>coerceData</code>
+     * followed by <code>applyLut_INT</code>, on a child raster so the
+     * offsets and scanline stride are exercised.
+     */
+    protected String checkLutPre(int[] lut) {
+        WritableRaster parent = randomPremultiplied(W + 5, H + 3);
+        WritableRaster expected = parent.createWritableChild
+            (3, 2, W, H, 0, 0, null);
+        WritableRaster actual = copy(parent).createWritableChild
+            (3, 2, W, H, 0, 0, null);
+
+        GraphicsUtil.coerceData(expected, GraphicsUtil.sRGB_Pre, false);
+        Any2sRGBRed.applyLut_INT(expected, lut);
+        Any2sRGBRed.applyLutPre_INT(actual, lut, null);
+
+        int[] e = new int[4], a = new int[4];
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                expected.getPixel(x, y, e);
+                actual.getPixel(x, y, a);
+                for (int b = 0; b < 4; b++) {
+                    if (e[b] != a[b]) {
+                        return "(" + x + ", " + y + ") band " + b
+                            + ": expected " + e[b] + ", got " + a[b];
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Converts a random premultiplied image and, in high precision,
+     * compares the pixels with the exact transfer function of their
+     * unpremultiplied components.
+     */
+    protected String checkLut16(boolean toSRGB, boolean highPrecision) {
+        ColorModel srcCM = toSRGB
+            ? GraphicsUtil.Linear_sRGB_Pre : GraphicsUtil.sRGB_Pre;
+        WritableRaster data = randomPremultiplied(W, H);
+        BufferedImage bi = new BufferedImage(srcCM, data, true, null);
+        CachableRed src = GraphicsUtil.wrap(bi);
+
+        CachableRed dst = toSRGB
+            ? GraphicsUtil.convertTosRGB(src, highPrecision)
+            : GraphicsUtil.convertToLsRGB(src, highPrecision);
+        Raster r = dst.getData();
+
+        // Without the 16 bit tables, strongly translucent pixels are
+        // off by several code values, so only check the tolerance in
+        // high precision.
+        double tolerance = highPrecision ? LUT16_TOLERANCE : 255;
+        int[] s = new int[4], d = new int[4];
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                data.getPixel(x, y, s);
+                r.getPixel(x, y, d);
+                if (s[3] != d[3]) {
+                    return "(" + x + ", " + y + ") alpha: expected "
+                        + s[3] + ", got " + d[3];
+                }
+                if (s[3] == 0) {
+                    continue;
+                }
+                for (int b = 0; b < 3; b++) {
+                    double v = s[b] / (double) s[3];
+                    v = toSRGB ? Any2sRGBRed.LsRGBTosRGB(v)
+                               : Any2LsRGBRed.sRGBToLsRGB(v);
+                    v *= 255;
+                    if (s[3] == 255) {
+                        v = Math.round(v);
+                    }
+                    if (Math.abs(v - d[b]) > tolerance) {
+                        return (toSRGB ? "to sRGB" : "to linear sRGB")
+                            + " (" + x + ", " + y + ") band " + b
+                            + " alpha " + s[3] + ": expected " + v
+                            + ", got " + d[b];
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks that converting an image and converting the result back
+     * gives the original image only when the color models of the
+     * original and of the conversion agree on the alpha channel.
+     */
+    protected String checkRoundTrips() {
+        ColorModel[] sRGB = { GraphicsUtil.sRGB, GraphicsUtil.sRGB_Unpre,
+                              GraphicsUtil.sRGB_Pre };
+        ColorModel[] linear = { GraphicsUtil.Linear_sRGB,
+                                GraphicsUtil.Linear_sRGB_Unpre,
+                                GraphicsUtil.Linear_sRGB_Pre };
+        for (int i = 0; i < sRGB.length; i++) {
+            // The conversions produce unpremultiplied data, so a
+            // premultiplied original can not stand for them.
+            boolean skip = !sRGB[i].isAlphaPremultiplied();
+
+            CachableRed orig = image(sRGB[i]);
+            CachableRed back = GraphicsUtil.convertTosRGB
+                (GraphicsUtil.convertToLsRGB(orig));
+            String error = checkRoundTrip(orig, back, skip);
+            if (error != null)
+                return "sRGB " + i + ": " + error;
+
+            orig = image(linear[i]);
+            back = GraphicsUtil.convertToLsRGB
+                (GraphicsUtil.convertTosRGB(orig));
+            error = checkRoundTrip(orig, back, skip);
+            if (error != null)
+                return "linear sRGB " + i + ": " + error;
+        }
+        return null;
+    }
+
+    protected String checkRoundTrip(CachableRed orig, CachableRed back,
+                                    boolean skip) {
+        if (skip) {
+            return (back == orig) ? null : "the original was not returned";
+        }
+        if (back == orig) {
+            return "the original was returned for an unpremultiplied image";
+        }
+        ColorModel cm = back.getColorModel();
+        if (cm.getColorSpace() != orig.getColorModel().getColorSpace() ||
+            cm.isAlphaPremultiplied()) {
+            return "unexpected color model " + cm;
+        }
+        return null;
+    }
+
+    protected CachableRed image(ColorModel cm) {
+        WritableRaster wr = cm.createCompatibleWritableRaster(W, H);
+        return GraphicsUtil.wrap
+            (new BufferedImage(cm, wr, cm.isAlphaPremultiplied(), null));
+    }
+
+    /**
+     * Returns an int packed raster of random premultiplied pixels, with
+     * some opaque and some fully transparent ones.
+     */
+    protected WritableRaster randomPremultiplied(int w, int h) {
+        WritableRaster wr = GraphicsUtil.sRGB_Pre
+            .createCompatibleWritableRaster(w, h);
+        int[] p = new int[4];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int a;
+                switch (random.nextInt(8)) {
+                case 0:  a = 0;   break;
+                case 1:  a = 255; break;
+                default: a = 1 + random.nextInt(254);
+                }
+                for (int b = 0; b < 3; b++)
+                    p[b] = random.nextInt(a + 1);
+                p[3] = a;
+                wr.setPixel(x, y, p);
+            }
+        }
+        return wr;
+    }
+
+    protected WritableRaster copy(WritableRaster wr) {
+        WritableRaster ret = wr.createCompatibleWritableRaster();
+        ret.setRect(wr);
+        return ret;
+    }
+}
@@ -0,0 +1,387 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks the pixels produced by <code>ConvolveMatrixRed</code> for one
+ * edge mode and bias.  The result is compared with the SVG formula
+ * computed directly, and, when the bias is zero, with the output of
+ * the previous implementation: the source padded according to the
+ * edge mode and convolved with <code>java.awt.image.ConvolveOp</code>.
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRedTest extends AbstractTest {
+
+    /**
+     * Error when the convolution differs from the SVG formula.
+     * {0} = kernel
+     * {1} = pixel position
+     * {2} = expected pixel
+     * {3} = actual pixel
+     */
+    public static final String ERROR_FORMULA_DIFFERS =
+        "ConvolveMatrixRedTest.error.formula.differs";
+
+    /**
+     * Error when the convolution differs from the ConvolveOp output.
+     * {0} = kernel
+     * {1} = pixel position
+     * {2} = expected pixel
+     * {3} = actual pixel
+     */
+    public static final String ERROR_CONVOLVE_OP_DIFFERS =
+        "ConvolveMatrixRedTest.error.convolve.op.differs";
+
+    /**
+     * Error when a rank one kernel is not applied in two passes.
+     * {0} = kernel
+     */
+    public static final String ERROR_NOT_SEPARABLE =
+        "ConvolveMatrixRedTest.error.not.separable";
+
+    public static final String ENTRY_KEY_KERNEL =
+        "ConvolveMatrixRedTest.kernel";
+    public static final String ENTRY_KEY_PIXEL =
+        "ConvolveMatrixRedTest.pixel";
+    public static final String ENTRY_KEY_EXPECTED =
+        "ConvolveMatrixRedTest.expected";
+    public static final String ENTRY_KEY_ACTUAL =
+        "ConvolveMatrixRedTest.actual";
+
+    /**
+     * The bounds of the source.
+     */
+    protected static final Rectangle SOURCE_BOUNDS
+        = new Rectangle(5, -3, 23, 17);
+
+    /**
+     * The area convolved, larger than the source so the edges are
+     * exercised on all sides.
+     */
+    protected static final Rectangle DEST_BOUNDS
+        = new Rectangle(-1, -10, 36, 31);
+
+    /**
+     * The edge mode, as the value of the SVG edgeMode attribute.
+     */
+    protected String edgeModeName;
+
+    protected PadMode edgeMode;
+
+    protected float bias;
+
+    public ConvolveMatrixRedTest(String edgeMode, Float bias) {
+        this.edgeModeName = edgeMode;
+        if ("none".equals(edgeMode)) {
+            this.edgeMode = PadMode.ZERO_PAD;
+        } else if ("duplicate".equals(edgeMode)) {
+            this.edgeMode = PadMode.REPLICATE;
+        } else if ("wrap".equals(edgeMode)) {
+            this.edgeMode = PadMode.WRAP;
+        } else {
+            throw new IllegalArgumentException(edgeMode);
+        }
+        this.bias = bias;
+    }
+
+    public String getName() {
+        return getId() + " " + edgeModeName + " bias=" + bias;
+    }
+
+    public TestReport runImpl() throws Exception {
+        Random rand = new Random(edgeModeName.hashCode() + (int)(bias*100));
+
+        float[] row = { 1, 4, 6, 4, 1 };
+        float[] col = { 1, 2, 3, 2, 1 };
+        float[] sep = new float[25];
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 5; j++) {
+                sep[i*5+j] = col[i]*row[j]/144;
+            }
+        }
+        float[] rnd = new float[15];
+        for (int i = 0; i < rnd.length; i++) {
+            rnd[i] = rand.nextFloat()*0.8f - 0.3f;
+        }
+        Kernel[] kernels = {
+            new Kernel(3, 3, new float[] { -1, -1, -1, -1, 9, -1, -1, -1, -1 }),
+            new Kernel(5, 5, sep),
+            new Kernel(3, 5, rnd)
+        };
+        Point[] targets = { new Point(1, 1), new Point(0, 3), new Point(2, 0) };
+
+        for (int pa = 0; pa < 2; pa++) {
+            boolean preserveAlpha = (pa == 1);
+            int[] src = createSource(rand, !preserveAlpha);
+            BufferedImage bi = new BufferedImage
+                (SOURCE_BOUNDS.width, SOURCE_BOUNDS.height,
+                 preserveAlpha ? BufferedImage.TYPE_INT_ARGB
+                               : BufferedImage.TYPE_INT_ARGB_PRE);
+            bi.setRGB(0, 0, SOURCE_BOUNDS.width, SOURCE_BOUNDS.height,
+                      src, 0, SOURCE_BOUNDS.width);
+            if (!preserveAlpha) {
+                // setRGB premultiplies, store the raw values instead.
+                bi.getRaster().setDataElements
+                    (0, 0, SOURCE_BOUNDS.width, SOURCE_BOUNDS.height, src);
+            }
+            CachableRed cr = new BufferedImageCachableRed
+                (bi, SOURCE_BOUNDS.x, SOURCE_BOUNDS.y);
+
+            for (int k = 0; k < kernels.length; k++) {
+                Kernel kernel = kernels[k];
+                Point target = targets[k];
+                String desc = kernel.getWidth() + "x" + kernel.getHeight()
+                    + (preserveAlpha ? " preserveAlpha" : "");
+
+                ConvolveMatrixRed cmr = new ConvolveMatrixRed
+                    (cr, DEST_BOUNDS, kernel, target, bias, edgeMode,
+                     preserveAlpha);
+                if (k == 1 && !cmr.isSeparable()) {
+                    DefaultTestReport report = new DefaultTestReport(this);
+                    report.setErrorCode(ERROR_NOT_SEPARABLE);
+                    report.addDescriptionEntry(ENTRY_KEY_KERNEL, desc);
+                    report.setPassed(false);
+                    return report;
+                }
+                int[] actual = getPixels(cmr);
+
+                int[] expected = convolve(src, kernel, target, preserveAlpha);
+                TestReport report = compare(ERROR_FORMULA_DIFFERS, desc,
+                                            expected, actual);
+                if (report != null) {
+                    return report;
+                }
+
+                if (bias == 0 && !preserveAlpha) {
+                    expected = convolveOp(src, kernel, target);
+                    report = compare(ERROR_CONVOLVE_OP_DIFFERS, desc,
+                                     expected, actual);
+                    if (report != null) {
+                        return report;
+                    }
+                }
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Returns random packed ARGB pixels for the source, premultiplied
+     * if requested.
+     */
+    protected int[] createSource(Random rand, boolean premult) {
+        int[] ret = new int[SOURCE_BOUNDS.width*SOURCE_BOUNDS.height];
+        for (int i = 0; i < ret.length; i++) {
+            int a = rand.nextInt(256);
+            int max = premult ? a : 255;
+            int r = rand.nextInt(max+1);
+            int g = rand.nextInt(max+1);
+            int b = rand.nextInt(max+1);
+            ret[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the pixels of <code>DEST_BOUNDS</code> in
+     * <code>cr</code> as packed ARGB.
+     */
+    protected int[] getPixels(CachableRed cr) {
+        WritableRaster wr = cr.getColorModel().createCompatibleWritableRaster
+            (DEST_BOUNDS.width, DEST_BOUNDS.height);
+        wr = wr.createWritableTranslatedChild(DEST_BOUNDS.x, DEST_BOUNDS.y);
+        cr.copyData(wr);
+        return toARGB(wr);
+    }
+
+    /**
+     * Returns the pixels of an RGBA raster as packed ARGB.
+     */
+    protected static int[] toARGB(Raster r) {
+        int w = r.getWidth();
+        int h = r.getHeight();
+        int[] pel = r.getPixels(r.getMinX(), r.getMinY(), w, h, (int[])null);
+        int[] ret = new int[w*h];
+        for (int i = 0, p = 0; i < ret.length; i++, p += 4) {
+            ret[i] = (pel[p+3] << 24) | (pel[p] << 16)
+                | (pel[p+1] << 8) | pel[p+2];
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the source pixel at the given position, extended
+     * according to the edge mode.
+     */
+    protected int getSourcePixel(int[] src, int x, int y) {
+        x -= SOURCE_BOUNDS.x;
+        y -= SOURCE_BOUNDS.y;
+        int w = SOURCE_BOUNDS.width;
+        int h = SOURCE_BOUNDS.height;
+        if (x < 0 || y < 0 || x >= w || y >= h) {
+            if (edgeMode == PadMode.ZERO_PAD) {
+                return 0;
+            } else if (edgeMode == PadMode.REPLICATE) {
+                x = Math.min(Math.max(x, 0), w-1);
+                y = Math.min(Math.max(y, 0), h-1);
+            } else {
+                x = ((x % w) + w) % w;
+                y = ((y % h) + h) % h;
+            }
+        }
+        return src[y*w+x];
+    }
+
+    /**
+     * Computes the convolution of the source over
+     * <code>DEST_BOUNDS</code> with the formula of the SVG
+     * specification.
+     */
+    protected int[] convolve(int[] src, Kernel kernel, Point target,
+                             boolean preserveAlpha) {
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+        float[] k = kernel.getKernelData(null);
+        int[] ret = new int[DEST_BOUNDS.width*DEST_BOUNDS.height];
+        int ip = 0;
+        for (int y = DEST_BOUNDS.y; y < DEST_BOUNDS.y+DEST_BOUNDS.height; y++) {
+            for (int x = DEST_BOUNDS.x; x < DEST_BOUNDS.x+DEST_BOUNDS.width; x++) {
+                double[] sum = new double[4];
+                for (int i = 0; i < kh; i++) {
+                    for (int j = 0; j < kw; j++) {
+                        double kv = k[(kh-1-i)*kw + (kw-1-j)];
+                        int p = getSourcePixel(src, x-target.x+j, y-target.y+i);
+                        for (int c = 0; c < 4; c++) {
+                            sum[c] += kv*((p >>> (24-8*c)) & 0xFF);
+                        }
+                    }
+                }
+                int[] v = new int[4];
+                for (int c = 0; c < 4; c++) {
+                    v[c] = clamp(sum[c] + bias*255);
+                }
+                if (preserveAlpha) {
+                    v[0] = getSourcePixel(src, x, y) >>> 24;
+                } else {
+                    v[0] = Math.max(v[0], Math.max(v[1], Math.max(v[2], v[3])));
+                }
+                ret[ip++] = (v[0] << 24) | (v[1] << 16) | (v[2] << 8) | v[3];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Computes the premultiplied convolution of the source over
+     * <code>DEST_BOUNDS</code> the way the previous implementation
+     * did: by padding the source according to the edge mode and
+     * filtering it with <code>ConvolveOp</code>.
+     */
+    protected int[] convolveOp(int[] src, Kernel kernel, Point target) {
+        int kw = kernel.getWidth();
+        int kh = kernel.getHeight();
+        Rectangle r = new Rectangle(DEST_BOUNDS.x-target.x,
+                                    DEST_BOUNDS.y-target.y,
+                                    DEST_BOUNDS.width+kw-1,
+                                    DEST_BOUNDS.height+kh-1);
+        // The source is padded here: PadRed does not implement wrap
+        // and leaves the last column unset when replicating.
+        int[] padded = new int[r.width*r.height];
+        for (int y = 0, ip = 0; y < r.height; y++) {
+            for (int x = 0; x < r.width; x++) {
+                padded[ip++] = getSourcePixel(src, r.x+x, r.y+y);
+            }
+        }
+        BufferedImage srcBI = new BufferedImage
+            (r.width, r.height, BufferedImage.TYPE_INT_ARGB_PRE);
+        srcBI.getRaster().setDataElements(0, 0, r.width, r.height, padded);
+        ConvolveOp op = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null);
+        BufferedImage destBI = op.filter(srcBI, null);
+        WritableRaster dwr = destBI.getRaster();
+
+        // Raise alpha to the largest color component, as the old
+        // fixAlpha did for kernels with negative values.
+        int dx = target.x - kernel.getXOrigin();
+        int dy = target.y - kernel.getYOrigin();
+        int[] all = toARGB(dwr);
+        int[] ret = new int[DEST_BOUNDS.width*DEST_BOUNDS.height];
+        int ip = 0;
+        for (int y = 0; y < DEST_BOUNDS.height; y++) {
+            for (int x = 0; x < DEST_BOUNDS.width; x++) {
+                int p = all[(y+target.y-dy)*r.width + (x+target.x-dx)];
+                int a = p >>> 24;
+                a = Math.max(a, Math.max((p >> 16) & 0xFF,
+                                         Math.max((p >> 8) & 0xFF, p & 0xFF)));
+                ret[ip++] = (a << 24) | (p & 0xFFFFFF);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Compares two sets of pixels, allowing a difference of one for
+     * rounding.  Returns a failed report or null.
+     */
+    protected TestReport compare(String errorCode, String kernel,
+                                 int[] expected, int[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            for (int s = 0; s < 32; s += 8) {
+                int d = ((expected[i] >>> s) & 0xFF)
+                    - ((actual[i] >>> s) & 0xFF);
+                if (d > 1 || d < -1) {
+                    DefaultTestReport report = new DefaultTestReport(this);
+                    report.setErrorCode(errorCode);
+                    report.addDescriptionEntry(ENTRY_KEY_KERNEL, kernel);
+                    report.addDescriptionEntry
+                        (ENTRY_KEY_PIXEL,
+                         (DEST_BOUNDS.x + i % DEST_BOUNDS.width) + ","
+                         + (DEST_BOUNDS.y + i / DEST_BOUNDS.width));
+                    report.addDescriptionEntry
+                        (ENTRY_KEY_EXPECTED, Integer.toHexString(expected[i]));
+                    report.addDescriptionEntry
+                        (ENTRY_KEY_ACTUAL, Integer.toHexString(actual[i]));
+                    report.setPassed(false);
+                    return report;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int clamp(double v) {
+        int i = (int)Math.floor(v + 0.5);
+        return i < 0 ? 0 : (i > 255 ? 255 : i);
+    }
+}
@@ -0,0 +1,367 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.ARGBChannel;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.HaltingThread;
+
+/**
+ * Checks the pixels produced by <code>DisplacementMapRed</code> for
+ * one scale, with every channel selector, against the bilinear
+ * displacement computed pixel by pixel over the whole zero padded
+ * source, with the fixed point arithmetic of the filter.  The sources
+ * are premultiplied or not, and smaller or larger than a tile.  Tiles
+ * computed in a halted thread must not be cached.
+ *
+ * @version $Id$
+ */
+public class DisplacementMapRedTest extends AbstractTest {
+
+    /**
+     * Error when the displaced pixels differ from the reference.
+     * {0} = case
+     * {1} = pixel position
+     * {2} = expected pixel
+     * {3} = actual pixel
+     */
+    public static final String ERROR_PIXEL_DIFFERS =
+        "DisplacementMapRedTest.error.pixel.differs";
+
+    /**
+     * Error when a tile computed in a halted thread was cached, or
+     * one computed normally was not.
+     * {0} = case
+     * {1} = tile
+     */
+    public static final String ERROR_BAD_CACHE =
+        "DisplacementMapRedTest.error.bad.cache";
+
+    public static final String ENTRY_KEY_CASE =
+        "DisplacementMapRedTest.case";
+    public static final String ENTRY_KEY_PIXEL =
+        "DisplacementMapRedTest.pixel";
+    public static final String ENTRY_KEY_EXPECTED =
+        "DisplacementMapRedTest.expected";
+    public static final String ENTRY_KEY_ACTUAL =
+        "DisplacementMapRedTest.actual";
+    public static final String ENTRY_KEY_TILE =
+        "DisplacementMapRedTest.tile";
+
+    /**
+     * The bounds of the sources: one smaller than a tile, one spanning
+     * several tiles.
+     */
+    protected static final Rectangle[] SOURCE_BOUNDS = {
+        new Rectangle(3, -7, 21, 14),
+        new Rectangle(-40, 11, 300, 170)
+    };
+
+    protected static final ARGBChannel[] CHANNELS = {
+        ARGBChannel.A, ARGBChannel.R, ARGBChannel.G, ARGBChannel.B
+    };
+
+    /**
+     * The displacement scale along the x axis.  The scale along the y
+     * axis is three quarters of it.
+     */
+    protected float scale;
+
+    public DisplacementMapRedTest(Float scale) {
+        this.scale = scale;
+    }
+
+    public String getName() {
+        return getId() + " scale=" + scale;
+    }
+
+    public TestReport runImpl() throws Exception {
+        Random rand = new Random(Float.floatToIntBits(scale));
+        float scaleX = scale;
+        float scaleY = scale*0.75f;
+
+        for (int s = 0; s < SOURCE_BOUNDS.length; s++) {
+            Rectangle bounds = SOURCE_BOUNDS[s];
+            for (int pm = 0; pm < 2; pm++) {
+                boolean premult = (pm == 1);
+                int[] src = createPixels(rand, bounds, premult);
+                int[] map = createPixels(rand, bounds, false);
+                CachableRed srcRed = createRed(src, bounds, premult);
+                CachableRed mapRed = createRed(map, bounds, false);
+
+                for (int xc = 0; xc < CHANNELS.length; xc++) {
+                    for (int yc = 0; yc < CHANNELS.length; yc++) {
+                        // Every pair on the small source, every
+                        // channel on each axis on the large one.
+                        if (s == 1 && yc != (xc+1) % CHANNELS.length) {
+                            continue;
+                        }
+                        String desc = bounds.width + "x" + bounds.height
+                            + (premult ? " premultiplied" : "")
+                            + " x=" + CHANNELS[xc] + " y=" + CHANNELS[yc];
+                        int[] expected = displace
+                            (src, map, bounds, premult,
+                             CHANNELS[xc].toInt(), CHANNELS[yc].toInt(),
+                             scaleX, scaleY);
+                        DisplacementMapRed dmr = new DisplacementMapRed
+                            (srcRed, mapRed, CHANNELS[xc], CHANNELS[yc],
+                             scaleX, scaleY, null);
+                        TestReport report = checkRed(desc, dmr, bounds,
+                                                     expected);
+                        if (report != null) {
+                            return report;
+                        }
+                    }
+                }
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Checks the pixels of a DisplacementMapRed computed in a halted
+     * thread, then normally, then from the tile cache.  Returns a
+     * failed report or null.
+     */
+    protected TestReport checkRed(String desc, final DisplacementMapRed dmr,
+                                  final Rectangle bounds, int[] expected)
+        throws Exception {
+        final WritableRaster[] halted = new WritableRaster[1];
+        HaltingThread ht = new HaltingThread() {
+                public void run() {
+                    halt();
+                    halted[0] = getPixels(dmr, bounds);
+                    dmr.getTile(dmr.getMinTileX(), dmr.getMinTileY());
+                }
+            };
+        ht.start();
+        ht.join();
+        for (int ty = 0; ty < dmr.getNumYTiles(); ty++) {
+            for (int tx = 0; tx < dmr.getNumXTiles(); tx++) {
+                int x = dmr.getMinTileX()+tx;
+                int y = dmr.getMinTileY()+ty;
+                if (dmr.tiles.getTileNoCompute(x, y) != null) {
+                    return failCache(desc + ", halted", x, y);
+                }
+            }
+        }
+
+        TestReport report = compare(desc, bounds, expected,
+                                    toARGB(getPixels(dmr, bounds)));
+        if (report != null) {
+            return report;
+        }
+        for (int ty = 0; ty < dmr.getNumYTiles(); ty++) {
+            for (int tx = 0; tx < dmr.getNumXTiles(); tx++) {
+                int x = dmr.getMinTileX()+tx;
+                int y = dmr.getMinTileY()+ty;
+                if (dmr.tiles.getTileNoCompute(x, y) == null) {
+                    return failCache(desc, x, y);
+                }
+            }
+        }
+        return compare(desc + ", cached", bounds, expected,
+                       toARGB(getPixels(dmr, bounds)));
+    }
+
+    /**
+     * Returns random packed ARGB pixels, premultiplied if requested.
+     * Some pixels are transparent or opaque.
+     */
+    protected int[] createPixels(Random rand, Rectangle bounds,
+                                 boolean premult) {
+        int[] ret = new int[bounds.width*bounds.height];
+        for (int i = 0; i < ret.length; i++) {
+            int a;
+            switch (rand.nextInt(4)) {
+            case 0:  a = 0;   break;
+            case 1:  a = 255; break;
+            default: a = rand.nextInt(256);
+            }
+            int max = premult ? a : 255;
+            int r = rand.nextInt(max+1);
+            int g = rand.nextInt(max+1);
+            int b = rand.nextInt(max+1);
+            ret[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+        return ret;
+    }
+
+    protected CachableRed createRed(int[] pixels, Rectangle bounds,
+                                    boolean premult) {
+        BufferedImage bi = new BufferedImage
+            (bounds.width, bounds.height,
+             premult ? BufferedImage.TYPE_INT_ARGB_PRE
+                     : BufferedImage.TYPE_INT_ARGB);
+        // setRGB would premultiply, store the raw values instead.
+        bi.getRaster().setDataElements
+            (0, 0, bounds.width, bounds.height, pixels);
+        // Tiled, so the filter does not take the whole image as its
+        // tile.
+        return new TileCacheRed
+            (new BufferedImageCachableRed(bi, bounds.x, bounds.y), 64, 64);
+    }
+
+    /**
+     * Returns the pixels of <code>bounds</code> in <code>cr</code>.
+     */
+    protected static WritableRaster getPixels(CachableRed cr,
+                                              Rectangle bounds) {
+        WritableRaster wr = cr.getColorModel().createCompatibleWritableRaster
+            (bounds.width, bounds.height);
+        wr = wr.createWritableTranslatedChild(bounds.x, bounds.y);
+        cr.copyData(wr);
+        return wr;
+    }
+
+    /**
+     * Returns the pixels of an RGBA raster as packed ARGB.
+     */
+    protected static int[] toARGB(Raster r) {
+        int w = r.getWidth();
+        int h = r.getHeight();
+        int[] pel = r.getPixels(r.getMinX(), r.getMinY(), w, h, (int[])null);
+        int[] ret = new int[w*h];
+        for (int i = 0, p = 0; i < ret.length; i++, p += 4) {
+            ret[i] = (pel[p+3] << 24) | (pel[p] << 16)
+                | (pel[p+1] << 8) | pel[p+2];
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a source pixel, zero outside of the source.
+     */
+    protected static int getPixel(int[] src, Rectangle bounds, int x, int y) {
+        x -= bounds.x;
+        y -= bounds.y;
+        if (x < 0 || y < 0 || x >= bounds.width || y >= bounds.height) {
+            return 0;
+        }
+        return src[y*bounds.width+x];
+    }
+
+    /**
+     * Returns the channel of a pixel, premultiplied and scaled by 256
+     * as the filter interpolates it.
+     * @param shift The shift of the channel in the pixel.
+     */
+    protected static int getChannel(int pel, int shift, boolean premult) {
+        int a = pel >>> 24;
+        int c = (pel >>> shift) & 0xFF;
+        if (premult || shift == 24) {
+            return c << 8;
+        }
+        int norm = (1<<24)/255;
+        int a256 = (a*norm + 0x80) >> 8;
+        return (c*a256 + 0x80) >> 8;
+    }
+
+    /**
+     * Displaces the source by the map, as the SVG feDisplacementMap
+     * filter does, with bilinear interpolation in fixed point.  The
+     * result is premultiplied.
+     */
+    protected static int[] displace(int[] src, int[] map, Rectangle bounds,
+                                    boolean premult, int xChannel,
+                                    int yChannel, float scaleX,
+                                    float scaleY) {
+        int fpScaleX = (int)((scaleX/255.0)*(1<<15)+0.5);
+        int fpAdjX   = (int)(-127.5*fpScaleX-0.5);
+        int fpScaleY = (int)((scaleY/255.0)*(1<<15)+0.5);
+        int fpAdjY   = (int)(-127.5*fpScaleY-0.5);
+
+        int[] ret = new int[bounds.width*bounds.height];
+        int i = 0;
+        for (int y = bounds.y; y < bounds.y+bounds.height; y++) {
+            for (int x = bounds.x; x < bounds.x+bounds.width; x++, i++) {
+                int m = map[i];
+                int xd = fpScaleX*((m >>> (xChannel*8)) & 0xFF) + fpAdjX;
+                int yd = fpScaleY*((m >>> (yChannel*8)) & 0xFF) + fpAdjY;
+                int x0 = x + (xd >> 15);
+                int y0 = y + (yd >> 15);
+                int xFrac = xd & 0x7FFF;
+                int yFrac = yd & 0x7FFF;
+                int p00 = getPixel(src, bounds, x0,   y0);
+                int p10 = getPixel(src, bounds, x0+1, y0);
+                int p01 = getPixel(src, bounds, x0,   y0+1);
+                int p11 = getPixel(src, bounds, x0+1, y0+1);
+                int pel = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int c0 = lerp(getChannel(p00, shift, premult),
+                                  getChannel(p10, shift, premult), xFrac);
+                    int c1 = lerp(getChannel(p01, shift, premult),
+                                  getChannel(p11, shift, premult), xFrac);
+                    int c = (((c0 << 15) + (c1-c0)*yFrac + 0x00400000)
+                             >> 23) & 0xFF;
+                    pel |= c << shift;
+                }
+                ret[i] = pel;
+            }
+        }
+        return ret;
+    }
+
+    private static int lerp(int v0, int v1, int frac) {
+        return (v0 + (((v1-v0)*frac + 0x4000) >> 15)) & 0xFFFF;
+    }
+
+    /**
+     * Compares two sets of pixels.  Returns a failed report or null.
+     */
+    protected TestReport compare(String desc, Rectangle bounds,
+                                 int[] expected, int[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                DefaultTestReport report = new DefaultTestReport(this);
+                report.setErrorCode(ERROR_PIXEL_DIFFERS);
+                report.addDescriptionEntry(ENTRY_KEY_CASE, desc);
+                report.addDescriptionEntry
+                    (ENTRY_KEY_PIXEL,
+                     (bounds.x + i % bounds.width) + ","
+                     + (bounds.y + i / bounds.width));
+                report.addDescriptionEntry
+                    (ENTRY_KEY_EXPECTED, Integer.toHexString(expected[i]));
+                report.addDescriptionEntry
+                    (ENTRY_KEY_ACTUAL, Integer.toHexString(actual[i]));
+                report.setPassed(false);
+                return report;
+            }
+        }
+        return null;
+    }
+
+    protected TestReport failCache(String desc, int tileX, int tileY) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_BAD_CACHE);
+        report.addDescriptionEntry(ENTRY_KEY_CASE, desc);
+        report.addDescriptionEntry(ENTRY_KEY_TILE, tileX + "," + tileY);
+        report.setPassed(false);
+        return report;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.GammaTransfer;
+import org.apache.batik.ext.awt.image.IdentityTransfer;
+import org.apache.batik.ext.awt.image.LinearTransfer;
+import org.apache.batik.ext.awt.image.TableTransfer;
+import org.apache.batik.ext.awt.image.TransferFunction;
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that a <code>FusedPixelRed</code> produces the same pixels as
+ * the chain of per-pixel operations it replaces.  The chain is given
+ * as a string, from the source up: 'M' for a color matrix, 'T' for a
+ * component transfer, 'L' for a conversion to linear sRGB and 'S' for
+ * a conversion to sRGB.
+ *
+ * @version $Id$
+ */
+public class FusedPixelRedTest extends AbstractTest {
+
+    /**
+     * The operations of the chain.
+     */
+    protected String chain;
+
+    public FusedPixelRedTest(String chain) {
+        this.chain = chain;
+    }
+
+    public String getName() {
+        return getId() + " " + chain;
+    }
+
+    public boolean runImplBasic() throws Exception {
+        Random rand = new Random(chain.hashCode());
+        CachableRed src = createSource(rand, 67, 45);
+        CachableRed last = src;
+        for (int i = 0; i < chain.length(); i++) {
+            last = createOperation(chain.charAt(i), last, i);
+        }
+        CachableRed fused = FusedPixelRed.fuse(last);
+        if (chain.length() > 1 && !(fused instanceof FusedPixelRed)) {
+            return false;
+        }
+        if (!fused.getBounds().equals(last.getBounds())
+            || !fused.getColorModel().equals(last.getColorModel())) {
+            return false;
+        }
+
+        Rectangle[] rects = { last.getBounds(),
+                              new Rectangle(13, 9, 31, 17),
+                              new Rectangle(66, 44, 1, 1) };
+        for (Rectangle r : rects) {
+            // Int packed, as the fused pass works on...
+            WritableRaster exp = last.getColorModel()
+                .createCompatibleWritableRaster(r.width, r.height)
+                .createWritableTranslatedChild(r.x, r.y);
+            WritableRaster act = fused.getColorModel()
+                .createCompatibleWritableRaster(r.width, r.height)
+                .createWritableTranslatedChild(r.x, r.y);
+            last.copyData(exp);
+            fused.copyData(act);
+            if (!samePixels(exp, act, r)) {
+                return false;
+            }
+
+            // ... and in another layout.
+            act = Raster.createInterleavedRaster
+                (DataBuffer.TYPE_BYTE, r.width, r.height, 4,
+                 new Point(r.x, r.y));
+            fused.copyData(act);
+            if (!samePixels(exp, act, r)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns random premultiplied sRGB pixels, with some fully
+     * transparent and fully opaque ones.
+     */
+    protected CachableRed createSource(Random rand, int w, int h) {
+        BufferedImage bi = new BufferedImage
+            (w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int a;
+                switch (rand.nextInt(4)) {
+                case 0:  a = 0;   break;
+                case 1:  a = 255; break;
+                default: a = rand.nextInt(256);
+                }
+                int r = rand.nextInt(a + 1);
+                int g = rand.nextInt(a + 1);
+                int b = rand.nextInt(a + 1);
+                bi.setRGB(x, y, 0);
+                bi.getRaster().setPixel(x, y, new int[] { r, g, b, a });
+            }
+        }
+        return new BufferedImageCachableRed(bi);
+    }
+
+    /**
+     * Returns the operation for the given character applied to src.
+     */
+    protected CachableRed createOperation(char op, CachableRed src, int n) {
+        switch (op) {
+        case 'M': {
+            float[][] m = (n % 2 == 0)
+                ? new float[][] { { 0.8f, 0.3f, -0.1f, 0, 0.05f },
+                                  { 0.2f, 0.6f, 0.2f, 0, -0.1f },
+                                  { -0.3f, 0.4f, 1.1f, 0, 0 },
+                                  { 0, 0, 0, 0.9f, 0.1f } }
+                : new float[][] { { 0.2126f, 0.7152f, 0.0722f, 0, 0 },
+                                  { 0.2126f, 0.7152f, 0.0722f, 0, 0 },
+                                  { 0.2126f, 0.7152f, 0.0722f, 0, 0 },
+                                  { 0, 0, 0, 1, 0 } };
+            return new ColorMatrixRed(src, m);
+        }
+        case 'T': {
+            TransferFunction[] funcs = (n % 2 == 0)
+                ? new TransferFunction[] {
+                      new IdentityTransfer(),
+                      new GammaTransfer(1, 0.5f, 0),
+                      new LinearTransfer(0.7f, 0.2f),
+                      new TableTransfer(new int[] { 255, 0, 128, 255 }) }
+                : new TransferFunction[] {
+                      new LinearTransfer(0.5f, 0.25f),
+                      new TableTransfer(new int[] { 0, 255 }),
+                      new IdentityTransfer(),
+                      new GammaTransfer(2, 2, -0.1f) };
+            return new ComponentTransferRed(src, funcs, null);
+        }
+        case 'L':
+            return new Any2LsRGBRed(src);
+        case 'S':
+            return new Any2sRGBRed(src);
+        }
+        throw new IllegalArgumentException("Unknown operation: " + op);
+    }
+
+    /**
+     * Tells whether both rasters hold the same samples in the given
+     * rectangle.
+     */
+    protected boolean samePixels(Raster exp, Raster act, Rectangle r) {
+        int[] e = exp.getPixels(r.x, r.y, r.width, r.height, (int[])null);
+        int[] a = act.getPixels(r.x, r.y, r.width, r.height, (int[])null);
+        return Arrays.equals(e, a);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.ext.awt.image.DistantLight;
+import org.apache.batik.ext.awt.image.Light;
+import org.apache.batik.ext.awt.image.PointLight;
+import org.apache.batik.ext.awt.image.SpotLight;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Compares <code>DiffuseLightingRed</code> and
+ * <code>SpecularLightingRed</code>, which light in float precision
+ * over parallel bands of tiles, with the previous double precision
+ * computation done serially over the whole area.  The specular
+ * lighting is checked both with <code>Math.pow</code> and with the
+ * table of powers.
+ *
+ * @version $Id$
+ */
+public class LightingRedTest extends AbstractTest {
+
+    /**
+     * Error when a lit pixel differs from the double precision one.
+     * {0} = filter
+     * {1} = pixel position
+     * {2} = expected pixel
+     * {3} = actual pixel
+     */
+    public static final String ERROR_PIXEL_DIFFERS =
+        "LightingRedTest.error.pixel.differs";
+
+    public static final String ENTRY_KEY_FILTER =
+        "LightingRedTest.filter";
+    public static final String ENTRY_KEY_PIXEL =
+        "LightingRedTest.pixel";
+    public static final String ENTRY_KEY_EXPECTED =
+        "LightingRedTest.expected";
+    public static final String ENTRY_KEY_ACTUAL =
+        "LightingRedTest.actual";
+
+    /**
+     * The lit area, several tiles high so the rows of tiles are lit
+     * in parallel.
+     */
+    protected static final Rectangle REGION = new Rectangle(-7, 11, 300, 290);
+
+    protected static final double KD = 1.3;
+    protected static final double KS = 1.1;
+    protected static final double SPECULAR_EXPONENT = 12.5;
+
+    /**
+     * The type of light: "distant", "point" or "spot".
+     */
+    protected String lightType;
+
+    public LightingRedTest(String lightType) {
+        this.lightType = lightType;
+    }
+
+    public String getName() {
+        return getId() + " " + lightType;
+    }
+
+    public TestReport runImpl() throws Exception {
+        int parallelism = ParallelBands.getParallelism();
+        try {
+            // Light in parallel even on a single processor.
+            ParallelBands.setParallelism(4);
+            return checkLighting();
+        } finally {
+            ParallelBands.setParallelism(parallelism);
+        }
+    }
+
+    protected TestReport checkLighting() {
+        Color color = new Color(255, 200, 150);
+        Light light;
+        if ("distant".equals(lightType)) {
+            light = new DistantLight(45, 30, color);
+        } else if ("point".equals(lightType)) {
+            light = new PointLight(50, 40, 60, color);
+        } else {
+            light = new SpotLight(100, 80, 90, 120, 100, 0, 2, 30, color);
+        }
+        BumpMap bumpMap = new BumpMap(createTexture(), 3, 1, 1);
+
+        DiffuseLightingRed dlr = new DiffuseLightingRed
+            (KD, light, bumpMap, REGION, 1, 1, false);
+        TestReport report = compare("diffuse", diffuse(light, bumpMap),
+                                    getPixels(dlr));
+        if (report != null) {
+            return report;
+        }
+
+        SpecularLightingRed slr = new SpecularLightingRed
+            (KS, SPECULAR_EXPONENT, light, bumpMap, REGION, 1, 1, false);
+        int[] expected = specular(light, bumpMap);
+        report = compare("specular", expected, getPixels(slr));
+        if (report != null) {
+            return report;
+        }
+
+        slr = new SpecularLightingRed
+            (KS, SPECULAR_EXPONENT, light, bumpMap, REGION, 1, 1, false);
+        slr.setExponentTableEnabled(true);
+        report = compare("specular table", expected, getPixels(slr));
+        if (report != null) {
+            return report;
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Returns a texture covering the lit area and its surround, with
+     * smooth bumps and some noise in the alpha channel.
+     */
+    protected CachableRed createTexture() {
+        int w = REGION.width + 2;
+        int h = REGION.height + 2;
+        BufferedImage bi = new BufferedImage
+            (w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] pixels = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int a = (int)(128 + 100*Math.sin(x/7.0)*Math.cos(y/11.0)
+                              + ((x*31 + y*17) % 23));
+                pixels[y*w+x] = a << 24;
+            }
+        }
+        return new BufferedImageCachableRed(bi, REGION.x-1, REGION.y-1);
+    }
+
+    /**
+     * Returns the pixels of the lit area as packed ARGB.
+     */
+    protected int[] getPixels(CachableRed cr) {
+        WritableRaster wr = cr.getColorModel().createCompatibleWritableRaster
+            (REGION.width, REGION.height);
+        wr = wr.createWritableTranslatedChild(REGION.x, REGION.y);
+        cr.copyData(wr);
+        return (int[])wr.getDataElements
+            (REGION.x, REGION.y, REGION.width, REGION.height, null);
+    }
+
+    /**
+     * Computes the diffuse lighting of the area in double precision.
+     */
+    protected int[] diffuse(Light light, BumpMap bumpMap) {
+        int w = REGION.width;
+        int h = REGION.height;
+        double[] lightColor = light.getColor(false);
+        double[][][] NA = bumpMap.getNormalArray(REGION.x, REGION.y, w, h);
+        double[][] LA = new double[w][3];
+        int[] ret = new int[w*h];
+        for (int i = 0; i < h; i++) {
+            double[][] NR = NA[i];
+            light.getLightRow(REGION.x, REGION.y+i, 1, w, NR, LA);
+            for (int j = 0; j < w; j++) {
+                double[] N = NR[j];
+                double[] L = LA[j];
+                double NL = 255.*KD*(N[0]*L[0] + N[1]*L[1] + N[2]*L[2]);
+                int r = clamp((int)(NL*lightColor[0]));
+                int g = clamp((int)(NL*lightColor[1]));
+                int b = clamp((int)(NL*lightColor[2]));
+                ret[i*w+j] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Computes the specular lighting of the area in double precision
+     * with <code>Math.pow</code>.
+     */
+    protected int[] specular(Light light, BumpMap bumpMap) {
+        int w = REGION.width;
+        int h = REGION.height;
+        double[] lightColor = light.getColor(false);
+        double mult = Math.max(lightColor[0],
+                               Math.max(lightColor[1], lightColor[2]));
+        double scale = 255/mult;
+        int pixel = ((int)(lightColor[0]*scale+0.5) << 16)
+            | ((int)(lightColor[1]*scale+0.5) << 8)
+            | (int)(lightColor[2]*scale+0.5);
+        mult *= 255*KS;
+
+        double[][][] NA = bumpMap.getNormalArray(REGION.x, REGION.y, w, h);
+        double[][] LA = new double[w][4];
+        int[] ret = new int[w*h];
+        for (int i = 0; i < h; i++) {
+            double[][] NR = NA[i];
+            if (light instanceof SpotLight) {
+                ((SpotLight)light).getLightRow4
+                    (REGION.x, REGION.y+i, 1, w, NR, LA);
+            } else {
+                light.getLightRow(REGION.x, REGION.y+i, 1, w, NR, LA);
+            }
+            for (int j = 0; j < w; j++) {
+                double[] N = NR[j];
+                double[] L = LA[j];
+                double vs = (light instanceof SpotLight) ? L[3] : 1;
+                int a = 0;
+                if (vs != 0) {
+                    L[2] += 1;
+                    double norm = Math.sqrt(L[0]*L[0] + L[1]*L[1] + L[2]*L[2]);
+                    double dot = N[0]*L[0] + N[1]*L[1] + N[2]*L[2];
+                    vs *= Math.pow(dot/norm, SPECULAR_EXPONENT);
+                    a = clamp((int)(mult*vs + 0.5));
+                }
+                ret[i*w+j] = (a << 24) | pixel;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Compares two sets of pixels, allowing a difference of one for
+     * rounding.  Returns a failed report or null.
+     */
+    protected TestReport compare(String filter, int[] expected,
+                                 int[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            for (int s = 0; s < 32; s += 8) {
+                int d = ((expected[i] >>> s) & 0xFF)
+                    - ((actual[i] >>> s) & 0xFF);
+                if (d > 1 || d < -1) {
+                    DefaultTestReport report = new DefaultTestReport(this);
+                    report.setErrorCode(ERROR_PIXEL_DIFFERS);
+                    report.addDescriptionEntry(ENTRY_KEY_FILTER, filter);
+                    report.addDescriptionEntry
+                        (ENTRY_KEY_PIXEL,
+                         (REGION.x + i % REGION.width) + ","
+                         + (REGION.y + i / REGION.width));
+                    report.addDescriptionEntry
+                        (ENTRY_KEY_EXPECTED, Integer.toHexString(expected[i]));
+                    report.addDescriptionEntry
+                        (ENTRY_KEY_ACTUAL, Integer.toHexString(actual[i]));
+                    report.setPassed(false);
+                    return report;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.test.PerformanceTest;
+
+/**
+ * Measures the cost of MorphologyOp for every radius from 1 to
+ * <code>maxRadius</code>, relative to the cost of a radius of 1.  As
+ * the cost per pixel does not depend on the radius the score should
+ * stay close to <code>maxRadius</code>.
+ *
+ * @version $Id$
+ */
+public class MorphologyOpPerformanceTest extends PerformanceTest {
+
+    /**
+     * The largest radius of the sweep.
+     */
+    protected int maxRadius;
+
+    /**
+     * The size of the filtered image.
+     */
+    protected int size;
+
+    /**
+     * The source image, a diagonal gradient which is the worst case
+     * for a windowed search of the max/min.
+     */
+    protected BufferedImage src;
+
+    /**
+     * Creates a new MorphologyOpPerformanceTest on a 128x128 image.
+     * @param maxRadius The largest radius of the sweep.
+     */
+    public MorphologyOpPerformanceTest(Integer maxRadius) {
+        this.maxRadius = maxRadius;
+        this.size = 128;
+    }
+
+    public String getName() {
+        return "MorphologyOp Radius Sweep (1-" + maxRadius + ")";
+    }
+
+    protected BufferedImage getSource() {
+        if (src == null) {
+            src = new BufferedImage(size, size,
+                                    BufferedImage.TYPE_INT_ARGB_PRE);
+            WritableRaster wr = src.getRaster();
+            int [] pixel = new int[1];
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int v = 255 - ((x + y) & 0xFF);
+                    pixel[0] = 0xFF000000 | (v << 16) | (v << 8) | v;
+                    wr.setDataElements(x, y, pixel);
+                }
+            }
+        }
+        return src;
+    }
+
+    /**
+     * Dilates and erodes the source with a radius of 1.
+     */
+    protected void runRef() {
+        BufferedImage bi = getSource();
+        new MorphologyOp(1, 1, true).filter(bi, null);
+        new MorphologyOp(1, 1, false).filter(bi, null);
+    }
+
+    /**
+     * Dilates and erodes the source with every radius of the sweep.
+     */
+    protected void runOp() {
+        BufferedImage bi = getSource();
+        for (int r = 1; r <= maxRadius; r++) {
+            new MorphologyOp(r, r, true).filter(bi, null);
+            new MorphologyOp(r, r, false).filter(bi, null);
+        }
+    }
+}
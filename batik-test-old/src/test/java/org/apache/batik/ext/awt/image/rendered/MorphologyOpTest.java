@@ -0,0 +1,161 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Compares <code>MorphologyOp</code> with a brute-force max/min over
+ * the window clipped to the image, for random rasters and radii.
+ * Every pixel is checked, including the last row, which the previous
+ * window scans got wrong.  Half of the cases filter child rasters so
+ * the offsets into the data buffers are exercised.
+ *
+ * @version $Id$
+ */
+public class MorphologyOpTest extends AbstractTest {
+
+    /**
+     * Error when the filtered pixel differs from the brute-force one.
+     * {0} = case description
+     * {1} = pixel position
+     * {2} = expected pixel
+     * {3} = actual pixel
+     */
+    public static final String ERROR_PIXEL_DIFFERS =
+        "MorphologyOpTest.error.pixel.differs";
+
+    public static final String ENTRY_KEY_CASE =
+        "MorphologyOpTest.case";
+    public static final String ENTRY_KEY_PIXEL =
+        "MorphologyOpTest.pixel";
+    public static final String ENTRY_KEY_EXPECTED =
+        "MorphologyOpTest.expected";
+    public static final String ENTRY_KEY_ACTUAL =
+        "MorphologyOpTest.actual";
+
+    /**
+     * The number of random cases.
+     */
+    protected int count;
+
+    public MorphologyOpTest(Integer count) {
+        this.count = count;
+    }
+
+    public TestReport runImpl() throws Exception {
+        Random rand = new Random(count);
+        for (int t = 0; t < count; t++) {
+            int w = 1 + rand.nextInt(80);
+            int h = 1 + rand.nextInt(80);
+            int rx = 1 + rand.nextInt(30);
+            int ry = 1 + rand.nextInt(30);
+            boolean dilate = rand.nextBoolean();
+            boolean child = rand.nextBoolean();
+
+            int[] src = new int[w*h];
+            for (int i = 0; i < src.length; i++) {
+                int a = rand.nextInt(256);
+                src[i] = (a << 24) | (rand.nextInt(a+1) << 16)
+                    | (rand.nextInt(a+1) << 8) | rand.nextInt(a+1);
+            }
+
+            WritableRaster srcWR = createRaster(w, h, child, rand);
+            WritableRaster dstWR = createRaster(w, h, child, rand);
+            srcWR.setDataElements(srcWR.getMinX(), srcWR.getMinY(), w, h, src);
+            new MorphologyOp(rx, ry, dilate).filter(srcWR, dstWR);
+            int[] actual = (int[])dstWR.getDataElements
+                (dstWR.getMinX(), dstWR.getMinY(), w, h, null);
+
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int expected = bruteForce(src, w, h, x, y, rx, ry, dilate);
+                    if (actual[y*w+x] != expected) {
+                        DefaultTestReport report = new DefaultTestReport(this);
+                        report.setErrorCode(ERROR_PIXEL_DIFFERS);
+                        report.addDescriptionEntry
+                            (ENTRY_KEY_CASE,
+                             (dilate ? "dilate " : "erode ") + w + "x" + h
+                             + " radius " + rx + "," + ry
+                             + (child ? " child" : ""));
+                        report.addDescriptionEntry(ENTRY_KEY_PIXEL, x + "," + y);
+                        report.addDescriptionEntry
+                            (ENTRY_KEY_EXPECTED, Integer.toHexString(expected));
+                        report.addDescriptionEntry
+                            (ENTRY_KEY_ACTUAL,
+                             Integer.toHexString(actual[y*w+x]));
+                        report.setPassed(false);
+                        return report;
+                    }
+                }
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Returns a premultiplied ARGB raster of the given size, possibly
+     * a child of a larger raster filled with noise.
+     */
+    protected WritableRaster createRaster(int w, int h, boolean child,
+                                          Random rand) {
+        if (!child) {
+            return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE)
+                .getRaster();
+        }
+        int px = 1 + rand.nextInt(5);
+        int py = 1 + rand.nextInt(5);
+        BufferedImage bi = new BufferedImage
+            (w + px + 3, h + py + 2, BufferedImage.TYPE_INT_ARGB_PRE);
+        WritableRaster wr = bi.getRaster();
+        for (int y = 0; y < bi.getHeight(); y++) {
+            for (int x = 0; x < bi.getWidth(); x++) {
+                wr.setDataElements(x, y, new int[] { rand.nextInt() | 0xFF000000 });
+            }
+        }
+        return wr.createWritableChild(px, py, w, h, 0, 0, null);
+    }
+
+    /**
+     * Returns the max (dilation) or min (erosion) of each component
+     * over the window centered on (x, y), clipped to the image.
+     */
+    protected static int bruteForce(int[] src, int w, int h, int x, int y,
+                                    int rx, int ry, boolean dilate) {
+        int ret = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int m = dilate ? 0 : 0xFF;
+            for (int yy = Math.max(0, y-ry); yy <= Math.min(h-1, y+ry); yy++) {
+                for (int xx = Math.max(0, x-rx); xx <= Math.min(w-1, x+rx); xx++) {
+                    int v = (src[yy*w+xx] >>> shift) & 0xFF;
+                    m = dilate ? Math.max(m, v) : Math.min(m, v);
+                }
+            }
+            ret |= m << shift;
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt.image.rendered;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks that <code>ParallelBands</code> runs every row exactly once,
+ * whatever the height and the work per row, and that an exception
+ * thrown by a band run on a pool thread reaches the caller.
+ *
+ * @version $Id$
+ */
+public class ParallelBandsTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        int parallelism = ParallelBands.getParallelism();
+        try {
+            // Force several bands even on a single processor.
+            ParallelBands.setParallelism(4);
+            return checkBands();
+        } finally {
+            ParallelBands.setParallelism(parallelism);
+        }
+    }
+
+    protected boolean checkBands() {
+        int[] heights = { 0, 1, 2, 3, 7, 64, 1000 };
+        long[] works = { 0, 1, ParallelBands.MIN_BAND_WORK,
+                         10L * ParallelBands.MIN_BAND_WORK };
+        for (int h : heights) {
+            for (long work : works) {
+                final int[] counts = new int[h];
+                ParallelBands.run(h, work, new ParallelBands.BandOp() {
+                        public void run(int y0, int y1) {
+                            for (int y = y0; y < y1; y++) {
+                                synchronized (counts) {
+                                    counts[y]++;
+                                }
+                            }
+                        }
+                    });
+                for (int c : counts) {
+                    if (c != 1) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        try {
+            ParallelBands.run(1000, ParallelBands.MIN_BAND_WORK,
+                              new ParallelBands.BandOp() {
+                    public void run(int y0, int y1) {
+                        // The caller runs the last band.
+                        if (y1 != 1000) {
+                            throw new IllegalStateException();
+                        }
+                    }
+                });
+            return false;
+        } catch (IllegalStateException ise) {
+            return true;
+        }
+    }
+}
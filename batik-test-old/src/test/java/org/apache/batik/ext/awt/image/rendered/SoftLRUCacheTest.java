@@ -0,0 +1,69 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt.image.rendered;
+
+import org.apache.batik.test.AbstractTest;
+
+/**
+ * Checks the size accounting and the eviction order of
+ * <code>SoftLRUCache</code>.
+ *
+ * @version $Id$
+ */
+public class SoftLRUCacheTest extends AbstractTest {
+
+    public boolean runImplBasic() throws Exception {
+        SoftLRUCache cache = new SoftLRUCache(10);
+        Object a = "a", b = "b", c = "c";
+        cache.put("a", a, 4);
+        cache.put("b", b, 4);
+        if (cache.getSize() != 8 || cache.get("a") != a) {
+            return false;
+        }
+
+        // "b" is now the least recently used value.
+        cache.put("c", c, 4);
+        if (cache.get("b") != null || cache.get("a") != a
+            || cache.get("c") != c || cache.getSize() != 8) {
+            return false;
+        }
+
+        // Replacing a value replaces its size.
+        cache.put("c", c, 2);
+        if (cache.getSize() != 6) {
+            return false;
+        }
+
+        // A value larger than the cache is not kept.
+        cache.put("d", "d", 11);
+        if (cache.get("d") != null || cache.getSize() > 10) {
+            return false;
+        }
+
+        cache.setMaxSize(0);
+        if (cache.getSize() != 0 || cache.get("a") != null) {
+            return false;
+        }
+        cache.setMaxSize(10);
+        cache.put("a", a, 1);
+        cache.clear();
+        return cache.getSize() == 0 && cache.get("a") == null;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.w3c.dom.Document;
+
+/**
+ * Checks that a document rendered with the
+ * <code>VALUE_RENDER_SPEED</code> rendering hint, which computes the
+ * turbulence in float precision, stays within a few code values of
+ * the document rendered with the reference double precision.
+ *
+ * @version $Id$
+ */
+public class TurbulencePrecisionTest extends AbstractTest {
+
+    /**
+     * Error when the renderings differ too much.
+     * {0} = pixel position
+     * {1} = difference
+     */
+    public static final String ERROR_IMAGES_DIFFER =
+        "TurbulencePrecisionTest.error.images.differ";
+
+    public static final String ENTRY_KEY_PIXEL =
+        "TurbulencePrecisionTest.pixel";
+    public static final String ENTRY_KEY_DIFFERENCE =
+        "TurbulencePrecisionTest.difference";
+
+    /**
+     * The document to render.
+     */
+    protected String inputURI;
+
+    /**
+     * The largest difference allowed in a color channel.
+     */
+    protected int maxDifference;
+
+    public TurbulencePrecisionTest(String inputURI, Integer maxDifference) {
+        this.inputURI = inputURI;
+        this.maxDifference = maxDifference;
+    }
+
+    public String getName() {
+        return getId() + " " + inputURI;
+    }
+
+    public TestReport runImpl() throws Exception {
+        BufferedImage exact = render(RenderingHints.VALUE_RENDER_QUALITY);
+        BufferedImage fast = render(RenderingHints.VALUE_RENDER_SPEED);
+        for (int y = 0; y < exact.getHeight(); y++) {
+            for (int x = 0; x < exact.getWidth(); x++) {
+                int p1 = exact.getRGB(x, y);
+                int p2 = fast.getRGB(x, y);
+                for (int s = 0; s < 32; s += 8) {
+                    int d = Math.abs(((p1 >>> s) & 0xff) - ((p2 >>> s) & 0xff));
+                    if (d > maxDifference) {
+                        DefaultTestReport report = new DefaultTestReport(this);
+                        report.setErrorCode(ERROR_IMAGES_DIFFER);
+                        report.addDescriptionEntry(ENTRY_KEY_PIXEL, x + "," + y);
+                        report.addDescriptionEntry(ENTRY_KEY_DIFFERENCE, "" + d);
+                        report.setPassed(false);
+                        return report;
+                    }
+                }
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Renders the document with the given value of the
+     * <code>KEY_RENDERING</code> hint.
+     */
+    protected BufferedImage render(Object rendering) throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        String uri = new File(inputURI).getAbsoluteFile().toURI().toString();
+        Document doc = f.createDocument(uri);
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        try {
+            GraphicsNode gn = new GVTBuilder().build(ctx, doc);
+            int w = (int)Math.ceil(ctx.getDocumentSize().getWidth());
+            int h = (int)Math.ceil(ctx.getDocumentSize().getHeight());
+            BufferedImage bi = new BufferedImage
+                (w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g2d = GraphicsUtil.createGraphics(bi);
+            g2d.setColor(Color.white);
+            g2d.fillRect(0, 0, w, h);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                 RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, rendering);
+            gn.paint(g2d);
+            g2d.dispose();
+            return bi;
+        } finally {
+            ctx.dispose();
+        }
+    }
+}
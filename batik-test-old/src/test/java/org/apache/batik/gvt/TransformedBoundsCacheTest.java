@@ -0,0 +1,261 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.gvt;
+
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+
+import org.apache.batik.ext.awt.image.renderable.ClipRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.FloodRable8Bit;
+import org.apache.batik.gvt.filter.GraphicsNodeRable8Bit;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that <code>AbstractGraphicsNode.getTransformedBounds</code>
+ * reuses its cached bounds while nothing changes, and drops them after
+ * each change that moves the bounds: the bounds returned after the
+ * change must match freshly computed ones.  The bounds of a
+ * <code>ProxyGraphicsNode</code> must follow the changes of its source.
+ *
+ * @version $Id$
+ */
+public class TransformedBoundsCacheTest extends AbstractTest {
+
+    public static final String ERROR_NOT_CACHED =
+        "TransformedBoundsCacheTest.error.not.cached";
+
+    public static final String ERROR_STALE_BOUNDS =
+        "TransformedBoundsCacheTest.error.stale.bounds";
+
+    public static final String ENTRY_KEY_ERROR_DESCRIPTION =
+        "TransformedBoundsCacheTest.entry.key.error.description";
+
+    /**
+     * A shape node counting the computations of its transformed bounds.
+     */
+    protected static class CountingShapeNode extends ShapeNode {
+        int computed;
+
+        protected Rectangle2D computeTransformedBounds(AffineTransform txf) {
+            computed++;
+            return super.computeTransformedBounds(txf);
+        }
+    }
+
+    /**
+     * A composite node counting the computations of its transformed
+     * bounds.
+     */
+    protected static class CountingCompositeGraphicsNode
+        extends CompositeGraphicsNode {
+        int computed;
+
+        protected Rectangle2D computeTransformedBounds(AffineTransform txf) {
+            computed++;
+            return super.computeTransformedBounds(txf);
+        }
+    }
+
+    protected CountingCompositeGraphicsNode group;
+    protected CountingShapeNode shape;
+    protected AffineTransform txf;
+
+    public TestReport runImpl() throws Exception {
+        group = new CountingCompositeGraphicsNode();
+        shape = new CountingShapeNode();
+        shape.setShape(new Rectangle2D.Double(10.5, 8.25, 30, 20.5));
+        FillShapePainter p = new FillShapePainter(shape.getShape());
+        p.setPaint(Color.red);
+        shape.setShapePainter(p);
+        group.getChildren().add(shape);
+        group.setTransform(AffineTransform.getScaleInstance(1.5, 0.5));
+
+        txf = AffineTransform.getRotateInstance(0.3, 20, 10);
+        txf.translate(3.5, -2);
+
+        String[] edits = { "transform of the node",
+                           "shape of a child",
+                           "clip of the node",
+                           "filter of the node",
+                           "children of a composite",
+                           "transform of a composite",
+                           "transform passed in" };
+        for (int i = 0; i < edits.length; i++) {
+            TestReport report = cached(edits[i]);
+            if (report != null)
+                return report;
+            // The cache holds the last request only, and the group asks
+            // the shape for its bounds in the group's parent space.
+            Rectangle2D groupBefore = group.getTransformedBounds(txf);
+            Rectangle2D shapeBefore = shape.getTransformedBounds(txf);
+
+            boolean shapeChanged = true;
+            switch (i) {
+            case 0:
+                shape.setTransform
+                    (AffineTransform.getTranslateInstance(5, 3));
+                break;
+            case 1:
+                shape.setShape(new Rectangle2D.Double(-4, 2, 13, 40));
+                break;
+            case 2:
+                shape.setClip
+                    (new ClipRable8Bit(new GraphicsNodeRable8Bit(shape),
+                                       new Ellipse2D.Double(12, 9, 20, 15)));
+                break;
+            case 3:
+                shape.setFilter
+                    (new FloodRable8Bit(new Rectangle2D.Double(0, 0, 25, 18),
+                                        Color.blue));
+                break;
+            case 4: {
+                ShapeNode other = new ShapeNode();
+                other.setShape(new Rectangle2D.Double(60, 70, 10, 10));
+                FillShapePainter op = new FillShapePainter(other.getShape());
+                op.setPaint(Color.green);
+                other.setShapePainter(op);
+                group.getChildren().add(other);
+                shapeChanged = false;
+                break;
+            }
+            case 5:
+                group.setTransform
+                    (AffineTransform.getRotateInstance(-0.7, 10, 10));
+                shapeChanged = false;
+                break;
+            case 6:
+                txf = AffineTransform.getShearInstance(0.25, -0.1);
+                txf.scale(2, 3);
+                break;
+            }
+
+            // The bounds of the shape do not depend on its parent.
+            report = recomputed(edits[i], shape, shapeChanged, shapeBefore);
+            if (report != null)
+                return report;
+            report = recomputed(edits[i], group, true, groupBefore);
+            if (report != null)
+                return report;
+        }
+
+        // The bounds of a proxy follow those of its source.
+        ProxyGraphicsNode proxy = new ProxyGraphicsNode();
+        proxy.setTransform(AffineTransform.getTranslateInstance(-8, 11));
+        proxy.setSource(group);
+        Rectangle2D before = proxy.getTransformedBounds(txf);
+        TestReport report = proxyFollows("source of the proxy", proxy);
+        if (report != null)
+            return report;
+        shape.setShape(new Rectangle2D.Double(20, 30, 100, 5));
+        report = proxyFollows("shape in the source", proxy);
+        if (report != null)
+            return report;
+        group.setTransform(AffineTransform.getTranslateInstance(50, 0));
+        report = proxyFollows("transform of the source", proxy);
+        if (report != null)
+            return report;
+        if (before.equals(proxy.getTransformedBounds(txf))) {
+            return fail(ERROR_STALE_BOUNDS,
+                        "the proxy bounds did not follow its source");
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Checks that a second request of the same bounds is served by the
+     * cache of both nodes.
+     */
+    protected TestReport cached(String edit) {
+        group.getTransformedBounds(txf);
+        int groupComputed = group.computed;
+        group.getTransformedBounds(new AffineTransform(txf));
+        shape.getTransformedBounds(txf);
+        int shapeComputed = shape.computed;
+        shape.getTransformedBounds(new AffineTransform(txf));
+        if ((shape.computed != shapeComputed)
+            || (group.computed != groupComputed)) {
+            return fail(ERROR_NOT_CACHED, "before changing the " + edit
+                        + ": the bounds were computed again");
+        }
+        return null;
+    }
+
+    /**
+     * Checks that the bounds of the node match freshly computed ones
+     * after an edit and, if the edit changed them, that they were
+     * computed again and differ from the previous ones, otherwise that
+     * they were still cached.
+     */
+    protected TestReport recomputed(String edit, AbstractGraphicsNode node,
+                                    boolean changed, Rectangle2D before) {
+        int n = (node == shape) ? shape.computed : group.computed;
+        Rectangle2D actual = node.getTransformedBounds(txf);
+        int m = (node == shape) ? shape.computed : group.computed;
+        Rectangle2D expected = node.computeTransformedBounds(txf);
+        String which = (node == shape) ? "shape" : "group";
+        if (changed && (m == n)) {
+            return fail(ERROR_STALE_BOUNDS, "after changing the " + edit
+                        + ": the cached " + which + " bounds were kept");
+        }
+        if (!changed && (m != n)) {
+            return fail(ERROR_NOT_CACHED, "after changing the " + edit
+                        + ": the " + which + " bounds were computed again");
+        }
+        if (!expected.equals(actual)) {
+            return fail(ERROR_STALE_BOUNDS, "after changing the " + edit
+                        + ": " + which + " bounds " + actual
+                        + " instead of " + expected);
+        }
+        if (changed && before.equals(actual)) {
+            return fail(ERROR_STALE_BOUNDS, "changing the " + edit
+                        + " did not move the " + which + " bounds");
+        }
+        return null;
+    }
+
+    /**
+     * Checks that the bounds of a proxy match those of its source, with
+     * the proxy transform concatenated.
+     */
+    protected TestReport proxyFollows(String edit, ProxyGraphicsNode proxy) {
+        AffineTransform t = new AffineTransform(txf);
+        t.concatenate(proxy.getTransform());
+        Rectangle2D expected = group.getTransformedBounds(t);
+        Rectangle2D actual = proxy.getTransformedBounds(txf);
+        if (!expected.equals(actual)) {
+            return fail(ERROR_STALE_BOUNDS, "after changing the " + edit
+                        + ": proxy bounds " + actual + " instead of "
+                        + expected);
+        }
+        return null;
+    }
+
+    protected TestReport fail(String code, String description) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(ENTRY_KEY_ERROR_DESCRIPTION, description);
+        report.setPassed(false);
+        return report;
+    }
+}
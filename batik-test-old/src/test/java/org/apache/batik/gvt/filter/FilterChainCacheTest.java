@@ -0,0 +1,174 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.gvt.filter;
+
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.FilterChainRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.GaussianBlurRable8Bit;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.FillShapePainter;
+import org.apache.batik.gvt.ShapeNode;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that the cached output of a <code>FilterChainRable8Bit</code>
+ * is reused while its input is unchanged, and is discarded when a
+ * descendant of the filtered node changes: the renderings after each
+ * change must match those of a fresh chain.
+ *
+ * @version $Id$
+ */
+public class FilterChainCacheTest extends AbstractTest {
+
+    public static final String ERROR_NOT_CACHED =
+        "FilterChainCacheTest.error.not.cached";
+
+    public static final String ERROR_STALE_RENDERING =
+        "FilterChainCacheTest.error.stale.rendering";
+
+    public static final String ENTRY_KEY_ERROR_DESCRIPTION =
+        "FilterChainCacheTest.entry.key.error.description";
+
+    protected static final Rectangle2D REGION =
+        new Rectangle2D.Double(0, 0, 64, 48);
+
+    protected CompositeGraphicsNode root;
+    protected CompositeGraphicsNode group;
+    protected ShapeNode shape;
+
+    public TestReport runImpl() throws Exception {
+        root  = new CompositeGraphicsNode();
+        group = new CompositeGraphicsNode();
+        shape = new ShapeNode();
+        shape.setShape(new Rectangle2D.Double(10.5, 8.25, 30, 20.5));
+        shape.setShapePainter(paint(Color.red));
+        group.getChildren().add(shape);
+        root.getChildren().add(group);
+
+        FilterChainRable8Bit chain = chain();
+
+        // The first request collects the dependencies, the second one
+        // fills the cache and the third one must be served by it.
+        render(chain);
+        RenderedImage cached = render(chain);
+        if (render(chain) != cached) {
+            return fail(ERROR_NOT_CACHED,
+                        "an unchanged chain was rendered again");
+        }
+
+        // The rendering hints of a node are not part of its geometry,
+        // so only the change events tell they changed.
+        String[] edits = { "fill of a grandchild",
+                           "rendering hints of a grandchild",
+                           "transform of a child",
+                           "visibility of a grandchild" };
+        for (int i = 0; i < edits.length; i++) {
+            switch (i) {
+            case 0:
+                shape.setShapePainter(paint(Color.blue));
+                break;
+            case 1:
+                shape.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                                       RenderingHints.VALUE_ANTIALIAS_ON);
+                break;
+            case 2:
+                group.setTransform
+                    (AffineTransform.getTranslateInstance(7, 5));
+                break;
+            case 3:
+                shape.setVisible(false);
+                break;
+            }
+
+            // Render twice, so the second rendering comes from the
+            // refilled cache.
+            render(chain);
+            RenderedImage ri = render(chain);
+            String error = compare(ri, render(chain()));
+            if (error == null && ri == cached) {
+                error = "the previous rendering was returned";
+            }
+            if (error != null) {
+                return fail(ERROR_STALE_RENDERING,
+                            "after changing the " + edits[i] + ": " + error);
+            }
+            cached = ri;
+        }
+        return reportSuccess();
+    }
+
+    protected FilterChainRable8Bit chain() {
+        Filter src = new GraphicsNodeRable8Bit(root);
+        Filter blur = new GaussianBlurRable8Bit(src, 2, 2);
+        return new FilterChainRable8Bit(blur, REGION);
+    }
+
+    protected FillShapePainter paint(Color c) {
+        FillShapePainter p = new FillShapePainter(shape.getShape());
+        p.setPaint(c);
+        return p;
+    }
+
+    protected RenderedImage render(FilterChainRable8Bit chain) {
+        RenderingHints hints = new RenderingHints(null);
+        return chain.createRendering
+            (new RenderContext(new AffineTransform(), REGION, hints));
+    }
+
+    /**
+     * Returns null if both images hold the same pixels over the filter
+     * region, otherwise a description of the first difference.
+     */
+    protected String compare(RenderedImage actual, RenderedImage expected) {
+        Raster a = actual.getData(), e = expected.getData();
+        int[] ap = new int[4], ep = new int[4];
+        for (int y = 0; y < (int)REGION.getHeight(); y++) {
+            for (int x = 0; x < (int)REGION.getWidth(); x++) {
+                a.getPixel(x, y, ap);
+                e.getPixel(x, y, ep);
+                for (int b = 0; b < 4; b++) {
+                    if (ap[b] != ep[b]) {
+                        return "(" + x + ", " + y + ") band " + b
+                            + ": expected " + ep[b] + ", got " + ap[b];
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    protected TestReport fail(String code, String description) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(ENTRY_KEY_ERROR_DESCRIPTION, description);
+        report.setPassed(false);
+        return report;
+    }
+}
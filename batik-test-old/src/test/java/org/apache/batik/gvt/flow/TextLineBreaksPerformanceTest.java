@@ -0,0 +1,113 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.flow;
+
+import java.text.AttributedString;
+import java.text.BreakIterator;
+
+import org.apache.batik.test.PerformanceTest;
+
+/**
+ * Measures the cost of finding the line breaks of a long multilingual
+ * paragraph, with the LineBreakIterator alone and through
+ * TextLineBreaks.findLineBrk, relative to the cost of the line
+ * BreakIterator of the platform on the same text.
+ *
+ * @version $Id$
+ */
+public class TextLineBreaksPerformanceTest extends PerformanceTest {
+
+    /**
+     * The words the paragraph is made of: Latin, Cyrillic, Greek,
+     * Hebrew, Arabic, Chinese, Japanese and Korean text, numbers and
+     * punctuation.
+     */
+    protected static final String[] WORDS = {
+        "The", "quick", "brown", "fox,", "jumps", "(over)", "12.5%",
+        "$30", "na\u00EFve", "caf\u00E9", "x-ray", "e.g.", "\u2014",
+        "\u041F\u0440\u0438\u0432\u0435\u0442", "\u043C\u0438\u0440",
+        "\u0393\u03B5\u03B9\u03AC", "\u03C3\u03BF\u03C5",
+        "\u05E9\u05DC\u05D5\u05DD", "\u05E2\u05D5\u05DC\u05DD",
+        "\u0645\u0631\u062D\u0628\u0627",
+        "\u4F60\u597D\u4E16\u754C\u3002",
+        "\u3053\u3093\u306B\u3061\u306F\u3001",
+        "\uD14C\uC2A4\uD2B8"
+    };
+
+    /**
+     * The number of times the paragraph is broken by each run.
+     */
+    protected static final int REPEAT = 20;
+
+    /**
+     * The length of the paragraph.
+     */
+    protected int length;
+
+    /**
+     * The paragraph.
+     */
+    protected String text;
+
+    /**
+     * Creates a new TextLineBreaksPerformanceTest.
+     * @param length The number of characters of the paragraph.
+     */
+    public TextLineBreaksPerformanceTest(Integer length) {
+        this.length = length;
+        StringBuffer sb = new StringBuffer(length + 16);
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append(WORDS[(i * 7 + i / WORDS.length) % WORDS.length]);
+            sb.append(' ');
+        }
+        text = sb.toString();
+    }
+
+    public String getName() {
+        return "TextLineBreaks Multilingual Paragraph (" + length + ")";
+    }
+
+    /**
+     * Finds the line breaks of the paragraph with the platform
+     * BreakIterator.
+     */
+    protected void runRef() {
+        BreakIterator bi = BreakIterator.getLineInstance();
+        for (int i = 0; i < REPEAT; i++) {
+            bi.setText(text);
+            while (bi.next() != BreakIterator.DONE) {
+            }
+        }
+    }
+
+    /**
+     * Finds the line breaks with LineBreakIterator, then attributes a
+     * copy of the paragraph with its words.
+     */
+    protected void runOp() {
+        char[] chars = text.toCharArray();
+        LineBreakIterator lbi = new LineBreakIterator();
+        for (int i = 0; i < REPEAT; i++) {
+            lbi.setText(chars, 0, chars.length);
+            while (lbi.next() != LineBreakIterator.DONE) {
+            }
+            TextLineBreaks.findLineBrk(new AttributedString(text));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.gvt.flow;
+
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks the deliberate departures of <code>TextLineBreaks</code> from
+ * the Unicode line breaking algorithm: complex context (SA) and object
+ * replacement (CB) characters break as alphabetic characters, and a
+ * zero width joiner prevents a break after it, also at the start of
+ * the text.
+ *
+ * @version $Id$
+ */
+public class TextLineBreaksTest extends AbstractTest {
+
+    public static final String ERROR_BAD_CLASS =
+        "TextLineBreaksTest.error.bad.class";
+
+    public static final String ERROR_BAD_BREAKS =
+        "TextLineBreaksTest.error.bad.breaks";
+
+    public static final String ENTRY_KEY_ERROR_DESCRIPTION =
+        "TextLineBreaksTest.entry.key.error.description";
+
+    /**
+     * A Thai letter, of class SA.
+     */
+    protected static final char SA = '\u0E01';
+
+    /**
+     * The object replacement character, of class CB.
+     */
+    protected static final char CB = '\uFFFC';
+
+    /**
+     * The characters of the random strings: SA and CB characters and
+     * characters of the classes they interact with in the pair table.
+     */
+    protected static final char[] ALPHABET = {
+        SA, '\u0E02', CB, 'a', 'Z', '1', '(', ')', '"', '-', '.', ',',
+        '!', '%', '$', '/', ' ', '\u00A0', '\u2014', '\u4E00', '\u3001',
+        '\u0301'
+    };
+
+    public TestReport runImpl() throws Exception {
+        if (TextLineBreaks.getCharCharClass(SA)
+                != TextLineBreaks.CHAR_CLASS_SA
+            || TextLineBreaks.getCharCharClass(CB)
+                != TextLineBreaks.CHAR_CLASS_CB) {
+            return fail(ERROR_BAD_CLASS,
+                        "the samples are not of class SA and CB");
+        }
+
+        // SA and CB characters break as alphabetic characters.
+        Random random = new Random(46);
+        for (int n = 0; n < 2000; n++) {
+            char[] chars = new char[1 + random.nextInt(12)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+            }
+            String s = new String(chars);
+            String al = s.replace(SA, 'a').replace('\u0E02', 'b')
+                         .replace(CB, 'c');
+            String error = checkBreaks(s, getBreaks(al));
+            if (error != null)
+                return fail(ERROR_BAD_BREAKS, error);
+        }
+
+        // A zero width joiner prevents a break after it, at the start
+        // of the text as elsewhere.
+        String[] texts = {
+            "\u4E00\u4E01",
+            "\u4E00\u200D\u4E01",
+            "\u200D\u4E00\u4E01",
+            "\u200D\u4E00 a"
+        };
+        int[][] breaks = {
+            { 1, 2 },
+            { 3 },
+            { 2, 3 },
+            { 3, 4 }
+        };
+        for (int i = 0; i < texts.length; i++) {
+            String error = checkBreaks(texts[i], breaks[i]);
+            if (error != null)
+                return fail(ERROR_BAD_BREAKS, error);
+        }
+
+        return reportSuccess();
+    }
+
+    /**
+     * Returns null if the breaks of <code>s</code> are
+     * <code>expected</code>, otherwise a description of the difference.
+     */
+    protected String checkBreaks(String s, int[] expected) {
+        int[] actual = getBreaks(s);
+        if (Arrays.equals(expected, actual))
+            return null;
+        StringBuffer sb = new StringBuffer("breaks of \"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80 && c >= 0x20) {
+                sb.append(c);
+            } else {
+                sb.append("\\u");
+                String hex = Integer.toHexString(0x10000 | c);
+                sb.append(hex.substring(1).toUpperCase());
+            }
+        }
+        sb.append("\": expected ").append(Arrays.toString(expected));
+        sb.append(", got ").append(Arrays.toString(actual));
+        return sb.toString();
+    }
+
+    /**
+     * Returns the ends of the words TextLineBreaks finds in the text.
+     */
+    protected int[] getBreaks(String s) {
+        AttributedString as = new AttributedString(s);
+        TextLineBreaks.findLineBrk(as);
+        AttributedCharacterIterator aci = as.getIterator();
+        List ends = new ArrayList();
+        aci.first();
+        while (aci.getIndex() < aci.getEndIndex()) {
+            int limit = aci.getRunLimit(TextLineBreaks.WORD_LIMIT);
+            ends.add(limit);
+            aci.setIndex(limit);
+        }
+        int[] ret = new int[ends.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = ((Integer)ends.get(i)).intValue();
+        }
+        return ret;
+    }
+
+    protected TestReport fail(String code, String description) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(ENTRY_KEY_ERROR_DESCRIPTION, description);
+        report.setPassed(false);
+        return report;
+    }
+}
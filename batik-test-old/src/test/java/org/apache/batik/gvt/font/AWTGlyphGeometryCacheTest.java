@@ -0,0 +1,287 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.gvt.font;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Rectangle2D;
+import java.util.concurrent.CyclicBarrier;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks the <code>AWTGlyphGeometryCache</code>: glyphs are found by
+ * font and glyph code, also for glyphs of characters outside the BMP,
+ * each segment holds at most its share of the glyphs and evicts the
+ * least recently used one, a racing <code>put</code> returns the value
+ * stored first, and the statistics are counted and cleared.
+ *
+ * @version $Id$
+ */
+public class AWTGlyphGeometryCacheTest extends AbstractTest {
+
+    public static final String ERROR_LOOKUP =
+        "AWTGlyphGeometryCacheTest.error.lookup";
+
+    public static final String ERROR_EVICTION =
+        "AWTGlyphGeometryCacheTest.error.eviction";
+
+    public static final String ERROR_RACE =
+        "AWTGlyphGeometryCacheTest.error.race";
+
+    public static final String ERROR_STATISTICS =
+        "AWTGlyphGeometryCacheTest.error.statistics";
+
+    public static final String ENTRY_KEY_ERROR_DESCRIPTION =
+        "AWTGlyphGeometryCacheTest.entry.key.error.description";
+
+    /**
+     * A character outside the BMP, MATHEMATICAL BOLD CAPITAL A.
+     */
+    public static final String NON_BMP = "\uD835\uDC00";
+
+    protected Font font = new Font("SansSerif", Font.PLAIN, 20);
+
+    public TestReport runImpl() throws Exception {
+        String error = checkLookups();
+        if (error != null)
+            return fail(ERROR_LOOKUP, error);
+        error = checkGlyphVector();
+        if (error != null)
+            return fail(ERROR_LOOKUP, error);
+        error = checkEviction();
+        if (error != null)
+            return fail(ERROR_EVICTION, error);
+        error = checkRace();
+        if (error != null)
+            return fail(ERROR_RACE, error);
+        error = checkStatistics();
+        if (error != null)
+            return fail(ERROR_STATISTICS, error);
+        return reportSuccess();
+    }
+
+    /**
+     * Checks that glyphs are told apart by font and by their whole
+     * glyph code.
+     */
+    protected String checkLookups() {
+        AWTGlyphGeometryCache cache = new AWTGlyphGeometryCache();
+        Font bold = font.deriveFont(Font.BOLD);
+        // Composite fonts give the glyphs of other fonts codes above
+        // 0xFFFF, as for a character outside the BMP.
+        int[] codes = { 36, 0x10024, 0x1D400, 0xD400, 67112188 };
+        for (int i = 0; i < codes.length; i++) {
+            cache.put(font, codes[i], createValue(i));
+            cache.put(bold, codes[i], createValue(100+i));
+        }
+        for (int i = 0; i < codes.length; i++) {
+            if (!isValue(cache.get(font, codes[i]), i))
+                return "wrong geometry for glyph " + codes[i];
+            if (!isValue(cache.get(bold, codes[i]), 100+i))
+                return "wrong geometry for bold glyph " + codes[i];
+        }
+        if (cache.get(font, 37) != null)
+            return "geometry for a glyph never stored";
+        return null;
+    }
+
+    /**
+     * Checks that the glyph vectors of AWTGVTFont store the geometry
+     * of their glyphs by glyph code, including the glyph of a
+     * character outside the BMP when the font has one.
+     */
+    protected String checkGlyphVector() {
+        AWTGVTFont gvtFont = new AWTGVTFont(font);
+        FontRenderContext frc = new FontRenderContext(null, true, true);
+        String text = "A" + NON_BMP + "A";
+        AWTGVTGlyphVector gv = (AWTGVTGlyphVector)gvtFont.createGlyphVector
+            (frc, text.toCharArray());
+        gv.performDefaultLayout();
+        GlyphVector awtGV = gvtFont.awtFont.createGlyphVector(frc, text);
+        AWTGlyphGeometryCache cache = AWTGVTFont.getGlyphGeometryCache();
+        boolean nonBMP = gvtFont.canDisplayUpTo(NON_BMP) != -1;
+        for (int i = 0; i < gv.getNumGlyphs(); i++) {
+            gv.getGlyphMetrics(i);
+            int code = gv.getGlyphCode(i);
+            if (code != awtGV.getGlyphCode(i))
+                return "glyph " + i + " has code " + code + " instead of "
+                    + awtGV.getGlyphCode(i);
+            nonBMP |= (code > 0xFFFF);
+            AWTGlyphGeometryCache.Value v = cache.get(gvtFont.awtFont, code);
+            if (v == null)
+                return "no geometry for glyph " + code;
+            Rectangle2D expected = awtGV.getGlyphMetrics(i).getBounds2D();
+            if (!expected.equals(v.getBounds2D()))
+                return "glyph " + code + " has bounds " + v.getBounds2D()
+                    + " instead of " + expected;
+        }
+        if (!nonBMP)
+            return "the character outside the BMP did not get a glyph"
+                + " code above 0xFFFF";
+        return null;
+    }
+
+    /**
+     * Checks the bound of the segments and their eviction order.
+     */
+    protected String checkEviction() {
+        AWTGlyphGeometryCache cache = new AWTGlyphGeometryCache(64);
+        int perSegment = 64 / AWTGlyphGeometryCache.SEGMENTS;
+        int n = 1000;
+        for (int code = 0; code < n; code++) {
+            cache.put(font, code, createValue(code));
+            for (int i = 0; i < cache.segments.length; i++) {
+                if (cache.segments[i].size() > perSegment)
+                    return "segment " + i + " holds "
+                        + cache.segments[i].size() + " glyphs";
+            }
+        }
+        if (cache.size() != 64)
+            return "the cache holds " + cache.size() + " glyphs";
+        if (cache.getEvictionCount() != n - 64)
+            return cache.getEvictionCount() + " evictions instead of "
+                + (n - 64);
+
+        // Fill the segment of glyph 0 with new glyphs, reading glyph 0
+        // between each: it must stay, the others are evicted in order.
+        cache.clear();
+        AWTGlyphGeometryCache.Key k0 = new AWTGlyphGeometryCache.Key(font, 0);
+        AWTGlyphGeometryCache.Segment s = cache.segmentFor(k0);
+        cache.put(font, 0, createValue(0));
+        int[] same = new int[perSegment+2];
+        for (int code = 1, j = 0; j < same.length; code++) {
+            if (cache.segmentFor(new AWTGlyphGeometryCache.Key(font, code))
+                == s) {
+                same[j++] = code;
+                cache.put(font, code, createValue(code));
+                if (cache.get(font, 0) == null)
+                    return "recently used glyph evicted";
+            }
+        }
+        if (s.size() != perSegment)
+            return "segment holds " + s.size() + " glyphs";
+        if (cache.getEvictionCount() != 3)
+            return cache.getEvictionCount() + " evictions instead of 3";
+        for (int j = 0; j < 3; j++) {
+            if (cache.get(font, same[j]) != null)
+                return "least recently used glyph " + same[j] + " kept";
+        }
+        return null;
+    }
+
+    /**
+     * Checks that when two threads put a glyph at the same time, both
+     * get the value of the first one.
+     */
+    protected String checkRace() throws Exception {
+        final AWTGlyphGeometryCache cache = new AWTGlyphGeometryCache();
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AWTGlyphGeometryCache.Value[][] results =
+            new AWTGlyphGeometryCache.Value[2][500];
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < 2; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int code = 0; code < 500; code++) {
+                                barrier.await();
+                                results[thread][code] = cache.put
+                                    (font, code, createValue(thread));
+                            }
+                        } catch (Exception e) {
+                        }
+                    }
+                };
+            threads[t].start();
+        }
+        for (int t = 0; t < 2; t++) {
+            threads[t].join();
+        }
+        for (int code = 0; code < 500; code++) {
+            AWTGlyphGeometryCache.Value v = cache.get(font, code);
+            if (v == null || results[0][code] != v || results[1][code] != v)
+                return "put of glyph " + code
+                    + " did not return the stored value";
+        }
+        return null;
+    }
+
+    /**
+     * Checks the hit, miss and eviction counters and clear().
+     */
+    protected String checkStatistics() {
+        AWTGlyphGeometryCache cache = new AWTGlyphGeometryCache(16);
+        cache.get(font, 1);
+        cache.put(font, 1, createValue(1));
+        cache.get(font, 1);
+        cache.get(font, 1);
+        cache.get(font, 2);
+        // One glyph per segment: the second glyph of a segment evicts
+        // the first.
+        AWTGlyphGeometryCache.Segment s = cache.segmentFor
+            (new AWTGlyphGeometryCache.Key(font, 1));
+        int code = 2;
+        while (cache.segmentFor(new AWTGlyphGeometryCache.Key(font, code))
+               != s) {
+            code++;
+        }
+        cache.put(font, code, createValue(code));
+        if (cache.getHitCount() != 2 || cache.getMissCount() != 2
+            || cache.getEvictionCount() != 1)
+            return cache.getHitCount() + " hits, " + cache.getMissCount()
+                + " misses, " + cache.getEvictionCount()
+                + " evictions instead of 2, 2 and 1";
+
+        cache.clear();
+        if (cache.size() != 0 || cache.getHitCount() != 0
+            || cache.getMissCount() != 0 || cache.getEvictionCount() != 0)
+            return "clear left " + cache.size() + " glyphs, "
+                + cache.getHitCount() + " hits, " + cache.getMissCount()
+                + " misses and " + cache.getEvictionCount() + " evictions";
+        if (cache.get(font, code) != null)
+            return "glyph " + code + " found after clear";
+        return null;
+    }
+
+    /**
+     * Returns a value whose bounds identify it.
+     */
+    protected static AWTGlyphGeometryCache.Value createValue(int id) {
+        Rectangle2D r = new Rectangle2D.Double(id, 0, 1, 1);
+        return new AWTGlyphGeometryCache.Value(r, r);
+    }
+
+    protected static boolean isValue(AWTGlyphGeometryCache.Value v, int id) {
+        return v != null && v.getBounds2D().getX() == id;
+    }
+
+    protected TestReport fail(String code, String description) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(ENTRY_KEY_ERROR_DESCRIPTION, description);
+        report.setPassed(false);
+        return report;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.font;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.text.AttributedString;
+
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
+import org.apache.batik.gvt.text.TextPaintInfo;
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that glyphs drawn from the {@link GlyphAtlas} match the
+ * glyphs filled from their outline.  The glyphs are placed on quarter
+ * pixels, which the atlas represents exactly, and far enough from each
+ * other not to share pixels, so that only the rounding of the
+ * compositing may differ.  The first glyph has a negative origin and
+ * is only partly visible.
+ *
+ * @version $Id$
+ */
+public class GlyphAtlasTest extends AbstractTest {
+
+    /**
+     * Error when the atlas was not used.
+     * {0} = subpixel offset
+     */
+    public static final String ERROR_ATLAS_NOT_USED =
+        "GlyphAtlasTest.error.atlas.not.used";
+
+    /**
+     * Error when the two renderings differ.
+     * {0} = subpixel offset
+     * {1} = pixel position
+     * {2} = difference
+     */
+    public static final String ERROR_PIXELS_DIFFER =
+        "GlyphAtlasTest.error.pixels.differ";
+
+    public static final String ENTRY_KEY_OFFSET = "GlyphAtlasTest.offset";
+    public static final String ENTRY_KEY_PIXEL = "GlyphAtlasTest.pixel";
+    public static final String ENTRY_KEY_DIFFERENCE =
+        "GlyphAtlasTest.difference";
+
+    /**
+     * The largest difference allowed in a color channel.
+     */
+    public static final int MAX_CHANNEL_DIFFERENCE = 2;
+
+    /**
+     * The text drawn.
+     */
+    public static final String TEXT = "Batik WMgy@&";
+
+    /**
+     * The scale of the device transform.
+     */
+    protected float scale;
+
+    public GlyphAtlasTest(Float scale) {
+        this.scale = scale;
+    }
+
+    public String getName() {
+        return getId() + " scale " + scale;
+    }
+
+    public TestReport runImpl() throws Exception {
+        AWTGVTFont font = new AWTGVTFont("SansSerif", Font.PLAIN, 12);
+        FontRenderContext frc = new FontRenderContext(null, true, true);
+        GVTGlyphVector gv = font.createGlyphVector(frc, TEXT);
+        gv.performDefaultLayout();
+        for (int i = 0; i < gv.getNumGlyphs(); i++) {
+            gv.setGlyphPosition
+                (i, new Point2D.Float(-3 + i * 20 + (i % 4) * 0.25f,
+                                      16 + (i % 3) * 0.25f));
+        }
+
+        TextPaintInfo tpi = new TextPaintInfo();
+        tpi.visible = true;
+        tpi.fillPaint = new Color(20, 60, 160);
+        AttributedString as = new AttributedString(TEXT);
+        as.addAttribute
+            (GVTAttributedCharacterIterator.TextAttribute.PAINT_INFO, tpi);
+
+        int w = (int)Math.ceil((8 + TEXT.length() * 20) * scale);
+        int h = (int)Math.ceil(28 * scale);
+        for (int sub = 0; sub < GlyphAtlas.SUBPIXEL_STEPS; sub++) {
+            double offset = sub / (double)GlyphAtlas.SUBPIXEL_STEPS;
+            GlyphAtlas.getInstance().clear();
+            BufferedImage atlas = draw(gv, as, w, h, offset,
+                                       RenderingHintsKeyExt.VALUE_GLYPH_ATLAS_ON);
+            if (GlyphAtlas.getInstance().glyphs.isEmpty()) {
+                return report(ERROR_ATLAS_NOT_USED, offset, null, 0);
+            }
+            BufferedImage outline = draw(gv, as, w, h, offset,
+                                         RenderingHintsKeyExt.VALUE_GLYPH_ATLAS_OFF);
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    int d = difference(atlas.getRGB(x, y),
+                                       outline.getRGB(x, y));
+                    if (d > MAX_CHANNEL_DIFFERENCE) {
+                        return report(ERROR_PIXELS_DIFFER, offset,
+                                      x + "," + y, d);
+                    }
+                }
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Draws the glyph vector on a white image, translated by offset
+     * pixels in both directions.
+     */
+    protected BufferedImage draw(GVTGlyphVector gv, AttributedString as,
+                                 int w, int h, double offset,
+                                 Object atlasHint) {
+        BufferedImage bi = new BufferedImage(w, h,
+                                             BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = GraphicsUtil.createGraphics(bi);
+        g2d.setColor(Color.white);
+        g2d.fillRect(0, 0, w, h);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                             RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                             RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL,
+                             RenderingHints.VALUE_STROKE_PURE);
+        g2d.setRenderingHint(RenderingHintsKeyExt.KEY_GLYPH_ATLAS, atlasHint);
+        g2d.translate(offset, offset);
+        g2d.scale(scale, scale);
+        gv.draw(g2d, as.getIterator());
+        g2d.dispose();
+        return bi;
+    }
+
+    /**
+     * Returns the largest difference between the channels of two
+     * pixels.
+     */
+    protected static int difference(int p1, int p2) {
+        int d = 0;
+        for (int s = 0; s < 32; s += 8) {
+            int c1 = (p1 >>> s) & 0xff;
+            int c2 = (p2 >>> s) & 0xff;
+            d = Math.max(d, Math.abs(c1 - c2));
+        }
+        return d;
+    }
+
+    protected TestReport report(String code, double offset, String pixel,
+                                int difference) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(ENTRY_KEY_OFFSET, "" + offset);
+        if (pixel != null) {
+            report.addDescriptionEntry(ENTRY_KEY_PIXEL, pixel);
+            report.addDescriptionEntry(ENTRY_KEY_DIFFERENCE, "" + difference);
+        }
+        report.setPassed(false);
+        return report;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.gvt.text;
+
+import java.awt.font.FontRenderContext;
+import java.awt.font.NumericShaper;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.text.Bidi;
+import java.util.Arrays;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that <code>BidiAttributedCharacterIterator</code> gives the
+ * bidi levels and character order found by <code>TextLayout</code>,
+ * whether or not it takes its left to right fast path, and that the
+ * fast path is only taken for text that is entirely at level 0.
+ *
+ * @version $Id$
+ */
+public class BidiAttributedCharacterIteratorTest extends AbstractTest {
+
+    public static final String ERROR_WRONG_PATH =
+        "BidiAttributedCharacterIteratorTest.error.wrong.path";
+
+    public static final String ERROR_WRONG_LEVELS =
+        "BidiAttributedCharacterIteratorTest.error.wrong.levels";
+
+    public static final String ERROR_WRONG_ORDER =
+        "BidiAttributedCharacterIteratorTest.error.wrong.order";
+
+    public static final String ERROR_WRONG_CHARACTER =
+        "BidiAttributedCharacterIteratorTest.error.wrong.character";
+
+    public static final String ENTRY_KEY_ERROR_DESCRIPTION =
+        "BidiAttributedCharacterIteratorTest.entry.key.error.description";
+
+    protected static final FontRenderContext FRC =
+        new FontRenderContext(null, true, true);
+
+    /**
+     * A case: a description, the text, and optionally an attribute, its
+     * value and the range it is set on.
+     */
+    protected static class Case {
+        String name;
+        String text;
+        boolean fastPath;
+        AttributedCharacterIterator.Attribute key;
+        Object value;
+        int begin, end;
+
+        Case(String name, String text, boolean fastPath) {
+            this.name = name;
+            this.text = text;
+            this.fastPath = fastPath;
+        }
+
+        Case(String name, String text, boolean fastPath,
+             AttributedCharacterIterator.Attribute key, Object value,
+             int begin, int end) {
+            this(name, text, fastPath);
+            this.key = key;
+            this.value = value;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        AttributedString createText() {
+            AttributedString as = new AttributedString(text);
+            if (key != null) {
+                as.addAttribute(key, value, begin, end);
+            }
+            return as;
+        }
+    }
+
+    protected static final Case[] CASES = {
+        new Case("ASCII", "Tick 100, (a+b) = \"c\";", true),
+        new Case("Latin-1 and Greek", "caf\u00E9 \u03B1\u03B2 \u00BD", true),
+        new Case("Hebrew", "abc \u05E9\u05DC\u05D5\u05DD 12 def", false),
+        new Case("Hebrew only", "\u05E9\u05DC\u05D5\u05DD", false),
+        new Case("Arabic digits", "abc \u0661\u0662\u0663 def", false),
+        new Case("extended Arabic digits", "x \u06F1\u06F2", true),
+        new Case("LRE and PDF", "ab\u202Acd\u202Cef", false),
+        new Case("RLE and PDF", "ab\u202Bcd ef\u202Cgh", false),
+        new Case("RLO and PDF", "ab\u202Ecd ef\u202Cgh", false),
+        new Case("LRO", "ab\u202Dcd", false),
+        new Case("LRI and PDI", "ab\u2066cd\u2069ef", false),
+        new Case("RLI and PDI", "ab\u2067cd ef\u2069gh", false),
+        new Case("FSI and PDI", "ab\u2068\u05E9\u05DC\u2069gh", false),
+        new Case("PDI", "ab\u2069cd", false),
+        new Case("surrogate pair", "a\uD83D\uDE00b", false),
+        new Case("right to left surrogate pair",
+                 "a \uD802\uDD00\uD802\uDD01 b", false),
+        new Case("RUN_DIRECTION_RTL", "Tick 100", false,
+                 TextAttribute.RUN_DIRECTION,
+                 TextAttribute.RUN_DIRECTION_RTL, 0, 8),
+        new Case("RUN_DIRECTION_LTR", "Tick 100", true,
+                 TextAttribute.RUN_DIRECTION,
+                 TextAttribute.RUN_DIRECTION_LTR, 0, 8),
+        new Case("BIDI_EMBEDDING 1", "Tick 100 ab", false,
+                 TextAttribute.BIDI_EMBEDDING, Integer.valueOf(1), 2, 9),
+        new Case("BIDI_EMBEDDING -2", "Tick 100 ab", false,
+                 TextAttribute.BIDI_EMBEDDING, Integer.valueOf(-2), 0, 6),
+        new Case("BIDI_EMBEDDING 0", "Tick 100 ab", true,
+                 TextAttribute.BIDI_EMBEDDING, Integer.valueOf(0), 0, 11),
+        new Case("NUMERIC_SHAPING", "abc 123 \u0627", false,
+                 TextAttribute.NUMERIC_SHAPING,
+                 NumericShaper.getContextualShaper(NumericShaper.ARABIC),
+                 0, 9),
+        new Case("NUMERIC_SHAPING only", "Tick 100", false,
+                 TextAttribute.NUMERIC_SHAPING,
+                 NumericShaper.getShaper(NumericShaper.ARABIC), 0, 8)
+    };
+
+    public TestReport runImpl() throws Exception {
+        for (int i = 0; i < CASES.length; i++) {
+            Case c = CASES[i];
+            boolean fastPath = BidiAttributedCharacterIterator.isLeftToRight
+                (new GVTACIImpl(c.createText().getIterator()));
+            if (fastPath != c.fastPath) {
+                return fail(ERROR_WRONG_PATH, c.name + ": the fast path is "
+                            + (fastPath ? "" : "not ") + "taken");
+            }
+            for (int start = 0; start < 2; start++) {
+                TestReport report = check(c, start * 7);
+                if (report != null)
+                    return report;
+            }
+        }
+
+        // Each character the fast path accepts is at level 0 in left
+        // to right text, alone or next to other such characters.
+        String[] contexts = { "", "a ", "1", "(" };
+        for (int c = 0; c <= 0xFFFF; c++) {
+            if (!BidiAttributedCharacterIterator.isLeftToRight((char)c)) {
+                continue;
+            }
+            for (int i = 0; i < contexts.length; i++) {
+                String s = contexts[i] + (char)c + contexts[i] + "1";
+                Bidi bidi = new Bidi(s, Bidi.DIRECTION_DEFAULT_LEFT_TO_RIGHT);
+                if (!bidi.isLeftToRight()) {
+                    return fail(ERROR_WRONG_CHARACTER, "U+"
+                                + Integer.toHexString(c).toUpperCase()
+                                + " is not at level 0 in \"" + s + '"');
+                }
+            }
+        }
+        return reportSuccess();
+    }
+
+    /**
+     * Checks the levels and the character map of the iterator of a case
+     * against the levels of a TextLayout of the same text.
+     */
+    protected TestReport check(Case c, int chunkStart) {
+        AttributedString as = c.createText();
+        int n = c.text.length();
+        BidiAttributedCharacterIterator bidi =
+            new BidiAttributedCharacterIterator(as.getIterator(), FRC,
+                                                chunkStart);
+        TextLayout tl = new TextLayout(as.getIterator(), FRC);
+
+        byte[] levels = new byte[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            levels[i] = (byte)tl.getCharacterLevel(i);
+            order[i] = Integer.valueOf(chunkStart + i);
+        }
+        Bidi.reorderVisually(levels, 0, order, 0, n);
+        int[] expected = new int[n];
+        for (int i = 0; i < n; i++) {
+            expected[i] = order[i].intValue();
+        }
+        int[] actual = bidi.getCharMap();
+        if (!Arrays.equals(expected, actual)) {
+            return fail(ERROR_WRONG_ORDER, c.name + ": order "
+                        + Arrays.toString(actual) + " instead of "
+                        + Arrays.toString(expected));
+        }
+
+        for (int v = 0; v < n; v++) {
+            bidi.setIndex(v);
+            Object level = bidi.getAttribute
+                (GVTAttributedCharacterIterator.TextAttribute.BIDI_LEVEL);
+            int expectedLevel = levels[expected[v] - chunkStart];
+            if (!Integer.valueOf(expectedLevel).equals(level)) {
+                return fail(ERROR_WRONG_LEVELS, c.name + ": character "
+                            + v + " at level " + level + " instead of "
+                            + expectedLevel);
+            }
+        }
+        return null;
+    }
+
+    protected TestReport fail(String code, String description) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(ENTRY_KEY_ERROR_DESCRIPTION, description);
+        report.setPassed(false);
+        return report;
+    }
+}
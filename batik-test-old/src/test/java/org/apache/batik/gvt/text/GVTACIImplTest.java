@@ -0,0 +1,265 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+
+package org.apache.batik.gvt.text;
+
+import java.awt.font.TextAttribute;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that <code>GVTACIImpl</code> behaves as the iterator of a
+ * <code>java.text.AttributedString</code> built with the same
+ * <code>addAttribute</code> calls: the attribute values, run starts
+ * and run limits must be the same at every index, also for clones
+ * that are modified independently of their original.
+ *
+ * @version $Id$
+ */
+public class GVTACIImplTest extends AbstractTest {
+
+    public static final String ERROR_MISMATCH =
+        "GVTACIImplTest.error.mismatch";
+
+    public static final String ENTRY_KEY_ERROR_DESCRIPTION =
+        "GVTACIImplTest.entry.key.error.description";
+
+    /**
+     * The attribute keys, including one that is never added.
+     */
+    protected static final AttributedCharacterIterator.Attribute[] KEYS = {
+        TextAttribute.FAMILY,
+        TextAttribute.SIZE,
+        GVTAttributedCharacterIterator.TextAttribute.TEXT_COMPOUND_ID,
+        TextAttribute.WEIGHT
+    };
+
+    /**
+     * The number of keys that are added to the text.
+     */
+    protected static final int NUM_ADDED_KEYS = 3;
+
+    /**
+     * The sets of keys the runs are compared for.
+     */
+    protected static final Set[] KEY_SETS;
+
+    static {
+        int n = 1 << KEYS.length;
+        KEY_SETS = new Set[n];
+        for (int m = 0; m < n; m++) {
+            KEY_SETS[m] = new HashSet();
+            for (int k = 0; k < KEYS.length; k++) {
+                if ((m & (1 << k)) != 0) {
+                    KEY_SETS[m].add(KEYS[k]);
+                }
+            }
+        }
+    }
+
+    public TestReport runImpl() throws Exception {
+        Random random = new Random(50);
+        for (int n = 0; n < 300; n++) {
+            String s = randomString(random, 1 + random.nextInt(30));
+            GVTACIImpl aci = new GVTACIImpl();
+            aci.setString(s);
+            List ops = new ArrayList();
+
+            int numOps = random.nextInt(25);
+            int cloneAt = random.nextInt(numOps + 1);
+            GVTACIImpl clone = null;
+            List cloneOps = null;
+            for (int i = 0; i <= numOps; i++) {
+                if (i == cloneAt) {
+                    // The clone shares the runs of aci until one of
+                    // them is modified.
+                    clone = (GVTACIImpl)aci.clone();
+                    cloneOps = new ArrayList(ops);
+                    String error = compare(s, ops, clone);
+                    if (error != null)
+                        return fail("clone of text " + n + ": " + error);
+                }
+                if (i == numOps)
+                    break;
+                Object[] op = randomOp(random, s.length());
+                apply(aci, op);
+                ops.add(op);
+                String error = compare(s, ops, aci);
+                if (error != null)
+                    return fail("text " + n + ": " + error);
+                if (clone != null && random.nextBoolean()) {
+                    op = randomOp(random, s.length());
+                    apply(clone, op);
+                    cloneOps.add(op);
+                }
+            }
+            String error = compare(s, cloneOps, clone);
+            if (error != null)
+                return fail("clone of text " + n + ": " + error);
+            error = compare(s, ops, aci);
+            if (error != null)
+                return fail("text " + n + " after its clone was modified: "
+                            + error);
+        }
+        return reportSuccess();
+    }
+
+    protected String randomString(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char)('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns a random <code>addAttribute</code> call, as an array
+     * with the key, the value, the begin index and the end index.
+     * The values are drawn from a few equal but distinct objects and
+     * null, so that runs must be compared with equals.
+     */
+    protected Object[] randomOp(Random random, int length) {
+        AttributedCharacterIterator.Attribute key =
+            KEYS[random.nextInt(NUM_ADDED_KEYS)];
+        int v = random.nextInt(4);
+        Object value = (v == 3) ? null : new Integer(v);
+        int begin = random.nextInt(length);
+        int end = begin + 1 + random.nextInt(length - begin);
+        return new Object[] { key, value, new Integer(begin),
+                              new Integer(end) };
+    }
+
+    protected void apply(GVTACIImpl aci, Object[] op) {
+        aci.addAttribute((AttributedCharacterIterator.Attribute)op[0],
+                         op[1],
+                         ((Integer)op[2]).intValue(),
+                         ((Integer)op[3]).intValue());
+    }
+
+    /**
+     * Returns null if <code>aci</code> matches the iterator of an
+     * AttributedString built from <code>s</code> with the given
+     * calls, otherwise a description of the difference.
+     */
+    protected String compare(String s, List ops, GVTACIImpl aci) {
+        AttributedString as = new AttributedString(s);
+        for (int i = 0; i < ops.size(); i++) {
+            Object[] op = (Object[])ops.get(i);
+            as.addAttribute((AttributedCharacterIterator.Attribute)op[0],
+                            op[1],
+                            ((Integer)op[2]).intValue(),
+                            ((Integer)op[3]).intValue());
+        }
+        AttributedCharacterIterator expected = as.getIterator();
+
+        // Walk forward, as the painters do, then visit the indices out
+        // of order.
+        expected.first();
+        aci.first();
+        for (int i = 0; i <= s.length(); i++) {
+            String error = compareAt(expected, aci);
+            if (error != null)
+                return error + " after " + describe(ops);
+            expected.next();
+            aci.next();
+        }
+        for (int i = s.length(); i >= 0; i -= 3) {
+            expected.setIndex(i);
+            aci.setIndex(i);
+            String error = compareAt(expected, aci);
+            if (error != null)
+                return error + " after " + describe(ops);
+        }
+        return null;
+    }
+
+    /**
+     * Returns a description of the given addAttribute calls.
+     */
+    protected String describe(List ops) {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < ops.size(); i++) {
+            Object[] op = (Object[])ops.get(i);
+            if (i > 0)
+                sb.append(", ");
+            sb.append("addAttribute(").append(op[0]).append(", ");
+            sb.append(op[1]).append(", ").append(op[2]).append(", ");
+            sb.append(op[3]).append(')');
+        }
+        return sb.toString();
+    }
+
+    protected String compareAt(AttributedCharacterIterator expected,
+                               AttributedCharacterIterator aci) {
+        int i = expected.getIndex();
+        if (aci.getIndex() != i || aci.current() != expected.current())
+            return "at " + i + ": index " + aci.getIndex();
+        if (aci.getRunStart() != expected.getRunStart())
+            return "run start at " + i + ": expected "
+                + expected.getRunStart() + ", got " + aci.getRunStart();
+        if (aci.getRunLimit() != expected.getRunLimit())
+            return "run limit at " + i + ": expected "
+                + expected.getRunLimit() + ", got " + aci.getRunLimit();
+        for (int k = 0; k < KEYS.length; k++) {
+            AttributedCharacterIterator.Attribute key = KEYS[k];
+            Object v = expected.getAttribute(key);
+            Object av = aci.getAttribute(key);
+            if (v == null ? av != null : !v.equals(av))
+                return key + " at " + i + ": expected " + v + ", got " + av;
+            if (aci.getRunStart(key) != expected.getRunStart(key))
+                return "run start of " + key + " at " + i + ": expected "
+                    + expected.getRunStart(key) + ", got "
+                    + aci.getRunStart(key);
+            if (aci.getRunLimit(key) != expected.getRunLimit(key))
+                return "run limit of " + key + " at " + i + ": expected "
+                    + expected.getRunLimit(key) + ", got "
+                    + aci.getRunLimit(key);
+        }
+        for (int m = 0; m < KEY_SETS.length; m++) {
+            Set keys = KEY_SETS[m];
+            if (aci.getRunStart(keys) != expected.getRunStart(keys))
+                return "run start of " + keys + " at " + i + ": expected "
+                    + expected.getRunStart(keys) + ", got "
+                    + aci.getRunStart(keys);
+            if (aci.getRunLimit(keys) != expected.getRunLimit(keys))
+                return "run limit of " + keys + " at " + i + ": expected "
+                    + expected.getRunLimit(keys) + ", got "
+                    + aci.getRunLimit(keys);
+        }
+        return null;
+    }
+
+    protected TestReport fail(String description) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(ERROR_MISMATCH);
+        report.addDescriptionEntry(ENTRY_KEY_ERROR_DESCRIPTION, description);
+        report.setPassed(false);
+        return report;
+    }
+}
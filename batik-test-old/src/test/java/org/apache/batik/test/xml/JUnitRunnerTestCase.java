@@ -152,6 +152,10 @@ public class JUnitRunnerTestCase {
 "samples/tests/spec/scripting/primaryDoc.svg",
 "NullURITest",
 "DoubleStringPerformanceTest",
+"RunnableQueuePerformanceTest",
+"MorphologyOpPerformanceTest",
+"SVGCompositePerformanceTest",
+"TextLineBreaksPerformanceTest",
 "text.selection.latin",
 "text.selection.latin-ext",
 "text.selection.cyrillic",
@@ -0,0 +1,163 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+
+package org.apache.batik.util;
+
+import org.apache.batik.test.AbstractTest;
+import org.apache.batik.test.DefaultTestReport;
+import org.apache.batik.test.TestReport;
+
+/**
+ * Checks that the runnables several threads post to a RunnableQueue
+ * with a small inbox all run, and that the runnables of each thread
+ * run in the order they were posted, also when the inbox is full and
+ * the posting threads push into the queue directly.
+ *
+ * @version $Id$
+ */
+public class RunnableQueueOrderTest extends AbstractTest {
+
+    public static final String ERROR_OUT_OF_ORDER =
+        "RunnableQueueOrderTest.error.out.of.order";
+
+    public static final String ERROR_LOST =
+        "RunnableQueueOrderTest.error.lost";
+
+    public static final String ENTRY_KEY_ERROR_DESCRIPTION =
+        "RunnableQueueOrderTest.entry.key.error.description";
+
+    /**
+     * The number of runnables posted by each thread.
+     */
+    public static final int RUNNABLE_COUNT = 20000;
+
+    /**
+     * The number of posting threads.
+     */
+    protected int nThreads;
+
+    /**
+     * The capacity of the inbox of the queue.
+     */
+    protected int inboxCapacity;
+
+    /**
+     * The number of runnables of each thread that have run.
+     * Only accessed in the queue thread.
+     */
+    protected int[] counts;
+
+    /**
+     * The first runnable that ran out of order, if any.
+     */
+    protected volatile String error;
+
+    /**
+     * Creates a new RunnableQueueOrderTest.
+     * @param nThreads The number of posting threads.
+     * @param inboxCapacity The capacity of the inbox of the queue.
+     */
+    public RunnableQueueOrderTest(Integer nThreads, Integer inboxCapacity) {
+        this.nThreads = nThreads;
+        this.inboxCapacity = inboxCapacity;
+    }
+
+    public TestReport runImpl() throws Exception {
+        final RunnableQueue rq = new RunnableQueue(inboxCapacity);
+        HaltingThread ht = new HaltingThread(rq, "RunnableQueueOrderTest");
+        ht.setDaemon(true);
+        synchronized (rq) {
+            ht.start();
+            while (rq.getThread() == null) {
+                rq.wait();
+            }
+        }
+        counts = new int[nThreads];
+        try {
+            rq.resumeExecution();
+            Thread[] producers = new Thread[nThreads];
+            for (int i = 0; i < nThreads; i++) {
+                final int t = i;
+                producers[i] = new Thread() {
+                        public void run() {
+                            for (int j = 0; j < RUNNABLE_COUNT; j++) {
+                                rq.invokeLater(new Post(t, j));
+                            }
+                        }
+                    };
+            }
+            for (int i = 0; i < nThreads; i++) {
+                producers[i].start();
+            }
+            for (int i = 0; i < nThreads; i++) {
+                producers[i].join();
+            }
+            // Runs after every runnable posted before.
+            rq.invokeAndWait(new Runnable() {
+                    public void run() {
+                    }
+                });
+        } finally {
+            ht.halt();
+        }
+
+        if (error != null) {
+            return fail(ERROR_OUT_OF_ORDER, error);
+        }
+        for (int i = 0; i < nThreads; i++) {
+            if (counts[i] != RUNNABLE_COUNT) {
+                return fail(ERROR_LOST, "thread " + i + ": " + counts[i]
+                            + " of " + RUNNABLE_COUNT + " runnables ran");
+            }
+        }
+        return reportSuccess();
+    }
+
+    protected TestReport fail(String code, String description) {
+        DefaultTestReport report = new DefaultTestReport(this);
+        report.setErrorCode(code);
+        report.addDescriptionEntry(ENTRY_KEY_ERROR_DESCRIPTION, description);
+        report.setPassed(false);
+        return report;
+    }
+
+    /**
+     * A runnable that checks it runs after the previous runnable of
+     * its thread.
+     */
+    protected class Post implements Runnable {
+
+        protected int thread;
+
+        protected int index;
+
+        public Post(int thread, int index) {
+            this.thread = thread;
+            this.index = index;
+        }
+
+        public void run() {
+            if (counts[thread] != index && error == null) {
+                error = "runnable " + index + " of thread " + thread
+                    + " ran after " + counts[thread] + " runnables";
+            }
+            counts[thread]++;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.batik.test.PerformanceTest;
+
+/**
+ * Measures the throughput of a RunnableQueue when several threads
+ * post runnables to it concurrently.
+ *
+ * @version $Id$
+ */
+public class RunnableQueuePerformanceTest extends PerformanceTest {
+
+    /**
+     * The number of runnables posted by each thread.
+     */
+    public static final int RUNNABLE_COUNT = 5000;
+
+    /**
+     * The number of posting threads.
+     */
+    protected int nThreads;
+
+    /**
+     * The number of runnables that still have to run.
+     */
+    protected final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Creates a new RunnableQueuePerformanceTest.
+     * @param nThreads The number of posting threads.
+     */
+    public RunnableQueuePerformanceTest(Integer nThreads) {
+        this.nThreads = nThreads;
+    }
+
+    public String getName() {
+        return "RunnableQueue Throughput Test, " + nThreads + " threads";
+    }
+
+    /**
+     * Posts the runnables from the producer threads and waits until
+     * they have all run.
+     */
+    protected void runOp() throws Exception {
+        final RunnableQueue rq = RunnableQueue.createRunnableQueue();
+        try {
+            rq.resumeExecution();
+            final Runnable r = new Runnable() {
+                    public void run() {
+                        if (pending.decrementAndGet() == 0) {
+                            synchronized (RunnableQueuePerformanceTest.this) {
+                                RunnableQueuePerformanceTest.this.notify();
+                            }
+                        }
+                    }
+                };
+            pending.set(nThreads * RUNNABLE_COUNT);
+            Thread[] producers = new Thread[nThreads];
+            for (int i = 0; i < nThreads; i++) {
+                producers[i] = new Thread() {
+                        public void run() {
+                            for (int j = 0; j < RUNNABLE_COUNT; j++) {
+                                rq.invokeLater(r);
+                            }
+                        }
+                    };
+                producers[i].start();
+            }
+            synchronized (this) {
+                while (pending.get() != 0) {
+                    wait();
+                }
+            }
+            for (int i = 0; i < nThreads; i++) {
+                producers[i].join();
+            }
+        } finally {
+            rq.getThread().halt();
+        }
+    }
+}
@@ -34,6 +34,7 @@ import org.apache.batik.bridge.BridgeContext;
 import org.apache.batik.bridge.BridgeException;
 import org.apache.batik.bridge.DefaultScriptSecurity;
 import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.LazyGVTBuilder;
 import org.apache.batik.bridge.NoLoadScriptSecurity;
 import org.apache.batik.bridge.RelaxedScriptSecurity;
 import org.apache.batik.bridge.SVGUtilities;
@@ -193,13 +194,19 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
         SVGSVGElement root = svgDoc.getRootElement();
         ctx = createBridgeContext(svgDoc);
 
-        // build the GVT tree
-        builder = new GVTBuilder();
         // flag that indicates if the document is dynamic
         boolean isDynamic =
             hints.containsKey(KEY_EXECUTE_ONLOAD) &&
                     (Boolean) hints.get(KEY_EXECUTE_ONLOAD);
 
+        // build the GVT tree
+        if (!isDynamic && hints.containsKey(KEY_LAZY_GVT_BUILD) &&
+                (Boolean) hints.get(KEY_LAZY_GVT_BUILD)) {
+            builder = new LazyGVTBuilder();
+        } else {
+            builder = new GVTBuilder();
+        }
+
         GraphicsNode gvtRoot;
         try {
             if (isDynamic)
@@ -876,6 +883,38 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
     public static final TranscodingHints.Key KEY_CONSTRAIN_SCRIPT_ORIGIN
         = new BooleanKey();
 
+    /**
+     * The lazy GVT building key.
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_LAZY_GVT_BUILD</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Boolean</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">false</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">When set to true, the content of groups is only
+     *       built when it intersects the rendered area (see {@link
+     *       LazyGVTBuilder}). Useful with {@link #KEY_AOI} on very large
+     *       documents. Ignored if {@link #KEY_EXECUTE_ONLOAD} is
+     *       <code>true</code>.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_LAZY_GVT_BUILD
+        = new BooleanKey();
+
 
     /**
      * A user agent implementation for <code>PrintTranscoder</code>.
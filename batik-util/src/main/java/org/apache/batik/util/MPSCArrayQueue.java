@@ -0,0 +1,145 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for many producer threads and a single
+ * consumer.  Producers claim a slot with a compare-and-set on the
+ * producer index and then publish their element into it; the consumer
+ * takes elements in order and frees their slots.
+ *
+ * <p>{@link #poll()} may return null while the queue is not empty
+ * when a producer has claimed a slot but not yet published into it;
+ * the element becomes visible as soon as that producer's
+ * {@link #offer(Object)} returns.  {@link #poll()} and
+ * {@link #isEmpty()} must only be called by one thread at a time.</p>
+ *
+ * @version $Id$
+ */
+public class MPSCArrayQueue {
+
+    /**
+     * The slots of the queue.
+     */
+    protected final AtomicReferenceArray buffer;
+
+    /**
+     * The mask used to turn an index into a slot number.
+     */
+    protected final int mask;
+
+    /**
+     * The index of the next slot to claim by a producer.
+     */
+    protected final AtomicLong producerIndex = new AtomicLong();
+
+    /**
+     * The index of the next slot to take by the consumer.
+     */
+    protected volatile long consumerIndex;
+
+    /**
+     * Creates a new MPSCArrayQueue.
+     * @param capacity The maximum number of elements, rounded up to
+     *        a power of two.
+     */
+    public MPSCArrayQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        int c = 1;
+        while (c < capacity) {
+            c <<= 1;
+        }
+        buffer = new AtomicReferenceArray(c);
+        mask = c - 1;
+    }
+
+    /**
+     * Returns the maximum number of elements of this queue.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds an element at the tail of the queue.  This method can be
+     * called from any thread.
+     * @return false if the queue is full.
+     */
+    public boolean offer(Object o) {
+        if (o == null) {
+            throw new NullPointerException();
+        }
+        long capacity = mask + 1;
+        for (;;) {
+            long p = producerIndex.get();
+            if (p - consumerIndex >= capacity) {
+                return false;
+            }
+            if (producerIndex.compareAndSet(p, p + 1)) {
+                buffer.lazySet((int) p & mask, o);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the head of the queue, or null if no element
+     * is available.
+     */
+    public Object poll() {
+        long c = consumerIndex;
+        int i = (int) c & mask;
+        Object o = buffer.get(i);
+        if (o == null) {
+            return null;
+        }
+        buffer.lazySet(i, null);
+        consumerIndex = c + 1;
+        return o;
+    }
+
+    /**
+     * Returns the number of slots claimed by producers so far.  Every
+     * element offered before the call has been taken once
+     * {@link #getTakenCount()} reaches this value.
+     */
+    public long getClaimedCount() {
+        return producerIndex.get();
+    }
+
+    /**
+     * Returns the number of elements taken by the consumer so far.
+     */
+    public long getTakenCount() {
+        return consumerIndex;
+    }
+
+    /**
+     * Tells whether no slot has been claimed since the last element
+     * was taken.
+     */
+    public boolean isEmpty() {
+        return producerIndex.get() == consumerIndex;
+    }
+}
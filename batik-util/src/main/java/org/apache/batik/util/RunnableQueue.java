@@ -83,12 +83,39 @@ public class RunnableQueue implements Runnable {
      */
     protected boolean wasResumed;
 
+    /**
+     * The default capacity of the lock-free inbox.
+     */
+    public static final int DEFAULT_INBOX_CAPACITY = 1024;
+
     /**
      * The Runnable objects list, also used as synchronization point
      * for pushing/poping runables.
      */
     private final DoublyLinkedList list = new DoublyLinkedList();
 
+    /**
+     * The lock-free inbox in which {@link #invokeLater(Runnable)} and
+     * {@link #invokeAndWait(Runnable)} post their links.  It is drained
+     * in batches into <code>list</code>, with the list lock held.  When
+     * it is full, the posting thread falls back to pushing into the
+     * list directly.
+     */
+    private final MPSCArrayQueue inbox;
+
+    /**
+     * Whether the queue thread is, or is about to be, waiting on the
+     * list lock.  Posting threads only take the list lock to wake it
+     * up when this is set.
+     */
+    private volatile boolean waiting;
+
+    /**
+     * The number of times the queue thread polls the inbox before
+     * waiting when it runs out of runnables.
+     */
+    protected volatile int spinCount;
+
     /**
      * Count of preempt entries in queue, so preempt entries
      * can be kept properly ordered.
@@ -115,6 +142,23 @@ public class RunnableQueue implements Runnable {
      */
     private long idleRunnableWaitTime;
 
+    /**
+     * Creates a new RunnableQueue with a default inbox capacity.
+     */
+    public RunnableQueue() {
+        this(DEFAULT_INBOX_CAPACITY);
+    }
+
+    /**
+     * Creates a new RunnableQueue.
+     * @param inboxCapacity The number of runnables that can be posted
+     *        without taking the list lock, before the queue thread
+     *        drains them.
+     */
+    public RunnableQueue(int inboxCapacity) {
+        inbox = new MPSCArrayQueue(inboxCapacity);
+    }
+
     /**
      * Creates a new RunnableQueue started in a new thread.
      * @return a RunnableQueue which is guaranteed to have entered its
@@ -155,6 +199,7 @@ public class RunnableQueue implements Runnable {
 
         Link l;
         Runnable rable;
+        boolean spun = false;
         try {
             while (!HaltingThread.hasBeenHalted()) {
                 boolean callSuspended = false;
@@ -199,9 +244,11 @@ public class RunnableQueue implements Runnable {
                 //     Thread.sleep(1);
                 // } catch (InterruptedException ie) { }
 
+                boolean spin = false;
                 synchronized (list) {
                     if (state == SUSPENDING)
                         continue;
+                    drainInbox();
                     l = (Link)list.pop();
                     if (preemptCount != 0) preemptCount--;
                     if (l == null) {
@@ -211,22 +258,38 @@ public class RunnableQueue implements Runnable {
                                 (idleRunnableWaitTime = idleRunnable.getWaitTime())
                                     < System.currentTimeMillis()) {
                             rable = idleRunnable;
+                        } else if (!spun && spinCount > 0) {
+                            // Poll the inbox for a while before waiting.
+                            spin = true;
+                            rable = null;
                         } else {
-                            // Wait for a runnable.
+                            // Wait for a runnable.  The flag is set
+                            // before the inbox is checked so a posting
+                            // thread either sees it or its runnable is
+                            // seen here.
+                            waiting = true;
                             try {
-                                if (idleRunnable != null && idleRunnableWaitTime
+                                // Skip the wait when a runnable was just
+                                // posted.
+                                if (inbox.isEmpty()) {
+                                    if (idleRunnable != null
+                                        && idleRunnableWaitTime
                                         != Long.MAX_VALUE) {
-                                    long t = idleRunnableWaitTime
-                                        - System.currentTimeMillis();
-                                    if (t > 0) {
-                                        list.wait(t);
+                                        long t = idleRunnableWaitTime
+                                            - System.currentTimeMillis();
+                                        if (t > 0) {
+                                            list.wait(t);
+                                        }
+                                    } else {
+                                        list.wait();
                                     }
-                                } else {
-                                    list.wait();
                                 }
                             } catch (InterruptedException ie) {
                                 // just loop again.
+                            } finally {
+                                waiting = false;
                             }
+                            spun = false;
                             continue; // start loop over again...
                         }
                     } else {
@@ -234,6 +297,15 @@ public class RunnableQueue implements Runnable {
                     }
                 }
 
+                if (spin) {
+                    spun = true;
+                    for (int i = spinCount; i > 0 && inbox.isEmpty(); i--) {
+                        Thread.yield();
+                    }
+                    continue;
+                }
+                spun = false;
+
                 try {
                     runnableStart(rable);
 
@@ -270,6 +342,7 @@ public class RunnableQueue implements Runnable {
                 // It's up to the runnables to check if the runnable actually
                 // ran, if that is important.
                 synchronized (list) {
+                    drainInbox();
                     l = (Link)list.pop();
                 }
                 if (l == null) break;
@@ -282,6 +355,47 @@ public class RunnableQueue implements Runnable {
         }
     }
 
+    /**
+     * Moves the runnables posted to the inbox to the tail of the list.
+     * Must be called with the list lock held.
+     */
+    private void drainInbox() {
+        Link l;
+        while ((l = (Link)inbox.poll()) != null) {
+            list.push(l);
+        }
+    }
+
+    /**
+     * Posts the given link at the tail of the queue and wakes up the
+     * queue thread if needed.
+     */
+    private void post(Link l) {
+        if (inbox.offer(l)) {
+            if (waiting) {
+                synchronized (list) {
+                    list.notify();
+                }
+            }
+        } else {
+            // The inbox is full: drain it first to keep the runnables
+            // ordered, then push directly.  Draining stops at a slot
+            // claimed by another thread but not yet filled, so wait
+            // for it to be filled: the runnables this thread posted
+            // before may be behind it.
+            synchronized (list) {
+                long claimed = inbox.getClaimedCount();
+                drainInbox();
+                while (inbox.getTakenCount() < claimed) {
+                    Thread.yield();
+                    drainInbox();
+                }
+                list.push(l);
+                list.notify();
+            }
+        }
+    }
+
     /**
      * Returns the thread in which the RunnableQueue is currently running.
      * @return null if the RunnableQueue has not entered his
@@ -302,10 +416,7 @@ public class RunnableQueue implements Runnable {
             throw new IllegalStateException
                 ("RunnableQueue not started or has exited");
         }
-        synchronized (list) {
-            list.push(new Link(r));
-            list.notify();
-        }
+        post(new Link(r));
     }
 
     /**
@@ -327,10 +438,7 @@ public class RunnableQueue implements Runnable {
         }
 
         LockableLink l = new LockableLink(r);
-        synchronized (list) {
-            list.push(l);
-            list.notify();
-        }
+        post(l);
         l.lock();           // todo: the 'other side' of list may retrieve the l before it is locked...
     }
 
@@ -458,6 +566,24 @@ public class RunnableQueue implements Runnable {
         }
     }
 
+    /**
+     * Returns the number of times the queue thread polls for new
+     * runnables before waiting when it runs out of work.
+     */
+    public int getSpinCount() {
+        return spinCount;
+    }
+
+    /**
+     * Sets the number of times the queue thread polls for new runnables
+     * before waiting when it runs out of work.  Spinning trades some CPU
+     * for a lower latency when runnables are posted in quick succession
+     * from other threads.  The default is zero (wait immediately).
+     */
+    public void setSpinCount(int spinCount) {
+        this.spinCount = spinCount;
+    }
+
     /**
      * Returns iterator lock to use to work with the iterator
      * returned by iterator().
@@ -470,6 +596,10 @@ public class RunnableQueue implements Runnable {
      * Returns an iterator over the runnables.
      */
     public Iterator iterator() {
+        synchronized (list) {
+            // Make the runnables posted to the inbox visible.
+            drainInbox();
+        }
         return new Iterator() {
                 Link head = (Link)list.getHead();
                 Link link;